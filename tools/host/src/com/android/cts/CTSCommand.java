@@ -45,4 +45,7 @@ public interface CTSCommand {
     static final String OPTION_SESSION = "--session";
     static final String OPTION_CFG = "--config";
     static final String OPTION_DERIVED_PLAN = "--derivedplan";
+    static final String OPTION_B = "-b";
+    static final String OPTION_BACKGROUND = "--background";
+    static final String OPTION_PRIORITY = "--priority";
 }
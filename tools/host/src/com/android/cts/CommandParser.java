@@ -54,7 +54,8 @@ public class CommandParser {
     private static Set<String> sOptionsSet = new HashSet<String>(Arrays.asList(
             CTSCommand.OPTION_CFG, CTSCommand.OPTION_PACKAGE, CTSCommand.OPTION_PLAN,
             CTSCommand.OPTION_DEVICE, CTSCommand.OPTION_RESULT, CTSCommand.OPTION_E,
-            CTSCommand.OPTION_SESSION, CTSCommand.OPTION_TEST, CTSCommand.OPTION_DERIVED_PLAN));
+            CTSCommand.OPTION_SESSION, CTSCommand.OPTION_TEST, CTSCommand.OPTION_DERIVED_PLAN,
+            CTSCommand.OPTION_BACKGROUND, CTSCommand.OPTION_PRIORITY));
     private static HashMap<String, String> sOptionMap = new HashMap<String, String>();
     static {
         final String[] keys = new String[] {
@@ -71,7 +72,10 @@ public class CommandParser {
                 CTSCommand.OPTION_SESSION,
                 CTSCommand.OPTION_T,
                 CTSCommand.OPTION_TEST,
-                CTSCommand.OPTION_DERIVED_PLAN};
+                CTSCommand.OPTION_DERIVED_PLAN,
+                CTSCommand.OPTION_B,
+                CTSCommand.OPTION_BACKGROUND,
+                CTSCommand.OPTION_PRIORITY};
 
         final String[] values = new String[] {
                 CTSCommand.OPTION_CFG,
@@ -87,7 +91,10 @@ public class CommandParser {
                 CTSCommand.OPTION_SESSION,
                 CTSCommand.OPTION_TEST,
                 CTSCommand.OPTION_TEST,
-                CTSCommand.OPTION_DERIVED_PLAN};
+                CTSCommand.OPTION_DERIVED_PLAN,
+                CTSCommand.OPTION_BACKGROUND,
+                CTSCommand.OPTION_BACKGROUND,
+                CTSCommand.OPTION_PRIORITY};
 
         for (int i = 0; i < keys.length; i++) {
             sOptionMap.put(keys[i], values[i]);
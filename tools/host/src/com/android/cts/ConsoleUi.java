@@ -254,6 +254,7 @@ public class ConsoleUi {
         final String testStr = CTSCommand.OPTION_T + "/" + CTSCommand.OPTION_TEST;
         final String deviceStr = CTSCommand.OPTION_D + "/" + CTSCommand.OPTION_DEVICE;
         final String pkgStr = CTSCommand.OPTION_P + "/" + CTSCommand.OPTION_PACKAGE;
+        final String bgStr = CTSCommand.OPTION_B + "/" + CTSCommand.OPTION_BACKGROUND;
 
         CUIOutputStream.println(CMD_OPT_LEADING_SPACE
                 + cmdStr + " test_plan_name: run a test plan");
@@ -274,6 +275,10 @@ public class ConsoleUi {
                 + cmdStr + " test_plan_name " + pkgStr + " java_package_name "
                 + deviceStr + " device_ID"
                 + ": run a specific java package using the specified device");
+        CUIOutputStream.println(CMD_OPT_LEADING_SPACE
+                + cmdStr + " test_plan_name " + bgStr + " [" + CTSCommand.OPTION_PRIORITY
+                + " priority]"
+                + ": run a test plan in background on the next free device");
     }
 
     /**
@@ -424,6 +429,8 @@ public class ConsoleUi {
      *              [ --package java-package-name ]
      *              [ --profile profile-name ]
      * </ul>
+     * Both syntaxes accept [ --background ] to run the session on its own thread and return to
+     * the console, and [ --priority priority ] to order sessions waiting for a device.
      * @param cp container which contained start command options and values
      *           Process the list commands.
      */
@@ -441,8 +448,20 @@ public class ConsoleUi {
         String javaPkgName = null;
         String testPlanName = mHost.getPlanName(cp.getValue(CTSCommand.OPTION_PLAN));
         try {
+            boolean background = cp.containsKey(CTSCommand.OPTION_BACKGROUND);
+            int priority = 0;
+            if (cp.containsKey(CTSCommand.OPTION_PRIORITY)) {
+                try {
+                    priority = Integer.parseInt(cp.getValue(CTSCommand.OPTION_PRIORITY));
+                } catch (NumberFormatException e) {
+                    showStartSessionHelp();
+                    return;
+                }
+            }
+            int extraOptions = (background ? 1 : 0)
+                    + (cp.containsKey(CTSCommand.OPTION_PRIORITY) ? 1 : 0);
             if (cp.getActionValues().size() != 0 || cp.getOptionSize() < 1
-                    || cp.getOptionSize() > 3) {
+                    || cp.getOptionSize() > 3 + extraOptions) {
                 showStartSessionHelp();
                 return;
             }
@@ -498,7 +517,12 @@ public class ConsoleUi {
                 }
             }
 
-            if (deviceId == null) {
+            if ((ts != null) && ts.isRunning()) {
+                CUIOutputStream.println("Session " + ts.getId() + " is already running.");
+                return;
+            }
+
+            if ((deviceId == null) && !background) {
                 TestDevice td = mHost.getFirstAvailableDevice();
                 if (td == null) {
                     // no devices attached
@@ -508,7 +532,7 @@ public class ConsoleUi {
                 deviceId = td.getSerialNumber();
             }
 
-            if (!checkDeviceExists(mHost.getDeviceList(), deviceId)) {
+            if ((deviceId != null) && !checkDeviceExists(mHost.getDeviceList(), deviceId)) {
                 CUIOutputStream.println("Can't find specified device id.  Is it attached?");
                 return;
             }
@@ -517,7 +541,16 @@ public class ConsoleUi {
                 ts = TestHost.createSession(testPlanName);
             }
 
-            mHost.startSession(ts, deviceId, testName, javaPkgName, actionType);
+            ts.setPriority(priority);
+            if (background) {
+                // wait in the device queue instead of failing if the device is busy
+                ts.setDeviceWaitTimeout(Long.MAX_VALUE);
+                CUIOutputStream.println("Session " + ts.getId() + " started in background.");
+                mHost.startSessionInBackground(ts, deviceId, testName, javaPkgName, actionType);
+            } else {
+                ts.setDeviceWaitTimeout(0);
+                mHost.startSession(ts, deviceId, testName, javaPkgName, actionType);
+            }
         } catch (IOException e) {
             Log.e("Can't create test session", e);
         } catch (DeviceNotAvailableException e) {
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts;
+
+import com.android.cts.TestDevice.DeviceParameterCollector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Host side cache of the device information collected by the device setup app.
+ * <p/>
+ * Entries are stored as one properties file per device serial number under the repository
+ * root, so they survive across sessions and host restarts. An entry is only returned if the
+ * build fingerprint it was collected for matches the one currently reported by the device.
+ */
+public class DeviceInfoCache {
+    static final String CACHE_DIR_NAME = "device_info_cache";
+    private static final String FILE_SUFFIX = ".properties";
+
+    private final File mCacheDir;
+
+    /**
+     * Create a device info cache stored under the given root directory.
+     *
+     * @param root The directory under which the cache directory is created.
+     */
+    public DeviceInfoCache(final String root) {
+        mCacheDir = new File(root, CACHE_DIR_NAME);
+    }
+
+    /**
+     * Get the cached device information of the given device.
+     *
+     * @param serialNumber The serial number of the device.
+     * @param buildFingerPrint The build fingerprint currently reported by the device.
+     * @return The cached device information, or null if there is no entry for the device or
+     *         the entry was collected on a different build.
+     */
+    public synchronized DeviceParameterCollector get(final String serialNumber,
+            final String buildFingerPrint) {
+        if ((serialNumber == null) || (buildFingerPrint == null)) {
+            return null;
+        }
+
+        File file = getCacheFile(serialNumber);
+        if (!file.exists()) {
+            return null;
+        }
+
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            props.load(in);
+        } catch (IOException e) {
+            Log.d("Failed to read cached device info " + file.getPath() + ": " + e.getMessage());
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+
+        if (!buildFingerPrint.equals(
+                props.getProperty(DeviceParameterCollector.BUILD_FINGERPRINT))) {
+            Log.d("Cached device info of " + serialNumber + " is out of date");
+            return null;
+        }
+
+        DeviceParameterCollector deviceInfo = new DeviceParameterCollector();
+        for (String key : props.stringPropertyNames()) {
+            deviceInfo.set(key, props.getProperty(key));
+        }
+        return deviceInfo;
+    }
+
+    /**
+     * Store the device information of the given device.
+     * <p/>
+     * Device information without a build fingerprint can't be validated later on, so it is
+     * not stored.
+     *
+     * @param serialNumber The serial number of the device.
+     * @param deviceInfo The device information collected from the device.
+     */
+    public synchronized void put(final String serialNumber,
+            final DeviceParameterCollector deviceInfo) {
+        if ((serialNumber == null) || (deviceInfo.getBuildFingerPrint() == null)) {
+            return;
+        }
+
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            Log.d("Failed to create device info cache directory " + mCacheDir.getPath());
+            return;
+        }
+
+        Properties props = new Properties();
+        for (String key : deviceInfo.keySet()) {
+            String value = deviceInfo.get(key);
+            if (value != null) {
+                props.setProperty(key, value);
+            }
+        }
+
+        File file = getCacheFile(serialNumber);
+        OutputStream out = null;
+        boolean stored = false;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            props.store(out, "CTS device info of " + serialNumber);
+            stored = true;
+        } catch (IOException e) {
+            Log.d("Failed to write cached device info " + file.getPath() + ": " + e.getMessage());
+        } finally {
+            closeQuietly(out);
+        }
+        if (!stored) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Remove the cached device information of the given device.
+     *
+     * @param serialNumber The serial number of the device.
+     */
+    public synchronized void remove(final String serialNumber) {
+        getCacheFile(serialNumber).delete();
+    }
+
+    /**
+     * Get the cache file of the given device. Characters which are not safe to use in a file
+     * name, such as the ':' of network connected devices, are replaced.
+     *
+     * @param serialNumber The serial number of the device.
+     * @return The cache file.
+     */
+    private File getCacheFile(final String serialNumber) {
+        return new File(mCacheDir, serialNumber.replaceAll("[^A-Za-z0-9._-]", "_") + FILE_SUFFIX);
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -24,11 +24,17 @@ import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Initializing and managing devices.
+ * <p/>
+ * Sessions running concurrently obtain their devices through {@link #acquireDevices}, which
+ * hands out exclusive {@link DeviceLease}s. Requests that can't be served right away are queued
+ * and served by priority, then in order of arrival.
  */
 public class DeviceManager implements IDeviceChangeListener {
 
@@ -40,10 +46,26 @@ public class DeviceManager implements IDeviceChangeListener {
     private static final int POST_BOOT_DELAY = 1000 * 60; // 1 minute
     /** Maximal number of attempts to restart ADB connection. */
     private static final int MAX_ADB_RESTART_ATTEMPTS = 10;
+    /** Interval to poll for a rebooted device while the ADB server is kept running. */
+    private static final int RECONNECT_POLL_INTERVAL = 1000; // 1 second
     ArrayList<TestDevice> mDevices;
     /** This is used during device restart for blocking until the device has been reconnected. */
     private Semaphore mSemaphore = new Semaphore(0);
 
+    /** Serializes ADB server restarts requested by concurrent sessions. */
+    private final Object mAdbRestartLock = new Object();
+    /** Set while the ADB server is restarted, during which no device is leased. */
+    private boolean mAdbRestarting;
+    /** Guards the device list, the leases and the pending device requests. */
+    private final Object mScheduleLock = new Object();
+    /** Active leases, keyed by device serial number. */
+    private final HashMap<String, DeviceLease> mLeases = new HashMap<String, DeviceLease>();
+    /** Device requests waiting for a device, served by priority and then in order of arrival. */
+    private final ArrayList<DeviceRequest> mPendingRequests = new ArrayList<DeviceRequest>();
+    private long mRequestCounter = 0;
+    /** The device simulator, if the host runs against simulated devices instead of adb. */
+    private DeviceSimulator mSimulator;
+
     public DeviceManager() {
         mDevices = new ArrayList<TestDevice>();
     }
@@ -61,6 +83,27 @@ public class DeviceManager implements IDeviceChangeListener {
         AndroidDebugBridge.createBridge(adbLocation, true);
     }
 
+    /**
+     * Attach a device simulator instead of initializing Android debug bridge. The simulated
+     * devices go through the same scheduling, test running and result parsing as real ones.
+     *
+     * @param simulator The device simulator.
+     */
+    public void initSimulator(final DeviceSimulator simulator) {
+        Log.d("init device simulator...");
+        mSimulator = simulator;
+        simulator.start(this);
+    }
+
+    /**
+     * Get the device simulator.
+     *
+     * @return The device simulator, or null if the host is connected to adb.
+     */
+    public DeviceSimulator getSimulator() {
+        return mSimulator;
+    }
+
     /**
      * Get the location of the adb command.
      *
@@ -111,7 +154,9 @@ public class DeviceManager implements IDeviceChangeListener {
      * @return The device list.
      */
     public final TestDevice[] getDeviceList() {
-        return mDevices.toArray(new TestDevice[mDevices.size()]);
+        synchronized (mScheduleLock) {
+            return mDevices.toArray(new TestDevice[mDevices.size()]);
+        }
     }
 
     /**
@@ -135,9 +180,29 @@ public class DeviceManager implements IDeviceChangeListener {
      * @param device The device to be appended to the device list.
      */
     private void appendDevice(final IDevice device) {
-        if (-1 == getDeviceIndex(device)) {
-            TestDevice td = new TestDevice(device);
+        synchronized (mScheduleLock) {
+            if (-1 == getDeviceIndex(device.getSerialNumber())) {
+                appendDevice(new TestDevice(device));
+            }
+        }
+    }
+
+    /**
+     * Append the test device to the device list, unless a device with the same serial number
+     * is already there.
+     *
+     * @param td The test device to be appended to the device list.
+     * @return true if the device was appended, false otherwise.
+     */
+    boolean appendDevice(final TestDevice td) {
+        synchronized (mScheduleLock) {
+            if (-1 != getDeviceIndex(td.getSerialNumber())) {
+                return false;
+            }
             mDevices.add(td);
+            // a device became available, serve queued requests
+            assignDevices();
+            return true;
         }
     }
 
@@ -147,43 +212,73 @@ public class DeviceManager implements IDeviceChangeListener {
      * @param device The device to be removed from the device list.
      */
     private void removeDevice(final IDevice device) {
-        int index = getDeviceIndex(device);
-        if (index == -1) {
-            Log.d("Can't find " + device + " in device list of DeviceManager");
-            return;
+        removeDevice(device.getSerialNumber());
+    }
+
+    /**
+     * Remove the TestDevice with the given serial number from managed list.
+     *
+     * @param deviceSerialNumber The serial number of the device to be removed.
+     */
+    void removeDevice(final String deviceSerialNumber) {
+        TestDevice td;
+        synchronized (mScheduleLock) {
+            int index = getDeviceIndex(deviceSerialNumber);
+            if (index == -1) {
+                Log.d("Can't find " + deviceSerialNumber + " in device list of DeviceManager");
+                return;
+            }
+            td = mDevices.remove(index);
         }
-        mDevices.get(index).disconnected();
-        mDevices.remove(index);
+        td.disconnected();
     }
 
     /**
      * Get the index of the specified device in the device array.
      *
-     * @param device The device to be found.
+     * @param deviceSerialNumber The serial number of the device to be found.
      * @return The index of the device if it exists; else -1.
      */
-    private int getDeviceIndex(final IDevice device) {
+    private int getDeviceIndex(final String deviceSerialNumber) {
         TestDevice td;
 
         for (int index = 0; index < mDevices.size(); index++) {
             td = mDevices.get(index);
-            if (td.getSerialNumber().equals(device.getSerialNumber())) {
+            if (td.getSerialNumber().equals(deviceSerialNumber)) {
                 return index;
             }
         }
         return -1;
     }
 
+    /**
+     * Get a connected device by serial number.
+     *
+     * @param deviceSerialNumber The serial number of the device.
+     * @return The test device.
+     */
+    public TestDevice getDevice(final String deviceSerialNumber)
+            throws DeviceNotAvailableException {
+        TestDevice td = searchTestDevice(deviceSerialNumber);
+        if (td == null) {
+            throw new DeviceNotAvailableException("The specified device(" +
+                    deviceSerialNumber + ") cannot be found");
+        }
+        return td;
+    }
+
     /**
      * Search a <code>TestDevice</code> by serial number.
      *
      * @param deviceSerialNumber The serial number of the device to be found.
      * @return The test device, if it exists, otherwise null.
      */
-    private TestDevice searchTestDevice(final String deviceSerialNumber) {
-        for (TestDevice td : mDevices) {
-            if (td.getSerialNumber().equals(deviceSerialNumber)) {
-                return td;
+    TestDevice searchTestDevice(final String deviceSerialNumber) {
+        synchronized (mScheduleLock) {
+            for (TestDevice td : mDevices) {
+                if (td.getSerialNumber().equals(deviceSerialNumber)) {
+                    return td;
+                }
             }
         }
         return null;
@@ -224,7 +319,7 @@ public class DeviceManager implements IDeviceChangeListener {
                     }
                 }
                 CUIOutputStream.println("Device(" + mDevice + ") connected");
-                if (!TestSession.isADBServerRestartedMode()) {
+                if (!TestSession.isAnyADBServerRestartedMode()) {
                     CUIOutputStream.printPrompt();
                 }
                 appendDevice(mDevice);
@@ -265,6 +360,284 @@ public class DeviceManager implements IDeviceChangeListener {
                 deviceId + "cannot be found");
     }
 
+    /**
+     * Acquire an exclusive lease on a device.
+     *
+     * @param deviceId The serial number of the requested device, or null for any device.
+     * @param priority The priority of the request. Higher values are served first.
+     * @param timeoutMs Max time [ms] to wait for the device. A value <= 0 doesn't wait.
+     * @param ownerId The ID of the session acquiring the device.
+     * @return The lease on the device, to be released with {@link #releaseDevice}.
+     * @see #acquireDevices
+     */
+    public DeviceLease acquireDevice(final String deviceId, final int priority,
+            final long timeoutMs, final int ownerId) throws DeviceNotAvailableException {
+        return acquireDevices(deviceId, 1, priority, timeoutMs, ownerId)[0];
+    }
+
+    /**
+     * Acquire exclusive leases on the specified number of devices.
+     * <p/>
+     * The devices are granted all at once, so a session never holds some devices while waiting
+     * for the others. If not enough matching devices are free, the request is queued until
+     * devices are released or connected, or the timeout expires. Queued requests are served by
+     * descending priority, and in order of arrival for equal priorities.
+     *
+     * @param deviceId The serial number of the first device, or null for any devices.
+     * @param num The number of devices.
+     * @param priority The priority of the request. Higher values are served first.
+     * @param timeoutMs Max time [ms] to wait for the devices. A value <= 0 doesn't wait.
+     * @param ownerId The ID of the session acquiring the devices.
+     * @return The leases on the devices, the one on the specified device first. Each is to be
+     *         released with {@link #releaseDevice}.
+     */
+    public DeviceLease[] acquireDevices(final String deviceId, final int num, final int priority,
+            final long timeoutMs, final int ownerId) throws DeviceNotAvailableException {
+        if (num < 1) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (mScheduleLock) {
+            if ((deviceId != null) && (searchTestDevice(deviceId) == null)) {
+                throw new DeviceNotAvailableException("The specified device(" +
+                        deviceId + ") cannot be found");
+            }
+            if (num > mDevices.size()) {
+                // waiting would not help, there are not enough devices to lease
+                throw new DeviceNotAvailableException("The number of connected device("
+                        + mDevices.size() + ") is less than the specified number("
+                        + num + "). Please plug in enough devices");
+            }
+
+            DeviceRequest request = new DeviceRequest(deviceId, num, priority, ownerId,
+                    mRequestCounter++);
+            mPendingRequests.add(request);
+            assignDevices();
+
+            long now = System.currentTimeMillis();
+            long deadline = (timeoutMs >= Long.MAX_VALUE - now) ? Long.MAX_VALUE
+                    : now + Math.max(0, timeoutMs);
+            if ((request.mLeases == null) && (timeoutMs > 0)) {
+                Log.d("session " + ownerId + " queued for "
+                        + (deviceId == null ? "any device" : "device " + deviceId)
+                        + (num > 1 ? " and " + (num - 1) + " more" : ""));
+            }
+            while (request.mLeases == null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    mScheduleLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            if (request.mLeases == null) {
+                mPendingRequests.remove(request);
+                // leaving the queue may unblock requests behind this one
+                assignDevices();
+                if (deviceId != null) {
+                    throw new DeviceNotAvailableException("The specified device(" + deviceId
+                            + ") is not available");
+                }
+                if (num > 1) {
+                    throw new DeviceNotAvailableException("Can't get the specified number("
+                            + num + ") of idle device(s).");
+                }
+                throw new DeviceNotAvailableException("No idle device available");
+            }
+            return request.mLeases;
+        }
+    }
+
+    /**
+     * Release a lease acquired with {@link #acquireDevices}, and hand the device to the next
+     * queued request.
+     *
+     * @param lease The lease to be released.
+     */
+    public void releaseDevice(final DeviceLease lease) {
+        synchronized (mScheduleLock) {
+            if (mLeases.get(lease.getSerialNumber()) != lease) {
+                return;
+            }
+            mLeases.remove(lease.getSerialNumber());
+            TestDevice td = searchTestDevice(lease.getSerialNumber());
+            if (td != null) {
+                resetTestDevice(td);
+            }
+            assignDevices();
+        }
+    }
+
+    /**
+     * Get the active lease of a device.
+     *
+     * @param deviceSerialNumber The serial number of the device.
+     * @return The lease, or null if the device is not leased.
+     */
+    public DeviceLease getLease(final String deviceSerialNumber) {
+        synchronized (mScheduleLock) {
+            return mLeases.get(deviceSerialNumber);
+        }
+    }
+
+    /**
+     * Get the number of requests waiting for devices.
+     *
+     * @return The number of queued requests.
+     */
+    int getNumOfPendingRequests() {
+        synchronized (mScheduleLock) {
+            return mPendingRequests.size();
+        }
+    }
+
+    /**
+     * Hand free devices to the queued requests. Must be called holding the schedule lock.
+     */
+    private void assignDevices() {
+        if (mAdbRestarting) {
+            // the ADB server is restarted, devices are handed out once it is back
+            return;
+        }
+        boolean assigned = false;
+        Collections.sort(mPendingRequests);
+        for (DeviceRequest request : new ArrayList<DeviceRequest>(mPendingRequests)) {
+            ArrayList<TestDevice> devices = findFreeDevices(request.mDeviceId, request.mNumber);
+            if (devices == null) {
+                if (request.mDeviceId == null) {
+                    // the free devices are kept for this request, later ones must not overtake it
+                    break;
+                }
+                continue;
+            }
+            DeviceLease[] leases = new DeviceLease[devices.size()];
+            for (int i = 0; i < leases.length; i++) {
+                TestDevice td = devices.get(i);
+                leases[i] = new DeviceLease(td.getSerialNumber(), request.mOwnerId);
+                mLeases.put(td.getSerialNumber(), leases[i]);
+                td.setStatus(TestDevice.STATUS_BUSY);
+            }
+            request.mLeases = leases;
+            mPendingRequests.remove(request);
+            assigned = true;
+        }
+        if (assigned) {
+            mScheduleLock.notifyAll();
+        }
+    }
+
+    /**
+     * Find free devices, i.e. ones which are idle and not leased.
+     *
+     * @param deviceId The serial number of the first device, or null for any devices.
+     * @param num The number of devices.
+     * @return The free devices, the specified one first, or null if there are not enough.
+     */
+    private ArrayList<TestDevice> findFreeDevices(final String deviceId, final int num) {
+        ArrayList<TestDevice> devices = new ArrayList<TestDevice>();
+        if (deviceId != null) {
+            TestDevice td = searchTestDevice(deviceId);
+            if ((td == null) || !isFree(td)) {
+                return null;
+            }
+            devices.add(td);
+        }
+        for (TestDevice td : mDevices) {
+            if (devices.size() == num) {
+                break;
+            }
+            if (isFree(td) && !devices.contains(td)) {
+                devices.add(td);
+            }
+        }
+        return devices.size() == num ? devices : null;
+    }
+
+    private boolean isFree(final TestDevice td) {
+        return (td.getStatus() == TestDevice.STATUS_IDLE)
+                && !mLeases.containsKey(td.getSerialNumber());
+    }
+
+    /**
+     * Exclusive right of a session to use a device, granted by {@link #acquireDevices}.
+     * <p/>
+     * The lease is bound to the serial number rather than to the {@link TestDevice}, as the
+     * latter is replaced when the device reconnects, e.g. after a reboot.
+     */
+    public static final class DeviceLease {
+        private final String mSerialNumber;
+        private final int mOwnerId;
+        private final long mAcquireTime;
+
+        DeviceLease(final String serialNumber, final int ownerId) {
+            mSerialNumber = serialNumber;
+            mOwnerId = ownerId;
+            mAcquireTime = System.currentTimeMillis();
+        }
+
+        /**
+         * Get the serial number of the leased device.
+         *
+         * @return The serial number.
+         */
+        public String getSerialNumber() {
+            return mSerialNumber;
+        }
+
+        /**
+         * Get the ID of the session holding the lease.
+         *
+         * @return The session ID.
+         */
+        public int getOwnerId() {
+            return mOwnerId;
+        }
+
+        /**
+         * Get the time the lease was granted.
+         *
+         * @return The time in milliseconds.
+         */
+        public long getAcquireTime() {
+            return mAcquireTime;
+        }
+    }
+
+    /**
+     * A queued request for one or more devices.
+     */
+    private static final class DeviceRequest implements Comparable<DeviceRequest> {
+        private final String mDeviceId;
+        private final int mNumber;
+        private final int mPriority;
+        private final int mOwnerId;
+        private final long mSequence;
+        private DeviceLease[] mLeases;
+
+        DeviceRequest(final String deviceId, final int number, final int priority,
+                final int ownerId, final long sequence) {
+            mDeviceId = deviceId;
+            mNumber = number;
+            mPriority = priority;
+            mOwnerId = ownerId;
+            mSequence = sequence;
+        }
+
+        /** {@inheritDoc} */
+        public int compareTo(DeviceRequest other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            if (mSequence != other.mSequence) {
+                return mSequence < other.mSequence ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+
     /**
      * Reset the online {@link TestDevice} to STATUS_IDLE
      *
@@ -278,10 +651,18 @@ public class DeviceManager implements IDeviceChangeListener {
 
     /**
      * Restart ADB server.
+     * <p/>
+     * Restarting the server drops the connection to all devices. While other sessions hold
+     * leases, only the device of the given session is rebooted and the server is kept running.
      *
      * @param ts The test session.
      */
     public void restartADBServer(TestSession ts) throws DeviceDisconnectedException {
+        if (mSimulator != null) {
+            // there is no ADB server behind simulated devices, just reboot the device
+            mSimulator.rebootDevice(ts);
+            return;
+        }
         try {
             Thread.sleep(SHORT_DELAY); // time to collect outstanding logs
             Log.i("Restarting device ...");
@@ -311,57 +692,139 @@ public class DeviceManager implements IDeviceChangeListener {
             // device goes offline
             Thread.sleep(REBOOT_DELAY);
 
-            int attempts = 0;
-            boolean deviceConnected = false;
-            while (!deviceConnected && (attempts < MAX_ADB_RESTART_ATTEMPTS)) {
-                AndroidDebugBridge.disconnectBridge();
-
-                // kill the server while the device is rebooting
-                executeCommand("adb kill-server");
-
-                // Reset the device counter semaphore. We will wait below until at least one device
-                // has come online. This can happen any time during or after the call to
-                // createBridge(). The counter gets increased by the DeviceServiceMonitor when a
-                // device is added.
-                mSemaphore.drainPermits();
-                AndroidDebugBridge.createBridge(getAdbLocation(), true);
-
-                boolean deviceFound = false;
-                while (!deviceFound) {
-                    // wait until at least one device has been added
-                    mSemaphore.tryAcquire(LONG_DELAY, TimeUnit.MILLISECONDS);
-                    TestDevice device = searchTestDevice(deviceSerialNumber);
-                    if (device != null) {
-                        ts.setTestDevice(device);
-                        deviceFound = true;
-                        deviceConnected = device.waitForBootComplete();
-                        // After boot is complete, the ADB connection sometimes drops
-                        // for a short time. Wait for things to stabilize.
-                        try {
-                            Thread.sleep(POST_BOOT_DELAY);
-                        } catch (InterruptedException ignored) {
-                            // ignore
-                        }
-                        // If the connection dropped during the sleep above, the TestDevice
-                        // instance is no longer valid.
-                        TestDevice newDevice = searchTestDevice(deviceSerialNumber);
-                        if (newDevice != null) {
-                            ts.setTestDevice(newDevice);
-                            if (newDevice != device) {
-                                // the connection was dropped or a second reboot occurred
-                                // TODO: replace the hardcoded /sdcard
-                                String cmd = String.format("adb -s %s shell bugreport -o " +
-                                            "/sdcard/bugreports/doubleReboot", deviceSerialNumber);
-                                executeCommand(cmd);
-                            }
-                        } else {
-                            // connection dropped and has not come back up
-                            deviceFound = false; // go wait for next semaphore permit
+            synchronized (mAdbRestartLock) {
+                if (beginAdbRestart(deviceSerialNumber)) {
+                    try {
+                        restartBridge(ts, deviceSerialNumber);
+                    } finally {
+                        endAdbRestart();
+                    }
+                    return;
+                }
+            }
+            // other sessions still use the ADB server, wait for the device to come back
+            waitForReconnect(ts, deviceSerialNumber);
+        }
+    }
+
+    /**
+     * Check whether the ADB server may be restarted for the given device, i.e. whether no other
+     * device is leased. If so, no device is leased until {@link #endAdbRestart} is called.
+     *
+     * @param deviceSerialNumber The serial number of the device being rebooted.
+     * @return true if the ADB server may be restarted, false otherwise.
+     */
+    boolean beginAdbRestart(final String deviceSerialNumber) {
+        synchronized (mScheduleLock) {
+            for (String leased : mLeases.keySet()) {
+                if (!leased.equals(deviceSerialNumber)) {
+                    return false;
+                }
+            }
+            mAdbRestarting = true;
+            return true;
+        }
+    }
+
+    /**
+     * Hand out devices again after the ADB server was restarted.
+     */
+    void endAdbRestart() {
+        synchronized (mScheduleLock) {
+            mAdbRestarting = false;
+            assignDevices();
+        }
+    }
+
+    /**
+     * Wait for a rebooted device to reconnect to the running ADB server.
+     *
+     * @param ts The test session.
+     * @param deviceSerialNumber The serial number of the rebooted device.
+     */
+    private void waitForReconnect(TestSession ts, String deviceSerialNumber)
+            throws InterruptedException, DeviceDisconnectedException {
+        TestDevice oldDevice = ts.getDevice();
+        long deadline = System.currentTimeMillis() + LONG_DELAY;
+        while (System.currentTimeMillis() < deadline) {
+            TestDevice device = searchTestDevice(deviceSerialNumber);
+            if ((device != null) && (device != oldDevice)) {
+                ts.setTestDevice(device);
+                if (device.waitForBootComplete()) {
+                    // After boot is complete, the ADB connection sometimes drops
+                    // for a short time. Wait for things to stabilize.
+                    Thread.sleep(POST_BOOT_DELAY);
+                    if (searchTestDevice(deviceSerialNumber) == device) {
+                        return;
+                    }
+                }
+                // the connection dropped again, wait for the next one
+                oldDevice = device;
+            }
+            Thread.sleep(RECONNECT_POLL_INTERVAL);
+        }
+        throw new DeviceDisconnectedException("The device(" + deviceSerialNumber
+                + ") did not reconnect after reboot");
+    }
+
+    /**
+     * Restart the ADB server and wait for the rebooted device to reconnect.
+     *
+     * @param ts The test session.
+     * @param deviceSerialNumber The serial number of the rebooted device.
+     */
+    private void restartBridge(TestSession ts, String deviceSerialNumber)
+            throws InterruptedException {
+        int attempts = 0;
+        boolean deviceConnected = false;
+        while (!deviceConnected && (attempts < MAX_ADB_RESTART_ATTEMPTS)) {
+            AndroidDebugBridge.disconnectBridge();
+
+            // kill the server while the device is rebooting
+            executeCommand("adb kill-server");
+
+            // Reset the device counter semaphore. We will wait below until at least one device
+            // has come online. This can happen any time during or after the call to
+            // createBridge(). The counter gets increased by the DeviceServiceMonitor when a
+            // device is added.
+            mSemaphore.drainPermits();
+            AndroidDebugBridge.createBridge(getAdbLocation(), true);
+
+            boolean deviceFound = false;
+            while (!deviceFound) {
+                // wait until at least one device has been added
+                mSemaphore.tryAcquire(LONG_DELAY, TimeUnit.MILLISECONDS);
+                TestDevice device = searchTestDevice(deviceSerialNumber);
+                if (device != null) {
+                    ts.setTestDevice(device);
+                    deviceFound = true;
+                    deviceConnected = device.waitForBootComplete();
+                    // After boot is complete, the ADB connection sometimes drops
+                    // for a short time. Wait for things to stabilize.
+                    try {
+                        Thread.sleep(POST_BOOT_DELAY);
+                    } catch (InterruptedException ignored) {
+                        // ignore
+                    }
+                    // If the connection dropped during the sleep above, the TestDevice
+                    // instance is no longer valid.
+                    TestDevice newDevice = searchTestDevice(deviceSerialNumber);
+                    if (newDevice != null) {
+                        ts.setTestDevice(newDevice);
+                        if (newDevice != device) {
+                            // the connection was dropped or a second reboot occurred
+                            // TODO: replace the hardcoded /sdcard
+                            String cmd = String.format("adb -s %s shell bugreport -o " +
+                                        "/sdcard/bugreports/doubleReboot", deviceSerialNumber);
+                            executeCommand(cmd);
                         }
+                    } else {
+                        // connection dropped and has not come back up
+                        deviceFound = false; // go wait for next semaphore permit
                     }
                 }
-                attempts += 1;
             }
+            attempts += 1;
         }
     }
 
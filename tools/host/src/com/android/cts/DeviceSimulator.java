@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Backend of simulated devices, used to benchmark and load-test the host without hardware.
+ * <p/>
+ * The simulator connects a number of {@link SimulatedTestDevice}s to the
+ * {@link DeviceManager} in place of the devices reported by adb. Tests run on them replay
+ * the recorded {@link InstrumentationTranscript}s, taking the configured time per test.
+ * Hangs, crashes and disconnects can be injected for specific tests, or at random with a
+ * given rate per test. Disconnected devices reconnect after a delay.
+ * <p/>
+ * The simulator is enabled by starting the host with the system properties below, e.g.
+ * <code>-DSIMULATED_DEVICES=100 -DSIMULATOR_TRANSCRIPTS=/path/to/transcripts</code>.
+ */
+public class DeviceSimulator {
+    /** Number of simulated devices. The simulator is only enabled if this is set. */
+    static final String SIMULATED_DEVICES = "SIMULATED_DEVICES";
+    /** Directory holding the recorded instrumentation output. */
+    static final String SIMULATOR_TRANSCRIPTS = "SIMULATOR_TRANSCRIPTS";
+    /** Simulated time [ms] taken by each test. */
+    static final String SIMULATOR_TEST_TIME_MS = "SIMULATOR_TEST_TIME_MS";
+    /** Simulated time [ms] taken by each package install and uninstall. */
+    static final String SIMULATOR_INSTALL_TIME_MS = "SIMULATOR_INSTALL_TIME_MS";
+    /** Time [ms] after which a disconnected device comes back. */
+    static final String SIMULATOR_RECONNECT_DELAY_MS = "SIMULATOR_RECONNECT_DELAY_MS";
+    /** Probabilities of a hang, crash and disconnect per test, as "hang,crash,disconnect". */
+    static final String SIMULATOR_FAULT_RATES = "SIMULATOR_FAULT_RATES";
+    /** Faults of specific tests, as "class#method=hang;class#method=crash;...". */
+    static final String SIMULATOR_FAULTS = "SIMULATOR_FAULTS";
+    /** Seed of the random fault injection, to make load tests repeatable. */
+    static final String SIMULATOR_SEED = "SIMULATOR_SEED";
+
+    static final String PROP_FINGERPRINT = "ro.build.fingerprint";
+    static final String SIMULATED_MODEL = "simulated";
+    private static final String SERIAL_FORMAT = "simulated-%04d";
+
+    /**
+     * Faults which can be injected into a test.
+     */
+    public enum Fault {
+        NONE, HANG, CRASH, DISCONNECT
+    }
+
+    private final int mDeviceCount;
+    private final InstrumentationTranscript mTranscript;
+    private final HashMap<String, String> mProperties = new HashMap<String, String>();
+    private final HashMap<String, Fault> mFaults = new HashMap<String, Fault>();
+    private final ArrayList<SimulatedTestDevice> mDevices = new ArrayList<SimulatedTestDevice>();
+    private final Timer mReconnectTimer = new Timer("DeviceSimulator", true);
+
+    private long mTestTimeMs;
+    private long mInstallTimeMs;
+    private long mReconnectDelayMs = 1000;
+    private double mHangRate;
+    private double mCrashRate;
+    private double mDisconnectRate;
+    private Random mRandom = new Random();
+    private DeviceManager mDeviceManager;
+
+    /**
+     * Create a simulator.
+     *
+     * @param deviceCount The number of simulated devices.
+     * @param transcript The recorded instrumentation output to replay.
+     */
+    public DeviceSimulator(final int deviceCount, final InstrumentationTranscript transcript) {
+        mDeviceCount = deviceCount;
+        mTranscript = transcript;
+        mProperties.put("dev.bootcomplete", "1");
+        mProperties.put(PROP_FINGERPRINT, "simulated/sdk/simulated:2.3/SIM/0:eng/test-keys");
+    }
+
+    /**
+     * Create a simulator as configured by the system properties.
+     *
+     * @return The simulator, or null if no simulated devices are configured.
+     * @throws IOException If the transcripts can't be read.
+     */
+    public static DeviceSimulator fromSystemProperties() throws IOException {
+        String devices = System.getProperty(SIMULATED_DEVICES);
+        if ((devices == null) || (devices.length() == 0)) {
+            return null;
+        }
+
+        InstrumentationTranscript transcript = new InstrumentationTranscript();
+        String transcriptDir = System.getProperty(SIMULATOR_TRANSCRIPTS);
+        if ((transcriptDir != null) && (transcriptDir.length() != 0)) {
+            transcript = InstrumentationTranscript.load(new File(transcriptDir));
+        }
+
+        DeviceSimulator simulator = new DeviceSimulator(Integer.parseInt(devices), transcript);
+        simulator.setTestTimeMs(Long.getLong(SIMULATOR_TEST_TIME_MS, 0));
+        simulator.setInstallTimeMs(Long.getLong(SIMULATOR_INSTALL_TIME_MS, 0));
+        simulator.setReconnectDelayMs(Long.getLong(SIMULATOR_RECONNECT_DELAY_MS, 1000));
+
+        String seed = System.getProperty(SIMULATOR_SEED);
+        if (seed != null) {
+            simulator.setSeed(Long.parseLong(seed));
+        }
+        String rates = System.getProperty(SIMULATOR_FAULT_RATES);
+        if (rates != null) {
+            String[] parts = rates.split(",");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException(SIMULATOR_FAULT_RATES
+                        + " must be given as hang,crash,disconnect");
+            }
+            simulator.setFaultRates(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+                    Double.parseDouble(parts[2]));
+        }
+        String faults = System.getProperty(SIMULATOR_FAULTS);
+        if (faults != null) {
+            for (String fault : faults.split(";")) {
+                int index = fault.lastIndexOf('=');
+                if (index != -1) {
+                    simulator.injectFault(fault.substring(0, index).trim(),
+                            Fault.valueOf(fault.substring(index + 1).trim().toUpperCase()));
+                }
+            }
+        }
+        return simulator;
+    }
+
+    /**
+     * Set the simulated time each test takes.
+     *
+     * @param testTimeMs The time [ms] per test.
+     */
+    public void setTestTimeMs(final long testTimeMs) {
+        mTestTimeMs = testTimeMs;
+    }
+
+    /**
+     * Get the simulated time each test takes.
+     *
+     * @return The time [ms] per test.
+     */
+    public long getTestTimeMs() {
+        return mTestTimeMs;
+    }
+
+    /**
+     * Set the simulated time each package install and uninstall takes.
+     *
+     * @param installTimeMs The time [ms] per install.
+     */
+    public void setInstallTimeMs(final long installTimeMs) {
+        mInstallTimeMs = installTimeMs;
+    }
+
+    /**
+     * Get the simulated time each package install and uninstall takes.
+     *
+     * @return The time [ms] per install.
+     */
+    public long getInstallTimeMs() {
+        return mInstallTimeMs;
+    }
+
+    /**
+     * Set the time after which a disconnected device comes back.
+     *
+     * @param reconnectDelayMs The delay [ms].
+     */
+    public void setReconnectDelayMs(final long reconnectDelayMs) {
+        mReconnectDelayMs = reconnectDelayMs;
+    }
+
+    /**
+     * Set the seed of the random fault injection.
+     *
+     * @param seed The seed.
+     */
+    public synchronized void setSeed(final long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Set the probabilities of faults, per test.
+     *
+     * @param hangRate The probability of a test hanging until the host kills it.
+     * @param crashRate The probability of the instrumentation crashing in a test.
+     * @param disconnectRate The probability of the device disconnecting in a test.
+     */
+    public synchronized void setFaultRates(final double hangRate, final double crashRate,
+            final double disconnectRate) {
+        mHangRate = hangRate;
+        mCrashRate = crashRate;
+        mDisconnectRate = disconnectRate;
+    }
+
+    /**
+     * Inject a fault into the next run of a specific test.
+     *
+     * @param testFullName The full name of the test.
+     * @param fault The fault.
+     */
+    public synchronized void injectFault(final String testFullName, final Fault fault) {
+        mFaults.put(testFullName, fault);
+    }
+
+    /**
+     * Get the fault to inject into a test which is about to run.
+     *
+     * @param testFullName The full name of the test.
+     * @return The fault, which is {@link Fault#NONE} for a normal run.
+     */
+    synchronized Fault nextFault(final String testFullName) {
+        Fault fault = mFaults.remove(testFullName);
+        if (fault != null) {
+            return fault;
+        }
+        double r = mRandom.nextDouble();
+        if (r < mHangRate) {
+            return Fault.HANG;
+        }
+        r -= mHangRate;
+        if (r < mCrashRate) {
+            return Fault.CRASH;
+        }
+        r -= mCrashRate;
+        if (r < mDisconnectRate) {
+            return Fault.DISCONNECT;
+        }
+        return Fault.NONE;
+    }
+
+    /**
+     * Get a system property of the simulated devices.
+     *
+     * @param name The name of the property.
+     * @return The value, or null if the property is not set.
+     */
+    String getProperty(final String name) {
+        return mProperties.get(name);
+    }
+
+    /**
+     * Connect the simulated devices to the device manager.
+     *
+     * @param deviceManager The device manager.
+     */
+    void start(final DeviceManager deviceManager) {
+        mDeviceManager = deviceManager;
+        for (int i = 0; i < mDeviceCount; i++) {
+            connect(String.format(SERIAL_FORMAT, i));
+        }
+    }
+
+    /**
+     * Connect a simulated device, unless it is connected already.
+     *
+     * @param serialNumber The serial number of the device.
+     * @return The connected device.
+     */
+    private TestDevice connect(final String serialNumber) {
+        SimulatedTestDevice device = new SimulatedTestDevice(serialNumber, this);
+        if (!mDeviceManager.appendDevice(device)) {
+            return mDeviceManager.searchTestDevice(serialNumber);
+        }
+        synchronized (mDevices) {
+            mDevices.add(device);
+        }
+        Log.d("Device(" + serialNumber + ") connected");
+        return device;
+    }
+
+    /**
+     * Disconnect a simulated device, which reconnects after the configured delay.
+     *
+     * @param device The device.
+     */
+    void disconnect(final SimulatedTestDevice device) {
+        final String serialNumber = device.getSerialNumber();
+        mDeviceManager.removeDevice(serialNumber);
+        mReconnectTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                connect(serialNumber);
+            }
+        }, mReconnectDelayMs);
+    }
+
+    /**
+     * Reboot the device of a test session, which stands in for restarting the ADB server.
+     *
+     * @param ts The test session.
+     */
+    void rebootDevice(final TestSession ts) {
+        String serialNumber = ts.getDeviceId();
+        Log.i("Rebooting simulated device " + serialNumber);
+        mDeviceManager.removeDevice(serialNumber);
+        try {
+            Thread.sleep(mReconnectDelayMs);
+        } catch (InterruptedException e) {
+            // reconnect right away
+        }
+        ts.setTestDevice(connect(serialNumber));
+    }
+
+    /**
+     * Get the tests to run for an instrumentation command.
+     *
+     * @param appNameSpace The application name space of the instrumentation.
+     * @param classArg The class argument: a comma separated list of class and
+     *            <code>class#method</code> names, or null.
+     * @param packageArg The java package argument, or null.
+     * @return The full names of the tests to run, in order.
+     */
+    List<String> resolveTests(final String appNameSpace, final String classArg,
+            final String packageArg) {
+        List<String> packageTests = new ArrayList<String>();
+        HostConfig config = HostConfig.getInstance();
+        if ((config != null) && (appNameSpace != null)) {
+            for (TestPackage pkg : config.getTestPackages()) {
+                if (appNameSpace.equals(pkg.getAppNameSpace())) {
+                    for (Test test : pkg.getTests()) {
+                        packageTests.add(test.getFullName());
+                    }
+                    break;
+                }
+            }
+        }
+
+        List<String> tests = new ArrayList<String>();
+        if (classArg != null) {
+            for (String name : classArg.split(",")) {
+                if (name.indexOf(Test.METHOD_SEPARATOR) != -1) {
+                    tests.add(name);
+                } else {
+                    addTestsWithPrefix(packageTests, name + Test.METHOD_SEPARATOR, tests);
+                }
+            }
+        } else if (packageArg != null) {
+            addTestsWithPrefix(packageTests, packageArg + ".", tests);
+        } else {
+            tests.addAll(packageTests);
+        }
+        return tests;
+    }
+
+    private static void addTestsWithPrefix(final List<String> names, final String prefix,
+            final List<String> result) {
+        for (String name : names) {
+            if (name.startsWith(prefix)) {
+                result.add(name);
+            }
+        }
+    }
+
+    /**
+     * Get the output of a passing run of a test, as recorded or generated if the test was
+     * not recorded.
+     *
+     * @param testFullName The full name of the test.
+     * @return The output lines of the test.
+     */
+    List<String> getTestOutput(final String testFullName) {
+        List<String> lines = mTranscript.getTest(testFullName);
+        if (lines != null) {
+            return lines;
+        }
+
+        int index = testFullName.indexOf(Test.METHOD_SEPARATOR);
+        String className = index == -1 ? testFullName : testFullName.substring(0, index);
+        String testName = index == -1 ? "" : testFullName.substring(index + 1);
+        lines = new ArrayList<String>();
+        for (String code : new String[] {"1", "0"}) {
+            lines.add("INSTRUMENTATION_STATUS: id=InstrumentationTestRunner");
+            lines.add("INSTRUMENTATION_STATUS: current=1");
+            lines.add("INSTRUMENTATION_STATUS: numtests=1");
+            lines.add("INSTRUMENTATION_STATUS: stream=");
+            lines.add("INSTRUMENTATION_STATUS: test=" + testName);
+            lines.add("INSTRUMENTATION_STATUS: class=" + className);
+            lines.add("INSTRUMENTATION_STATUS_CODE: " + code);
+        }
+        return lines;
+    }
+
+    /**
+     * Get a summary of the tests run on the simulated devices, including the time the host
+     * spent per test on top of the simulated test time.
+     *
+     * @return The summary.
+     */
+    public String getSummary() {
+        HashSet<String> devices = new HashSet<String>();
+        long tests = 0;
+        long deviceTime = 0;
+        long hostTime = 0;
+        synchronized (mDevices) {
+            for (SimulatedTestDevice device : mDevices) {
+                if (device.getTestsRun() > 0) {
+                    devices.add(device.getSerialNumber());
+                }
+                tests += device.getTestsRun();
+                deviceTime += device.getDeviceTime();
+                hostTime += device.getActiveTime() - device.getDeviceTime();
+            }
+        }
+        return String.format("Simulated devices: %d of %d used, %d tests, %d ms simulated test "
+                + "time, %.2f ms host overhead per test", devices.size(), mDeviceCount, tests,
+                deviceTime, tests == 0 ? 0.0 : (double) hostTime / tests);
+    }
+}
@@ -66,6 +66,7 @@ public class HostConfig extends XMLResourceHandler {
     private CaseRepository mCaseRepos;
     private ResultRepository mResultRepos;
     private PlanRepository mPlanRepos;
+    private DeviceInfoCache mDeviceInfoCache;
 
     // key: app package name
     // value: TestPackage
@@ -76,6 +77,9 @@ public class HostConfig extends XMLResourceHandler {
         maxTestCount (200),
         // Max size [tests] for a package to be run in batch mode
         maxTestsInBatchMode (0),
+        // Max size [tests] of a chunk when a package can't run in batch mode. Tests are then run
+        // class by class in chunks of up to this size. A value <= 0 disables chunk mode.
+        maxTestsInChunkMode (0),
         // Max time [ms] between test status updates for both individual and batch mode.
         testStatusTimeoutMs (5 * 60 * 1000),
         // Max time [ms] from start of package in batch mode and the first test status update.
@@ -193,6 +197,7 @@ public class HostConfig extends XMLResourceHandler {
         mCaseRepos = new CaseRepository(caseRoot);
         mResultRepos = new ResultRepository(resRoot);
         mPlanRepos = new PlanRepository(planRoot);
+        mDeviceInfoCache = new DeviceInfoCache(repositoryRoot);
 
         return validCase && validRes && validPlan;
     }
@@ -417,6 +422,15 @@ public class HostConfig extends XMLResourceHandler {
         return mResultRepos;
     }
 
+    /**
+     * Get the cache of the device information collected in previous sessions.
+     *
+     * @return The device info cache.
+     */
+    public DeviceInfoCache getDeviceInfoCache() {
+        return mDeviceInfoCache;
+    }
+
     /**
      * Storing the root information of some repository.
      *
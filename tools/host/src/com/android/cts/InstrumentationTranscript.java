@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Recorded output of <code>am instrument -r</code> commands, split up per test, which the
+ * {@link DeviceSimulator} replays for the tests run on simulated devices.
+ * <p/>
+ * A transcript is the raw output of an instrumentation run, as captured with
+ * <code>adb shell am instrument -r -w ... &gt; name.txt</code>. Every test of a recording
+ * consists of the status lines leading up to its start status code and the status lines
+ * leading up to its result status code; the summary at the end of the run is dropped, since
+ * the simulator generates it for whatever subset of the tests it replays.
+ */
+public class InstrumentationTranscript {
+    static final String TRANSCRIPT_SUFFIX = ".txt";
+
+    private static final String STATUS_PREFIX = "INSTRUMENTATION_STATUS: ";
+    private static final String STATUS_CLASS = STATUS_PREFIX + "class=";
+    private static final String STATUS_TEST = STATUS_PREFIX + "test=";
+    private static final String STATUS_CODE = "INSTRUMENTATION_STATUS_CODE:";
+    private static final String RESULT_PREFIX = "INSTRUMENTATION_RESULT:";
+    private static final String RESULT_CODE = "INSTRUMENTATION_CODE:";
+    private static final String STATUS_CODE_STARTING = "1";
+
+    /** Output of each recorded test, keyed by test full name. */
+    private final HashMap<String, List<String>> mTests = new HashMap<String, List<String>>();
+
+    /**
+     * Load all transcripts of the given directory.
+     *
+     * @param dir The directory holding the transcripts.
+     * @return The transcripts, which are empty if the directory does not exist.
+     * @throws IOException If a transcript can't be read.
+     */
+    public static InstrumentationTranscript load(final File dir) throws IOException {
+        InstrumentationTranscript transcript = new InstrumentationTranscript();
+        File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(File parent, String name) {
+                return name.endsWith(TRANSCRIPT_SUFFIX);
+            }
+        });
+        if (files != null) {
+            for (File f : files) {
+                Reader reader = new FileReader(f);
+                try {
+                    transcript.parse(reader);
+                } finally {
+                    reader.close();
+                }
+            }
+        }
+        return transcript;
+    }
+
+    /**
+     * Parse the output of an instrumentation run and add its tests.
+     *
+     * @param reader The reader of the recorded output.
+     * @throws IOException If the output can't be read.
+     */
+    void parse(final Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        ArrayList<String> lines = new ArrayList<String>();
+        String className = null;
+        String testName = null;
+        boolean started = false;
+
+        String line = in.readLine();
+        while (line != null) {
+            if (line.startsWith(RESULT_PREFIX) || line.startsWith(RESULT_CODE)) {
+                // the summary of the run, or a crash of the instrumentation
+                break;
+            }
+            lines.add(line);
+            if (line.startsWith(STATUS_CLASS)) {
+                className = line.substring(STATUS_CLASS.length()).trim();
+            } else if (line.startsWith(STATUS_TEST)) {
+                testName = line.substring(STATUS_TEST.length()).trim();
+            } else if (line.startsWith(STATUS_CODE)) {
+                String code = line.substring(STATUS_CODE.length()).trim();
+                if (STATUS_CODE_STARTING.equals(code)) {
+                    started = true;
+                } else if (started && (className != null) && (testName != null)) {
+                    mTests.put(className + Test.METHOD_SEPARATOR + testName, lines);
+                    lines = new ArrayList<String>();
+                    started = false;
+                }
+            }
+            line = in.readLine();
+        }
+    }
+
+    /**
+     * Get the recorded output of a test.
+     *
+     * @param testFullName The full name of the test.
+     * @return The recorded output lines, or null if the test was not recorded.
+     */
+    public List<String> getTest(final String testFullName) {
+        List<String> lines = mTests.get(testFullName);
+        return lines == null ? null : Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Get the number of recorded tests.
+     *
+     * @return The number of recorded tests.
+     */
+    public int size() {
+        return mTests.size();
+    }
+}
@@ -196,6 +196,7 @@ public class ReferenceAppTestPackage extends TestPackage {
                     File output = new File(outputFilename);
                     BufferedImage im = HostUtils.convertRawImageToBufferedImage(rawImage);
                     ImageIO.write(im, "png", output);
+                    testSessionLog.addResultFile(output);
                     } else {
                         Log.e("getScreenshot returned a null image", null);
                     }
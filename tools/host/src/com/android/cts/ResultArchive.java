@@ -0,0 +1,671 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Incrementally built zip archive of a result directory.
+ * <p/>
+ * Result files are compressed on a shared pool of worker threads as soon as they are handed
+ * in through {@link #addFile(File)}, so compression overlaps with the test run. Calling
+ * {@link #update()} picks up any other new or changed file under the result directory and
+ * writes the archive. Entries which are already in the archive and have not changed are
+ * neither read nor compressed again; only the tail of the archive holding new or changed
+ * entries and the central directory are rewritten. Files which are already compressed, such
+ * as screenshots, are stored as they are.
+ */
+public class ResultArchive {
+    private static final String[] STORED_SUFFIXES = {
+            ".png", ".jpg", ".jpeg", ".gif", ".zip", ".jar", ".apk", ".gz"};
+
+    /** Compressed data larger than this is spooled to a temporary file instead of memory. */
+    private static final long MAX_IN_MEMORY_SIZE = 1024 * 1024;
+    private static final long MAX_ZIP_SIZE = 0xffffffffL;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIR_SIG = 0x06054b50;
+    private static final int ZIP_VERSION = 20;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private static ExecutorService sCompressor;
+
+    private final File mSourceDir;
+    private final File mArchiveFile;
+
+    /** Entries in the order they are laid out in the archive. */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>();
+    /** Entries which are being compressed but are not in the archive yet. */
+    private final LinkedHashMap<String, Future<Entry>> mPending =
+            new LinkedHashMap<String, Future<Entry>>();
+    /** Offset of the end of the data of the last entry in the archive. */
+    private long mDataEnd;
+
+    /**
+     * Create an archive of the given directory.
+     *
+     * @param sourceDir The directory to archive.
+     * @param archivePath The path of the zip file to write.
+     */
+    public ResultArchive(final String sourceDir, final String archivePath) {
+        mSourceDir = new File(sourceDir);
+        mArchiveFile = new File(archivePath);
+    }
+
+    /**
+     * Get the path of the zip file.
+     *
+     * @return The path of the zip file.
+     */
+    public String getArchivePath() {
+        return mArchiveFile.getPath();
+    }
+
+    /**
+     * Hand in a result file which will not change any more, so it can be compressed
+     * right away. The file is written into the archive on the next {@link #update()}.
+     *
+     * @param file The result file, which must be under the archived directory.
+     */
+    public synchronized void addFile(final File file) {
+        String name = getEntryName(file);
+        if (name == null) {
+            Log.d("Not archiving " + file.getPath() + ", it is not under "
+                    + mSourceDir.getPath());
+            return;
+        }
+
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        Future<Entry> pending = mPending.get(name);
+        if (pending != null) {
+            if (!pending.isDone()) {
+                // still working on it, the result is checked again on update
+                return;
+            }
+            Entry entry = getQuietly(pending);
+            if ((entry != null) && entry.isUpToDate(file)) {
+                return;
+            }
+            mPending.remove(name);
+            if (entry != null) {
+                entry.discardData();
+            }
+        }
+
+        Entry current = mEntries.get(name);
+        if ((current != null) && current.isUpToDate(file)) {
+            return;
+        }
+
+        final Entry entry = new Entry(name, file, length, lastModified);
+        mPending.put(name, getCompressor().submit(new Callable<Entry>() {
+            public Entry call() throws IOException {
+                entry.compress(mArchiveFile.getParentFile());
+                return entry;
+            }
+        }));
+    }
+
+    /**
+     * Add all new and changed files under the archived directory and write the archive.
+     *
+     * @throws IOException If the archive can't be written.
+     */
+    public synchronized void update() throws IOException {
+        if ((mDataEnd > 0) && (mArchiveFile.length() < mDataEnd)) {
+            // the archive went away under our feet, write it from scratch
+            mEntries.clear();
+            mDataEnd = 0;
+        }
+
+        ArrayList<File> files = new ArrayList<File>();
+        listFiles(mSourceDir, files);
+        for (File f : files) {
+            addFile(f);
+        }
+
+        // wait for the compression of everything handed in so far
+        ArrayList<Entry> newEntries = new ArrayList<Entry>();
+        for (Iterator<Future<Entry>> it = mPending.values().iterator(); it.hasNext();) {
+            Entry entry;
+            try {
+                entry = getCompressed(it.next());
+            } catch (IOException e) {
+                // not in the archive yet, so the next update tries again
+                Log.d("Failed to archive result file: " + e.getMessage());
+                continue;
+            } finally {
+                it.remove();
+            }
+            if (entry.mSource.exists() && entry.isUpToDate(entry.mSource)) {
+                newEntries.add(entry);
+            } else {
+                // changed again while it was compressed, the next update picks it up
+                entry.discardData();
+            }
+        }
+
+        for (Entry entry : newEntries) {
+            Entry replaced = mEntries.get(entry.mName);
+            if (replaced != null) {
+                replaced.mStale = true;
+            }
+        }
+        for (Entry entry : mEntries.values()) {
+            if (!entry.mSource.exists()) {
+                entry.mStale = true;
+            }
+        }
+
+        RandomAccessFile archive = new RandomAccessFile(mArchiveFile, "rw");
+        try {
+            long writeOffset = dropStaleEntries();
+            archive.seek(writeOffset);
+            OutputStream out = new BufferedOutputStream(new RandomAccessFileOutputStream(archive),
+                    BUFFER_SIZE);
+            CountingOutputStream counter = new CountingOutputStream(out, writeOffset);
+            for (Entry entry : newEntries) {
+                entry.mOffset = counter.getCount();
+                entry.writeLocal(counter);
+                mEntries.put(entry.mName, entry);
+            }
+            mDataEnd = counter.getCount();
+
+            long centralDirOffset = counter.getCount();
+            for (Entry entry : mEntries.values()) {
+                entry.writeCentral(counter);
+            }
+            long centralDirSize = counter.getCount() - centralDirOffset;
+            if (counter.getCount() > MAX_ZIP_SIZE || mEntries.size() > 0xffff) {
+                throw new IOException("Result archive " + mArchiveFile.getPath()
+                        + " is too large for the zip format");
+            }
+            writeInt(counter, END_OF_CENTRAL_DIR_SIG);
+            writeShort(counter, 0);
+            writeShort(counter, 0);
+            writeShort(counter, mEntries.size());
+            writeShort(counter, mEntries.size());
+            writeInt(counter, (int) centralDirSize);
+            writeInt(counter, (int) centralDirOffset);
+            writeShort(counter, 0);
+            counter.flush();
+            archive.setLength(counter.getCount());
+        } catch (IOException e) {
+            // the on disk layout is unknown now, start over on the next update
+            mEntries.clear();
+            mDataEnd = 0;
+            throw e;
+        } finally {
+            for (Entry entry : newEntries) {
+                entry.discardData();
+            }
+            archive.close();
+        }
+    }
+
+    /**
+     * Remove the stale entries from the archive layout. Stale entries at the end of the
+     * archive are truncated; stale entries in the middle are left in place as unreferenced
+     * data, since moving the entries behind them would mean rewriting the whole archive.
+     * Entries which get replaced are moved to the end of the layout, so the ones which keep
+     * changing, such as the result XML, end up at the end where they can be truncated.
+     *
+     * @return The offset at which new entries are written.
+     */
+    private long dropStaleEntries() {
+        ArrayList<Entry> entries = new ArrayList<Entry>(mEntries.values());
+        long writeOffset = mDataEnd;
+        int i = entries.size() - 1;
+        while ((i >= 0) && entries.get(i).mStale) {
+            writeOffset = entries.get(i).mOffset;
+            i--;
+        }
+        for (Entry entry : entries) {
+            if (entry.mStale) {
+                mEntries.remove(entry.mName);
+            }
+        }
+        return writeOffset;
+    }
+
+    /**
+     * Get the name of the archive entry of the given file.
+     *
+     * @param file The file.
+     * @return The entry name, or null if the file is not under the archived directory.
+     */
+    private String getEntryName(final File file) {
+        String root = mSourceDir.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        if (!path.startsWith(root) || path.length() == root.length()) {
+            return null;
+        }
+        return path.substring(root.length()).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Recursively list all files under a directory.
+     *
+     * @param dir The directory.
+     * @param files The list to add the files to.
+     */
+    private static void listFiles(final File dir, final ArrayList<File> files) {
+        File[] children = dir.listFiles();
+        // A null list may indicate not having enough permissions to view that directory
+        if (children != null) {
+            for (File f : children) {
+                if (f.isDirectory()) {
+                    listFiles(f, files);
+                } else if (f.isFile()) {
+                    files.add(f);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for the given compression task.
+     *
+     * @param future The compression task.
+     * @return The compressed entry.
+     * @throws IOException If the file couldn't be compressed.
+     */
+    private static Entry getCompressed(final Future<Entry> future) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    IOException ioe = new IOException("Failed to compress result file");
+                    ioe.initCause(cause);
+                    throw ioe;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Get the result of a finished compression task, ignoring any failure.
+     *
+     * @param future The finished compression task.
+     * @return The compressed entry, or null if the compression failed.
+     */
+    private static Entry getQuietly(final Future<Entry> future) {
+        try {
+            return getCompressed(future);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the pool compressing the result files of all sessions.
+     *
+     * @return The compressor pool.
+     */
+    private static synchronized ExecutorService getCompressor() {
+        if (sCompressor == null) {
+            sCompressor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        private int mCount;
+
+                        public synchronized Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "ResultArchive-" + (++mCount));
+                            // don't keep the host alive just for zipping
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return sCompressor;
+    }
+
+    private static boolean isCompressed(final String name) {
+        String lowerName = name.toLowerCase();
+        for (String suffix : STORED_SUFFIXES) {
+            if (lowerName.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Convert a time in milliseconds into the MS-DOS date and time used by zip files.
+     *
+     * @param time The time in milliseconds.
+     * @return The MS-DOS date in the upper and the time in the lower 16 bits.
+     */
+    private static int toDosTime(final long time) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        int year = cal.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980) << 25) | ((cal.get(Calendar.MONTH) + 1) << 21)
+                | (cal.get(Calendar.DATE) << 16) | (cal.get(Calendar.HOUR_OF_DAY) << 11)
+                | (cal.get(Calendar.MINUTE) << 5) | (cal.get(Calendar.SECOND) >> 1);
+    }
+
+    private static void writeShort(final OutputStream out, final int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+    }
+
+    private static void writeInt(final OutputStream out, final int v) throws IOException {
+        writeShort(out, v & 0xffff);
+        writeShort(out, (v >>> 16) & 0xffff);
+    }
+
+    private static void copy(final InputStream in, final OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead = in.read(buffer);
+        while (bytesRead > 0) {
+            out.write(buffer, 0, bytesRead);
+            bytesRead = in.read(buffer);
+        }
+    }
+
+    private static void closeQuietly(final Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * One file of the archive.
+     */
+    private static class Entry {
+        private final String mName;
+        private final byte[] mNameBytes;
+        private final File mSource;
+        private final long mLength;
+        private final long mLastModified;
+        private final int mMethod;
+
+        private long mCrc;
+        private long mCompressedSize;
+        private byte[] mData;
+        private File mSpoolFile;
+        private long mOffset;
+        private boolean mStale;
+
+        Entry(final String name, final File source, final long length, final long lastModified) {
+            mName = name;
+            try {
+                mNameBytes = name.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            mSource = source;
+            mLength = length;
+            mLastModified = lastModified;
+            mMethod = isCompressed(name) ? METHOD_STORED : METHOD_DEFLATED;
+        }
+
+        /**
+         * Check if the entry still reflects the given file.
+         *
+         * @param file The file.
+         * @return true if the file has not changed since the entry was created.
+         */
+        boolean isUpToDate(final File file) {
+            return (file.length() == mLength) && (file.lastModified() == mLastModified);
+        }
+
+        /**
+         * Read the source file, computing its checksum and, if it gets deflated, its
+         * compressed data.
+         *
+         * @param spoolDir The directory to spool large compressed data to.
+         */
+        void compress(final File spoolDir) throws IOException {
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            InputStream in = new BufferedInputStream(new FileInputStream(mSource), BUFFER_SIZE);
+            OutputStream data = null;
+            Deflater deflater = null;
+            ByteArrayOutputStream bytes = null;
+            CountingOutputStream compressed = null;
+            long size = 0;
+            try {
+                if (mMethod == METHOD_DEFLATED) {
+                    deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                    if (mLength > MAX_IN_MEMORY_SIZE) {
+                        mSpoolFile = File.createTempFile("cts_result", ".deflated", spoolDir);
+                        data = new BufferedOutputStream(new FileOutputStream(mSpoolFile),
+                                BUFFER_SIZE);
+                    } else {
+                        bytes = new ByteArrayOutputStream((int) mLength / 2 + 64);
+                        data = bytes;
+                    }
+                    compressed = new CountingOutputStream(data, 0);
+                    data = new DeflaterOutputStream(compressed, deflater, BUFFER_SIZE);
+                }
+
+                int bytesRead = in.read(buffer);
+                while (bytesRead > 0) {
+                    crc.update(buffer, 0, bytesRead);
+                    size += bytesRead;
+                    if (data != null) {
+                        data.write(buffer, 0, bytesRead);
+                    }
+                    bytesRead = in.read(buffer);
+                }
+                if (data != null) {
+                    data.close();
+                    data = null;
+                }
+            } catch (IOException e) {
+                closeQuietly(data);
+                discardData();
+                throw e;
+            } finally {
+                closeQuietly(in);
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+
+            if (size != mLength) {
+                discardData();
+                throw new IOException(mSource.getPath() + " changed while it was archived");
+            }
+            mCrc = crc.getValue();
+            if (mMethod == METHOD_DEFLATED) {
+                mCompressedSize = compressed.getCount();
+                if (bytes != null) {
+                    mData = bytes.toByteArray();
+                }
+            } else {
+                mCompressedSize = mLength;
+            }
+        }
+
+        /**
+         * Write the local header and the data of the entry.
+         *
+         * @param out The stream to write to.
+         */
+        void writeLocal(final OutputStream out) throws IOException {
+            if ((mLength > MAX_ZIP_SIZE) || (mCompressedSize > MAX_ZIP_SIZE)) {
+                throw new IOException(mSource.getPath() + " is too large for the zip format");
+            }
+            writeInt(out, LOCAL_HEADER_SIG);
+            writeShort(out, ZIP_VERSION);
+            writeCommonHeader(out);
+            out.write(mNameBytes);
+
+            InputStream in = null;
+            if (mData != null) {
+                out.write(mData);
+            } else {
+                try {
+                    in = new FileInputStream(mMethod == METHOD_STORED ? mSource : mSpoolFile);
+                    copy(in, out);
+                } finally {
+                    closeQuietly(in);
+                }
+            }
+        }
+
+        /**
+         * Write the central directory header of the entry.
+         *
+         * @param out The stream to write to.
+         */
+        void writeCentral(final OutputStream out) throws IOException {
+            writeInt(out, CENTRAL_HEADER_SIG);
+            writeShort(out, ZIP_VERSION);
+            writeShort(out, ZIP_VERSION);
+            writeCommonHeader(out);
+            writeShort(out, 0); // comment length
+            writeShort(out, 0); // disk number
+            writeShort(out, 0); // internal attributes
+            writeInt(out, 0); // external attributes
+            writeInt(out, (int) mOffset);
+            out.write(mNameBytes);
+        }
+
+        private void writeCommonHeader(final OutputStream out) throws IOException {
+            writeShort(out, FLAG_UTF8);
+            writeShort(out, mMethod);
+            writeInt(out, toDosTime(mLastModified));
+            writeInt(out, (int) mCrc);
+            writeInt(out, (int) mCompressedSize);
+            writeInt(out, (int) mLength);
+            writeShort(out, mNameBytes.length);
+            writeShort(out, 0); // extra field length
+        }
+
+        /**
+         * Release the compressed data once it is in the archive.
+         */
+        void discardData() {
+            mData = null;
+            if (mSpoolFile != null) {
+                mSpoolFile.delete();
+                mSpoolFile = null;
+            }
+        }
+    }
+
+    /**
+     * Output stream writing to the current position of a random access file.
+     */
+    private static class RandomAccessFileOutputStream extends OutputStream {
+        private final RandomAccessFile mFile;
+
+        RandomAccessFileOutputStream(final RandomAccessFile file) {
+            mFile = file;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mFile.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mFile.write(b, off, len);
+        }
+    }
+
+    /**
+     * Output stream keeping track of the archive offset it writes at.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream mOut;
+        private long mCount;
+
+        CountingOutputStream(final OutputStream out, final long offset) {
+            mOut = out;
+            mCount = offset;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mOut.write(b, off, len);
+            mCount += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts;
+
+import com.android.cts.DeviceSimulator.Fault;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.RawImage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+/**
+ * A {@link TestDevice} without a device behind it.
+ * <p/>
+ * Instrumentation commands are answered by replaying the output recorded in the
+ * {@link DeviceSimulator}'s transcripts, or a passing result for tests which were not
+ * recorded, so the host goes through the same result parsing, timeouts and recovery as with a
+ * real device. Faults injected by the simulator make the instrumentation hang until the host
+ * kills it, crash, or make the device disconnect in the middle of a test.
+ */
+public class SimulatedTestDevice extends TestDevice {
+    private static final String CMD_GETPROP = "getprop ";
+    private static final String CMD_INSTRUMENT = "am instrument ";
+    private static final String STATUS_CURRENT = "INSTRUMENTATION_STATUS: current=";
+    private static final String STATUS_NUM = "INSTRUMENTATION_STATUS: numtests=";
+    private static final String STATUS_CODE = "INSTRUMENTATION_STATUS_CODE:";
+    private static final String RESULT_CODE = "INSTRUMENTATION_CODE:";
+    private static final String SUCCESS = "Success\n";
+    /** Max time [ms] a hung instrumentation waits before checking if it was cancelled. */
+    private static final long HANG_POLL_INTERVAL = 1000;
+
+    private final DeviceSimulator mSimulator;
+    private final DeviceParameterCollector mSimulatedInfo;
+    private final Object mLock = new Object();
+    private boolean mKilled;
+    private boolean mConnected = true;
+
+    private int mTestsRun;
+    private long mDeviceTime;
+    private long mFirstCommandTime;
+    private long mLastCommandTime;
+
+    /**
+     * Create a simulated device.
+     *
+     * @param serialNumber The serial number of the device.
+     * @param simulator The simulator the device belongs to.
+     */
+    SimulatedTestDevice(final String serialNumber, final DeviceSimulator simulator) {
+        super(serialNumber);
+        mSimulator = simulator;
+        mSimulatedInfo = new DeviceParameterCollector();
+        mSimulatedInfo.setSerialNumber(serialNumber);
+        mSimulatedInfo.setBuildFingerPrint(
+                simulator.getProperty(DeviceSimulator.PROP_FINGERPRINT));
+        mSimulatedInfo.setBuildModel(DeviceSimulator.SIMULATED_MODEL);
+        mSimulatedInfo.setBuildDevice(DeviceSimulator.SIMULATED_MODEL);
+        mSimulatedInfo.setProductName(DeviceSimulator.SIMULATED_MODEL);
+        mSimulatedInfo.setBuildAbi("simulated");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public DeviceParameterCollector getDeviceInfo() {
+        return mSimulatedInfo;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    void runShellCommand(final String cmd, final IShellOutputReceiver receiver)
+            throws IOException {
+        if (!isConnected()) {
+            throw new IOException("device " + getSerialNumber() + " is not connected");
+        }
+        if (cmd.startsWith(CMD_GETPROP)) {
+            String value = mSimulator.getProperty(cmd.substring(CMD_GETPROP.length()).trim());
+            if (value != null) {
+                output(receiver, value);
+            }
+            receiver.flush();
+        } else if (cmd.startsWith(CMD_INSTRUMENT)) {
+            runInstrumentation(cmd, receiver);
+        } else {
+            // broadcasts and other commands without output
+            receiver.flush();
+        }
+    }
+
+    /**
+     * Replay the output of an <code>am instrument</code> command.
+     *
+     * @param cmd The instrumentation command.
+     * @param receiver The receiver of the output.
+     */
+    private void runInstrumentation(final String cmd, final IShellOutputReceiver receiver)
+            throws IOException {
+        long startTime = System.currentTimeMillis();
+        synchronized (mLock) {
+            mKilled = false;
+            if (mFirstCommandTime == 0) {
+                mFirstCommandTime = startTime;
+            }
+        }
+
+        String classArg = null;
+        String packageArg = null;
+        String component = null;
+        String[] args = cmd.trim().split("\\s+");
+        for (int i = 2; i < args.length; i++) {
+            if ("-e".equals(args[i]) && (i + 2 < args.length)) {
+                if ("class".equals(args[i + 1])) {
+                    // undo the escaping of '$' for the shell
+                    classArg = args[i + 2].replace("\\$", "$");
+                } else if ("package".equals(args[i + 1])) {
+                    packageArg = args[i + 2];
+                }
+                i += 2;
+            } else if (!args[i].startsWith("-")) {
+                component = args[i];
+            }
+        }
+        String appNameSpace = component;
+        if ((component != null) && (component.indexOf('/') != -1)) {
+            appNameSpace = component.substring(0, component.indexOf('/'));
+        }
+
+        List<String> tests = mSimulator.resolveTests(appNameSpace, classArg, packageArg);
+        int current = 0;
+        long deviceTime = 0;
+        try {
+            for (String test : tests) {
+                current++;
+                List<String> lines = mSimulator.getTestOutput(test);
+                // the lines up to and including the start status code
+                int startEnd = 0;
+                while (startEnd < lines.size()) {
+                    if (lines.get(startEnd++).startsWith(STATUS_CODE)) {
+                        break;
+                    }
+                }
+                output(receiver, rewrite(lines.subList(0, startEnd), current, tests.size()));
+
+                Fault fault = mSimulator.nextFault(test);
+                if (fault == Fault.DISCONNECT) {
+                    Log.d("simulating disconnect of " + getSerialNumber() + " in " + test);
+                    mSimulator.disconnect(this);
+                    throw new IOException("device " + getSerialNumber() + " disconnected");
+                } else if (fault == Fault.CRASH) {
+                    Log.d("simulating crash of " + test + " on " + getSerialNumber());
+                    crash(receiver);
+                    return;
+                } else if (fault == Fault.HANG) {
+                    Log.d("simulating hang of " + test + " on " + getSerialNumber());
+                    if (waitForKill(Long.MAX_VALUE, receiver)) {
+                        crash(receiver);
+                    }
+                    return;
+                }
+
+                long testTime = mSimulator.getTestTimeMs();
+                if ((testTime > 0) && waitForKill(testTime, receiver)) {
+                    crash(receiver);
+                    return;
+                }
+                deviceTime += testTime;
+                if (receiver.isCancelled() || !isConnected()) {
+                    return;
+                }
+                output(receiver, rewrite(lines.subList(startEnd, lines.size()), current,
+                        tests.size()));
+                synchronized (mLock) {
+                    mTestsRun++;
+                }
+            }
+
+            output(receiver, "INSTRUMENTATION_RESULT: stream=",
+                    "Test results for InstrumentationTestRunner=",
+                    String.format("Time: %.3f", (System.currentTimeMillis() - startTime) / 1000.0),
+                    "",
+                    "OK (" + tests.size() + " tests)",
+                    "",
+                    RESULT_CODE + " -1");
+            receiver.flush();
+        } finally {
+            synchronized (mLock) {
+                mDeviceTime += deviceTime;
+                mLastCommandTime = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Output what <code>am instrument</code> prints when the instrumented process dies.
+     *
+     * @param receiver The receiver of the output.
+     */
+    private void crash(final IShellOutputReceiver receiver) {
+        if (isConnected()) {
+            output(receiver, "INSTRUMENTATION_RESULT: shortMsg=Process crashed.",
+                    RESULT_CODE + " 0");
+            receiver.flush();
+        }
+    }
+
+    /**
+     * Wait until the instrumentation gets killed, the device disconnects, the receiver is
+     * cancelled or the given time has passed.
+     *
+     * @param timeout The max time [ms] to wait.
+     * @param receiver The receiver of the output.
+     * @return true if the instrumentation was killed, false otherwise.
+     */
+    private boolean waitForKill(final long timeout, final IShellOutputReceiver receiver) {
+        long now = System.currentTimeMillis();
+        long deadline = (timeout > Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + timeout;
+        synchronized (mLock) {
+            while (!mKilled && mConnected && !receiver.isCancelled() && (now < deadline)) {
+                try {
+                    mLock.wait(Math.min(deadline - now, HANG_POLL_INTERVAL));
+                } catch (InterruptedException e) {
+                    return false;
+                }
+                now = System.currentTimeMillis();
+            }
+            return mKilled;
+        }
+    }
+
+    /**
+     * Replace the test counters of the recorded output with the ones of the current run.
+     */
+    private static String[] rewrite(final List<String> lines, final int current,
+            final int total) {
+        String[] result = new String[lines.size()];
+        for (int i = 0; i < result.length; i++) {
+            String line = lines.get(i);
+            if (line.startsWith(STATUS_CURRENT)) {
+                line = STATUS_CURRENT + current;
+            } else if (line.startsWith(STATUS_NUM)) {
+                line = STATUS_NUM + total;
+            }
+            result[i] = line;
+        }
+        return result;
+    }
+
+    private static void output(final IShellOutputReceiver receiver, final String... lines) {
+        StringBuilder buf = new StringBuilder();
+        for (String line : lines) {
+            buf.append(line).append('\n');
+        }
+        try {
+            byte[] data = buf.toString().getBytes("ISO-8859-1");
+            receiver.addOutput(data, 0, data.length);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    void executeCommand(final String command, final StdOutObserver stdOutReceiver)
+            throws DeviceDisconnectedException {
+        if ((getStatus() == STATUS_OFFLINE) || !isConnected()) {
+            throw new DeviceDisconnectedException(getSerialNumber());
+        }
+        // adb install and uninstall, which always succeed after the configured time
+        new Thread() {
+            @Override
+            public void run() {
+                long installTime = mSimulator.getInstallTimeMs();
+                if (installTime > 0) {
+                    try {
+                        Thread.sleep(installTime);
+                    } catch (InterruptedException e) {
+                        // report the result right away
+                    }
+                }
+                if ((stdOutReceiver != null) && isConnected()) {
+                    stdOutReceiver.setInputStream(new ByteArrayInputStream(SUCCESS.getBytes()));
+                }
+            }
+        }.start();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void killProcess(final String packageName) {
+        synchronized (mLock) {
+            mKilled = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void disconnected() {
+        synchronized (mLock) {
+            mConnected = false;
+            mLock.notifyAll();
+        }
+        super.disconnected();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void pushFile(final String localPath, final String remotePath) {
+        Log.d("simulated push of " + localPath + " to " + remotePath);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RawImage getScreenshot() {
+        return null;
+    }
+
+    /**
+     * Check if the device is still connected.
+     *
+     * @return true if the device is connected, false if it disconnected.
+     */
+    boolean isConnected() {
+        synchronized (mLock) {
+            return mConnected;
+        }
+    }
+
+    /**
+     * Get the number of tests the device completed.
+     *
+     * @return The number of tests completed.
+     */
+    int getTestsRun() {
+        synchronized (mLock) {
+            return mTestsRun;
+        }
+    }
+
+    /**
+     * Get the simulated time [ms] the device spent running tests.
+     *
+     * @return The simulated device time.
+     */
+    long getDeviceTime() {
+        synchronized (mLock) {
+            return mDeviceTime;
+        }
+    }
+
+    /**
+     * Get the time [ms] from the start of the first to the end of the last instrumentation
+     * command run on the device.
+     *
+     * @return The time the device was in use.
+     */
+    long getActiveTime() {
+        synchronized (mLock) {
+            return mFirstCommandTime == 0 ? 0 : mLastCommandTime - mFirstCommandTime;
+        }
+    }
+}
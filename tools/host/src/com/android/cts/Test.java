@@ -16,8 +16,6 @@
 
 package com.android.cts;
 
-import com.android.cts.TestSession.ResultObserver;
-
 import java.util.TimerTask;
 
 /**
@@ -189,7 +187,10 @@ public class Test implements DeviceObserver {
         }
         setEndTime(System.currentTimeMillis());
 
-        ResultObserver.getInstance().notifyUpdate();
+        TestSession session = getTestPackage().getTestSession();
+        if (session != null) {
+            session.getResultObserver().notifyUpdate();
+        }
     }
 
     /**
@@ -324,10 +325,13 @@ public class Test implements DeviceObserver {
             return;
         }
 
-        if (TestSession.exceedsMaxCount()) {
-            throw new ADBServerNeedRestartException("Test count reached overflow point");
-        } else {
-            TestSession.incTestCount();
+        TestSession session = getTestPackage().getTestSession();
+        if (session != null) {
+            if (session.exceedsMaxCount()) {
+                throw new ADBServerNeedRestartException("Test count reached overflow point");
+            } else {
+                session.incTestCount();
+            }
         }
 
         mTestStop = false;
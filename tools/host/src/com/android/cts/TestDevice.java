@@ -41,6 +41,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.regex.Matcher;
@@ -77,6 +78,8 @@ public class TestDevice implements DeviceObserver {
     private static final int REBOOT_POLL_COUNT = 10 * 60 * 1000 / REBOOT_POLL_INTERVAL;
     /** Max time [ms] to wait for <code>adb shell getprop</code> to return a result. */
     private static final int GETPROP_TIMEOUT = 5000;
+    /** System property holding the build fingerprint, used to validate cached device info. */
+    private static final String BUILD_FINGERPRINT_PROP = "ro.build.fingerprint";
 
     public static final Pattern INSTRUMENT_RESULT_PATTERN;
 
@@ -85,6 +88,8 @@ public class TestDevice implements DeviceObserver {
     private DeviceObserver mDeviceObserver;
     private IDevice mDevice;
     private DeviceParameterCollector mDeviceInfo;
+    /** Build fingerprint reported by the device, asked for once per connection. */
+    private String mBuildFingerprint;
 
     private SyncService mSyncService;
 
@@ -130,10 +135,15 @@ public class TestDevice implements DeviceObserver {
         mStatusMap.put(STATUS_OFFLINE, STATUS_STR_OFFLINE);
     }
 
-    // This constructor just for unit test
+    // This constructor is for unit tests and simulated devices, which have no IDevice
     TestDevice(final String serialNumber) {
+        mBatchModeResultParser = null;
+        mUninstallObserver = new PackageActionObserver(ACTION_UNINSTALL);
+        mStatus = STATUS_IDLE;
         mDeviceInfo = new DeviceParameterCollector();
         mDeviceInfo.setSerialNumber(serialNumber);
+        mPackageActionTimer = new PackageActionTimer();
+        mObjectSync = new ObjectSync();
     }
 
     public TestDevice(IDevice device) {
@@ -167,13 +177,86 @@ public class TestDevice implements DeviceObserver {
                 throws DeviceDisconnectedException, InvalidNameSpaceException,
                 InvalidApkPathException {
         if (mDeviceInfo.size() == 0) {
-            logServiceThread = new LogServiceThread();
-            logServiceThread.start();
-            genDeviceInfo();
+            if (mDevice != null) {
+                logServiceThread = new LogServiceThread();
+                logServiceThread.start();
+            }
+            DeviceInfoCache cache = HostConfig.getInstance().getDeviceInfoCache();
+            if ((cache == null) || !loadCachedDeviceInfo(cache)) {
+                genDeviceInfo();
+                if (cache != null) {
+                    cache.put(getSerialNumber(), mDeviceInfo);
+                }
+            }
         }
         return mDeviceInfo;
     }
 
+    /**
+     * Try to fill the device info from the host side {@link DeviceInfoCache}.
+     * <p/>
+     * The cached entry is validated against the build fingerprint currently reported by the
+     * device, which costs a single <code>getprop</code> round-trip instead of running the device
+     * information collector.
+     *
+     * @param cache The device info cache.
+     * @return true if the device info was loaded from the cache, false otherwise.
+     */
+    private boolean loadCachedDeviceInfo(DeviceInfoCache cache)
+            throws DeviceDisconnectedException {
+        String fingerprint = getBuildFingerprint();
+        DeviceParameterCollector cached = cache.get(getSerialNumber(), fingerprint);
+        if (cached == null) {
+            return false;
+        }
+
+        Log.d("use cached device info for build " + fingerprint);
+        for (String key : cached.keySet()) {
+            mDeviceInfo.set(key, cached.get(key));
+        }
+        mDeviceInfo.set(DeviceParameterCollector.SERIAL_NUMBER, getSerialNumber());
+        return true;
+    }
+
+    /**
+     * Get the build fingerprint reported by the device.
+     *
+     * @return The build fingerprint, or null if the device did not respond in time.
+     */
+    private String getBuildFingerprint() throws DeviceDisconnectedException {
+        if (mBuildFingerprint == null) {
+            SinglePropReceiver receiver = new SinglePropReceiver();
+            executeShellCommand("getprop " + BUILD_FINGERPRINT_PROP, receiver);
+            mBuildFingerprint = receiver.getValue(GETPROP_TIMEOUT);
+        }
+        return mBuildFingerprint;
+    }
+
+    /**
+     * Check if the device info of this device is cached for the build it currently runs.
+     * <p/>
+     * The device setup app is then kept installed between sessions, as it is only needed to
+     * collect the device info and to disable the keyguard.
+     *
+     * @return true if the device info is cached, false otherwise.
+     */
+    private boolean isDeviceInfoCached() throws DeviceDisconnectedException {
+        DeviceInfoCache cache = HostConfig.getInstance().getDeviceInfoCache();
+        return (cache != null) && (cache.get(getSerialNumber(), getBuildFingerprint()) != null);
+    }
+
+    /**
+     * Check if the device setup app is installed on the device.
+     *
+     * @return true if the package manager knows the device setup app, false otherwise.
+     */
+    private boolean isDeviceSetupAppInstalled() throws DeviceDisconnectedException {
+        SinglePropReceiver receiver = new SinglePropReceiver();
+        executeShellCommand("pm path " + DEVICE_SETUP_APP_PACKAGE_NAME, receiver);
+        String path = receiver.getValue(GETPROP_TIMEOUT);
+        return (path != null) && path.startsWith("package:");
+    }
+
     /**
      * Attempt to disable the screen guard on device.
      *
@@ -239,6 +322,60 @@ public class TestDevice implements DeviceObserver {
         }
     }
 
+    /**
+     * Receiver which keeps the first non-empty line of the output of a shell command, e.g.
+     * <code>getprop &lt;name&gt;</code>.
+     */
+    class SinglePropReceiver extends MultiLineReceiver {
+        private String mValue;
+        private boolean mCancelled;
+        private boolean mDone;
+
+        @Override
+        public void processNewLines(String[] lines) {
+            for (String line : lines) {
+                String value = line.trim();
+                if ((mValue == null) && (value.length() != 0)) {
+                    mValue = value;
+                }
+            }
+        }
+
+        @Override
+        public void done() {
+            synchronized(this) {
+                mDone = true;
+                this.notifyAll();
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Wait for the command to finish and return the property value.
+         *
+         * @param timeout The max time [ms] to wait.
+         * @return The property value, or null if the device did not respond in time.
+         */
+        String getValue(long timeout) {
+            try {
+                synchronized (this) {
+                    if (!mDone) {
+                        this.wait(timeout);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            synchronized (this) {
+                mCancelled = true;
+                return mDone ? mValue : null;
+            }
+        }
+    }
+
     /**
      * Wait until device indicates that boot is complete.
      *
@@ -293,6 +430,7 @@ public class TestDevice implements DeviceObserver {
     /**
      * Uninstall the device setup apk from device.
      *
+     * The apk is kept installed while the device info is cached for the build the device runs.
      * See {@link #installDeviceSetupApp}
      *
      * @throws DeviceDisconnectedException
@@ -300,6 +438,10 @@ public class TestDevice implements DeviceObserver {
      */
     public void uninstallDeviceSetupApp() throws DeviceDisconnectedException,
             InvalidNameSpaceException {
+        if (isDeviceInfoCached()) {
+            Log.d("keep " + DEVICE_SETUP_APK + " installed for build " + getBuildFingerprint());
+            return;
+        }
         // reset device observer
         DeviceObserver tmpDeviceObserver = mDeviceObserver;
         mDeviceObserver = this;
@@ -313,6 +455,9 @@ public class TestDevice implements DeviceObserver {
     /**
      * Install the device setup apk on the device.
      *
+     * Nothing is installed if the apk was kept installed by {@link #uninstallDeviceSetupApp()}
+     * and the device info is still cached for the build the device runs.
+     *
      * @throws DeviceDisconnectedException
      * @throws InvalidApkPathException
      */
@@ -322,6 +467,10 @@ public class TestDevice implements DeviceObserver {
             Log.e("File doesn't exist: " + apkPath, null);
             return;
         }
+        if (isDeviceInfoCached() && isDeviceSetupAppInstalled()) {
+            Log.d(DEVICE_SETUP_APK + " is still installed for build " + getBuildFingerprint());
+            return;
+        }
 
         Log.d("installing " + DEVICE_SETUP_APK + " apk");
         mObjectSync = new ObjectSync();
@@ -462,6 +611,25 @@ public class TestDevice implements DeviceObserver {
             return mInfoMap.size();
         }
 
+        /**
+         * Get the value of the specified device information key.
+         *
+         * @param key The key of the device information.
+         * @return The value of the device information, or null if it is not stored in.
+         */
+        public String get(final String key) {
+            return mInfoMap.get(key);
+        }
+
+        /**
+         * Get the keys of all the device information items which stored in.
+         *
+         * @return The keys of the device information items.
+         */
+        public Set<String> keySet() {
+            return mInfoMap.keySet();
+        }
+
         /**
          * Set the build finger print.
          *
@@ -953,6 +1121,43 @@ public class TestDevice implements DeviceObserver {
         executeShellCommand(commandStr, mBatchModeResultParser);
     }
 
+    /**
+     * Run a chunk of tests of a TestPackage with a single instrumentation command.
+     *
+     * @param testPackage The testPackage the tests belong to.
+     * @param testNames The names of the tests to be run, either a class name to run all tests
+     *            of a class or a <code>class#method</code> name to run a single test.
+     */
+    public void runTestsInBatchMode(TestPackage testPackage, final Collection<String> testNames)
+            throws DeviceDisconnectedException {
+        if ((testNames == null) || testNames.isEmpty()) {
+            return;
+        }
+
+        String appNameSpace = testPackage.getAppNameSpace();
+        String runner = testPackage.getInstrumentationRunner();
+        if (runner == null) {
+            runner = DEFAULT_TEST_RUNNER_NAME;
+        }
+
+        StringBuilder classArg = new StringBuilder();
+        for (String testName : testNames) {
+            if (classArg.length() > 0) {
+                classArg.append(',');
+            }
+            // need to doubly escape any '$' chars in the name since this string is
+            // passed through two shells \\\$ -> \$ -> $
+            classArg.append(testName.replaceAll("\\$", "\\\\\\$"));
+        }
+
+        final String commandStr = "am instrument -w -r -e class " + classArg
+                + " " + appNameSpace + "/" + runner;
+        Log.d(commandStr);
+
+        mBatchModeResultParser = new BatchModeResultParser(testPackage);
+        executeShellCommand(commandStr, mBatchModeResultParser);
+    }
+
     /**
      * Get clients.
      *
@@ -1008,7 +1213,7 @@ public class TestDevice implements DeviceObserver {
      * @param command The command to be executed.
      * @param stdOutReceiver The receiver for handling the output from the device.
      */
-    private void executeCommand(String command, StdOutObserver stdOutReceiver)
+    void executeCommand(String command, StdOutObserver stdOutReceiver)
                     throws DeviceDisconnectedException {
         if (mStatus != STATUS_OFFLINE) {
             try {
@@ -1733,31 +1938,47 @@ public class TestDevice implements DeviceObserver {
             @Override
             public void run() {
                 try {
-                    mDevice.executeShellCommand(cmd, receiver, 0);
+                    runShellCommand(cmd, receiver);
                 } catch (IOException e) {
                     Log.e(String.format("Failed to execute shell command %s on device %s", cmd,
-                            mDevice.getSerialNumber()), e);
+                            getSerialNumber()), e);
                 } catch (TimeoutException e) {
                     Log.e(String.format("Failed to execute shell command %s on device %s", cmd,
-                            mDevice.getSerialNumber()), e);
+                            getSerialNumber()), e);
                 } catch (AdbCommandRejectedException e) {
                     Log.e(String.format("Failed to execute shell command %s on device %s", cmd,
-                            mDevice.getSerialNumber()), e);
+                            getSerialNumber()), e);
                 } catch (ShellCommandUnresponsiveException e) {
                     Log.e(String.format("Failed to execute shell command %s on device %s", cmd,
-                            mDevice.getSerialNumber()), e);
+                            getSerialNumber()), e);
                 }
             }
         }.start();
     }
 
+    /**
+     * Run an Adb shell command on the {@link IDevice} and wait for it to finish.
+     *
+     * @param cmd the string of command.
+     * @param receiver {@link IShellOutputReceiver}
+     */
+    void runShellCommand(final String cmd, final IShellOutputReceiver receiver)
+            throws IOException, TimeoutException, AdbCommandRejectedException,
+            ShellCommandUnresponsiveException {
+        IDevice device = mDevice;
+        if (device == null) {
+            throw new IOException("device " + getSerialNumber() + " is not connected");
+        }
+        device.executeShellCommand(cmd, receiver, 0);
+    }
+
     /**
      * Kill {@link Client} which running the test on the {@link IDevice}
      *
      * @param packageName the test package name
      */
     public void killProcess(String packageName) {
-        if (mStatus == STATUS_OFFLINE) {
+        if ((mStatus == STATUS_OFFLINE) || (mDevice == null)) {
             return;
         }
         Client[] clients = mDevice.getClients();
@@ -1791,7 +2012,7 @@ public class TestDevice implements DeviceObserver {
             Log.d("TestDevice.disconnected calls notifyTestingDeviceDisconnected");
             mDeviceObserver.notifyTestingDeviceDisconnected();
         } else {
-            if (!TestSession.isADBServerRestartedMode()) {
+            if (!TestSession.isAnyADBServerRestartedMode()) {
                 CUIOutputStream.printPrompt();
             }
         }
@@ -31,7 +31,9 @@ import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -60,7 +62,8 @@ public class TestHost extends XMLResourceHandler implements SessionObserver {
         UNINITIALIZED, RUN, CONSOLE
     }
 
-    static private ArrayList<TestSession> sSessions = new ArrayList<TestSession>();
+    static private List<TestSession> sSessions =
+            Collections.synchronizedList(new ArrayList<TestSession>());
     static private DeviceManager sDeviceManager = new DeviceManager();
     static private Object sTestSessionSync = new Object();
 
@@ -80,7 +83,17 @@ public class TestHost extends XMLResourceHandler implements SessionObserver {
             exit();
         }
 
-        sDeviceManager.initAdb();
+        try {
+            DeviceSimulator simulator = DeviceSimulator.fromSystemProperties();
+            if (simulator != null) {
+                sDeviceManager.initSimulator(simulator);
+            } else {
+                sDeviceManager.initAdb();
+            }
+        } catch (IOException e) {
+            Log.e("Failed to load the transcripts of the device simulator", e);
+            exit();
+        }
 
         sConsoleUi = new ConsoleUi(getInstance());
         CommandParser cp = init(sConsoleUi, mainArgs);
@@ -111,6 +124,10 @@ public class TestHost extends XMLResourceHandler implements SessionObserver {
      * Release host lock and then exit.
      */
     private static void exit() {
+        DeviceSimulator simulator = sDeviceManager.getSimulator();
+        if (simulator != null) {
+            CUIOutputStream.println(simulator.getSummary());
+        }
         Log.closeLog();
         HostLock.release();
         System.exit(-1);
@@ -455,7 +472,39 @@ public class TestHost extends XMLResourceHandler implements SessionObserver {
         }
 
         ts.setObserver(getInstance());
-        TestDevice device = sDeviceManager.allocateFreeDeviceById(deviceId);
+        DeviceManager.DeviceLease[] leases = sDeviceManager.acquireDevices(deviceId,
+                ts.getNumOfRequiredDevices(), ts.getPriority(), ts.getDeviceWaitTimeout(),
+                ts.getId());
+        String[] deviceIds = new String[leases.length];
+        for (int i = 0; i < leases.length; i++) {
+            deviceIds[i] = leases[i].getSerialNumber();
+        }
+        ts.setLeasedDeviceIds(deviceIds);
+        try {
+            runTestOnDevice(ts, deviceIds[0], testFullName, javaPkgName, type);
+        } finally {
+            ts.setLeasedDeviceIds(new String[0]);
+            for (DeviceManager.DeviceLease lease : leases) {
+                sDeviceManager.releaseDevice(lease);
+            }
+        }
+    }
+
+    /**
+     * Run the specified {@link TestSession} on the leased {@link TestDevice}.
+     *
+     * @param ts the specified {@link TestSession}
+     * @param deviceId the ID of the leased {@link TestDevice}
+     * @param testFullName The full name of the test to be run.
+     * @param javaPkgName The specific java package name to be run.
+     * @param type The action type to activate the test session.
+     */
+    static private void runTestOnDevice(final TestSession ts, final String deviceId,
+            final String testFullName, final String javaPkgName, ActionType type)
+            throws DeviceNotAvailableException, TestNotFoundException, IllegalTestNameException,
+            DeviceDisconnectedException, InvalidNameSpaceException,
+            InvalidApkPathException {
+        TestDevice device = sDeviceManager.getDevice(deviceId);
         TestSessionLog sessionLog = ts.getSessionLog();
         ts.setTestDevice(device);
         ts.getDevice().installDeviceSetupApp();
@@ -488,17 +537,14 @@ public class TestHost extends XMLResourceHandler implements SessionObserver {
                 Log.d(e.getMessage());
                 Log.i("Max ADB operations reached. Restarting ADB...");
 
-                TestSession.setADBServerRestartedMode();
+                ts.setADBServerRestartedMode();
                 sDeviceManager.restartADBServer(ts);
 
                 type = ActionType.RESUME_SESSION;
             }
         }
 
-        TestSession.resetADBServerRestartedMode();
-        if (HostConfig.getMaxTestCount() > 0) {
-            sDeviceManager.resetTestDevice(ts.getDevice());
-        }
+        ts.resetADBServerRestartedMode();
 
         ts.getDevice().uninstallDeviceSetupApp();
     }
@@ -545,7 +591,9 @@ public class TestHost extends XMLResourceHandler implements SessionObserver {
      * @return The sessions.
      */
     public Collection<TestSession> getSessions() {
-        return sSessions;
+        synchronized (sSessions) {
+            return new ArrayList<TestSession>(sSessions);
+        }
     }
 
     /**
@@ -555,7 +603,7 @@ public class TestHost extends XMLResourceHandler implements SessionObserver {
      * @return The session.
      */
     public TestSession getSession(final int sessionId) {
-        for (TestSession session : sSessions) {
+        for (TestSession session : getSessions()) {
             if (session.getId() == sessionId) {
                 return session;
             }
@@ -571,7 +619,7 @@ public class TestHost extends XMLResourceHandler implements SessionObserver {
      */
     public ArrayList<TestSession> getSessionList(final String testPlanName) {
         ArrayList<TestSession> list = new ArrayList<TestSession>();
-        for (TestSession session : sSessions) {
+        for (TestSession session : getSessions()) {
             if (testPlanName.equals(session.getSessionLog().getTestPlanName())) {
                 list.add(session);
             }
@@ -590,7 +638,12 @@ public class TestHost extends XMLResourceHandler implements SessionObserver {
         TestDevice[] devices = sDeviceManager.getDeviceList();
 
         for (TestDevice device : devices) {
-            deviceList.add(device.getSerialNumber() + "\t" + device.getStatusAsString());
+            String status = device.getStatusAsString();
+            DeviceManager.DeviceLease lease = sDeviceManager.getLease(device.getSerialNumber());
+            if (lease != null) {
+                status += " (session " + lease.getOwnerId() + ")";
+            }
+            deviceList.add(device.getSerialNumber() + "\t" + status);
         }
         return deviceList.toArray(new String[deviceList.size()]);
     }
@@ -625,7 +678,7 @@ public class TestHost extends XMLResourceHandler implements SessionObserver {
      */
     public Collection<TestSessionLog> getSessionLogs() {
         ArrayList<TestSessionLog> sessionLogs = new ArrayList<TestSessionLog>();
-        for (TestSession session : sSessions) {
+        for (TestSession session : getSessions()) {
             sessionLogs.add(session.getSessionLog());
         }
         return sessionLogs;
@@ -678,6 +731,41 @@ public class TestHost extends XMLResourceHandler implements SessionObserver {
         return ts;
     }
 
+    /**
+     * Start a test session on its own thread and return immediately, so that several sessions
+     * can run concurrently on different devices. If the device is busy, the session waits in
+     * the device queue of the {@link DeviceManager} according to its priority.
+     *
+     * @param ts The test session.
+     * @param deviceId Target device ID, or null to run on any free device.
+     * @param testFullName Specific test full name.
+     * @param javaPkgName The specific java package name to be run.
+     * @param type The action type to activate the test session.
+     */
+    public void startSessionInBackground(final TestSession ts, final String deviceId,
+            final String testFullName, final String javaPkgName, final ActionType type) {
+        new Thread("session-" + ts.getId()) {
+            @Override
+            public void run() {
+                try {
+                    startSession(ts, deviceId, testFullName, javaPkgName, type);
+                } catch (DeviceNotAvailableException e) {
+                    CUIOutputStream.println("Session " + ts.getId() + ": " + e.getMessage());
+                } catch (TestNotFoundException e) {
+                    CUIOutputStream.println(e.getMessage());
+                } catch (IllegalTestNameException e) {
+                    CUIOutputStream.println("Illegal case name: " + testFullName);
+                } catch (DeviceDisconnectedException e) {
+                    Log.e("Device " + e.getMessage() + " disconnected ", null);
+                } catch (InvalidNameSpaceException e) {
+                    Log.e(e.getMessage(), null);
+                } catch (InvalidApkPathException e) {
+                    Log.e(e.getMessage(), null);
+                }
+            }
+        }.start();
+    }
+
     /**
      * Get plan name from what is typed in by the user.
      *
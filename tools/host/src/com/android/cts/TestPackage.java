@@ -49,6 +49,12 @@ public class TestPackage implements DeviceObserver {
     public static final String FINISH = "finish";
     public static final String START = "start";
 
+    /**
+     * Max length of the comma separated class argument of a single chunk mode command, to keep
+     * the command within the limits of the adb shell.
+     */
+    private static final int MAX_CHUNK_ARG_LENGTH = 2048;
+
     private String mName, mVersion, mAndroidVersion;
     private String mTargetNameSpace, mTargetBinaryName, mInstrumentationRunner;
     private Collection<TestSuite> mSuites;
@@ -795,6 +801,28 @@ public class TestPackage implements DeviceObserver {
         mTestThread = thread;
     }
 
+    /**
+     * Get the session this package is running in.
+     *
+     * @return The test session, or null if this package is not running.
+     */
+    public TestSession getTestSession() {
+        if (mTestThread == null) {
+            return null;
+        }
+        return mTestThread.getTestSession();
+    }
+
+    /**
+     * Check if the session this package is running in is in ADB server restarted mode.
+     *
+     * @return If in ADB server restarted mode, return true; else, return false.
+     */
+    protected boolean isADBServerRestartedMode() {
+        TestSession session = getTestSession();
+        return (session != null) && session.isADBServerRestartedMode();
+    }
+
     /**
      * Check if it's valid to use batch mode.
      *
@@ -824,6 +852,28 @@ public class TestPackage implements DeviceObserver {
         return true;
     }
 
+    /**
+     * Check if it's valid to use chunk mode, which is used for packages that can't run in
+     * batch mode because they are too large or have been partially run already.
+     *
+     * @return If chunk mode is enabled and no test under this package depends on any host
+     *         controller, return true; else, return false.
+     */
+    private boolean supportsChunkMode() {
+        if (HostConfig.Ints.maxTestsInChunkMode.value() <= 0) {
+            return false;
+        }
+
+        for (Test test : getTests()) {
+            if ((test.getTestController() != null)
+                && (test.getTestController().getFullName() != null)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Get the first segment list of all of the test packages.
      *
@@ -875,7 +925,13 @@ public class TestPackage implements DeviceObserver {
     private void runInBatchModeImpl(String javaPkgName)
             throws DeviceDisconnectedException {
         mDevice.runInBatchMode(this, javaPkgName);
+        waitForBatchModeFinish();
+    }
 
+    /**
+     * Wait until the running batch mode command finished or timed out.
+     */
+    private void waitForBatchModeFinish() {
         synchronized (mTimeOutTimer) {
             if (!mTestStop) {
                 try {
@@ -896,6 +952,155 @@ public class TestPackage implements DeviceObserver {
         }
     }
 
+    /**
+     * Run the tests of this package which have not been executed yet in chunk mode.
+     * <p/>
+     * The remaining tests are grouped class by class into chunks of at most
+     * {@link HostConfig.Ints#maxTestsInChunkMode} tests, each run with a single instrumentation
+     * command. If a chunk does not report results for all of its tests, e.g. because the
+     * instrumentation crashed, the chunk size is halved so that the test causing the crash is
+     * isolated. A test which does not report a result even when run on its own is run in
+     * individual mode. After each complete chunk the chunk size is doubled again, up to the
+     * configured maximum.
+     *
+     * @param javaPkgName The java package name. If null, run the whole package;
+     *              else, run the specified java package contained in this package
+     */
+    private void runInChunkMode(final String javaPkgName)
+            throws DeviceDisconnectedException, ADBServerNeedRestartException {
+        final int maxChunkSize = HostConfig.Ints.maxTestsInChunkMode.value();
+        int chunkSize = maxChunkSize;
+        mProgressObserver = new ProgressObserver();
+
+        List<Test> remainingTests = getRemainingTests(javaPkgName);
+        while (!remainingTests.isEmpty() && (!mTestStop)) {
+            List<Test> chunk = new ArrayList<Test>();
+            List<String> names = getNextChunk(remainingTests, chunkSize, chunk);
+            Log.d("run chunk of " + chunk.size() + " tests");
+
+            mIsInBatchMode = true;
+            mTimeOutTimer = new HostTimer(new TimeOutTask(this),
+                    HostConfig.Ints.batchStartTimeoutMs.value());
+            mTimeOutTimer.start();
+            mDevice.runTestsInBatchMode(this, names);
+            waitForBatchModeFinish();
+            mIsInBatchMode = false;
+
+            if (mTestStop) {
+                break;
+            }
+
+            int notExecuted = 0;
+            for (Test test : chunk) {
+                if (test.getResult().isNotExecuted()) {
+                    notExecuted++;
+                }
+            }
+
+            if (notExecuted == 0) {
+                chunkSize = Math.min(maxChunkSize, chunkSize * 2);
+            } else if (chunk.size() == 1) {
+                Test test = chunk.get(0);
+                Log.d("run " + test.getFullName() + " in individual mode");
+                mCurrentTestSuite = test.getTestSuite();
+                mCurrentTestSuite.run(mDevice, test);
+                mCurrentTestSuite = null;
+                if (test.getResult().isNotExecuted()) {
+                    // leave the remaining tests to individual mode
+                    break;
+                }
+            } else {
+                chunkSize = Math.max(1, Math.min(chunkSize, chunk.size()) / 2);
+                Log.d("chunk incomplete, reduce chunk size to " + chunkSize);
+            }
+
+            remainingTests = getRemainingTests(javaPkgName);
+        }
+    }
+
+    /**
+     * Get the tests of this package which have not been executed yet.
+     *
+     * @param javaPkgName The java package name. If not null, only return the tests contained
+     *            in the specified java package.
+     * @return The tests which have not been executed yet, in order.
+     */
+    private List<Test> getRemainingTests(final String javaPkgName) {
+        List<Test> remainingTests = new ArrayList<Test>();
+        for (Test test : getTests()) {
+            if (!test.getResult().isNotExecuted()) {
+                continue;
+            }
+            if ((javaPkgName == null) || (javaPkgName.length() == 0)
+                    || test.getTestCase().getFullName().startsWith(javaPkgName)) {
+                remainingTests.add(test);
+            }
+        }
+        return remainingTests;
+    }
+
+    /**
+     * Build the next chunk from the remaining tests.
+     * <p/>
+     * Whole classes are added as long as they fit into the chunk; a class which has more
+     * remaining tests than the chunk size, or which has been partially run already, is added
+     * test by test.
+     *
+     * @param remainingTests The tests which have not been executed yet, in order.
+     * @param chunkSize The max number of tests in the chunk.
+     * @param chunk Filled with the tests contained in the chunk.
+     * @return The class and <code>class#method</code> names to be passed to the instrumentation.
+     */
+    private List<String> getNextChunk(final List<Test> remainingTests, final int chunkSize,
+            List<Test> chunk) {
+        List<String> names = new ArrayList<String>();
+        int argLength = 0;
+        int i = 0;
+        while (i < remainingTests.size()) {
+            TestCase testCase = remainingTests.get(i).getTestCase();
+            int end = i;
+            while ((end < remainingTests.size())
+                    && (remainingTests.get(end).getTestCase() == testCase)) {
+                end++;
+            }
+            List<Test> classTests = remainingTests.subList(i, end);
+
+            if (!chunk.isEmpty() && (chunk.size() + classTests.size() > chunkSize)) {
+                // keep the class for the next chunk rather than splitting it
+                break;
+            }
+
+            if ((classTests.size() <= chunkSize)
+                    && (classTests.size() == testCase.getTests().size())) {
+                // all tests of this class are left, run the class as a whole
+                String name = testCase.getFullName();
+                if (!chunk.isEmpty() && (argLength + name.length() + 1 > MAX_CHUNK_ARG_LENGTH)) {
+                    break;
+                }
+                names.add(name);
+                argLength += name.length() + 1;
+                chunk.addAll(classTests);
+            } else {
+                for (Test test : classTests) {
+                    String name = test.getFullName();
+                    if (!chunk.isEmpty() && ((chunk.size() >= chunkSize)
+                            || (argLength + name.length() + 1 > MAX_CHUNK_ARG_LENGTH))) {
+                        return names;
+                    }
+                    names.add(name);
+                    argLength += name.length() + 1;
+                    chunk.add(test);
+                }
+            }
+
+            if (chunk.size() >= chunkSize) {
+                break;
+            }
+            i = end;
+        }
+        return names;
+    }
+
     /**
      * Run this package in individual mode.
      *
@@ -1028,6 +1233,13 @@ public class TestPackage implements DeviceObserver {
                         Log.d("run in individual mode");
                         runInIndividualMode(javaPkgName);
                     }
+                } else if (supportsChunkMode()) {
+                    Log.d("run in chunk mode...");
+                    runInChunkMode(javaPkgName);
+                    if (!isAllTestsRun()) {
+                        Log.d("run in individual mode");
+                        runInIndividualMode(javaPkgName);
+                    }
                 } else {
                     Log.d("run in individual mode...");
                     runInIndividualMode(javaPkgName);
@@ -1036,7 +1248,7 @@ public class TestPackage implements DeviceObserver {
 
             if (!mTestStop) {
                 uninstall();
-                if (!TestSession.isADBServerRestartedMode()) {
+                if (!isADBServerRestartedMode()) {
                     println(PKG_LOG_SEPARATOR);
                 }
             }
@@ -1053,7 +1265,7 @@ public class TestPackage implements DeviceObserver {
      * @param javaPkgName The JAVA package name.
      */
     protected void setup(final TestDevice device, final String javaPkgName) {
-        if (!TestSession.isADBServerRestartedMode() || noTestsExecuted()) {
+        if (!isADBServerRestartedMode() || noTestsExecuted()) {
             println(PKG_LOG_SEPARATOR);
             if ((javaPkgName == null) || (javaPkgName.length() == 0)) {
                 println("Test package: " + getAppPackageName());
@@ -32,19 +32,29 @@ public class TestSession {
     private STATUS mStatus;
 
     private static int sIdCounter = 0;
+    /** Number of sessions currently restarting the ADB server, used for console output. */
+    private static int sADBServerRestartingSessions = 0;
 
     enum STATUS {
         INIT, STARTED, INSTALLING, RUNNING, PAUSED, RESUMED, STOPPED, FINISHED
     }
 
     private int mRequiredDeviceNumber;
+    /** Serial numbers of the devices leased for this session, the one of mDevice first. */
+    private String[] mLeasedDeviceIds;
     private boolean mTestStop;
     private TestSessionThread mTestThread;
     private boolean mNeedRestartAdbServer;
-    private static boolean mADBServerRestartedMode;
+    private boolean mADBServerRestartedMode;
+    private ResultObserver mResultObserver;
+
+    /** Priority of this session when waiting for a device. Higher values are served first. */
+    private int mPriority;
+    /** Max time [ms] to wait for a device to become free. A value <= 0 doesn't wait. */
+    private long mDeviceWaitTimeout;
 
     /** Running count of tests executed since last reboot. */
-    private static long mTestCount;
+    private long mTestCount;
 
     public TestSession(final TestSessionLog sessionLog,
             final int requiredDeviceNum) {
@@ -56,8 +66,14 @@ public class TestSession {
         mSessionLog = sessionLog;
         mDevice = null;
         mRequiredDeviceNumber = requiredDeviceNum;
+        mLeasedDeviceIds = new String[0];
         mTestStop = false;
-        mId = sIdCounter++;
+        mResultObserver = new ResultObserver();
+        mPriority = 0;
+        mDeviceWaitTimeout = 0;
+        synchronized (TestSession.class) {
+            mId = sIdCounter++;
+        }
     }
 
     /**
@@ -65,22 +81,32 @@ public class TestSession {
      *
      * @return The last session ID.
      */
-    public static int getLastSessionId() {
+    public static synchronized int getLastSessionId() {
         return sIdCounter-1;
     }
 
     /**
      * Set ADB server restarted mode.
      */
-    public static void setADBServerRestartedMode() {
-        mADBServerRestartedMode = true;
+    public void setADBServerRestartedMode() {
+        synchronized (TestSession.class) {
+            if (!mADBServerRestartedMode) {
+                sADBServerRestartingSessions++;
+            }
+            mADBServerRestartedMode = true;
+        }
     }
 
     /**
      * Reset ADB server restarted mode.
      */
-    public static void resetADBServerRestartedMode() {
-        mADBServerRestartedMode = false;
+    public void resetADBServerRestartedMode() {
+        synchronized (TestSession.class) {
+            if (mADBServerRestartedMode) {
+                sADBServerRestartingSessions--;
+            }
+            mADBServerRestartedMode = false;
+        }
     }
 
     /**
@@ -88,21 +114,30 @@ public class TestSession {
      *
      * @return If in ADB server restarted mode, return true; else, return false.
      */
-    public static boolean isADBServerRestartedMode() {
+    public boolean isADBServerRestartedMode() {
         return mADBServerRestartedMode;
     }
 
+    /**
+     * Check if any session is in ADB server restarted mode.
+     *
+     * @return If any session is in ADB server restarted mode, return true; else, return false.
+     */
+    public static synchronized boolean isAnyADBServerRestartedMode() {
+        return sADBServerRestartingSessions > 0;
+    }
+
     /**
      * Increase the test count.
      */
-    public static void incTestCount() {
+    public void incTestCount() {
         mTestCount++;
     }
 
     /**
      * Reset the test count.
      */
-    public static void resetTestCount() {
+    public void resetTestCount() {
         mTestCount = 0;
     }
 
@@ -111,7 +146,7 @@ public class TestSession {
      *
      * @return The test count recently has been run.
      */
-    public static long getTestCount() {
+    public long getTestCount() {
         return mTestCount;
     }
 
@@ -121,11 +156,56 @@ public class TestSession {
      *
      * @return true, if the max count is enabled and exceeded.
      */
-    public static boolean exceedsMaxCount() {
+    public boolean exceedsMaxCount() {
         final long maxTestCount = HostConfig.getMaxTestCount();
         return (maxTestCount > 0) && (mTestCount >= maxTestCount);
     }
 
+    /**
+     * Get the observer which updates the result file of this session.
+     *
+     * @return The result observer.
+     */
+    ResultObserver getResultObserver() {
+        return mResultObserver;
+    }
+
+    /**
+     * Set the priority of this session when waiting for a device.
+     *
+     * @param priority The priority. Higher values are served first.
+     */
+    public void setPriority(final int priority) {
+        mPriority = priority;
+    }
+
+    /**
+     * Get the priority of this session when waiting for a device.
+     *
+     * @return The priority.
+     */
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Set the max time to wait for a device to become free when starting this session.
+     *
+     * @param timeout The max time [ms] to wait. A value <= 0 doesn't wait.
+     */
+    public void setDeviceWaitTimeout(final long timeout) {
+        mDeviceWaitTimeout = timeout;
+    }
+
+    /**
+     * Get the max time to wait for a device to become free when starting this session.
+     *
+     * @return The max time [ms] to wait.
+     */
+    public long getDeviceWaitTimeout() {
+        return mDeviceWaitTimeout;
+    }
+
     /**
      * Get status.
      *
@@ -135,6 +215,16 @@ public class TestSession {
         return mStatus;
     }
 
+    /**
+     * Check if this session is currently running.
+     *
+     * @return If the session has been started or resumed and not finished yet, return true;
+     *         else, return false.
+     */
+    public boolean isRunning() {
+        return (mStatus == STATUS.STARTED) || (mStatus == STATUS.RESUMED);
+    }
+
     /**
      * Get device ID.
      *
@@ -165,6 +255,27 @@ public class TestSession {
         return mRequiredDeviceNumber;
     }
 
+    /**
+     * Get the serial numbers of the devices leased for this session.
+     * <p/>
+     * The test packages run on the first device. The others are held for the session as long as
+     * it runs, for tests which need {@link #getNumOfRequiredDevices()} devices.
+     *
+     * @return The serial numbers, empty if the session is not running.
+     */
+    public String[] getLeasedDeviceIds() {
+        return mLeasedDeviceIds;
+    }
+
+    /**
+     * Set the serial numbers of the devices leased for this session.
+     *
+     * @param deviceIds The serial numbers, the one of the test device first.
+     */
+    public void setLeasedDeviceIds(final String[] deviceIds) {
+        mLeasedDeviceIds = deviceIds;
+    }
+
     /**
      * Get ID.
      *
@@ -367,23 +478,32 @@ public class TestSession {
 
         public TestSessionThread(final TestSession ts) {
             mTestSession = ts;
-            mResultObserver = ResultObserver.getInstance();
+            mResultObserver = ts.getResultObserver();
         }
 
         public TestSessionThread(final TestSession ts, final Test test) {
             mTestSession = ts;
-            mResultObserver = ResultObserver.getInstance();
+            mResultObserver = ts.getResultObserver();
             mTest = test;
         }
 
         public TestSessionThread(final TestSession ts,
                 final TestPackage pkg, final String javaPkgName) {
             mTestSession = ts;
-            mResultObserver = ResultObserver.getInstance();
+            mResultObserver = ts.getResultObserver();
             mTestPackage = pkg;
             mJavaPackageName = javaPkgName;
         }
 
+        /**
+         * Get the session run by this thread.
+         *
+         * @return The test session.
+         */
+        public TestSession getTestSession() {
+            return mTestSession;
+        }
+
         /** {@inheritDoc} */
         @Override
         public void run() {
@@ -525,23 +645,16 @@ public class TestSession {
      *    <li> User action to cause the system exit
      * </ul>
      *
+     * Each session has its own observer, so that concurrently running sessions update their
+     * own result files.
      */
-   static class ResultObserver {
-        static private boolean mFinished = false;
-        static private boolean mNotified = false; //used for avoiding race condition
-        static private boolean mNeedUpdate = true;
-        static private TestSessionLog mSessionLog;
-        static final ResultObserver sInstance = new ResultObserver();
+    static class ResultObserver {
+        private volatile boolean mFinished = false;
+        private boolean mNotified = false; //used for avoiding race condition
+        private boolean mNeedUpdate = true;
+        private TestSessionLog mSessionLog;
 
         private Observer mObserver;
-        /**
-         * Get the static instance.
-         *
-         * @return The static instance.
-         */
-        public static final ResultObserver getInstance() {
-            return sInstance;
-        }
 
         /**
          * Set TestSessionLog.
@@ -107,6 +107,7 @@ public class TestSessionLog extends XMLResourceHandler {
     private Date mSessionEndTime;
     private String mResultPath;
     private String mResultDir;
+    private ResultArchive mArchive;
     private String mTestPlanName;
 
     private ArrayList<DeviceParameterCollector> mDeviceParameterBase;
@@ -214,6 +215,18 @@ public class TestSessionLog extends XMLResourceHandler {
         return mResultDir;
     }
 
+    /**
+     * Hand in a file written to the result directory which will not change any more, so
+     * that it can be added to the result archive right away.
+     *
+     * @param file The result file.
+     */
+    public void addResultFile(final File file) {
+        if (mArchive != null) {
+            mArchive.addFile(file);
+        }
+    }
+
     /**
      * set TestSession start time
      *
@@ -228,6 +241,7 @@ public class TestSessionLog extends XMLResourceHandler {
         mResultPath =  mResultDir + File.separator + CTS_RESULT_FILE_NAME;
         // Make sure the result directory exists
         new File(mResultDir).mkdirs();
+        mArchive = new ResultArchive(mResultDir, mResultDir + ".zip");
     }
 
     /**
@@ -247,22 +261,13 @@ public class TestSessionLog extends XMLResourceHandler {
     public void sessionComplete() {
         try {
             writeToFile(new File(mResultPath), createResultDoc());
+            HostConfig.getInstance().extractResultResources(mResultDir);
             // Now zip up the results directory so we have something nice
-            // that people can upload.
-            HostUtils.zipUpDirectory(mResultDir,
-                    mResultDir + ".zip",
-                    new HostUtils.ZipFilenameTransformer() {
-                        public String transform(String filename) {
-                            if (filename.startsWith(mResultDir)) {
-                                return filename.substring(mResultDir.length() + 1);
-                            }
-                            return filename;
-                        }
-            });
+            // that people can upload. Only new and changed files are added.
+            mArchive.update();
         } catch (Exception e) {
             Log.e("Got exception when trying to write to result file", e);
         }
-        HostConfig.getInstance().extractResultResources(mResultDir);
     }
 
     /**
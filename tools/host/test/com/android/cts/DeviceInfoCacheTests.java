@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts;
+
+import com.android.cts.TestDevice.DeviceParameterCollector;
+
+/**
+ * Test the device info cache.
+ */
+public class DeviceInfoCacheTests extends CtsTestBase {
+
+    private static final String SERIAL = "192.168.0.2:5555";
+    private static final String FINGERPRINT = "generic/sdk/generic:2.3/GRH55/79397:eng/test-keys";
+
+    /**
+     * Test that cached device info is only returned for the build it was collected on.
+     */
+    public void testGetByFingerprint() {
+        DeviceInfoCache cache = new DeviceInfoCache(ROOT);
+        DeviceParameterCollector info = new DeviceParameterCollector();
+        info.setBuildFingerPrint(FINGERPRINT);
+        info.setBuildModel("sdk");
+        cache.put(SERIAL, info);
+
+        // a new cache instance reads back what an earlier session stored
+        cache = new DeviceInfoCache(ROOT);
+        DeviceParameterCollector cached = cache.get(SERIAL, FINGERPRINT);
+        assertNotNull(cached);
+        assertEquals("sdk", cached.getBuildModel());
+        assertEquals(FINGERPRINT, cached.getBuildFingerPrint());
+
+        assertNull(cache.get(SERIAL, FINGERPRINT + "-new"));
+        assertNull(cache.get(SERIAL, null));
+        assertNull(cache.get("other_device", FINGERPRINT));
+
+        cache.remove(SERIAL);
+        assertNull(cache.get(SERIAL, FINGERPRINT));
+    }
+
+    /**
+     * Test that device info without a build fingerprint is not cached.
+     */
+    public void testPutWithoutFingerprint() {
+        DeviceInfoCache cache = new DeviceInfoCache(ROOT);
+        DeviceParameterCollector info = new DeviceParameterCollector();
+        info.setBuildModel("sdk");
+        cache.put(SERIAL, info);
+
+        assertNull(cache.get(SERIAL, FINGERPRINT));
+    }
+}
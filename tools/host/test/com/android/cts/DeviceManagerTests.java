@@ -172,4 +172,173 @@ public class DeviceManagerTests extends CtsTestBase {
         assertEquals(d2.getStatus(), TestDevice.STATUS_OFFLINE);
         assertEquals(d3.getStatus(), TestDevice.STATUS_IDLE);
     }
+
+    /**
+     * Test acquiring and releasing device leases.
+     */
+    public void testAcquireDevice() throws DeviceNotAvailableException {
+        DeviceManager dm = new DeviceManager();
+        dm.mDevices.add(d1);
+        dm.mDevices.add(d2);
+
+        try {
+            dm.acquireDevice("fake device", 0, 0, 0);
+            fail();
+        } catch (DeviceNotAvailableException e) {
+            // pass
+        }
+
+        DeviceManager.DeviceLease lease1 = dm.acquireDevice(d1SerialNumber, 0, 0, 1);
+        assertEquals(d1SerialNumber, lease1.getSerialNumber());
+        assertEquals(1, lease1.getOwnerId());
+        assertEquals(TestDevice.STATUS_BUSY, d1.getStatus());
+        assertSame(lease1, dm.getLease(d1SerialNumber));
+
+        try {
+            dm.acquireDevice(d1SerialNumber, 0, 0, 2);
+            fail();
+        } catch (DeviceNotAvailableException e) {
+            // pass
+        }
+
+        DeviceManager.DeviceLease lease2 = dm.acquireDevice(null, 0, 0, 2);
+        assertEquals(d2SerialNumber, lease2.getSerialNumber());
+
+        try {
+            dm.acquireDevice(null, 0, 0, 3);
+            fail();
+        } catch (DeviceNotAvailableException e) {
+            // pass
+        }
+
+        dm.releaseDevice(lease1);
+        assertNull(dm.getLease(d1SerialNumber));
+        assertEquals(TestDevice.STATUS_IDLE, d1.getStatus());
+        assertEquals(d1SerialNumber, dm.acquireDevice(null, 0, 0, 3).getSerialNumber());
+    }
+
+    /**
+     * Test acquiring leases on several devices at once.
+     */
+    public void testAcquireDevices() throws DeviceNotAvailableException {
+        DeviceManager dm = new DeviceManager();
+        dm.mDevices.add(d1);
+        dm.mDevices.add(d2);
+        dm.mDevices.add(d3);
+
+        try {
+            dm.acquireDevices(null, 4, 0, 0, 1);
+            fail();
+        } catch (DeviceNotAvailableException e) {
+            // pass
+        }
+
+        DeviceManager.DeviceLease[] leases = dm.acquireDevices(d2SerialNumber, 2, 0, 0, 1);
+        assertEquals(2, leases.length);
+        assertEquals(d2SerialNumber, leases[0].getSerialNumber());
+        assertEquals(d1SerialNumber, leases[1].getSerialNumber());
+        assertSame(leases[1], dm.getLease(d1SerialNumber));
+
+        // one device is left, the devices are granted all at once or not at all
+        try {
+            dm.acquireDevices(null, 2, 0, 0, 2);
+            fail();
+        } catch (DeviceNotAvailableException e) {
+            // pass
+        }
+        assertNull(dm.getLease(d3SerialNumber));
+        assertEquals(TestDevice.STATUS_IDLE, d3.getStatus());
+
+        dm.releaseDevice(leases[0]);
+        DeviceManager.DeviceLease[] leases2 = dm.acquireDevices(null, 2, 0, 0, 2);
+        assertEquals(d2SerialNumber, leases2[0].getSerialNumber());
+        assertEquals(d3SerialNumber, leases2[1].getSerialNumber());
+    }
+
+    /**
+     * Test that queued device requests are served by priority.
+     */
+    public void testAcquireDevicePriority() throws Exception {
+        final DeviceManager dm = new DeviceManager();
+        dm.mDevices.add(d1);
+        DeviceManager.DeviceLease lease = dm.acquireDevice(null, 0, 0, 0);
+
+        final DeviceManager.DeviceLease[] leases = new DeviceManager.DeviceLease[2];
+        Thread low = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    leases[0] = dm.acquireDevice(null, 0, 10000, 1);
+                } catch (DeviceNotAvailableException e) {
+                    // leases[0] stays null
+                }
+            }
+        };
+        Thread high = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    leases[1] = dm.acquireDevice(null, 10, 10000, 2);
+                } catch (DeviceNotAvailableException e) {
+                    // leases[1] stays null
+                }
+            }
+        };
+        // queue the low priority request first
+        low.start();
+        waitForPendingRequests(dm, 1);
+        high.start();
+        waitForPendingRequests(dm, 2);
+
+        dm.releaseDevice(lease);
+        high.join();
+        assertNotNull(leases[1]);
+        assertEquals(2, leases[1].getOwnerId());
+        assertNull(leases[0]);
+        assertEquals(1, dm.getNumOfPendingRequests());
+
+        dm.releaseDevice(leases[1]);
+        low.join();
+        assertNotNull(leases[0]);
+        assertEquals(1, leases[0].getOwnerId());
+    }
+
+    /**
+     * Wait until the given number of device requests is queued.
+     */
+    private void waitForPendingRequests(final DeviceManager dm, final int num)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (dm.getNumOfPendingRequests() < num) {
+            assertTrue("requests not queued", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Test that the ADB server is only restarted while no other device is leased, and that no
+     * device is leased during the restart.
+     */
+    public void testAdbRestart() throws DeviceNotAvailableException {
+        DeviceManager dm = new DeviceManager();
+        dm.mDevices.add(d1);
+        dm.mDevices.add(d2);
+
+        DeviceManager.DeviceLease lease1 = dm.acquireDevice(d1SerialNumber, 0, 0, 1);
+        assertTrue(dm.beginAdbRestart(d1SerialNumber));
+        try {
+            dm.acquireDevice(d2SerialNumber, 0, 0, 2);
+            fail();
+        } catch (DeviceNotAvailableException e) {
+            // pass
+        }
+        dm.endAdbRestart();
+
+        DeviceManager.DeviceLease lease2 = dm.acquireDevice(d2SerialNumber, 0, 0, 2);
+        assertFalse(dm.beginAdbRestart(d1SerialNumber));
+        dm.releaseDevice(lease2);
+        assertTrue(dm.beginAdbRestart(d1SerialNumber));
+        dm.endAdbRestart();
+        dm.releaseDevice(lease1);
+    }
 }
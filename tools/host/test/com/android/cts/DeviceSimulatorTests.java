@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts;
+
+import com.android.cts.DeviceSimulator.Fault;
+import com.android.ddmlib.IShellOutputReceiver;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Test the simulated devices.
+ */
+public class DeviceSimulatorTests extends CtsTestBase {
+
+    private static final String CLASS_NAME = "android.foo.cts.FooTest";
+    private static final String TEST_A = CLASS_NAME + Test.METHOD_SEPARATOR + "testA";
+    private static final String TEST_B = CLASS_NAME + Test.METHOD_SEPARATOR + "testB";
+    private static final String COMMAND = "am instrument -w -r -e class " + TEST_A + "," + TEST_B
+            + " android.foo/android.test.InstrumentationTestRunner";
+
+    private static final String TRANSCRIPT =
+            "INSTRUMENTATION_STATUS: id=InstrumentationTestRunner\n"
+            + "INSTRUMENTATION_STATUS: current=1\n"
+            + "INSTRUMENTATION_STATUS: class=" + CLASS_NAME + "\n"
+            + "INSTRUMENTATION_STATUS: numtests=2\n"
+            + "INSTRUMENTATION_STATUS: stream=\n"
+            + "INSTRUMENTATION_STATUS: test=testA\n"
+            + "INSTRUMENTATION_STATUS_CODE: 1\n"
+            + "INSTRUMENTATION_STATUS: id=InstrumentationTestRunner\n"
+            + "INSTRUMENTATION_STATUS: current=1\n"
+            + "INSTRUMENTATION_STATUS: class=" + CLASS_NAME + "\n"
+            + "INSTRUMENTATION_STATUS: numtests=2\n"
+            + "INSTRUMENTATION_STATUS: stream=\n"
+            + "INSTRUMENTATION_STATUS: test=testA\n"
+            + "INSTRUMENTATION_STATUS_CODE: 0\n"
+            + "INSTRUMENTATION_STATUS: id=InstrumentationTestRunner\n"
+            + "INSTRUMENTATION_STATUS: current=2\n"
+            + "INSTRUMENTATION_STATUS: class=" + CLASS_NAME + "\n"
+            + "INSTRUMENTATION_STATUS: numtests=2\n"
+            + "INSTRUMENTATION_STATUS: stream=\n"
+            + "INSTRUMENTATION_STATUS: test=testB\n"
+            + "INSTRUMENTATION_STATUS_CODE: 1\n"
+            + "INSTRUMENTATION_STATUS: id=InstrumentationTestRunner\n"
+            + "INSTRUMENTATION_STATUS: current=2\n"
+            + "INSTRUMENTATION_STATUS: class=" + CLASS_NAME + "\n"
+            + "INSTRUMENTATION_STATUS: numtests=2\n"
+            + "INSTRUMENTATION_STATUS: stream=\n"
+            + "Error in testB:\n"
+            + "junit.framework.AssertionFailedError\n"
+            + "INSTRUMENTATION_STATUS: test=testB\n"
+            + "INSTRUMENTATION_STATUS_CODE: -2\n"
+            + "INSTRUMENTATION_RESULT: stream=\n"
+            + "Test results for InstrumentationTestRunner=.E\n"
+            + "Time: 0.1\n"
+            + "\n"
+            + "FAILURES!!!\n"
+            + "Tests run: 2,  Failures: 0,  Errors: 1\n"
+            + "\n"
+            + "INSTRUMENTATION_CODE: -1\n";
+
+    private DeviceSimulator mSimulator;
+    private SimulatedTestDevice mDevice;
+
+    /** {@inheritDoc} */
+    @Override
+    public void setUp() {
+        super.setUp();
+        InstrumentationTranscript transcript = new InstrumentationTranscript();
+        try {
+            transcript.parse(new StringReader(TRANSCRIPT));
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        mSimulator = new DeviceSimulator(1, transcript);
+        mDevice = new SimulatedTestDevice("simulated-0000", mSimulator);
+    }
+
+    /**
+     * Test splitting up a recorded instrumentation run per test.
+     */
+    public void testParseTranscript() throws IOException {
+        InstrumentationTranscript transcript = new InstrumentationTranscript();
+        transcript.parse(new StringReader(TRANSCRIPT));
+
+        assertEquals(2, transcript.size());
+        assertEquals(14, transcript.getTest(TEST_A).size());
+        assertTrue(transcript.getTest(TEST_B).contains("Error in testB:"));
+        assertNull(transcript.getTest(CLASS_NAME + Test.METHOD_SEPARATOR + "testC"));
+    }
+
+    /**
+     * Test replaying the recorded output of the tests of an instrumentation command.
+     */
+    public void testReplay() throws IOException {
+        CollectingReceiver receiver = new CollectingReceiver();
+        mDevice.runShellCommand(COMMAND, receiver);
+
+        String output = receiver.getOutput();
+        assertTrue(receiver.isFlushed());
+        assertTrue(output.contains("INSTRUMENTATION_STATUS: test=testA"));
+        assertTrue(output.contains("Error in testB:"));
+        assertTrue(output.contains("INSTRUMENTATION_CODE: -1"));
+        assertEquals(2, mDevice.getTestsRun());
+    }
+
+    /**
+     * Test that tests which were not recorded pass.
+     */
+    public void testReplayUnrecordedTest() throws IOException {
+        String testName = CLASS_NAME + Test.METHOD_SEPARATOR + "testC";
+        CollectingReceiver receiver = new CollectingReceiver();
+        mDevice.runShellCommand("am instrument -w -r -e class " + testName
+                + " android.foo/android.test.InstrumentationTestRunner", receiver);
+
+        String output = receiver.getOutput();
+        assertTrue(output.contains("INSTRUMENTATION_STATUS: test=testC"));
+        assertTrue(output.contains("INSTRUMENTATION_STATUS_CODE: 0"));
+        assertEquals(1, mDevice.getTestsRun());
+    }
+
+    /**
+     * Test that an injected crash stops the instrumentation in the middle of a test.
+     */
+    public void testCrash() throws IOException {
+        mSimulator.injectFault(TEST_A, Fault.CRASH);
+        CollectingReceiver receiver = new CollectingReceiver();
+        mDevice.runShellCommand(COMMAND, receiver);
+
+        String output = receiver.getOutput();
+        assertTrue(output.contains("INSTRUMENTATION_RESULT: shortMsg=Process crashed."));
+        assertFalse(output.contains("INSTRUMENTATION_STATUS: test=testB"));
+        assertEquals(0, mDevice.getTestsRun());
+
+        // the fault is only injected once
+        assertEquals(Fault.NONE, mSimulator.nextFault(TEST_A));
+    }
+
+    /**
+     * Test that an injected hang lasts until the host kills the instrumentation.
+     */
+    public void testHang() throws Exception {
+        mSimulator.injectFault(TEST_A, Fault.HANG);
+        final CollectingReceiver receiver = new CollectingReceiver();
+        Thread command = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mDevice.runShellCommand(COMMAND, receiver);
+                } catch (IOException e) {
+                    // checked below
+                }
+            }
+        };
+        command.start();
+        command.join(200);
+        assertTrue(command.isAlive());
+        assertFalse(receiver.isFlushed());
+
+        mDevice.killProcess("android.foo");
+        command.join(5000);
+        assertFalse(command.isAlive());
+        assertTrue(receiver.isFlushed());
+        assertTrue(receiver.getOutput().contains("shortMsg=Process crashed."));
+    }
+
+    /**
+     * Shell output receiver which keeps all output.
+     */
+    private static class CollectingReceiver implements IShellOutputReceiver {
+        private final StringBuilder mOutput = new StringBuilder();
+        private boolean mFlushed;
+
+        public synchronized void addOutput(byte[] data, int offset, int length) {
+            mOutput.append(new String(data, offset, length));
+        }
+
+        public synchronized void flush() {
+            mFlushed = true;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        synchronized String getOutput() {
+            return mOutput.toString();
+        }
+
+        synchronized boolean isFlushed() {
+            return mFlushed;
+        }
+    }
+}
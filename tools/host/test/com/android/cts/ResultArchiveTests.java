@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Test the incrementally built result archive.
+ */
+public class ResultArchiveTests extends CtsTestBase {
+
+    private static final String RESULT_DIR = ROOT + File.separator + "result_archive";
+    private static final String ARCHIVE_PATH = RESULT_DIR + ".zip";
+
+    /**
+     * Test that all files under the result directory are archived, and that already
+     * compressed files are stored.
+     */
+    public void testUpdate() throws IOException {
+        new File(RESULT_DIR, "logs").mkdirs();
+        createFile("<TestResult />", RESULT_DIR + File.separator + "testResult.xml");
+        createFile("log", RESULT_DIR + File.separator + "logs" + File.separator + "device.txt");
+        File screenshot = new File(RESULT_DIR, "snapshot.png");
+        createFile("png", screenshot.getPath());
+
+        ResultArchive archive = new ResultArchive(RESULT_DIR, ARCHIVE_PATH);
+        archive.addFile(screenshot);
+        archive.update();
+
+        ZipFile zip = new ZipFile(ARCHIVE_PATH);
+        try {
+            assertEquals(3, zip.size());
+            assertEquals("<TestResult />", readEntry(zip, "testResult.xml"));
+            assertEquals("log", readEntry(zip, "logs/device.txt"));
+            assertEquals("png", readEntry(zip, "snapshot.png"));
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("testResult.xml").getMethod());
+            assertEquals(ZipEntry.STORED, zip.getEntry("snapshot.png").getMethod());
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Test that changed and removed files are reflected by the next update.
+     */
+    public void testUpdateChangedFiles() throws IOException {
+        new File(RESULT_DIR).mkdirs();
+        String resultPath = RESULT_DIR + File.separator + "testResult.xml";
+        String logPath = RESULT_DIR + File.separator + "host_log.txt";
+        createFile("<TestResult />", resultPath);
+        createFile("log", logPath);
+
+        ResultArchive archive = new ResultArchive(RESULT_DIR, ARCHIVE_PATH);
+        archive.update();
+
+        createFile("<TestResult pass=\"1\" />", resultPath);
+        new File(logPath).delete();
+        archive.update();
+
+        ZipFile zip = new ZipFile(ARCHIVE_PATH);
+        try {
+            assertEquals(1, zip.size());
+            assertEquals("<TestResult pass=\"1\" />", readEntry(zip, "testResult.xml"));
+        } finally {
+            zip.close();
+        }
+
+        // a deleted archive is written again from scratch
+        new File(ARCHIVE_PATH).delete();
+        archive.update();
+        zip = new ZipFile(ARCHIVE_PATH);
+        try {
+            assertEquals(1, zip.size());
+            assertEquals("<TestResult pass=\"1\" />", readEntry(zip, "testResult.xml"));
+        } finally {
+            zip.close();
+        }
+    }
+
+    private String readEntry(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        assertNotNull(name, entry);
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(zip.getInputStream(entry), "UTF-8"));
+        try {
+            StringBuilder buf = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                buf.append(line);
+            }
+            return buf.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Helpers for the converters, the comparator and the externalizers which
+ * spread their work over several threads.
+ */
+public class ConcurrentUtil {
+
+    private ConcurrentUtil() {
+    }
+
+    /**
+     * Creates a pool of daemon threads, so a pool which was not shut down
+     * does not keep the VM alive.
+     *
+     * @param threadCount
+     *            the number of threads
+     * @param name
+     *            the name of the threads
+     * @return the pool
+     */
+    public static ExecutorService newDaemonThreadPool(int threadCount,
+            final String name) {
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Waits for a task and returns its result. Runtime exceptions and errors
+     * thrown by the task are rethrown as they are.
+     *
+     * @param future
+     *            the task
+     * @return the result of the task
+     * @throws IllegalStateException
+     *             if the task threw a checked exception or the calling thread
+     *             was interrupted
+     */
+    public static <T> T getResult(Future<T> future) {
+        return getResult(future, RuntimeException.class);
+    }
+
+    /**
+     * Waits for a task and returns its result. Exceptions of the given type,
+     * runtime exceptions and errors thrown by the task are rethrown as they
+     * are.
+     *
+     * @param future
+     *            the task
+     * @param exceptionType
+     *            the type of the checked exceptions the task may throw
+     * @return the result of the task
+     * @throws E
+     *             if the task threw it
+     * @throws IllegalStateException
+     *             if the task threw another checked exception or the calling
+     *             thread was interrupted
+     */
+    public static <T, E extends Exception> T getResult(Future<T> future,
+            Class<E> exceptionType) throws E {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (exceptionType.isInstance(cause)) {
+                throw exceptionType.cast(cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
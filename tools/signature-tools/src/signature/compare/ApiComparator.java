@@ -16,6 +16,7 @@
 
 package signature.compare;
 
+import signature.ConcurrentUtil;
 import signature.compare.model.IAnnotationDelta;
 import signature.compare.model.IAnnotationElementDelta;
 import signature.compare.model.IAnnotationFieldDelta;
@@ -60,7 +61,7 @@ import signature.compare.model.impl.SigTypeVariableReferenceDelta;
 import signature.compare.model.impl.SigUpperBoundsDelta;
 import signature.compare.model.impl.SigValueDelta;
 import signature.compare.model.impl.SigWildcardTypeDelta;
-import signature.compare.model.subst.ClassProjection;
+import signature.compare.model.subst.MethodProjection;
 import signature.compare.model.subst.ViewpointAdapter;
 import signature.model.IAnnotation;
 import signature.model.IAnnotationElement;
@@ -88,13 +89,23 @@ import signature.model.Modifier;
 import signature.model.impl.SigAnnotationElement;
 import signature.model.impl.SigArrayType;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * {@code ApiComparator} takes two signature models as input and creates a delta
@@ -102,7 +113,173 @@ import java.util.Set;
  */
 public class ApiComparator implements IApiComparator {
 
+    /**
+     * Sets of up to this size are matched pairwise, larger ones by the keys of
+     * their elements.
+     */
+    private static final int MAX_PAIRWISE_SET_SIZE = 4;
+
+    /** the number of threads comparing classes */
+    private final int threadCount;
+
+    /**
+     * the closures of the class definitions of both apis, by identity. Shared
+     * by the comparing threads; a closure computed twice by racing threads is
+     * equal to the first one. Like {@link #classComparisons} it belongs to a
+     * single comparison, which {@link #compare(IApi, IApi)} runs on a
+     * comparator of its own.
+     */
+    private final Map<IClassDefinition, Closure> closures = Collections
+            .synchronizedMap(new IdentityHashMap<IClassDefinition, Closure>());
+
+    /**
+     * the comparisons of the classes of matching packages started on the
+     * executor, by the class definition of the from api, or null if the
+     * classes are compared serially
+     */
+    private Map<IClassDefinition, ClassComparison> classComparisons;
+
+    /**
+     * Creates an {@code ApiComparator} comparing the classes of the apis on as
+     * many threads as there are processors.
+     */
+    public ApiComparator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an {@code ApiComparator} comparing the classes of the apis on
+     * the given number of threads.
+     * 
+     * @param threadCount
+     *            the number of threads, 1 to compare serially
+     */
+    public ApiComparator(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount < 1");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * A comparison of two class definitions, started on the executor.
+     */
+    private static class ClassComparison {
+        final IClassDefinition to;
+        final Future<IClassDefinitionDelta> delta;
+
+        ClassComparison(IClassDefinition to,
+                Future<IClassDefinitionDelta> delta) {
+            this.to = to;
+            this.delta = delta;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The classes of packages in both apis are compared concurrently first,
+     * the deltas are then assembled on the calling thread in the order of the
+     * from api, so the result does not depend on the number of threads.
+     * <p>
+     * The comparison runs on a new comparator, so one comparator may be used
+     * by several threads at once.
+     */
     public IApiDelta compare(IApi from, IApi to) {
+        return new ApiComparator(threadCount).compareOnce(from, to);
+    }
+
+    /**
+     * Compares two apis, keeping the state of the comparison in this
+     * comparator. Must be called only once per comparator.
+     */
+    private IApiDelta compareOnce(IApi from, IApi to) {
+        ExecutorService executor = null;
+        try {
+            if (threadCount > 1) {
+                executor = ConcurrentUtil.newDaemonThreadPool(threadCount,
+                        "ApiComparator");
+                classComparisons = startClassComparisons(from, to, executor);
+            }
+            return compareApis(from, to);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Starts comparing the classes of the packages contained in both apis,
+     * matching them as {@link #compareSets(Set, Set, SigComparator)} does.
+     */
+    private Map<IClassDefinition, ClassComparison> startClassComparisons(
+            IApi from, IApi to, ExecutorService executor) {
+        Map<String, IPackage> toPackages = new HashMap<String, IPackage>();
+        for (IPackage toPackage : to.getPackages()) {
+            toPackages.put(toPackage.getName(), toPackage);
+        }
+
+        Map<IClassDefinition, ClassComparison> comparisons =
+                new IdentityHashMap<IClassDefinition, ClassComparison>();
+        for (IPackage fromPackage : from.getPackages()) {
+            IPackage toPackage = toPackages.get(fromPackage.getName());
+            if (toPackage == null) {
+                continue;
+            }
+            Map<Object, List<IClassDefinition>> toClasses =
+                    new HashMap<Object, List<IClassDefinition>>();
+            for (IClassDefinition toClass : toPackage.getClasses()) {
+                Object key = getClassKey(toClass);
+                List<IClassDefinition> candidates = toClasses.get(key);
+                if (candidates == null) {
+                    candidates = new LinkedList<IClassDefinition>();
+                    toClasses.put(key, candidates);
+                }
+                candidates.add(toClass);
+            }
+            for (final IClassDefinition fromClass : fromPackage.getClasses()) {
+                List<IClassDefinition> candidates = toClasses
+                        .get(getClassKey(fromClass));
+                if (candidates == null) {
+                    continue;
+                }
+                for (Iterator<IClassDefinition> i = candidates.iterator(); i
+                        .hasNext();) {
+                    final IClassDefinition toClass = i.next();
+                    if (sameClassDefinition(fromClass, toClass)) {
+                        i.remove();
+                        comparisons.put(fromClass, new ClassComparison(toClass,
+                                executor.submit(
+                                new Callable<IClassDefinitionDelta>() {
+                                    public IClassDefinitionDelta call() {
+                                        return compareClass(fromClass,
+                                                toClass);
+                                    }
+                                })));
+                        break;
+                    }
+                }
+            }
+        }
+        return comparisons;
+    }
+
+    /**
+     * Returns the delta of two class definitions, waiting for its comparison
+     * if it was started on the executor.
+     */
+    private IClassDefinitionDelta getClassDelta(IClassDefinition from,
+            IClassDefinition to) {
+        ClassComparison comparison = classComparisons == null ? null
+                : classComparisons.get(from);
+        if (comparison == null || comparison.to != to) {
+            return compareClass(from, to);
+        }
+        return ConcurrentUtil.getResult(comparison.delta);
+    }
+
+    private IApiDelta compareApis(IApi from, IApi to) {
         assert from.getVisibility() == to.getVisibility();
 
         Set<IPackage> fromPackages = from.getPackages();
@@ -124,6 +301,10 @@ public class ApiComparator implements IApiComparator {
                             IPackage to) {
                         return from.getName().equals(to.getName());
                     }
+
+                    public Object getMatchKey(IPackage element) {
+                        return element.getName();
+                    }
                 });
 
         SigApiDelta delta = null;
@@ -148,9 +329,13 @@ public class ApiComparator implements IApiComparator {
                         return sameClassDefinition(from, to);
                     }
 
+                    public Object getMatchKey(IClassDefinition element) {
+                        return getClassKey(element);
+                    }
+
                     public IClassDefinitionDelta createChangedDelta(
                             IClassDefinition from, IClassDefinition to) {
-                        return compareClass(from, to);
+                        return getClassDelta(from, to);
                     }
 
                     public IClassDefinitionDelta createAddRemoveDelta(
@@ -339,41 +524,202 @@ public class ApiComparator implements IApiComparator {
     }
 
     private Set<ITypeReference> getInterfaceClosure(IClassDefinition clazz) {
-        Set<ITypeReference> closure = new HashSet<ITypeReference>();
-        collectInterfaceClosure(ViewpointAdapter.getReferenceTo(clazz),
-                closure);
-        return closure;
+        return getClosure(clazz).interfaces;
     }
 
-    private void collectInterfaceClosure(ITypeReference clazz,
-            Set<ITypeReference> closure) {
+    /**
+     * The interfaces a class definition implements directly or indirectly, and
+     * the methods it declares and inherits. The interfaces are collected, with
+     * the type variables of generic supertypes substituted by the type
+     * arguments passed to them. Inherited methods are looked up in the
+     * closures of the direct supertypes, substituting the type variables of
+     * the found methods along the way. The methods inherited with a signature
+     * key are collected once and kept in the closure.
+     */
+    private static class Closure {
+        final Set<ITypeReference> interfaces = new HashSet<ITypeReference>();
+        /** the declared methods by {@link ApiComparator#getSignatureKey} */
+        final Map<String, Set<IMethod>> methods =
+                new HashMap<String, Set<IMethod>>();
+        final List<Closure> superClosures = new LinkedList<Closure>();
+        /**
+         * the substitutions of the type variables of each direct supertype, or
+         * null if it is not parameterized
+         */
+        final List<Map<ITypeVariableDefinition, ITypeReference>> superSubstitutions =
+                new LinkedList<Map<ITypeVariableDefinition, ITypeReference>>();
+        /**
+         * the inherited methods by signature key, viewed from the class, in
+         * lookup order
+         */
+        final ConcurrentMap<String, List<IMethod>> inheritedMethods =
+                new ConcurrentHashMap<String, List<IMethod>>();
+    }
 
-        IClassDefinition classDefinition = getClassDefinition(clazz);
-        Set<ITypeReference> interfaces = classDefinition.getInterfaces();
-        if (interfaces == null) {
+    /**
+     * Returns the closure of a class definition. Closures are built once per
+     * class definition on top of the closures of its direct supertypes, so the
+     * hierarchy above a class is not walked again for every class compared.
+     */
+    private Closure getClosure(IClassDefinition clazz) {
+        Closure closure = closures.get(clazz);
+        if (closure != null) {
+            return closure;
+        }
+        closure = new Closure();
+        if (clazz.getMethods() != null) {
+            addMethods(clazz.getMethods(), closure.methods);
+        }
+        if (clazz.getSuperClass() != null) {
+            addSuperTypeClosure(clazz.getSuperClass(), closure);
+        }
+        if (clazz.getInterfaces() != null) {
+            closure.interfaces.addAll(clazz.getInterfaces());
+            for (ITypeReference interfaze : clazz.getInterfaces()) {
+                addSuperTypeClosure(interfaze, closure);
+            }
+        }
+        closures.put(clazz, closure);
+        return closure;
+    }
+
+    private void addSuperTypeClosure(ITypeReference superType,
+            Closure closure) {
+        IClassDefinition superClass = getClassDefinition(superType);
+        if (superClass == null) {
             return;
         }
-        for (ITypeReference interfaze : interfaces) {
-            closure.add(interfaze);
+        Closure superClosure = getClosure(superClass);
+        closure.superClosures.add(superClosure);
+        if (!(superType instanceof IParameterizedType)) {
+            closure.superSubstitutions.add(null);
+            closure.interfaces.addAll(superClosure.interfaces);
+            return;
         }
+        // view the supertype's closure through the type arguments passed to it
+        Map<ITypeVariableDefinition, ITypeReference> substitutions =
+                new HashMap<ITypeVariableDefinition, ITypeReference>();
+        List<ITypeVariableDefinition> typeParameters = superClass
+                .getTypeParameters();
+        List<ITypeReference> typeArguments = ((IParameterizedType) superType)
+                .getTypeArguments();
+        if (typeParameters != null && typeArguments != null) {
+            Iterator<ITypeReference> arguments = typeArguments.iterator();
+            for (ITypeVariableDefinition typeParameter : typeParameters) {
+                if (!arguments.hasNext()) {
+                    break;
+                }
+                substitutions.put(typeParameter, arguments.next());
+            }
+        }
+        closure.superSubstitutions.add(substitutions);
+        for (ITypeReference interfaze : superClosure.interfaces) {
+            closure.interfaces.add(ViewpointAdapter.substitutedTypeReference(
+                    interfaze, substitutions));
+        }
+    }
 
-        ITypeReference superclass = classDefinition.getSuperClass();
-        if (superclass != null) {
-            if (superclass instanceof IParameterizedType) {
-                collectInterfaceClosure(((IParameterizedType) superclass)
-                        .getRawType(), closure);
-            } else {
-                collectInterfaceClosure(superclass, closure);
+    /**
+     * Finds a method with an equal signature among the methods a class
+     * inherits.
+     *
+     * @param closure
+     *            the closure of the class
+     * @return the found method, viewed from the class the search started at
+     */
+    private IMethod findInheritedMethod(IMethod method, Closure closure) {
+        for (IMethod candidate : getInheritedMethods(closure,
+                getSignatureKey(method))) {
+            if (equalsSignature(method, candidate)) {
+                return candidate;
             }
         }
-        for (ITypeReference interfaze : interfaces) {
-            if (interfaze instanceof IParameterizedType) {
-                collectInterfaceClosure(((IParameterizedType) interfaze)
-                        .getRawType(), closure);
-            } else {
-                collectInterfaceClosure(interfaze, closure);
+        return null;
+    }
+
+    /**
+     * Returns the methods with the given signature key a class inherits,
+     * viewed from the class. They are collected on the first lookup of the
+     * key and kept in the closure.
+     */
+    private List<IMethod> getInheritedMethods(Closure closure, String key) {
+        List<IMethod> inherited = closure.inheritedMethods.get(key);
+        if (inherited == null) {
+            inherited = new ArrayList<IMethod>();
+            List<Map<ITypeVariableDefinition, ITypeReference>> noSubstitutions =
+                    Collections.emptyList();
+            collectInheritedMethods(closure, key, noSubstitutions,
+                    new IdentityHashMap<Closure, Closure>(), inherited);
+            if (inherited.isEmpty()) {
+                inherited = Collections.emptyList();
+            }
+            List<IMethod> collected = closure.inheritedMethods.putIfAbsent(
+                    key, inherited);
+            if (collected != null) {
+                inherited = collected;
             }
         }
+        return inherited;
+    }
+
+    /**
+     * Collects the methods with the given signature key of the supertypes of
+     * a closure, depth first. A supertype reached on several paths is visited
+     * once: a class cannot inherit a generic type with different type
+     * arguments, so all paths view its methods alike.
+     *
+     * @param substitutions
+     *            the substitutions to apply to the methods found in the
+     *            closure, innermost first
+     */
+    private void collectInheritedMethods(Closure closure, String key,
+            List<Map<ITypeVariableDefinition, ITypeReference>> substitutions,
+            Map<Closure, Closure> visited, List<IMethod> inherited) {
+        Iterator<Map<ITypeVariableDefinition, ITypeReference>> superSubstitutions =
+                closure.superSubstitutions.iterator();
+        for (Closure superClosure : closure.superClosures) {
+            Map<ITypeVariableDefinition, ITypeReference> superSubstitution =
+                    superSubstitutions.next();
+            if (visited.put(superClosure, superClosure) != null) {
+                continue;
+            }
+            List<Map<ITypeVariableDefinition, ITypeReference>> path =
+                    substitutions;
+            if (superSubstitution != null) {
+                path = new LinkedList<Map<ITypeVariableDefinition, ITypeReference>>(
+                        substitutions);
+                path.add(0, superSubstitution);
+            }
+            Set<IMethod> candidates = superClosure.methods.get(key);
+            if (candidates != null) {
+                for (IMethod candidate : candidates) {
+                    for (Map<ITypeVariableDefinition, ITypeReference> substitution : path) {
+                        candidate = new MethodProjection(candidate,
+                                substitution);
+                    }
+                    inherited.add(candidate);
+                }
+            }
+            collectInheritedMethods(superClosure, key, path, visited,
+                    inherited);
+        }
+    }
+
+    private void addMethods(Set<IMethod> methods,
+            Map<String, Set<IMethod>> index) {
+        for (IMethod method : methods) {
+            addMethod(method, index);
+        }
+    }
+
+    private void addMethod(IMethod method, Map<String, Set<IMethod>> index) {
+        String key = getSignatureKey(method);
+        Set<IMethod> methods = index.get(key);
+        if (methods == null) {
+            methods = new HashSet<IMethod>();
+            index.put(key, methods);
+        }
+        methods.add(method);
     }
 
     private Set<IAnnotationDelta> compareAnnotations(Set<IAnnotation> from,
@@ -392,6 +738,11 @@ public class ApiComparator implements IApiComparator {
                                 .getClassDefinition());
                     }
 
+                    public Object getMatchKey(IAnnotation element) {
+                        return getClassKey(element.getType()
+                                .getClassDefinition());
+                    }
+
                     public IAnnotationDelta createChangedDelta(
                             IAnnotation from, IAnnotation to) {
                         return compareAnnotation(from, to);
@@ -408,6 +759,10 @@ public class ApiComparator implements IApiComparator {
                         return from.getName().equals(to.getName());
                     }
 
+                    public Object getMatchKey(IAnnotationField element) {
+                        return element.getName();
+                    }
+
                     public IAnnotationFieldDelta createAddRemoveDelta(
                             IAnnotationField from, IAnnotationField to) {
                         return new SigAnnotationFieldDelta(from, to);
@@ -429,6 +784,10 @@ public class ApiComparator implements IApiComparator {
                         return from.getName().equals(to.getName());
                     }
 
+                    public Object getMatchKey(IEnumConstant element) {
+                        return element.getName();
+                    }
+
                     public IEnumConstantDelta createAddRemoveDelta(
                             IEnumConstant from, IEnumConstant to) {
                         return new SigEnumConstantDelta(from, to);
@@ -447,6 +806,10 @@ public class ApiComparator implements IApiComparator {
                 return from.getName().equals(to.getName());
             }
 
+            public Object getMatchKey(IField element) {
+                return element.getName();
+            }
+
             public IFieldDelta createAddRemoveDelta(IField from, IField to) {
                 return new SigFieldDelta(from, to);
             }
@@ -462,23 +825,16 @@ public class ApiComparator implements IApiComparator {
         assert from != null;
         assert to != null;
 
-        Set<IMethod> toMethods = new HashSet<IMethod>(to.getMethods());
-        Set<IMethod> toClosure = getMethodClosure(to);
-        Set<IMethod> fromMethods = new HashSet<IMethod>(from.getMethods());
-        Set<IMethod> fromClosure = getMethodClosure(from);
+        Closure toClosure = getClosure(to);
+        Closure fromClosure = getClosure(from);
 
         Set<IMethodDelta> deltas = new HashSet<IMethodDelta>();
 
-        for (IMethod method : fromMethods) {
-            IMethod compatibleMethod = findCompatibleMethod(method, toMethods);
+        for (IMethod method : from.getMethods()) {
+            IMethod compatibleMethod = findCompatibleMethod(method, toClosure);
             if (compatibleMethod == null) {
-                compatibleMethod = findCompatibleMethod(method, toClosure);
-                if (compatibleMethod == null) {
-                    deltas.add(new SigMethodDelta(method, null));
-                }
-            }
-
-            if (compatibleMethod != null) {
+                deltas.add(new SigMethodDelta(method, null));
+            } else {
                 IMethodDelta delta = compareMethod(method, compatibleMethod);
                 if (delta != null) {
                     deltas.add(delta);
@@ -486,51 +842,28 @@ public class ApiComparator implements IApiComparator {
             }
         }
 
-        for (IMethod method : toMethods) {
-            IMethod compatibleMethod = findCompatibleMethod(method, fromMethods);
-            if (compatibleMethod == null) {
-                compatibleMethod = findCompatibleMethod(method, fromClosure);
-                if (compatibleMethod == null) {
-                    deltas.add(new SigMethodDelta(null, method));
-                }
+        for (IMethod method : to.getMethods()) {
+            if (findCompatibleMethod(method, fromClosure) == null) {
+                deltas.add(new SigMethodDelta(null, method));
             }
         }
         return deltas.isEmpty() ? null : deltas;
     }
 
-    private IMethod findCompatibleMethod(IMethod method, Set<IMethod> set) {
-        for (IMethod methodFromSet : set) {
-            if (equalsSignature(method, methodFromSet)) {
-                return methodFromSet;
-            }
-        }
-        return null;
-    }
-
-
-    private Set<IMethod> getMethodClosure(IClassDefinition clazz) {
-        Set<IMethod> closure = new HashSet<IMethod>();
-        collectMethods(new ClassProjection(clazz,
-                new HashMap<ITypeVariableDefinition, ITypeReference>()),
-                closure);
-        return closure;
-    }
-
-    private void collectMethods(IClassDefinition clazz, Set<IMethod> closure) {
-        if (clazz == null) {
-            return;
-        }
-        if (clazz.getMethods() != null) {
-            closure.addAll(clazz.getMethods());
-        }
-        if (clazz.getSuperClass() != null) {
-            collectMethods(getClassDefinition(clazz.getSuperClass()), closure);
-        }
-        if (clazz.getInterfaces() != null) {
-            for (ITypeReference interfaze : clazz.getInterfaces()) {
-                collectMethods(getClassDefinition(interfaze), closure);
+    /**
+     * Finds a method with an equal signature among the methods a class
+     * declares, or else among those it inherits.
+     */
+    private IMethod findCompatibleMethod(IMethod method, Closure closure) {
+        Set<IMethod> candidates = closure.methods.get(getSignatureKey(method));
+        if (candidates != null) {
+            for (IMethod candidate : candidates) {
+                if (equalsSignature(method, candidate)) {
+                    return candidate;
+                }
             }
         }
+        return findInheritedMethod(method, closure);
     }
 
     private Set<IConstructorDelta> compareConstructors(Set<IConstructor> from,
@@ -542,6 +875,10 @@ public class ApiComparator implements IApiComparator {
                         return equalsSignature(from, to);
                     }
 
+                    public Object getMatchKey(IConstructor element) {
+                        return getSignatureKey(element);
+                    }
+
                     public IConstructorDelta createAddRemoveDelta(
                             IConstructor from, IConstructor to) {
                         return new SigConstructorDelta(from, to);
@@ -564,6 +901,15 @@ public class ApiComparator implements IApiComparator {
         return false;
     }
 
+    /**
+     * Returns a key which is equal for members with an equal signature as
+     * determined by {@link #equalsSignature}. Parameter types are compared
+     * with erasure, so only the number of parameters is part of the key.
+     */
+    private String getSignatureKey(IExecutableMember member) {
+        return member.getName() + "/" + member.getParameters().size();
+    }
+
     private List<ITypeReference> getParameterList(List<IParameter> parameters) {
         List<ITypeReference> parameterTypes = new LinkedList<ITypeReference>();
         for (IParameter parameter : parameters) {
@@ -635,6 +981,10 @@ public class ApiComparator implements IApiComparator {
                                 to.getDeclaringField().getName());
                     }
 
+                    public Object getMatchKey(IAnnotationElement element) {
+                        return element.getDeclaringField().getName();
+                    }
+
                     public IAnnotationElementDelta createAddRemoveDelta(
                             IAnnotationElement from, IAnnotationElement to) {
                         return new SigAnnotationElementDelta(from, to);
@@ -1032,6 +1382,10 @@ public class ApiComparator implements IApiComparator {
                         return from.equals(to);
                     }
 
+                    public Object getMatchKey(Modifier element) {
+                        return element;
+                    }
+
                     public IModifierDelta createAddRemoveDelta(Modifier from,
                             Modifier to) {
                         return new SigModifierDelta(from, to);
@@ -1242,23 +1596,34 @@ public class ApiComparator implements IApiComparator {
         return false;
     }
 
-    private Set<ITypeReference> fromComparison = new HashSet<ITypeReference>();
-    private Set<ITypeReference> toComparison = new HashSet<ITypeReference>();
+    /** the types in comparison, per thread comparing classes */
+    private final ThreadLocal<Set<ITypeReference>> fromComparison =
+            new ComparisonSet();
+    private final ThreadLocal<Set<ITypeReference>> toComparison =
+            new ComparisonSet();
 
+    private static class ComparisonSet extends
+            ThreadLocal<Set<ITypeReference>> {
+        @Override
+        protected Set<ITypeReference> initialValue() {
+            return new HashSet<ITypeReference>();
+        }
+    }
 
     private boolean areInComparison(ITypeReference from, ITypeReference to) {
-        return fromComparison.contains(from) && toComparison.contains(to);
+        return fromComparison.get().contains(from)
+                && toComparison.get().contains(to);
     }
 
     private void markInComparison(ITypeReference from, ITypeReference to) {
-        fromComparison.add(from);
-        toComparison.add(to);
+        fromComparison.get().add(from);
+        toComparison.get().add(to);
     }
 
     private void markFinishedComparison(ITypeReference from,
             ITypeReference to) {
-        fromComparison.remove(from);
-        toComparison.remove(to);
+        fromComparison.get().remove(from);
+        toComparison.get().remove(to);
     }
 
     private ITypeReferenceDelta<? extends ITypeReference> compareType(
@@ -1389,6 +1754,19 @@ public class ApiComparator implements IApiComparator {
         return delta;
     }
 
+    /**
+     * Returns whether two generic declarations are both classes, both
+     * constructors or both methods, whatever classes implement them.
+     */
+    private boolean sameKindOfDeclaration(IGenericDeclaration from,
+            IGenericDeclaration to) {
+        return (from instanceof IClassDefinition)
+                    == (to instanceof IClassDefinition)
+                && (from instanceof IConstructor)
+                    == (to instanceof IConstructor)
+                && (from instanceof IMethod) == (to instanceof IMethod);
+    }
+
     private IGenericDeclarationDelta compareGenericDeclaration(
             ITypeVariableDefinition fromVariable,
             ITypeVariableDefinition toVariable) {
@@ -1399,7 +1777,7 @@ public class ApiComparator implements IApiComparator {
 
         if (from != null && to != null) {
 
-            if (from.getClass() != to.getClass()) {
+            if (!sameKindOfDeclaration(from, to)) {
                 delta = new SigGenericDeclarationDelta(from, to);
             } else if (from instanceof IClassDefinition) {
                 IClassDefinition fromDeclaringClass = (IClassDefinition) from;
@@ -1595,6 +1973,10 @@ public class ApiComparator implements IApiComparator {
                         return considerEqualTypes(from, to);
                     }
 
+                    public Object getMatchKey(ITypeReference element) {
+                        return getTypeKey(element);
+                    }
+
                     public ITypeReferenceDelta<? extends ITypeReference> createChangedDelta(
                             ITypeReference from, ITypeReference to) {
                         return compareType(from, to, false);
@@ -1605,6 +1987,13 @@ public class ApiComparator implements IApiComparator {
     private static interface SigComparator<T, S extends IDelta<? extends T>> {
         boolean considerEqualElement(T from, T to);
 
+        /**
+         * Returns the key to match the element by hash lookup, or null if it
+         * can only be matched by {@link #considerEqualElement}. Elements
+         * considered equal must have equal keys.
+         */
+        Object getMatchKey(T element);
+
         S createChangedDelta(T from, T to);
 
         /**
@@ -1616,39 +2005,69 @@ public class ApiComparator implements IApiComparator {
 
     private <T, S extends IDelta<? extends T>> Set<S> compareSets(Set<T> from,
             Set<T> to, SigComparator<T, S> comparator) {
+        if (from.isEmpty() && to.isEmpty()) {
+            return null;
+        }
 
-        Set<T> toCopy = new HashSet<T>(to);
-        Set<S> deltas = new HashSet<S>();
-
-        for (T fromType : from) {
-            Iterator<T> toIterator = toCopy.iterator();
-            boolean equals = false;
-            boolean hasNext = toIterator.hasNext();
-
-            while (hasNext && !equals) {
-                T toElement = toIterator.next();
-                equals = comparator.considerEqualElement(fromType, toElement);
-                if (equals) {
-                    S compare = comparator.createChangedDelta(fromType,
-                            toElement);
-                    if (compare != null) {
-                        deltas.add(compare);
-                    }
+        // index the to elements by their keys, so each from element is only
+        // compared to those with the same key and the ones without a key.
+        // Small sets are just compared pairwise.
+        boolean indexed = to.size() > MAX_PAIRWISE_SET_SIZE;
+        Map<Object, List<T>> toByKey = new HashMap<Object, List<T>>();
+        List<T> toWithoutKey = new LinkedList<T>();
+        for (T toElement : to) {
+            Object key = indexed ? comparator.getMatchKey(toElement) : null;
+            if (key == null) {
+                toWithoutKey.add(toElement);
+            } else {
+                List<T> candidates = toByKey.get(key);
+                if (candidates == null) {
+                    candidates = new LinkedList<T>();
+                    toByKey.put(key, candidates);
                 }
-                hasNext = toIterator.hasNext();
+                candidates.add(toElement);
             }
+        }
 
-            if (equals) {
-                toIterator.remove();
+        // keep the deltas in the order of the from elements
+        Set<S> deltas = new LinkedHashSet<S>();
+        for (T fromElement : from) {
+            Object key = indexed ? comparator.getMatchKey(fromElement) : null;
+            T toElement = null;
+            if (key != null) {
+                toElement = removeEqualElement(fromElement, toByKey.get(key),
+                        comparator);
+            } else {
+                Iterator<List<T>> candidates = toByKey.values().iterator();
+                while (toElement == null && candidates.hasNext()) {
+                    toElement = removeEqualElement(fromElement, candidates
+                            .next(), comparator);
+                }
+            }
+            if (toElement == null) {
+                toElement = removeEqualElement(fromElement, toWithoutKey,
+                        comparator);
+            }
+
+            if (toElement != null) {
+                S compare = comparator.createChangedDelta(fromElement,
+                        toElement);
+                if (compare != null) {
+                    deltas.add(compare);
+                }
             } else {
-                S delta = comparator.createAddRemoveDelta(fromType, null);
+                S delta = comparator.createAddRemoveDelta(fromElement, null);
                 if (delta != null) {
                     deltas.add(delta);
                 }
             }
         }
 
-        for (T type : toCopy) {
+        List<T> remaining = toWithoutKey;
+        for (List<T> candidates : toByKey.values()) {
+            remaining.addAll(candidates);
+        }
+        for (T type : remaining) {
             S delta = comparator.createAddRemoveDelta(null, type);
             if (delta != null) {
                 deltas.add(delta);
@@ -1657,6 +2076,26 @@ public class ApiComparator implements IApiComparator {
         return deltas.isEmpty() ? null : deltas;
     }
 
+    /**
+     * Removes and returns the first of the candidates the comparator considers
+     * equal to the element, or returns null if there is none.
+     */
+    private <T> T removeEqualElement(T element, List<T> candidates,
+            SigComparator<T, ?> comparator) {
+        if (candidates == null) {
+            return null;
+        }
+        Iterator<T> iterator = candidates.iterator();
+        while (iterator.hasNext()) {
+            T candidate = iterator.next();
+            if (comparator.considerEqualElement(element, candidate)) {
+                iterator.remove();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
 
     private ITypeReferenceDelta<?> compareArrayType(IArrayType from,
             IArrayType to) {
@@ -1682,6 +2121,29 @@ public class ApiComparator implements IApiComparator {
     }
 
 
+    /**
+     * Returns a key which is equal for class definitions considered the same by
+     * {@link #sameClassDefinition}.
+     */
+    private String getClassKey(IClassDefinition clazz) {
+        return clazz.getPackageName() + "." + clazz.getName();
+    }
+
+    /**
+     * Returns a key which is equal for types considered equal by
+     * {@link #considerEqualTypes}, or null for types only matched pairwise.
+     */
+    private String getTypeKey(ITypeReference type) {
+        if (type instanceof IClassReference) {
+            return getClassKey(((IClassReference) type).getClassDefinition());
+        }
+        if (type instanceof IParameterizedType) {
+            return getClassKey(((IParameterizedType) type).getRawType()
+                    .getClassDefinition());
+        }
+        return null;
+    }
+
     private boolean sameClassDefinition(IClassDefinition from,
             IClassDefinition to) {
         boolean sameName = from.getName().equals(to.getName());
@@ -27,6 +27,7 @@ import signature.io.IApiDeltaExternalizer;
 import signature.io.IApiLoader;
 import signature.io.html.HtmlDeltaExternalizer;
 import signature.io.impl.BinaryApi;
+import signature.io.impl.CachingApiLoader;
 import signature.model.IApi;
 
 import java.io.IOException;
@@ -46,6 +47,8 @@ public class Main {
      * --to=(doclet | dex | sig) <sourcefiles>
      * --name <name>
      * --out directory
+     * [--changed-only]
+     * [--cache directory]
      * --packages packageName{ packageName}
      * </pre>
      */
@@ -129,7 +132,17 @@ public class Main {
         }
         String output = args[++at];
 
-        if (!"--packages".equals(args[++at])) {
+        boolean changedOnly = false;
+        if ("--changed-only".equals(args[++at])) {
+            changedOnly = true;
+            ++at;
+        }
+        String cache = null;
+        if ("--cache".equals(args[at])) {
+            cache = args[++at];
+            ++at;
+        }
+        if (!"--packages".equals(args[at])) {
             throw new UsageException();
         }
         Set<String> packages = new HashSet<String>();
@@ -139,10 +152,11 @@ public class Main {
         }
 
         IApiComparator comparator = new ApiComparator();
-        IApi fromApi = getApi(fromType, nameFrom, fromFiles, packages);
-        IApi toApi = getApi(toType, nameTo, toFiles, packages);
+        IApi fromApi = getApi(fromType, nameFrom, fromFiles, packages, cache);
+        IApi toApi = getApi(toType, nameTo, toFiles, packages, cache);
 
-        IApiDeltaExternalizer externalizer = new HtmlDeltaExternalizer();
+        IApiDeltaExternalizer externalizer = new HtmlDeltaExternalizer(Runtime
+                .getRuntime().availableProcessors(), changedOnly);
         System.out.println("Writing delta report to " + output);
         IApiDelta delta = comparator.compare(fromApi, toApi);
         if (delta == null) {
@@ -164,8 +178,8 @@ public class Main {
     }
 
     private static IApi getApi(String specType, String name,
-            Set<String> fileNames, Set<String> packageNames) throws
-            IOException {
+            Set<String> fileNames, Set<String> packageNames, String cache)
+            throws IOException {
         System.out.println("Loading " + name + " of type " + specType
                 + " from " + fileNames);
         IApiLoader factory = null;
@@ -180,6 +194,9 @@ public class Main {
         } else {
             throw new UsageException();
         }
+        if (cache != null && !(factory instanceof BinaryApi)) {
+            factory = new CachingApiLoader(factory, cache);
+        }
         return factory.loadApi(name, Visibility.PROTECTED, fileNames,
                 packageNames);
     }
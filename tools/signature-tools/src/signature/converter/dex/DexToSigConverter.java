@@ -52,7 +52,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import signature.ConcurrentUtil;
 import signature.converter.Visibility;
 import signature.model.IAnnotation;
 import signature.model.IAnnotationElement;
@@ -74,7 +78,6 @@ import signature.model.impl.SigAnnotationElement;
 import signature.model.impl.SigAnnotationField;
 import signature.model.impl.SigApi;
 import signature.model.impl.SigClassDefinition;
-import signature.model.impl.SigClassReference;
 import signature.model.impl.SigConstructor;
 import signature.model.impl.SigEnumConstant;
 import signature.model.impl.SigExecutableMember;
@@ -96,6 +99,10 @@ import dex.structure.DexParameter;
 
 /**
  * Converts a set of dex files to the signature compare api.
+ * <p>
+ * With more than one thread, the classes of each package are converted on a
+ * thread of their own. Annotation types are converted beforehand, as the
+ * classes of all packages refer to them.
  */
 public final class DexToSigConverter implements IClassInitializer {
 
@@ -112,16 +119,38 @@ public final class DexToSigConverter implements IClassInitializer {
             Collections.emptySet();
     private static final Set<ITypeReference> EMPTY_EXCEPTIONS = Collections
             .emptySet();
+    private static final int SIGNATURE_CACHE_SIZE = 8192;
     private Visibility visibility;
     private Map<String, DexClass> dexNameToDexClass;
+    /** the generic signatures parsed so far */
+    private final SignatureCache signatureCache;
+    /** the number of threads converting packages */
+    private final int threadCount;
 
 
     /**
-     * Creates a new instance of {@link DexToSigConverter}.
+     * Creates a new instance of {@link DexToSigConverter} converting packages
+     * on as many threads as there are processors.
      */
     public DexToSigConverter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new instance of {@link DexToSigConverter} converting packages
+     * on the given number of threads.
+     * 
+     * @param threadCount
+     *            the number of threads, 1 to convert serially
+     */
+    public DexToSigConverter(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount < 1");
+        }
+        this.threadCount = threadCount;
         factory = new TypePool();
         elementPool = new FieldPool();
+        signatureCache = new SignatureCache(SIGNATURE_CACHE_SIZE);
     }
 
 
@@ -171,11 +200,22 @@ public final class DexToSigConverter implements IClassInitializer {
             }
         }
 
+        Map<SigPackage, Set<SigClassDefinition>> packageToClasses;
+        if (threadCount > 1) {
+            packageToClasses = convertClassesConcurrently(packageToDexClasses);
+        } else {
+            packageToClasses =
+                    new HashMap<SigPackage, Set<SigClassDefinition>>();
+            for (SigPackage aPackage : packageToDexClasses.keySet()) {
+                packageToClasses.put(aPackage, convertClasses(
+                        packageToDexClasses.get(aPackage)));
+            }
+        }
+
         Set<SigClassDefinition> allClasses = new HashSet<SigClassDefinition>();
 
-        for (SigPackage aPackage : packageToDexClasses.keySet()) {
-            Set<SigClassDefinition> classes = convertClasses(packageToDexClasses
-                    .get(aPackage));
+        for (SigPackage aPackage : packageToClasses.keySet()) {
+            Set<SigClassDefinition> classes = packageToClasses.get(aPackage);
             allClasses.addAll(classes);
             aPackage.setClasses(new HashSet<IClassDefinition>(classes));
         }
@@ -265,11 +305,34 @@ public final class DexToSigConverter implements IClassInitializer {
      * @return a set of {@link DexClass} objects
      */
     protected Set<SigClassDefinition> convertClasses(Set<DexClass> dexClasses) {
+        Set<DexClass> convertedClasses = Collections.emptySet();
+        return convertClasses(dexClasses, convertedClasses);
+    }
+
+    /**
+     * Converts a set of {@link DexClass} objects to a set of the corresponding
+     * {@link SigClassDefinition} objects, skipping those which have already
+     * been converted.
+     * 
+     * @param dexClasses
+     *            the {@link DexClass} objects
+     * @param convertedClasses
+     *            the {@link DexClass} objects already converted
+     * @return a set of {@link DexClass} objects
+     */
+    private Set<SigClassDefinition> convertClasses(Set<DexClass> dexClasses,
+            Set<DexClass> convertedClasses) {
         Set<SigClassDefinition> classes = new HashSet<SigClassDefinition>();
         for (DexClass dexClass : dexClasses) {
             // convert all classes but synthetic, return only initialized
             if (convertAnyWay(dexClass)) {
-                SigClassDefinition sigCLass = convertClass(dexClass);
+                SigClassDefinition sigCLass;
+                if (convertedClasses.contains(dexClass)) {
+                    sigCLass = factory.getClass(getPackageName(dexClass
+                            .getName()), getClassName(dexClass.getName()));
+                } else {
+                    sigCLass = convertClass(dexClass);
+                }
                 if (isVisible(dexClass, visibility)) {
                     classes.add(sigCLass);
                 }
@@ -278,6 +341,58 @@ public final class DexToSigConverter implements IClassInitializer {
         return classes;
     }
 
+    /**
+     * Converts the classes of each package on a thread of its own.<br>
+     * Annotation types are converted first and serially, since annotations
+     * of all packages initialize their types on demand. Any other class
+     * converted on demand is the enclosing class of a class being converted
+     * and hence part of the same package.
+     * 
+     * @param packageToDexClasses
+     *            the {@link DexClass} objects of the packages
+     * @return the converted classes of the packages
+     */
+    private Map<SigPackage, Set<SigClassDefinition>> convertClassesConcurrently(
+            Map<SigPackage, Set<DexClass>> packageToDexClasses) {
+        final Set<DexClass> annotationTypes = new HashSet<DexClass>();
+        for (Set<DexClass> dexClasses : packageToDexClasses.values()) {
+            for (DexClass dexClass : dexClasses) {
+                if (isAnnotation(dexClass) && convertAnyWay(dexClass)) {
+                    convertClass(dexClass);
+                    annotationTypes.add(dexClass);
+                }
+            }
+        }
+
+        ExecutorService executor = ConcurrentUtil.newDaemonThreadPool(
+                threadCount, "DexToSigConverter");
+        try {
+            Map<SigPackage, Future<Set<SigClassDefinition>>> futures =
+                    new HashMap<SigPackage, Future<Set<SigClassDefinition>>>();
+            for (SigPackage aPackage : packageToDexClasses.keySet()) {
+                final Set<DexClass> dexClasses = packageToDexClasses
+                        .get(aPackage);
+                futures.put(aPackage, executor.submit(
+                        new Callable<Set<SigClassDefinition>>() {
+                            public Set<SigClassDefinition> call() {
+                                return convertClasses(dexClasses,
+                                        annotationTypes);
+                            }
+                        }));
+            }
+
+            Map<SigPackage, Set<SigClassDefinition>> packageToClasses =
+                    new HashMap<SigPackage, Set<SigClassDefinition>>();
+            for (SigPackage aPackage : futures.keySet()) {
+                packageToClasses.put(aPackage, ConcurrentUtil
+                        .getResult(futures.get(aPackage)));
+            }
+            return packageToClasses;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Converts a {@link DexClass} to the corresponding
      * {@link SigClassDefinition}.
@@ -310,7 +425,7 @@ public final class DexToSigConverter implements IClassInitializer {
 
         if (hasGenericSignature(dexClass)) {
             GenericSignatureParser parser = new GenericSignatureParser(factory,
-                    this);
+                    this, signatureCache);
             parser.parseForClass(sigClass, getGenericSignature(dexClass));
             sigClass.setTypeParameters(parser.formalTypeParameters);
 
@@ -350,10 +465,11 @@ public final class DexToSigConverter implements IClassInitializer {
             for (String interfaceDexName : interfaceDexNames) {
                 String interfacePackageName = getPackageName(interfaceDexName);
                 String interfaceName = getClassName(interfaceDexName);
-                SigClassDefinition interfaze = factory.getClass(
+                IClassReference interfaze = factory.getClassReference(
                         interfacePackageName, interfaceName);
-                interfaze.setKind(Kind.INTERFACE);
-                interfaces.add(new SigClassReference(interfaze));
+                ((SigClassDefinition) interfaze.getClassDefinition())
+                        .setKind(Kind.INTERFACE);
+                interfaces.add(interfaze);
             }
             sigClass.setInterfaces(interfaces);
         }
@@ -487,7 +603,7 @@ public final class DexToSigConverter implements IClassInitializer {
         annotationField.setDefaultValue(defaultValue);
         annotationField.setModifiers(getModifier(dexMethod.getModifiers()));
         GenericSignatureParser parser = new GenericSignatureParser(factory,
-                this);
+                this, signatureCache);
         annotationField.setType(parser.parseNonGenericType(dexMethod
                 .getReturnType()));
         return annotationField;
@@ -532,7 +648,7 @@ public final class DexToSigConverter implements IClassInitializer {
 
         if (hasGenericSignature(dexField)) {
             GenericSignatureParser parser = new GenericSignatureParser(factory,
-                    this);
+                    this, signatureCache);
             String declaringClassPackageName = getPackageName(dexField
                     .getDeclaringClass().getName());
             String declaringClassName = getClassName(dexField
@@ -543,7 +659,7 @@ public final class DexToSigConverter implements IClassInitializer {
             field.setType(parser.fieldType);
         } else {
             GenericSignatureParser parser = new GenericSignatureParser(factory,
-                    this);
+                    this, signatureCache);
             field.setType(parser.parseNonGenericType(dexField.getType()));
         }
 
@@ -615,7 +731,7 @@ public final class DexToSigConverter implements IClassInitializer {
 
         if (hasGenericSignature(dexMethod)) {
             GenericSignatureParser parser = new GenericSignatureParser(factory,
-                    this);
+                    this, signatureCache);
             parser.parseForConstructor(constructor,
                     getGenericSignature(dexMethod));
 
@@ -688,7 +804,7 @@ public final class DexToSigConverter implements IClassInitializer {
 
         if (hasGenericSignature(dexMethod)) {
             GenericSignatureParser parser = new GenericSignatureParser(factory,
-                    this);
+                    this, signatureCache);
             parser.parseForMethod(method, getGenericSignature(dexMethod));
 
             // type parameters
@@ -717,7 +833,7 @@ public final class DexToSigConverter implements IClassInitializer {
         } else {
             convertNonGenericExecutableMember(method, dexMethod);
             GenericSignatureParser parser = new GenericSignatureParser(factory,
-                    this);
+                    this, signatureCache);
             ITypeReference type = parser.parseNonGenericReturnType(dexMethod
                     .getReturnType());
             method.setReturnType(type);
@@ -753,7 +869,7 @@ public final class DexToSigConverter implements IClassInitializer {
 
         for (DexParameter dexParameter : dexParameters) {
             GenericSignatureParser parser = new GenericSignatureParser(factory,
-                    this);
+                    this, signatureCache);
             ITypeReference type = parser.parseNonGenericType(dexParameter
                     .getTypeName());
             SigParameter parameter = new SigParameter(type);
@@ -845,10 +961,10 @@ public final class DexToSigConverter implements IClassInitializer {
                 annotationClass.getAnnotationFields())) {
             initializeClass(getPackageName(typeName), getClassName(typeName));
         }
-        for (IAnnotationField field : annotationClass.getAnnotationFields()) {
-            if (nameOfField.equals(field.getName())) {
-                sigElement.setDeclaringField(field);
-            }
+        IAnnotationField field = annotationClass
+                .getAnnotationField(nameOfField);
+        if (field != null) {
+            sigElement.setDeclaringField(field);
         }
 
         sigElement.setValue(convertEncodedValue(dexAnnotationAttribute
@@ -919,7 +1035,7 @@ public final class DexToSigConverter implements IClassInitializer {
         case VALUE_TYPE: {
             String typeName = (String) dexEnodedValue.getValue();
             GenericSignatureParser parser = new GenericSignatureParser(factory,
-                    this);
+                    this, signatureCache);
             value = parser.parseNonGenericReturnType(typeName);
             break;
         }
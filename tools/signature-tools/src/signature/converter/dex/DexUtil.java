@@ -442,12 +442,7 @@ public class DexUtil {
      * @return the class called "package-info" or null, if not available
      */
     public static IClassDefinition findPackageInfo(SigPackage aPackage) {
-        for (IClassDefinition clazz : aPackage.getClasses()) {
-            if (PACKAGE_INFO.equals(clazz.getName())) {
-                return clazz;
-            }
-        }
-        return null;
+        return aPackage.getClassDefinition(PACKAGE_INFO);
     }
 
     public static boolean isPackageInfo(DexClass clazz) {
@@ -16,20 +16,24 @@
 
 package signature.converter.dex;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import signature.model.impl.SigEnumConstant;
 import signature.model.impl.SigField;
 
+/**
+ * Pool for fields and enum constants by qualified class name and name. The
+ * pool may be used by several threads.
+ */
 public class FieldPool {
 
-    private Map<FieldKey, SigField> fieldStore;
-    private Map<FieldKey, SigEnumConstant> constantStore;
+    private final ConcurrentMap<FieldKey, SigField> fieldStore;
+    private final ConcurrentMap<FieldKey, SigEnumConstant> constantStore;
 
     public FieldPool() {
-        fieldStore = new HashMap<FieldKey, SigField>();
-        constantStore = new HashMap<FieldKey, SigEnumConstant>();
+        fieldStore = new ConcurrentHashMap<FieldKey, SigField>();
+        constantStore = new ConcurrentHashMap<FieldKey, SigEnumConstant>();
     }
 
     private static class FieldKey {
@@ -67,7 +71,10 @@ public class FieldPool {
         SigField sigField = fieldStore.get(key);
         if (sigField == null) {
             sigField = new SigField(fieldName);
-            fieldStore.put(key, sigField);
+            SigField pooled = fieldStore.putIfAbsent(key, sigField);
+            if (pooled != null) {
+                sigField = pooled;
+            }
         }
         return sigField;
     }
@@ -78,7 +85,10 @@ public class FieldPool {
         SigEnumConstant sigField = constantStore.get(key);
         if (sigField == null) {
             sigField = new SigEnumConstant(fieldName);
-            constantStore.put(key, sigField);
+            SigEnumConstant pooled = constantStore.putIfAbsent(key, sigField);
+            if (pooled != null) {
+                sigField = pooled;
+            }
         }
         return sigField;
     }
@@ -16,8 +16,7 @@
 
 package signature.converter.dex;
 
-import static signature.converter.dex.DexUtil.getClassName;
-import static signature.converter.dex.DexUtil.getPackageName;
+import signature.converter.dex.SignatureCache.ParsedSignature;
 import signature.model.IClassDefinition;
 import signature.model.IClassReference;
 import signature.model.IConstructor;
@@ -36,6 +35,7 @@ import signature.model.util.ITypeFactory;
 
 import java.lang.reflect.GenericSignatureFormatError;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -79,6 +79,10 @@ import java.util.List;
  * ReturnType ::= TypSignature | VoidDescriptor.
  * VoidDescriptor ::= "V".
  * </pre>
+ * 
+ * The scanner works on offsets into the signature and only creates strings
+ * for the names it returns. Parsers created with a {@link SignatureCache}
+ * look signatures up in the cache before parsing them.
  */
 public class GenericSignatureParser {
 
@@ -97,7 +101,9 @@ public class GenericSignatureParser {
      */
     private char symbol; // 0: eof; else valid term symbol or first char of
     // identifier.
-    private String identifier;
+    private int identifierStart; // offsets of the last scanned identifier
+    private int identifierEnd;
+    private boolean usesTypeVariables;
 
 
     /*
@@ -112,19 +118,32 @@ public class GenericSignatureParser {
     private final ITypeFactory factory;
     private final IClassInitializer classFinder;
     private boolean parseForField;
+    private final SignatureCache cache;
 
 
     public GenericSignatureParser(ITypeFactory factory,
             IClassInitializer classFinder) {
+        this(factory, classFinder, null);
+    }
+
+    /**
+     * Creates a parser which shares the parsed signatures in the given cache.
+     * The cache must only be used with the given factory.
+     */
+    GenericSignatureParser(ITypeFactory factory,
+            IClassInitializer classFinder, SignatureCache cache) {
         this.factory = factory;
         this.classFinder = classFinder;
+        this.cache = cache;
     }
 
     private void setInput(IGenericDeclaration genericDecl, String input) {
         if (input != null) {
             this.genericDecl = genericDecl;
             this.buffer = input.toCharArray();
+            this.pos = 0;
             this.eof = false;
+            this.usesTypeVariables = false;
             scanSymbol();
         } else {
             this.eof = true;
@@ -132,23 +151,57 @@ public class GenericSignatureParser {
     }
 
     public ITypeReference parseNonGenericType(String typeSignature) {
+        ParsedSignature parsed = lookup(SignatureCache.TYPE, typeSignature,
+                null);
+        if (parsed != null) {
+            return parsed.type;
+        }
         setInput(null, typeSignature);
         ITypeReference type = parsePrimitiveType();
         if (type == null) {
             type = parseFieldTypeSignature();
         }
+        store(SignatureCache.TYPE, typeSignature, null, new ParsedSignature(
+                type, null, null));
         return type;
     }
 
     public ITypeReference parseNonGenericReturnType(String typeSignature) {
+        ParsedSignature parsed = lookup(SignatureCache.RETURN_TYPE,
+                typeSignature, null);
+        if (parsed != null) {
+            return parsed.type;
+        }
         setInput(null, typeSignature);
         ITypeReference returnType = parsePrimitiveType();
         if (returnType == null) {
             returnType = parseReturnType();
         }
+        store(SignatureCache.RETURN_TYPE, typeSignature, null,
+                new ParsedSignature(returnType, null, null));
         return returnType;
     }
 
+    private ParsedSignature lookup(char kind, String signature,
+            IGenericDeclaration context) {
+        if (cache == null || signature == null) {
+            return null;
+        }
+        return cache.get(kind, signature, context);
+    }
+
+    /**
+     * Stores the result of the last parse. Results which refer to type
+     * variables are only valid in the given context.
+     */
+    private void store(char kind, String signature,
+            IGenericDeclaration context, ParsedSignature parsed) {
+        if (cache != null) {
+            cache.put(kind, signature, usesTypeVariables ? context : null,
+                    parsed);
+        }
+    }
+
     private ITypeReference parsePrimitiveType() {
         switch (symbol) {
         case 'B':
@@ -209,12 +262,8 @@ public class GenericSignatureParser {
      *            the generic signature of the class
      */
     public void parseForMethod(IMethod genericDecl, String signature) {
-        setInput(genericDecl, signature);
-        if (!eof) {
-            parseMethodTypeSignature();
-        } else {
-            throw new IllegalStateException("Generic signature is invalid!");
-        }
+        parseForExecutableMember(genericDecl, genericDecl.getDeclaringClass(),
+                signature);
     }
 
     /**
@@ -228,12 +277,40 @@ public class GenericSignatureParser {
      */
     public void parseForConstructor(IConstructor genericDecl,
             String signature) {
+        parseForExecutableMember(genericDecl, genericDecl.getDeclaringClass(),
+                signature);
+    }
+
+    /**
+     * Parses the signature of a method or constructor. Signatures without
+     * formal type parameters are cached, their type variables are those of
+     * the declaring class.
+     */
+    private void parseForExecutableMember(IGenericDeclaration genericDecl,
+            IClassDefinition declaringClass, String signature) {
+        ParsedSignature parsed = lookup(SignatureCache.METHOD, signature,
+                declaringClass);
+        if (parsed != null) {
+            formalTypeParameters = new ArrayList<ITypeVariableDefinition>(0);
+            parameterTypes = new ArrayList<ITypeReference>(
+                    parsed.parameterTypes);
+            returnType = parsed.type;
+            exceptionTypes = new ArrayList<ITypeReference>(
+                    parsed.exceptionTypes);
+            return;
+        }
         setInput(genericDecl, signature);
         if (!eof) {
             parseMethodTypeSignature();
         } else {
             throw new IllegalStateException("Generic signature is invalid!");
         }
+        if (formalTypeParameters.isEmpty()) {
+            store(SignatureCache.METHOD, signature, declaringClass,
+                    new ParsedSignature(returnType, Collections
+                            .unmodifiableList(parameterTypes), Collections
+                            .unmodifiableList(exceptionTypes)));
+        }
     }
 
     /**
@@ -246,6 +323,12 @@ public class GenericSignatureParser {
      *            the generic signature of the class
      */
     public void parseForField(IClassDefinition genericDecl, String signature) {
+        ParsedSignature parsed = lookup(SignatureCache.FIELD, signature,
+                genericDecl);
+        if (parsed != null) {
+            this.fieldType = parsed.type;
+            return;
+        }
         parseForField = true;
         setInput(genericDecl, signature);
         try {
@@ -258,6 +341,8 @@ public class GenericSignatureParser {
         } finally {
             parseForField = false;
         }
+        store(SignatureCache.FIELD, signature, genericDecl,
+                new ParsedSignature(fieldType, null, null));
     }
 
     private void parseClassSignature() {
@@ -300,7 +385,7 @@ public class GenericSignatureParser {
         // FormalTypeParameter ::= Ident ClassBound {InterfaceBound}.
 
         scanIdentifier();
-        String name = identifier.intern();
+        String name = getIdentifier().intern();
         SigTypeVariableDefinition typeVariable = factory.getTypeVariable(name,
                 genericDecl);
 
@@ -376,24 +461,24 @@ public class GenericSignatureParser {
 
         expect('L');
 
-        StringBuilder qualIdent = new StringBuilder("L");
         scanIdentifier();
+        int packageStart = identifierStart;
+        int packageEnd = packageStart;
         while (symbol == '/') {
+            packageEnd = identifierEnd;
             scanSymbol();
-            qualIdent.append(identifier).append("/");
             scanIdentifier();
         }
 
-        qualIdent.append(this.identifier);
-
+        // "a/b/C$D" -> "a.b", "C.D"
+        String packageName = new String(buffer, packageStart, packageEnd
+                - packageStart).replace('/', '.');
+        String className = getIdentifier().replace('$', '.');
 
         List<ITypeReference> typeArgs = parseOptTypeArguments();
 
         ITypeReference parentType = null;
 
-        String packageName = getPackageName(qualIdent.toString() + ";");
-        String className = getClassName(qualIdent.toString() + ";");
-
         if (typeArgs.isEmpty()) {
             parentType = factory.getClassReference(packageName, className);
         } else {
@@ -412,13 +497,11 @@ public class GenericSignatureParser {
             // Deal with Member Classes:
             scanSymbol();
             scanIdentifier();
-            qualIdent.append("$").append(identifier);
+            className = className + "."
+                    + getIdentifier().replace('$', '.');
             typeArgs = parseOptTypeArguments();
             ITypeReference memberType = null;
 
-            packageName = getPackageName(qualIdent.toString() + ";");
-            className = getClassName(qualIdent.toString() + ";");
-
             if (typeArgs.isEmpty()) {
                 memberType = factory.getClassReference(packageName, className);
             } else {
@@ -484,7 +567,9 @@ public class GenericSignatureParser {
         // TypeVariableSignature ::= "T" Ident ";".
         expect('T');
         scanIdentifier();
+        String identifier = getIdentifier();
         expect(';');
+        usesTypeVariables = true;
 
         IGenericDeclaration declaration = genericDecl;
 
@@ -604,6 +689,11 @@ public class GenericSignatureParser {
         }
     }
 
+    private String getIdentifier() {
+        return new String(buffer, identifierStart, identifierEnd
+                - identifierStart);
+    }
+
     private boolean isStopSymbol(char ch) {
         switch (ch) {
         case ':':
@@ -620,22 +710,16 @@ public class GenericSignatureParser {
     // POST: symbol = the next symbol AFTER the identifier.
     private void scanIdentifier() {
         if (!eof) {
-            StringBuilder identBuf = new StringBuilder(32);
             if (!isStopSymbol(symbol)) {
-                identBuf.append(symbol);
-                do {
-                    char ch = buffer[pos];
-                    if ((ch >= 'a') && (ch <= 'z') || (ch >= 'A')
-                            && (ch <= 'Z') || !isStopSymbol(ch)) {
-                        identBuf.append(buffer[pos]);
-                        pos++;
-                    } else {
-                        identifier = identBuf.toString();
-                        scanSymbol();
-                        return;
-                    }
-                } while (pos != buffer.length);
-                identifier = identBuf.toString();
+                identifierStart = pos - 1;
+                while (pos != buffer.length && !isStopSymbol(buffer[pos])) {
+                    pos++;
+                }
+                identifierEnd = pos;
+                if (pos != buffer.length) {
+                    scanSymbol();
+                    return;
+                }
                 symbol = 0;
                 eof = true;
             } else {
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.converter.dex;
+
+import signature.model.IGenericDeclaration;
+import signature.model.ITypeReference;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of the types parsed by {@link GenericSignatureParser}s,
+ * keyed by the kind of signature, the signature and the generic declaration
+ * resolving its type variables. Signatures without type variables are
+ * cached without a declaration and are shared by all declarations.
+ * <p>
+ * Parsed types come from the type factory of the parser, so a cache must only
+ * be shared by parsers of the same factory. The least recently used
+ * signatures are dropped once the cache is full.
+ */
+final class SignatureCache {
+
+    static final char TYPE = 't';
+    static final char RETURN_TYPE = 'r';
+    static final char FIELD = 'f';
+    static final char METHOD = 'm';
+
+    /**
+     * The types of a parsed signature. {@code type} is the type of a field or
+     * the return type of a method.
+     */
+    static final class ParsedSignature {
+        final ITypeReference type;
+        final List<ITypeReference> parameterTypes;
+        final List<ITypeReference> exceptionTypes;
+
+        ParsedSignature(ITypeReference type,
+                List<ITypeReference> parameterTypes,
+                List<ITypeReference> exceptionTypes) {
+            this.type = type;
+            this.parameterTypes = parameterTypes;
+            this.exceptionTypes = exceptionTypes;
+        }
+    }
+
+    private static final class Key {
+        private final char kind;
+        private final String signature;
+        private final IGenericDeclaration context;
+
+        Key(char kind, String signature, IGenericDeclaration context) {
+            this.kind = kind;
+            this.signature = signature;
+            this.context = context;
+        }
+
+        @Override
+        public int hashCode() {
+            return (kind * 31 + signature.hashCode()) * 31
+                    + System.identityHashCode(context);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) obj;
+            return kind == that.kind && context == that.context
+                    && signature.equals(that.signature);
+        }
+    }
+
+    private final Map<Key, ParsedSignature> signatures;
+
+    /**
+     * Creates a cache holding at most the given number of signatures.
+     */
+    @SuppressWarnings("serial")
+    SignatureCache(final int maxSize) {
+        signatures = Collections.synchronizedMap(
+                new LinkedHashMap<Key, ParsedSignature>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(
+                            Map.Entry<Key, ParsedSignature> eldest) {
+                        return size() > maxSize;
+                    }
+                });
+    }
+
+    /**
+     * Returns the parsed signature valid in the given context or
+     * {@code null} if it is not cached.
+     */
+    ParsedSignature get(char kind, String signature,
+            IGenericDeclaration context) {
+        ParsedSignature parsed = signatures.get(new Key(kind, signature,
+                null));
+        if (parsed == null && context != null) {
+            parsed = signatures.get(new Key(kind, signature, context));
+        }
+        return parsed;
+    }
+
+    /**
+     * Caches a parsed signature, which is valid in the given context or in
+     * any context if the context is {@code null}.
+     */
+    void put(char kind, String signature, IGenericDeclaration context,
+            ParsedSignature parsed) {
+        signatures.put(new Key(kind, signature, context), parsed);
+    }
+}
@@ -50,7 +50,6 @@ import signature.model.impl.SigAnnotationElement;
 import signature.model.impl.SigAnnotationField;
 import signature.model.impl.SigApi;
 import signature.model.impl.SigClassDefinition;
-import signature.model.impl.SigClassReference;
 import signature.model.impl.SigConstructor;
 import signature.model.impl.SigEnumConstant;
 import signature.model.impl.SigExecutableMember;
@@ -60,7 +59,7 @@ import signature.model.impl.SigPackage;
 import signature.model.impl.SigParameter;
 import signature.model.impl.SigPrimitiveType;
 import signature.model.impl.SigTypeVariableDefinition;
-import signature.model.impl.SigTypeVariableReference;
+import signature.model.util.ModelUtil;
 import signature.model.util.TypePool;
 
 import com.sun.javadoc.AnnotationDesc;
@@ -282,10 +281,9 @@ public class DocletToSigConverter {
             IClassDefinition fieldClass = fieldClassRef.getClassDefinition();
 
             assert fieldClass.getKind() == Kind.ENUM;
-            Set<IEnumConstant> constants = fieldClass.getEnumConstants();
-            for (IEnumConstant enumConstant : constants) {
-                if (enumConstant.getName().equals(name)) value = enumConstant;
-            }
+            IEnumConstant enumConstant = ModelUtil.getEnumConstant(fieldClass,
+                    name);
+            if (enumConstant != null) value = enumConstant;
             assert value instanceof IEnumConstant;
             return value;
         } else if (value instanceof AnnotationDesc) {
@@ -305,6 +303,11 @@ public class DocletToSigConverter {
         }
     }
 
+    private IClassReference convertClassReference(ClassDoc classDoc) {
+        SigClassDefinition c = convertClass(classDoc);
+        return pool.getClassReference(c.getPackageName(), c.getName());
+    }
+
     private ITypeReference convertArrayType(Type type) {
         assert type.asWildcardType() == null;
         assert type.asAnnotationTypeDoc() == null;
@@ -315,7 +318,7 @@ public class DocletToSigConverter {
         } else if (type.asParameterizedType() != null) {
             baseType = convertTypeReference(type.asParameterizedType());
         } else if (type.asClassDoc() != null) {
-            baseType = new SigClassReference(convertClass(type.asClassDoc()));
+            baseType = convertClassReference(type.asClassDoc());
         } else if (type.isPrimitive()) {
             baseType = SigPrimitiveType.valueOfTypeName(type.typeName());
         } else {
@@ -347,8 +350,8 @@ public class DocletToSigConverter {
             Type containingType = pType.containingType();
             if (containingType != null)
                 ownerType = convertTypeReference(containingType);
-            IClassReference rawType = new SigClassReference(convertClass(pType
-                    .asClassDoc()));
+            IClassReference rawType = convertClassReference(pType
+                    .asClassDoc());
 
             List<ITypeReference> typeArguments =
                     new LinkedList<ITypeReference>();
@@ -370,7 +373,7 @@ public class DocletToSigConverter {
 
             if (currentTypeVariableDefinition != null
                     && name.equals(currentTypeVariableDefinition.getName()))
-                return new SigTypeVariableReference(
+                return pool.getTypeVariableReference(
                         currentTypeVariableDefinition);
 
             IGenericDeclaration genericDeclaration = null;
@@ -405,7 +408,7 @@ public class DocletToSigConverter {
             }
             typeVariable.setUpperBounds(upperBounds);
 
-            return new SigTypeVariableReference(typeVariable);
+            return pool.getTypeVariableReference(typeVariable);
         }
 
         WildcardType wt = type.asWildcardType();
@@ -429,7 +432,7 @@ public class DocletToSigConverter {
 
         ClassDoc c = type.asClassDoc();
         if (c != null) {
-            return new SigClassReference(convertClass(c));
+            return convertClassReference(c);
         }
 
         if (type.isPrimitive()) {
@@ -579,11 +582,10 @@ public class DocletToSigConverter {
 
             element.setValue(convertAnnotationValue(pair.value()));
             String name = pair.element().name();
-            for (IAnnotationField field : annotationType.getClassDefinition()
-                    .getAnnotationFields()) {
-                if (field.getName().equals(name)) {
-                    element.setDeclaringField(field);
-                }
+            IAnnotationField field = ModelUtil.getAnnotationField(
+                    annotationType.getClassDefinition(), name);
+            if (field != null) {
+                element.setDeclaringField(field);
             }
         }
         a.setElements(elements);
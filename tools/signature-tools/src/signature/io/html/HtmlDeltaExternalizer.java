@@ -18,6 +18,7 @@ package signature.io.html;
 
 import org.antlr.stringtemplate.StringTemplate;
 
+import signature.ConcurrentUtil;
 import signature.Version;
 import signature.compare.model.IApiDelta;
 import signature.compare.model.IClassDefinitionDelta;
@@ -28,21 +29,88 @@ import signature.io.IApiDeltaExternalizer;
 import signature.model.IClassDefinition;
 import signature.model.IPackage;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a delta as html pages: an overview page, a page for each changed
+ * package and a page for each class delta of a changed package.
+ * <p>
+ * Pages are rendered on several threads and streamed to their files.
+ */
 public class HtmlDeltaExternalizer implements IApiDeltaExternalizer {
 
     private static final String OVERVIEW_PAGE_NAME = "changes.html";
     private static final String STYLE_SHEET_NAME = "styles.css";
     private static final String DELTA_FOLDER = "changes" + File.separator;
 
+    /** the number of threads rendering pages */
+    private final int threadCount;
+    /** whether pages of added and removed classes are left out */
+    private final boolean changedOnly;
+
+    /**
+     * Creates an {@code HtmlDeltaExternalizer} rendering all pages on as many
+     * threads as there are processors.
+     */
+    public HtmlDeltaExternalizer() {
+        this(Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    /**
+     * Creates an {@code HtmlDeltaExternalizer}.
+     * 
+     * @param threadCount
+     *            the number of threads, 1 to render serially
+     * @param changedOnly
+     *            whether to render class pages for changed classes only.
+     *            Package pages link to those, whereas they only list added
+     *            and removed classes.
+     */
+    public HtmlDeltaExternalizer(int threadCount, boolean changedOnly) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount < 1");
+        }
+        this.threadCount = threadCount;
+        this.changedOnly = changedOnly;
+    }
+
+    /**
+     * A page to render into a file.
+     */
+    private abstract static class PageTask implements Callable<Void> {
+        private final String fileName;
+
+        PageTask(String fileName) {
+            this.fileName = fileName;
+        }
+
+        abstract IEmitter createPage();
+
+        void render() throws IOException {
+            writeToFile(fileName, createPage());
+        }
+
+        public Void call() throws IOException {
+            render();
+            return null;
+        }
+    }
+
     public void externalize(String location, IApiDelta apiDelta)
             throws IOException {
         if (!location.endsWith(File.separator)) {
@@ -56,20 +124,25 @@ public class HtmlDeltaExternalizer implements IApiDeltaExternalizer {
 
         copyStyleSheet(location);
 
-        Map<String, String> commonInfos = new HashMap<String, String>();
+        final Map<String, String> commonInfos = new HashMap<String, String>();
         commonInfos.put("creation_time", DateFormat.getDateTimeInstance()
                 .format(new Date()));
         commonInfos.put("from_desc", apiDelta.getFrom().getName());
         commonInfos.put("to_desc", apiDelta.getTo().getName());
 
-        // write overview page
-        StringBuilder content = new StringBuilder();
-        ApiOverviewPage apiOverviewPage = new ApiOverviewPage(apiDelta,
+        List<PageTask> pages = new ArrayList<PageTask>();
+
+        // overview page, which completes the common infos
+        final ApiOverviewPage apiOverviewPage = new ApiOverviewPage(apiDelta,
                 commonInfos);
-        apiOverviewPage.writeTo(content);
-        writeToFile(location + OVERVIEW_PAGE_NAME, content.toString());
+        pages.add(new PageTask(location + OVERVIEW_PAGE_NAME) {
+            @Override
+            IEmitter createPage() {
+                return apiOverviewPage;
+            }
+        });
 
-        // write package overview
+        // package overviews
         Set<IPackageDelta> changedPackages = SigDelta.getChanged(apiDelta
                 .getPackageDeltas());
         if (!changedPackages.isEmpty()) {
@@ -79,32 +152,60 @@ public class HtmlDeltaExternalizer implements IApiDeltaExternalizer {
                 file.mkdir();
             }
 
-            for (IPackageDelta packageDelta : changedPackages) {
-                content = new StringBuilder();
-                PackageOverviewPage packagePage = new PackageOverviewPage(
-                        packageDelta, commonInfos);
-                packagePage.writeTo(content);
+            for (final IPackageDelta packageDelta : changedPackages) {
                 IPackage aPackage = getAnElement(packageDelta);
                 String packageOverviewFileName = location + DELTA_FOLDER
                         + "pkg_" + aPackage.getName() + ".html";
-                writeToFile(packageOverviewFileName, content.toString());
-
-                // write class overviews
-                for (IClassDefinitionDelta classDelta : packageDelta
-                        .getClassDeltas()) {
-                    content = new StringBuilder();
-                    ClassOverviewPage classPage = new ClassOverviewPage(
-                            classDelta, commonInfos);
-                    classPage.writeTo(content);
+                pages.add(new PageTask(packageOverviewFileName) {
+                    @Override
+                    IEmitter createPage() {
+                        return new PackageOverviewPage(packageDelta,
+                                new HashMap<String, String>(commonInfos));
+                    }
+                });
+
+                // class overviews
+                Set<IClassDefinitionDelta> classDeltas = changedOnly ? SigDelta
+                        .getChanged(packageDelta.getClassDeltas())
+                        : packageDelta.getClassDeltas();
+                for (final IClassDefinitionDelta classDelta : classDeltas) {
                     IClassDefinition aClass = getAnElement(classDelta);
                     String classOverviewFileName = location + DELTA_FOLDER
                             + aPackage.getName() + "." + aClass.getName()
                             + ".html";
-                    writeToFile(classOverviewFileName, content.toString());
+                    pages.add(new PageTask(classOverviewFileName) {
+                        @Override
+                        IEmitter createPage() {
+                            return new ClassOverviewPage(classDelta,
+                                    new HashMap<String, String>(commonInfos));
+                        }
+                    });
                 }
             }
         }
-        // write class overview
+        render(pages);
+    }
+
+    private void render(List<PageTask> pages) throws IOException {
+        if (threadCount == 1) {
+            for (PageTask page : pages) {
+                page.render();
+            }
+            return;
+        }
+        ExecutorService executor = ConcurrentUtil.newDaemonThreadPool(
+                threadCount, "HtmlDeltaExternalizer");
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (PageTask page : pages) {
+                futures.add(executor.submit(page));
+            }
+            for (Future<Void> future : futures) {
+                ConcurrentUtil.getResult(future, IOException.class);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     private static <T> T getAnElement(IDelta<T> delta) {
@@ -116,16 +217,24 @@ public class HtmlDeltaExternalizer implements IApiDeltaExternalizer {
     }
 
     private void copyStyleSheet(String directory) throws IOException {
-        StringTemplate template = TemplateStore.getStringTemplate("Styles");
+        final StringTemplate template = TemplateStore
+                .getStringTemplate("Styles");
         template.setAttribute("version", Version.VERSION);
-        writeToFile(directory + STYLE_SHEET_NAME, template.toString());
+        writeToFile(directory + STYLE_SHEET_NAME, new IEmitter() {
+            public void writeTo(Writer writer) throws IOException {
+                TemplateStore.write(template, writer);
+            }
+        });
     }
 
-    private void writeToFile(String fileName, String content)
+    private static void writeToFile(String fileName, IEmitter page)
             throws IOException {
-        FileOutputStream fileOutputStream = new FileOutputStream(fileName);
-        fileOutputStream.write(content.getBytes());
-        fileOutputStream.flush();
-        fileOutputStream.close();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(fileName)));
+        try {
+            page.writeTo(writer);
+        } finally {
+            writer.close();
+        }
     }
 }
@@ -18,6 +18,8 @@ package signature.io.html;
 
 import org.antlr.stringtemplate.StringTemplate;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -60,14 +62,14 @@ public class PackageOverviewPage implements IEmitter {
         Collections.sort(changedClasses, new ClassByNameComparator());
     }
 
-    public void writeTo(StringBuilder b) {
+    public void writeTo(Writer writer) throws IOException {
         StringTemplate template = TemplateStore.getStringTemplate(PACGE);
         template.setArgumentContext(commonInfos);
         template.setAttribute("package_delta", delta);
         template.setAttribute("removed_classes", removedClasses);
         template.setAttribute("added_classes", addedClasses);
         template.setAttribute("changed_classes", changedClasses);
-        b.append(template.toString());
+        TemplateStore.write(template, writer);
     }
 
 
@@ -16,16 +16,29 @@
 
 package signature.io.html;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Writer;
 
 import org.antlr.stringtemplate.StringTemplate;
 import org.antlr.stringtemplate.StringTemplateGroup;
+import org.antlr.stringtemplate.StringTemplateWriter;
 import org.antlr.stringtemplate.language.DefaultTemplateLexer;
 
+/**
+ * Provides the templates of the html report. Template groups are not thread
+ * safe, so each thread loads its own.
+ */
 public class TemplateStore {
 
-    private static StringTemplateGroup group = initialize();
+    private static final ThreadLocal<StringTemplateGroup> group =
+            new ThreadLocal<StringTemplateGroup>() {
+                @Override
+                protected StringTemplateGroup initialValue() {
+                    return initialize();
+                }
+            };
 
 
     private static StringTemplateGroup initialize() {
@@ -53,6 +66,18 @@ public class TemplateStore {
     }
 
     public static StringTemplate getStringTemplate(String name) {
-        return group.getInstanceOf(name);
+        return group.get().getInstanceOf(name);
+    }
+
+    /**
+     * Writes the given template to the writer, as {@code toString()} would
+     * render it, without building the whole text first.
+     */
+    public static void write(StringTemplate template, Writer writer)
+            throws IOException {
+        StringTemplateWriter out = template.getGroup()
+                .getStringTemplateWriter(writer);
+        out.setLineWidth(StringTemplateWriter.NO_WRAP);
+        template.write(out);
     }
 }
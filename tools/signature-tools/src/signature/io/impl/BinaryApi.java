@@ -20,14 +20,32 @@ import signature.converter.Visibility;
 import signature.io.IApiExternalizer;
 import signature.io.IApiLoader;
 import signature.model.IApi;
+import signature.model.IPackage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
 import java.util.Set;
 
+/**
+ * Stores apis in the binary signature format described in
+ * {@link BinaryApiFormat} and loads them from it. Loading maps the file into
+ * memory and only reads the class definitions which are used.
+ * <p>
+ * Files written with java serialization by earlier versions are still
+ * loaded.
+ */
 public class BinaryApi implements IApiExternalizer, IApiLoader {
 
     public void externalizeApi(String fileName, IApi api) throws IOException {
@@ -37,15 +55,34 @@ public class BinaryApi implements IApiExternalizer, IApiLoader {
             directory.mkdirs();
         }
 
-        File file = new File(directory, getFileName(api));
-        file.createNewFile();
-
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(
-                file));
-        oos.writeObject(api);
+        write(api, new File(directory, getFileName(api)));
+    }
 
-        oos.flush();
-        oos.close();
+    /**
+     * Writes the api to the given file in the binary format. The api is
+     * written to a new file which then replaces the given one, as an api
+     * loaded from the old file may still have it mapped.
+     */
+    static void write(IApi api, File file) throws IOException {
+        File newFile = File.createTempFile(file.getName(), ".new", file
+                .getParentFile());
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(
+                    newFile));
+            try {
+                new BinaryApiWriter().write(api, out);
+            } finally {
+                out.close();
+            }
+            if (!newFile.renameTo(file)) {
+                file.delete();
+                if (!newFile.renameTo(file)) {
+                    throw new IOException("Failed to replace " + file);
+                }
+            }
+        } finally {
+            newFile.delete();
+        }
     }
 
     private String getFileName(IApi api) {
@@ -56,8 +93,7 @@ public class BinaryApi implements IApiExternalizer, IApiLoader {
             Set<String> fileNames, Set<String> packageNames) throws
             IOException {
         System.err
-                .println("Binary signature loader ignores visibility and " +
-                        "package names.");
+                .println("Binary signature loader ignores visibility.");
         if (fileNames.size() != 1) {
             throw new IllegalArgumentException(
                     "Only one file can be processed by the binary signature " +
@@ -65,19 +101,63 @@ public class BinaryApi implements IApiExternalizer, IApiLoader {
         }
         String fileName = fileNames.iterator().next();
         File file = new File(fileName);
-        ObjectInputStream ois = new ObjectInputStream(
-                new FileInputStream(file));
+        if (isSerialized(file)) {
+            return loadSerializedApi(name, file, packageNames);
+        }
+        return read(name, file, packageNames);
+    }
+
+    /**
+     * Maps the given file in the binary format and reads the api from it.
+     * Only the packages with the given names are read, all packages if no
+     * names are given.
+     */
+    static IApi read(String name, File file, Set<String> packageNames)
+            throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = input.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+                    .size());
+        } finally {
+            input.close();
+        }
+        return new BinaryApiReader(buffer).readApi(name, packageNames);
+    }
+
+    private boolean isSerialized(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readShort() == BinaryApiFormat.SERIALIZATION_MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    private IApi loadSerializedApi(String name, File file,
+            Set<String> packageNames) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        ObjectInputStream ois = new ObjectInputStream(in);
         IApi sig = null;
         try {
             sig = (IApi) ois.readObject();
         } catch (ClassNotFoundException e) {
             throw new IllegalArgumentException(e);
+        } finally {
+            ois.close();
         }
         if (name != null) {
             sig.setName(name);
         }
-
-        ois.close();
+        if (packageNames != null && !packageNames.isEmpty()) {
+            Iterator<IPackage> packages = sig.getPackages().iterator();
+            while (packages.hasNext()) {
+                if (!packageNames.contains(packages.next().getName())) {
+                    packages.remove();
+                }
+            }
+        }
         return sig;
     }
 }
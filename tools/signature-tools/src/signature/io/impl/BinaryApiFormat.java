@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+/**
+ * Constants of the binary signature format written by {@link BinaryApiWriter}
+ * and read by {@link BinaryApiReader}.
+ * <p>
+ * A file consists of a header followed by four sections:
+ * <ul>
+ * <li>header: magic, version, api name, visibility and the offsets of the
+ * sections, as fixed size ints</li>
+ * <li>string table: the number of strings, the offsets of the strings as ints
+ * (one more than there are strings), then the UTF-8 bytes of all strings</li>
+ * <li>class table: the number of class definitions, then for each the package
+ * name, the name and the offset of its record as ints</li>
+ * <li>package table: the number of packages, then for each the name, the
+ * offset of the record of its annotations and the indices of its classes</li>
+ * <li>records: the class definitions and package annotations</li>
+ * </ul>
+ * Within records, counts and indices are unsigned variable length ints.
+ * References to strings and class definitions are indices into the tables,
+ * so a class definition is only decoded when it is first used.
+ * <p>
+ * A record of a class definition has two parts: the first one holds its
+ * kind, modifiers, type parameters, super types and members, the second one
+ * the annotations of the class and its members, which may refer to members
+ * of other classes.
+ */
+final class BinaryApiFormat {
+
+    /** "SIG1" */
+    static final int MAGIC = 0x53494731;
+    static final int VERSION = 1;
+
+    /** the first bytes of a stream written by java serialization */
+    static final short SERIALIZATION_MAGIC = (short) 0xaced;
+
+    static final int HEADER_SIZE = 8 * 4;
+
+    /** null reference, collection or index */
+    static final int NULL = 0;
+    /** uninitialized reference or collection */
+    static final int UNSET = 1;
+    /** offset of sizes and indices from the encoded value */
+    static final int VALUE_OFFSET = 2;
+
+    static final int NO_RECORD = -1;
+
+    // type references
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_UNSET = 1;
+    static final byte TYPE_CLASS = 2;
+    static final byte TYPE_PRIMITIVE = 3;
+    static final byte TYPE_ARRAY = 4;
+    static final byte TYPE_PARAMETERIZED = 5;
+    static final byte TYPE_WILDCARD = 6;
+    /** variable of a class, by class index and position */
+    static final byte TYPE_CLASS_VARIABLE = 7;
+    /** variable of the enclosing method or constructor, by position */
+    static final byte TYPE_MEMBER_VARIABLE = 8;
+
+    // annotation values
+    static final byte VALUE_NULL = 0;
+    static final byte VALUE_STRING = 1;
+    static final byte VALUE_BOOLEAN = 2;
+    static final byte VALUE_BYTE = 3;
+    static final byte VALUE_CHAR = 4;
+    static final byte VALUE_SHORT = 5;
+    static final byte VALUE_INT = 6;
+    static final byte VALUE_LONG = 7;
+    static final byte VALUE_FLOAT = 8;
+    static final byte VALUE_DOUBLE = 9;
+    static final byte VALUE_ARRAY = 10;
+    static final byte VALUE_ANNOTATION = 11;
+    static final byte VALUE_TYPE = 12;
+    /** enum constant of a class, by class index and name */
+    static final byte VALUE_ENUM_CONSTANT = 13;
+    /** enum constant not found in its class, written in full */
+    static final byte VALUE_ENUM_CONSTANT_DEFINITION = 14;
+    /** field, written in full */
+    static final byte VALUE_FIELD_DEFINITION = 15;
+    /** uninitialized value */
+    static final byte VALUE_UNSET = 16;
+
+    // annotation element fields
+    /** field of the annotation type, by name */
+    static final byte ELEMENT_FIELD = 0;
+    /** field not found in the annotation type, written in full */
+    static final byte ELEMENT_FIELD_DEFINITION = 1;
+
+    private BinaryApiFormat() {
+    }
+}
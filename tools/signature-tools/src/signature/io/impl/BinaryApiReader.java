@@ -0,0 +1,668 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import static signature.io.impl.BinaryApiFormat.*;
+
+import signature.converter.Visibility;
+import signature.model.IAnnotation;
+import signature.model.IAnnotationElement;
+import signature.model.IAnnotationField;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IClassReference;
+import signature.model.IConstructor;
+import signature.model.IEnumConstant;
+import signature.model.IField;
+import signature.model.IGenericDeclaration;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.Kind;
+import signature.model.Modifier;
+import signature.model.impl.SigAnnotatableElement;
+import signature.model.impl.SigAnnotation;
+import signature.model.impl.SigAnnotationElement;
+import signature.model.impl.SigAnnotationField;
+import signature.model.impl.SigApi;
+import signature.model.impl.SigClassReference;
+import signature.model.impl.SigConstructor;
+import signature.model.impl.SigEnumConstant;
+import signature.model.impl.SigExecutableMember;
+import signature.model.impl.SigField;
+import signature.model.impl.SigMethod;
+import signature.model.impl.SigPackage;
+import signature.model.impl.SigParameter;
+import signature.model.impl.SigPrimitiveType;
+import signature.model.impl.SigTypeVariableDefinition;
+import signature.model.impl.Uninitialized;
+import signature.model.util.ModelUtil;
+import signature.model.util.TypePool;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads an {@link IApi} from a buffer holding the binary signature format
+ * described in {@link BinaryApiFormat}, usually a memory mapped file.
+ * <p>
+ * Only the tables are read up front, class definitions are read when they are
+ * first used, see {@link BinaryClassDefinition}.
+ */
+class BinaryApiReader {
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final Modifier[] MODIFIERS = Modifier.values();
+    private static final SigPrimitiveType[] PRIMITIVE_TYPES = SigPrimitiveType
+            .values();
+    private static final Visibility[] VISIBILITIES = Visibility.values();
+
+    private static final int CLASS_ENTRY_SIZE = 3 * 4;
+
+    /** sizes of null and uninitialized collections, as read by readCount */
+    private static final int NULL_COUNT = NULL - VALUE_OFFSET;
+    private static final int UNSET_COUNT = UNSET - VALUE_OFFSET;
+
+    private final ByteBuffer buffer;
+    private final int stringTable;
+    private final int stringData;
+    private final int classTable;
+    private final int packageTable;
+    private final int records;
+
+    private final String apiName;
+    private final Visibility visibility;
+
+    /** the strings and class definitions read so far, by index */
+    private final String[] strings;
+    private final BinaryClassDefinition[] classes;
+    private final IClassReference[] classReferences;
+    /** the canonical types composed of the class references */
+    private final TypePool types = new TypePool();
+
+    BinaryApiReader(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary signature file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported binary signature version "
+                    + buffer.getInt(4));
+        }
+        int visibilityOrdinal = buffer.getInt(12);
+        visibility = visibilityOrdinal < 0 ? null
+                : VISIBILITIES[visibilityOrdinal];
+        stringTable = buffer.getInt(16);
+        classTable = buffer.getInt(20);
+        packageTable = buffer.getInt(24);
+        records = buffer.getInt(28);
+
+        strings = new String[buffer.getInt(stringTable)];
+        stringData = stringTable + 4 + (strings.length + 1) * 4;
+        classes = new BinaryClassDefinition[buffer.getInt(classTable)];
+        classReferences = new IClassReference[classes.length];
+        apiName = getString(buffer.getInt(8));
+    }
+
+    /**
+     * Reads the api.
+     *
+     * @param name
+     *            the name of the api, or null to keep the stored one
+     * @param packageNames
+     *            the names of the packages to read, or null or empty to read
+     *            all of them
+     */
+    synchronized IApi readApi(String name, Set<String> packageNames) {
+        SigApi api = new SigApi(name != null ? name : apiName, visibility);
+        Set<IPackage> packages = new HashSet<IPackage>();
+        int at = packageTable;
+        int packageCount = buffer.getInt(at);
+        at += 4;
+        for (int i = 0; i < packageCount; i++) {
+            String packageName = getString(buffer.getInt(at));
+            int annotations = buffer.getInt(at + 4);
+            int classCount = buffer.getInt(at + 8);
+            at += 12;
+            if (packageNames == null || packageNames.isEmpty()
+                    || packageNames.contains(packageName)) {
+                SigPackage aPackage = new SigPackage(packageName);
+                Set<IClassDefinition> packageClasses =
+                        new HashSet<IClassDefinition>();
+                for (int j = 0; j < classCount; j++) {
+                    packageClasses.add(getClassDefinition(buffer.getInt(at + j * 4)));
+                }
+                aPackage.setClasses(packageClasses);
+                if (annotations != NO_RECORD) {
+                    new RecordReader(annotations).readAnnotations(aPackage);
+                }
+                packages.add(aPackage);
+            }
+            at += classCount * 4;
+        }
+        api.setPackages(packages);
+        return api;
+    }
+
+    /**
+     * Reads the record of a class definition. Called by the class definition
+     * while holding the lock of this reader.
+     */
+    void readClass(BinaryClassDefinition clazz, int index) {
+        int offset = buffer.getInt(classTable + 4 + index * CLASS_ENTRY_SIZE
+                + 8);
+        new RecordReader(offset).readClass(clazz);
+    }
+
+    private String getString(int index) {
+        String string = strings[index];
+        if (string == null) {
+            int start = buffer.getInt(stringTable + 4 + index * 4);
+            int end = buffer.getInt(stringTable + 4 + (index + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(stringData + start + i);
+            }
+            try {
+                string = new String(bytes, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            strings[index] = string;
+        }
+        return string;
+    }
+
+    private BinaryClassDefinition getClassDefinition(int index) {
+        BinaryClassDefinition clazz = classes[index];
+        if (clazz == null) {
+            int entry = classTable + 4 + index * CLASS_ENTRY_SIZE;
+            clazz = new BinaryClassDefinition(this, index, getString(buffer
+                    .getInt(entry)), getString(buffer.getInt(entry + 4)));
+            classes[index] = clazz;
+        }
+        return clazz;
+    }
+
+    private IClassReference getClassReference(int index) {
+        IClassReference reference = classReferences[index];
+        if (reference == null) {
+            reference = new SigClassReference(getClassDefinition(index));
+            classReferences[index] = reference;
+        }
+        return reference;
+    }
+
+    /**
+     * Reads a record, holds the position in it and the method or constructor
+     * read, so records can be read while reading others.
+     */
+    private class RecordReader {
+
+        private final ByteBuffer in;
+
+        /** the method or constructor being read, if any */
+        private SigExecutableMember member;
+
+        RecordReader(int offset) {
+            in = buffer.duplicate();
+            in.position(records + offset);
+        }
+
+        void readClass(BinaryClassDefinition clazz) {
+            clazz.setKind(KINDS[in.get()]);
+            clazz.setModifiers(readModifiers());
+            List<ITypeVariableDefinition> typeParameters =
+                    readTypeVariableNames(clazz);
+            clazz.setTypeParameters(typeParameters);
+            readUpperBounds(typeParameters);
+            clazz.setDeclaringClass(readClassDefinition());
+            clazz.setSuperClass(readType());
+            clazz.setInterfaces(readTypeSet());
+            int innerClassCount = readCount();
+            Set<IClassDefinition> innerClasses = newSet(innerClassCount);
+            for (int i = 0; i < innerClassCount; i++) {
+                innerClasses.add(readClassDefinition());
+            }
+            clazz.setInnerClasses(innerClasses);
+
+            List<IField> fields = readFields(FieldKind.FIELD);
+            clazz.setFields(this.<IField> toSet(fields));
+            List<IEnumConstant> enumConstants = readFields(
+                    FieldKind.ENUM_CONSTANT);
+            if (enumConstants != null) {
+                for (IEnumConstant enumConstant : enumConstants) {
+                    readOrdinal((SigEnumConstant) enumConstant);
+                }
+            }
+            clazz.setEnumConstants(this.<IEnumConstant> toSet(enumConstants));
+            List<IAnnotationField> annotationFields = readFields(
+                    FieldKind.ANNOTATION_FIELD);
+            clazz.setAnnotationFields(this.<IAnnotationField> toSet(
+                    annotationFields));
+            List<SigExecutableMember> constructors =
+                    readExecutableMembers(false);
+            clazz.setConstructors(this.<IConstructor> toSet(constructors));
+            List<SigExecutableMember> methods = readExecutableMembers(true);
+            clazz.setMethods(this.<IMethod> toSet(methods));
+
+            // the annotations, in the order the elements were written
+            readAnnotations(clazz);
+            readAnnotations(fields);
+            readAnnotations(enumConstants);
+            if (annotationFields != null) {
+                for (IAnnotationField annotationField : annotationFields) {
+                    SigAnnotationField field =
+                            (SigAnnotationField) annotationField;
+                    readAnnotations(field);
+                    field.setDefaultValue(readValue());
+                }
+            }
+            readMemberAnnotations(constructors);
+            readMemberAnnotations(methods);
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = in.get();
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private String readString() {
+            int index = readVarInt();
+            return index == NULL ? null : getString(index - VALUE_OFFSET);
+        }
+
+        private IClassDefinition readClassDefinition() {
+            int index = readVarInt();
+            if (index == NULL) {
+                return null;
+            } else if (index == UNSET) {
+                return Uninitialized.unset();
+            }
+            return getClassDefinition(index - VALUE_OFFSET);
+        }
+
+        private IClassReference readClassReference() {
+            int index = readVarInt();
+            if (index == NULL) {
+                return null;
+            } else if (index == UNSET) {
+                return Uninitialized.unset();
+            }
+            return getClassReference(index - VALUE_OFFSET);
+        }
+
+        /**
+         * Reads the size of a collection, {@link #NULL_COUNT} for null and
+         * {@link #UNSET_COUNT} for an uninitialized collection.
+         */
+        private int readCount() {
+            return readVarInt() - VALUE_OFFSET;
+        }
+
+        private <T> Set<T> newSet(int count) {
+            if (count == NULL_COUNT) {
+                return null;
+            } else if (count == UNSET_COUNT) {
+                return Uninitialized.unset();
+            } else if (count == 0) {
+                return Collections.emptySet();
+            }
+            return new HashSet<T>(count * 4 / 3 + 1);
+        }
+
+        private <T> List<T> newList(int count) {
+            if (count == NULL_COUNT) {
+                return null;
+            } else if (count == UNSET_COUNT) {
+                return Uninitialized.unset();
+            } else if (count == 0) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<T>(count);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> Set<T> toSet(List<?> elements) {
+            if (elements == null) {
+                return null;
+            } else if (!Uninitialized.isInitialized(elements)) {
+                return Uninitialized.unset();
+            } else if (elements.isEmpty()) {
+                return Collections.emptySet();
+            }
+            return new HashSet<T>((List<T>) elements);
+        }
+
+        private Set<Modifier> readModifiers() {
+            int mask = readVarInt();
+            if (mask == NULL) {
+                return null;
+            } else if (mask == UNSET) {
+                return Uninitialized.unset();
+            }
+            mask -= VALUE_OFFSET;
+            Set<Modifier> modifiers = EnumSet.noneOf(Modifier.class);
+            for (Modifier modifier : MODIFIERS) {
+                if ((mask & (1 << modifier.ordinal())) != 0) {
+                    modifiers.add(modifier);
+                }
+            }
+            return modifiers;
+        }
+
+        /**
+         * Reads the names of type variables and creates their definitions,
+         * their bounds are read by {@link #readUpperBounds(List)} once the
+         * declaration holds them.
+         */
+        private List<ITypeVariableDefinition> readTypeVariableNames(
+                IGenericDeclaration declaration) {
+            int count = readCount();
+            List<ITypeVariableDefinition> typeParameters = newList(count);
+            for (int i = 0; i < count; i++) {
+                typeParameters.add(new SigTypeVariableDefinition(readString(),
+                        declaration));
+            }
+            return typeParameters;
+        }
+
+        private void readUpperBounds(
+                List<ITypeVariableDefinition> typeParameters) {
+            if (typeParameters == null
+                    || !Uninitialized.isInitialized(typeParameters)) {
+                return;
+            }
+            for (ITypeVariableDefinition typeParameter : typeParameters) {
+                ((SigTypeVariableDefinition) typeParameter)
+                        .setUpperBounds(readTypeList());
+            }
+        }
+
+        private Set<ITypeReference> readTypeSet() {
+            int count = readCount();
+            Set<ITypeReference> types = newSet(count);
+            for (int i = 0; i < count; i++) {
+                types.add(readType());
+            }
+            return types;
+        }
+
+        private List<ITypeReference> readTypeList() {
+            int count = readCount();
+            List<ITypeReference> types = newList(count);
+            for (int i = 0; i < count; i++) {
+                types.add(readType());
+            }
+            return types;
+        }
+
+        private ITypeReference readType() {
+            byte tag = in.get();
+            switch (tag) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_UNSET:
+                return Uninitialized.unset();
+            case TYPE_CLASS:
+                return readClassReference();
+            case TYPE_PRIMITIVE:
+                return PRIMITIVE_TYPES[in.get()];
+            case TYPE_ARRAY:
+                return types.getArrayType(readType());
+            case TYPE_PARAMETERIZED: {
+                ITypeReference ownerType = readType();
+                IClassReference rawType = readClassReference();
+                return types.getParameterizedType(ownerType, rawType,
+                        readTypeList());
+            }
+            case TYPE_WILDCARD: {
+                ITypeReference lowerBound = readType();
+                return types.getWildcardType(lowerBound, readTypeList());
+            }
+            case TYPE_CLASS_VARIABLE: {
+                IClassDefinition clazz = getClassDefinition(readVarInt());
+                return types.getTypeVariableReference(clazz
+                        .getTypeParameters().get(readVarInt()));
+            }
+            case TYPE_MEMBER_VARIABLE:
+                return types.getTypeVariableReference(member
+                        .getTypeParameters().get(readVarInt()));
+            default:
+                throw new IllegalStateException("Unknown type tag " + tag);
+            }
+        }
+
+        private <T extends IField> List<T> readFields(FieldKind kind) {
+            int count = readCount();
+            List<T> fields = newList(count);
+            for (int i = 0; i < count; i++) {
+                fields.add(this.<T> readField(kind));
+            }
+            return fields;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends IField> T readField(FieldKind kind) {
+            String name = readString();
+            SigField field;
+            switch (kind) {
+            case ENUM_CONSTANT:
+                field = new SigEnumConstant(name);
+                break;
+            case ANNOTATION_FIELD:
+                field = new SigAnnotationField(name);
+                break;
+            default:
+                field = new SigField(name);
+            }
+            field.setModifiers(readModifiers());
+            field.setType(readType());
+            return (T) field;
+        }
+
+        private void readOrdinal(SigEnumConstant enumConstant) {
+            int ordinal = readVarInt();
+            if (ordinal != UNSET) {
+                enumConstant.setOrdinal(ordinal - VALUE_OFFSET);
+            }
+        }
+
+        private List<SigExecutableMember> readExecutableMembers(
+                boolean methods) {
+            int count = readCount();
+            List<SigExecutableMember> members = newList(count);
+            for (int i = 0; i < count; i++) {
+                String name = readString();
+                member = methods ? new SigMethod(name)
+                        : new SigConstructor(name);
+                member.setModifiers(readModifiers());
+                List<ITypeVariableDefinition> typeParameters =
+                        readTypeVariableNames(member);
+                member.setTypeParameters(typeParameters);
+                readUpperBounds(typeParameters);
+                member.setDeclaringClass(readClassDefinition());
+                int parameterCount = readCount();
+                List<IParameter> parameters = newList(parameterCount);
+                for (int j = 0; j < parameterCount; j++) {
+                    parameters.add(new SigParameter(readType()));
+                }
+                member.setParameters(parameters);
+                member.setExceptions(readTypeSet());
+                if (methods) {
+                    ((SigMethod) member).setReturnType(readType());
+                }
+                members.add(member);
+                member = null;
+            }
+            return members;
+        }
+
+        private void readMemberAnnotations(List<SigExecutableMember> members) {
+            if (members == null || !Uninitialized.isInitialized(members)) {
+                return;
+            }
+            for (SigExecutableMember executableMember : members) {
+                readAnnotations(executableMember);
+                List<IParameter> parameters = executableMember.getParameters();
+                if (parameters != null
+                        && Uninitialized.isInitialized(parameters)) {
+                    for (IParameter parameter : parameters) {
+                        readAnnotations((SigParameter) parameter);
+                    }
+                }
+            }
+        }
+
+        private void readAnnotations(List<? extends IField> fields) {
+            if (fields == null || !Uninitialized.isInitialized(fields)) {
+                return;
+            }
+            for (IField field : fields) {
+                readAnnotations((SigField) field);
+            }
+        }
+
+        void readAnnotations(SigAnnotatableElement element) {
+            int count = readCount();
+            Set<IAnnotation> annotations = newSet(count);
+            for (int i = 0; i < count; i++) {
+                annotations.add(readAnnotation());
+            }
+            element.setAnnotations(annotations);
+        }
+
+        private IAnnotation readAnnotation() {
+            SigAnnotation annotation = new SigAnnotation();
+            IClassReference type = readClassReference();
+            annotation.setType(type);
+            int count = readCount();
+            Set<IAnnotationElement> elements = newSet(count);
+            for (int i = 0; i < count; i++) {
+                SigAnnotationElement element = new SigAnnotationElement();
+                element.setDeclaringField(readElementField(type
+                        .getClassDefinition()));
+                element.setValue(readValue());
+                elements.add(element);
+            }
+            annotation.setElements(elements);
+            return annotation;
+        }
+
+        private IAnnotationField readElementField(IClassDefinition type) {
+            byte tag = in.get();
+            if (tag == ELEMENT_FIELD_DEFINITION) {
+                SigAnnotationField field = readField(
+                        FieldKind.ANNOTATION_FIELD);
+                readAnnotations(field);
+                field.setDefaultValue(readValue());
+                return field;
+            }
+            String name = readString();
+            IAnnotationField field = ModelUtil.getAnnotationField(type, name);
+            if (field != null) {
+                return field;
+            }
+            throw new IllegalStateException("Annotation field " + name
+                    + " not found in " + type.getQualifiedName());
+        }
+
+        private Object readValue() {
+            byte tag = in.get();
+            switch (tag) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_UNSET:
+                return Uninitialized.unset();
+            case VALUE_STRING:
+                return readString();
+            case VALUE_BOOLEAN:
+                return in.get() != 0;
+            case VALUE_BYTE:
+                return in.get();
+            case VALUE_CHAR:
+                return in.getChar();
+            case VALUE_SHORT:
+                return in.getShort();
+            case VALUE_INT:
+                return in.getInt();
+            case VALUE_LONG:
+                return in.getLong();
+            case VALUE_FLOAT:
+                return in.getFloat();
+            case VALUE_DOUBLE:
+                return in.getDouble();
+            case VALUE_ARRAY: {
+                Object[] values = new Object[readVarInt()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = readValue();
+                }
+                return values;
+            }
+            case VALUE_ANNOTATION:
+                return readAnnotation();
+            case VALUE_TYPE:
+                return readType();
+            case VALUE_ENUM_CONSTANT: {
+                IClassDefinition enumClass = getClassDefinition(readVarInt());
+                String name = readString();
+                IEnumConstant enumConstant = ModelUtil.getEnumConstant(
+                        enumClass, name);
+                if (enumConstant != null) {
+                    return enumConstant;
+                }
+                throw new IllegalStateException("Enum constant " + name
+                        + " not found in " + enumClass.getQualifiedName());
+            }
+            case VALUE_ENUM_CONSTANT_DEFINITION: {
+                SigEnumConstant enumConstant = readField(
+                        FieldKind.ENUM_CONSTANT);
+                readOrdinal(enumConstant);
+                readAnnotations(enumConstant);
+                return enumConstant;
+            }
+            case VALUE_FIELD_DEFINITION: {
+                SigField field = readField(FieldKind.FIELD);
+                readAnnotations(field);
+                return field;
+            }
+            default:
+                throw new IllegalStateException("Unknown value tag " + tag);
+            }
+        }
+    }
+
+    private enum FieldKind {
+        FIELD, ENUM_CONSTANT, ANNOTATION_FIELD
+    }
+}
@@ -0,0 +1,606 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import static signature.io.impl.BinaryApiFormat.*;
+
+import signature.model.IAnnotatableElement;
+import signature.model.IAnnotation;
+import signature.model.IAnnotationElement;
+import signature.model.IAnnotationField;
+import signature.model.IApi;
+import signature.model.IArrayType;
+import signature.model.IClassDefinition;
+import signature.model.IClassReference;
+import signature.model.IEnumConstant;
+import signature.model.IExecutableMember;
+import signature.model.IField;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.IParameterizedType;
+import signature.model.IPrimitiveType;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.ITypeVariableReference;
+import signature.model.IWildcardType;
+import signature.model.Modifier;
+import signature.model.impl.SigPrimitiveType;
+import signature.model.impl.Uninitialized;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes an {@link IApi} in the binary signature format described in
+ * {@link BinaryApiFormat}.
+ */
+class BinaryApiWriter {
+
+    private final Map<String, Integer> stringIndices =
+            new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+
+    private final Map<IClassDefinition, Integer> classIndices =
+            new IdentityHashMap<IClassDefinition, Integer>();
+    private final List<IClassDefinition> classes =
+            new ArrayList<IClassDefinition>();
+
+    /** the method or constructor being written, if any */
+    private IExecutableMember member;
+
+    public void write(IApi api, OutputStream stream) throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(recordBytes);
+
+        // the package table, annotations of the packages go to the records
+        ByteArrayOutputStream packageBytes = new ByteArrayOutputStream();
+        DataOutputStream packageTable = new DataOutputStream(packageBytes);
+        Set<IPackage> packages = api.getPackages();
+        packageTable.writeInt(packages.size());
+        for (IPackage aPackage : packages) {
+            packageTable.writeInt(getStringIndex(aPackage.getName()));
+            Set<IAnnotation> annotations = aPackage.getAnnotations();
+            if (annotations == null || annotations.isEmpty()) {
+                packageTable.writeInt(NO_RECORD);
+            } else {
+                packageTable.writeInt(records.size());
+                writeAnnotations(records, aPackage);
+            }
+            Set<IClassDefinition> packageClasses = aPackage.getClasses();
+            packageTable.writeInt(packageClasses.size());
+            for (IClassDefinition clazz : packageClasses) {
+                packageTable.writeInt(getClassIndex(clazz));
+            }
+        }
+
+        // the records of all classes, including those found while writing
+        List<Integer> classOffsets = new ArrayList<Integer>();
+        for (int i = 0; i < classes.size(); i++) {
+            classOffsets.add(records.size());
+            writeClass(records, classes.get(i));
+        }
+
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        DataOutputStream classTable = new DataOutputStream(classBytes);
+        classTable.writeInt(classes.size());
+        for (int i = 0; i < classes.size(); i++) {
+            IClassDefinition clazz = classes.get(i);
+            classTable.writeInt(getStringIndex(clazz.getPackageName()));
+            classTable.writeInt(getStringIndex(clazz.getName()));
+            classTable.writeInt(classOffsets.get(i));
+        }
+
+        int apiName = getStringIndex(api.getName());
+
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        DataOutputStream stringTable = new DataOutputStream(stringBytes);
+        ByteArrayOutputStream utf8 = new ByteArrayOutputStream();
+        stringTable.writeInt(strings.size());
+        for (String string : strings) {
+            stringTable.writeInt(utf8.size());
+            utf8.write(string.getBytes("UTF-8"));
+        }
+        stringTable.writeInt(utf8.size());
+        utf8.writeTo(stringTable);
+
+        DataOutputStream out = new DataOutputStream(stream);
+        int offset = HEADER_SIZE;
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(apiName);
+        out.writeInt(api.getVisibility() == null ? -1 : api.getVisibility()
+                .ordinal());
+        out.writeInt(offset);
+        offset += stringTable.size();
+        out.writeInt(offset);
+        offset += classTable.size();
+        out.writeInt(offset);
+        offset += packageTable.size();
+        out.writeInt(offset);
+        stringBytes.writeTo(out);
+        classBytes.writeTo(out);
+        packageBytes.writeTo(out);
+        recordBytes.writeTo(out);
+        out.flush();
+    }
+
+    private int getStringIndex(String string) {
+        Integer index = stringIndices.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndices.put(string, index);
+        }
+        return index;
+    }
+
+    private int getClassIndex(IClassDefinition clazz) {
+        Integer index = classIndices.get(clazz);
+        if (index == null) {
+            index = classes.size();
+            classes.add(clazz);
+            classIndices.put(clazz, index);
+        }
+        return index;
+    }
+
+    private void writeClass(DataOutputStream out, IClassDefinition clazz)
+            throws IOException {
+        out.writeByte(clazz.getKind().ordinal());
+        writeModifiers(out, clazz.getModifiers());
+        writeTypeVariableDefinitions(out, clazz.getTypeParameters());
+        writeClassDefinition(out, clazz.getDeclaringClass());
+        writeType(out, clazz.getSuperClass());
+        writeTypes(out, clazz.getInterfaces());
+        Set<IClassDefinition> innerClasses = clazz.getInnerClasses();
+        if (writeSize(out, innerClasses)) {
+            for (IClassDefinition innerClass : innerClasses) {
+                writeClassDefinition(out, innerClass);
+            }
+        }
+
+        List<IField> fields = writeFields(out, clazz.getFields());
+        List<IEnumConstant> enumConstants = writeFields(out, clazz
+                .getEnumConstants());
+        if (enumConstants != null) {
+            for (IEnumConstant enumConstant : enumConstants) {
+                writeOrdinal(out, enumConstant);
+            }
+        }
+        List<IAnnotationField> annotationFields = writeFields(out, clazz
+                .getAnnotationFields());
+        List<IExecutableMember> constructors = writeExecutableMembers(out,
+                clazz.getConstructors());
+        List<IExecutableMember> methods = writeExecutableMembers(out, clazz
+                .getMethods());
+
+        // the annotations, in the order the elements were written
+        writeAnnotations(out, clazz);
+        writeAnnotations(out, fields);
+        writeAnnotations(out, enumConstants);
+        if (annotationFields != null) {
+            for (IAnnotationField annotationField : annotationFields) {
+                writeAnnotations(out, annotationField);
+                writeValue(out, annotationField.getDefaultValue());
+            }
+        }
+        writeMemberAnnotations(out, constructors);
+        writeMemberAnnotations(out, methods);
+    }
+
+    /**
+     * Writes the size of a collection, returns whether its elements follow.
+     */
+    private boolean writeSize(DataOutputStream out, Collection<?> collection)
+            throws IOException {
+        if (collection == null) {
+            writeVarInt(out, NULL);
+            return false;
+        } else if (!Uninitialized.isInitialized(collection)) {
+            writeVarInt(out, UNSET);
+            return false;
+        }
+        writeVarInt(out, collection.size() + VALUE_OFFSET);
+        return true;
+    }
+
+    private void writeString(DataOutputStream out, String string)
+            throws IOException {
+        writeVarInt(out, string == null ? NULL : getStringIndex(string)
+                + VALUE_OFFSET);
+    }
+
+    private void writeClassDefinition(DataOutputStream out,
+            IClassDefinition clazz) throws IOException {
+        if (clazz == null) {
+            writeVarInt(out, NULL);
+        } else if (!Uninitialized.isInitialized(clazz)) {
+            writeVarInt(out, UNSET);
+        } else {
+            writeVarInt(out, getClassIndex(clazz) + VALUE_OFFSET);
+        }
+    }
+
+    private void writeModifiers(DataOutputStream out, Set<Modifier> modifiers)
+            throws IOException {
+        if (modifiers == null) {
+            writeVarInt(out, NULL);
+        } else if (!Uninitialized.isInitialized(modifiers)) {
+            writeVarInt(out, UNSET);
+        } else {
+            int mask = 0;
+            for (Modifier modifier : modifiers) {
+                mask |= 1 << modifier.ordinal();
+            }
+            writeVarInt(out, mask + VALUE_OFFSET);
+        }
+    }
+
+    private void writeTypeVariableDefinitions(DataOutputStream out,
+            List<ITypeVariableDefinition> typeParameters) throws IOException {
+        if (!writeSize(out, typeParameters)) {
+            return;
+        }
+        // all names first, as bounds may refer to any of the variables
+        for (ITypeVariableDefinition typeParameter : typeParameters) {
+            writeString(out, typeParameter.getName());
+        }
+        for (ITypeVariableDefinition typeParameter : typeParameters) {
+            writeTypes(out, typeParameter.getUpperBounds());
+        }
+    }
+
+    private void writeTypes(DataOutputStream out,
+            Collection<? extends ITypeReference> types) throws IOException {
+        if (writeSize(out, types)) {
+            for (ITypeReference type : types) {
+                writeType(out, type);
+            }
+        }
+    }
+
+    private void writeType(DataOutputStream out, ITypeReference type)
+            throws IOException {
+        if (type == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (!Uninitialized.isInitialized(type)) {
+            out.writeByte(TYPE_UNSET);
+        } else if (type instanceof IParameterizedType) {
+            IParameterizedType parameterizedType = (IParameterizedType) type;
+            IClassDefinition rawType = parameterizedType.getRawType()
+                    .getClassDefinition();
+            out.writeByte(TYPE_PARAMETERIZED);
+            writeType(out, getExplicitOwnerType(parameterizedType));
+            writeClassDefinition(out, rawType);
+            writeTypes(out, parameterizedType.getTypeArguments());
+        } else if (type instanceof IClassReference) {
+            out.writeByte(TYPE_CLASS);
+            writeClassDefinition(out, ((IClassReference) type)
+                    .getClassDefinition());
+        } else if (type instanceof IPrimitiveType) {
+            out.writeByte(TYPE_PRIMITIVE);
+            out.writeByte(SigPrimitiveType.valueOfTypeName(
+                    ((IPrimitiveType) type).getName()).ordinal());
+        } else if (type instanceof IArrayType) {
+            out.writeByte(TYPE_ARRAY);
+            writeType(out, ((IArrayType) type).getComponentType());
+        } else if (type instanceof IWildcardType) {
+            IWildcardType wildcardType = (IWildcardType) type;
+            out.writeByte(TYPE_WILDCARD);
+            writeType(out, wildcardType.getLowerBound());
+            writeTypes(out, wildcardType.getUpperBounds());
+        } else if (type instanceof ITypeVariableReference) {
+            writeTypeVariable(out, ((ITypeVariableReference) type)
+                    .getTypeVariableDefinition());
+        } else {
+            throw new IllegalArgumentException("unknown type reference "
+                    + type);
+        }
+    }
+
+    /**
+     * Returns the owner type of a parameterized type, or null if it is the
+     * one the model derives from the declaring class of the raw type.
+     */
+    private ITypeReference getExplicitOwnerType(IParameterizedType type) {
+        ITypeReference ownerType = type.getOwnerType();
+        if (ownerType instanceof IClassReference
+                && !(ownerType instanceof IParameterizedType)
+                && Uninitialized.isInitialized(ownerType)) {
+            IClassDefinition declaringClass = type.getRawType()
+                    .getClassDefinition().getDeclaringClass();
+            if (((IClassReference) ownerType).getClassDefinition() ==
+                    declaringClass) {
+                return null;
+            }
+        }
+        return ownerType;
+    }
+
+    private void writeTypeVariable(DataOutputStream out,
+            ITypeVariableDefinition variable) throws IOException {
+        Object declaration = variable.getGenericDeclaration();
+        if (declaration instanceof IClassDefinition) {
+            IClassDefinition clazz = (IClassDefinition) declaration;
+            out.writeByte(TYPE_CLASS_VARIABLE);
+            writeVarInt(out, getClassIndex(clazz));
+            writeVarInt(out, indexOf(clazz.getTypeParameters(), variable));
+        } else if (declaration != null && declaration == member) {
+            out.writeByte(TYPE_MEMBER_VARIABLE);
+            writeVarInt(out, indexOf(member.getTypeParameters(), variable));
+        } else {
+            throw new IllegalStateException("type variable "
+                    + variable.getName() + " used outside of "
+                    + declaration);
+        }
+    }
+
+    private int indexOf(List<ITypeVariableDefinition> typeParameters,
+            ITypeVariableDefinition variable) {
+        for (int i = 0; i < typeParameters.size(); i++) {
+            if (typeParameters.get(i) == variable) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("type variable " + variable.getName()
+                + " is not declared by its generic declaration");
+    }
+
+    /**
+     * Writes the first part of the records of fields, returns them in the
+     * order they were written or null if there are none.
+     */
+    private <T extends IField> List<T> writeFields(DataOutputStream out,
+            Set<T> fields) throws IOException {
+        if (!writeSize(out, fields)) {
+            return null;
+        }
+        List<T> written = new ArrayList<T>(fields);
+        for (T field : written) {
+            writeField(out, field);
+        }
+        return written;
+    }
+
+    private void writeField(DataOutputStream out, IField field)
+            throws IOException {
+        writeString(out, field.getName());
+        writeModifiers(out, field.getModifiers());
+        writeType(out, field.getType());
+    }
+
+    private void writeOrdinal(DataOutputStream out, IEnumConstant enumConstant)
+            throws IOException {
+        int ordinal;
+        try {
+            ordinal = enumConstant.getOrdinal() + VALUE_OFFSET;
+        } catch (UnsupportedOperationException e) {
+            ordinal = UNSET;
+        }
+        writeVarInt(out, ordinal);
+    }
+
+    /**
+     * Writes the first part of the records of methods or constructors,
+     * returns them in the order they were written or null if there are none.
+     */
+    private List<IExecutableMember> writeExecutableMembers(
+            DataOutputStream out, Set<? extends IExecutableMember> members)
+            throws IOException {
+        if (!writeSize(out, members)) {
+            return null;
+        }
+        List<IExecutableMember> written = new ArrayList<IExecutableMember>(
+                members);
+        for (IExecutableMember executableMember : written) {
+            member = executableMember;
+            writeString(out, member.getName());
+            writeModifiers(out, member.getModifiers());
+            writeTypeVariableDefinitions(out, member.getTypeParameters());
+            writeClassDefinition(out, member.getDeclaringClass());
+            List<IParameter> parameters = member.getParameters();
+            if (writeSize(out, parameters)) {
+                for (IParameter parameter : parameters) {
+                    writeType(out, parameter.getType());
+                }
+            }
+            writeTypes(out, member.getExceptions());
+            if (member instanceof IMethod) {
+                writeType(out, ((IMethod) member).getReturnType());
+            }
+            member = null;
+        }
+        return written;
+    }
+
+    private void writeMemberAnnotations(DataOutputStream out,
+            List<IExecutableMember> members) throws IOException {
+        if (members == null) {
+            return;
+        }
+        for (IExecutableMember executableMember : members) {
+            writeAnnotations(out, executableMember);
+            List<IParameter> parameters = executableMember.getParameters();
+            if (parameters != null
+                    && Uninitialized.isInitialized(parameters)) {
+                for (IParameter parameter : parameters) {
+                    writeAnnotations(out, parameter);
+                }
+            }
+        }
+    }
+
+    private void writeAnnotations(DataOutputStream out,
+            List<? extends IAnnotatableElement> elements) throws IOException {
+        if (elements != null) {
+            for (IAnnotatableElement element : elements) {
+                writeAnnotations(out, element);
+            }
+        }
+    }
+
+    private void writeAnnotations(DataOutputStream out,
+            IAnnotatableElement element) throws IOException {
+        Set<IAnnotation> annotations = element.getAnnotations();
+        if (writeSize(out, annotations)) {
+            for (IAnnotation annotation : annotations) {
+                writeAnnotation(out, annotation);
+            }
+        }
+    }
+
+    private void writeAnnotation(DataOutputStream out, IAnnotation annotation)
+            throws IOException {
+        IClassDefinition type = annotation.getType().getClassDefinition();
+        writeClassDefinition(out, type);
+        Set<IAnnotationElement> elements = annotation.getElements();
+        if (!writeSize(out, elements)) {
+            return;
+        }
+        for (IAnnotationElement element : elements) {
+            IAnnotationField field = element.getDeclaringField();
+            if (contains(type.getAnnotationFields(), field)) {
+                out.writeByte(ELEMENT_FIELD);
+                writeString(out, field.getName());
+            } else {
+                out.writeByte(ELEMENT_FIELD_DEFINITION);
+                writeField(out, field);
+                writeAnnotations(out, field);
+                writeValue(out, field.getDefaultValue());
+            }
+            writeValue(out, element.getValue());
+        }
+    }
+
+    private void writeValue(DataOutputStream out, Object value)
+            throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (!Uninitialized.isInitialized(value)) {
+            out.writeByte(VALUE_UNSET);
+        } else if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(VALUE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(VALUE_CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof Short) {
+            out.writeByte(VALUE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(VALUE_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(VALUE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(VALUE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Object[]) {
+            Object[] values = (Object[]) value;
+            out.writeByte(VALUE_ARRAY);
+            writeVarInt(out, values.length);
+            for (Object element : values) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof IAnnotation) {
+            out.writeByte(VALUE_ANNOTATION);
+            writeAnnotation(out, (IAnnotation) value);
+        } else if (value instanceof IEnumConstant) {
+            IEnumConstant enumConstant = (IEnumConstant) value;
+            IClassDefinition enumClass = getDeclaringEnum(enumConstant);
+            if (enumClass != null) {
+                out.writeByte(VALUE_ENUM_CONSTANT);
+                writeVarInt(out, getClassIndex(enumClass));
+                writeString(out, enumConstant.getName());
+            } else {
+                out.writeByte(VALUE_ENUM_CONSTANT_DEFINITION);
+                writeField(out, enumConstant);
+                writeOrdinal(out, enumConstant);
+                writeAnnotations(out, enumConstant);
+            }
+        } else if (value instanceof IField) {
+            IField field = (IField) value;
+            out.writeByte(VALUE_FIELD_DEFINITION);
+            writeField(out, field);
+            writeAnnotations(out, field);
+        } else if (value instanceof ITypeReference) {
+            out.writeByte(VALUE_TYPE);
+            writeType(out, (ITypeReference) value);
+        } else {
+            throw new IllegalArgumentException("unknown annotation value "
+                    + value);
+        }
+    }
+
+    /**
+     * Returns the enum an enum constant is found in, or null if it is not.
+     */
+    private IClassDefinition getDeclaringEnum(IEnumConstant enumConstant) {
+        ITypeReference type = enumConstant.getType();
+        if (type instanceof IClassReference
+                && !(type instanceof IParameterizedType)
+                && Uninitialized.isInitialized(type)) {
+            IClassDefinition enumClass = ((IClassReference) type)
+                    .getClassDefinition();
+            if (contains(enumClass.getEnumConstants(), enumConstant)) {
+                return enumClass;
+            }
+        }
+        return null;
+    }
+
+    private static boolean contains(Set<?> elements, Object element) {
+        if (elements == null || !Uninitialized.isInitialized(elements)) {
+            return false;
+        }
+        for (Object candidate : elements) {
+            if (candidate == element) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void writeVarInt(DataOutputStream out, int value)
+            throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import signature.model.IAnnotation;
+import signature.model.IAnnotationField;
+import signature.model.IClassDefinition;
+import signature.model.IConstructor;
+import signature.model.IEnumConstant;
+import signature.model.IField;
+import signature.model.IMethod;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.Kind;
+import signature.model.Modifier;
+import signature.model.impl.SigClassDefinition;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A class definition of a binary signature file, which reads its record when
+ * anything but its name is first asked for.
+ * <p>
+ * Records are read while holding the lock of the {@link BinaryApiReader}, so
+ * class definitions may be used by several threads. A class definition asked
+ * for while its own record is read by the same thread returns what has been
+ * read so far.
+ */
+@SuppressWarnings("serial")
+class BinaryClassDefinition extends SigClassDefinition {
+
+    private final transient BinaryApiReader reader;
+    private final int index;
+
+    private volatile boolean loaded = false;
+    private boolean loading = false;
+
+    BinaryClassDefinition(BinaryApiReader reader, int index,
+            String packageName, String name) {
+        super(packageName, name);
+        this.reader = reader;
+        this.index = index;
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (reader) {
+                if (!loaded && !loading) {
+                    loading = true;
+                    try {
+                        reader.readClass(this, index);
+                        loaded = true;
+                    } finally {
+                        loading = false;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Kind getKind() {
+        ensureLoaded();
+        return super.getKind();
+    }
+
+    @Override
+    public Set<Modifier> getModifiers() {
+        ensureLoaded();
+        return super.getModifiers();
+    }
+
+    @Override
+    public Set<IClassDefinition> getInnerClasses() {
+        ensureLoaded();
+        return super.getInnerClasses();
+    }
+
+    @Override
+    public Set<ITypeReference> getInterfaces() {
+        ensureLoaded();
+        return super.getInterfaces();
+    }
+
+    @Override
+    public Set<IMethod> getMethods() {
+        ensureLoaded();
+        return super.getMethods();
+    }
+
+    @Override
+    public Set<IConstructor> getConstructors() {
+        ensureLoaded();
+        return super.getConstructors();
+    }
+
+    @Override
+    public ITypeReference getSuperClass() {
+        ensureLoaded();
+        return super.getSuperClass();
+    }
+
+    @Override
+    public IClassDefinition getDeclaringClass() {
+        ensureLoaded();
+        return super.getDeclaringClass();
+    }
+
+    @Override
+    public Set<IAnnotationField> getAnnotationFields() {
+        ensureLoaded();
+        return super.getAnnotationFields();
+    }
+
+    @Override
+    public Set<IField> getFields() {
+        ensureLoaded();
+        return super.getFields();
+    }
+
+    @Override
+    public Set<IEnumConstant> getEnumConstants() {
+        ensureLoaded();
+        return super.getEnumConstants();
+    }
+
+    @Override
+    public List<ITypeVariableDefinition> getTypeParameters() {
+        ensureLoaded();
+        return super.getTypeParameters();
+    }
+
+    @Override
+    public Set<IAnnotation> getAnnotations() {
+        ensureLoaded();
+        return super.getAnnotations();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import signature.Version;
+import signature.converter.Visibility;
+import signature.io.IApiLoader;
+import signature.model.IApi;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Loads apis with another loader and keeps the results in a cache directory,
+ * stored in the binary signature format.
+ * <p>
+ * A cached api is identified by a digest of the loader, the name, the
+ * visibility, the package names and the names and contents of the input
+ * files. Directories are digested with all the files below them. The loader
+ * is digested with the jar or class directory it was loaded from, so that a
+ * changed converter does not reuse apis converted by an older one. An api is
+ * only converted again once any of these changes.
+ * <p>
+ * Cached apis which have not been used for longer than the maximum age are
+ * deleted, and the least recently used ones are deleted while the cache is
+ * larger than its maximum size.
+ */
+public class CachingApiLoader implements IApiLoader {
+
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final String SUFFIX = ".sig";
+    private static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+    private static final long DEFAULT_MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+    private static final char[] HEX_DIGITS = "0123456789abcdef"
+            .toCharArray();
+
+    private final IApiLoader loader;
+    private final File directory;
+    private final long maxSize;
+    private final long maxAge;
+    private String loaderDigest;
+
+    /**
+     * Creates a {@code CachingApiLoader} keeping at most 256 MB of apis
+     * used within the last 30 days.
+     *
+     * @param loader
+     *            the loader used for apis which are not cached
+     * @param directory
+     *            the directory holding the cached apis
+     */
+    public CachingApiLoader(IApiLoader loader, String directory) {
+        this(loader, directory, DEFAULT_MAX_SIZE, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * Creates a {@code CachingApiLoader}.
+     *
+     * @param loader
+     *            the loader used for apis which are not cached
+     * @param directory
+     *            the directory holding the cached apis
+     * @param maxSize
+     *            the maximum size of the cached apis in bytes
+     * @param maxAge
+     *            the time in milliseconds after which an unused api is
+     *            deleted
+     */
+    public CachingApiLoader(IApiLoader loader, String directory,
+            long maxSize, long maxAge) {
+        this.loader = loader;
+        this.directory = new File(directory);
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+    }
+
+    public IApi loadApi(String name, Visibility visibility,
+            Set<String> fileNames, Set<String> packageNames) throws
+            IOException {
+        File file = new File(directory, getKey(name, visibility, fileNames,
+                packageNames) + SUFFIX);
+        if (file.exists()) {
+            file.setLastModified(System.currentTimeMillis());
+            return BinaryApi.read(name, file, null);
+        }
+
+        IApi api = loader.loadApi(name, visibility, fileNames, packageNames);
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        BinaryApi.write(api, file);
+        evict();
+        return api;
+    }
+
+    /**
+     * Deletes the cached apis which are older than the maximum age and then
+     * the least recently used ones until the cache fits its maximum size.
+     */
+    private void evict() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        long size = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                size += file.length();
+            }
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long aModified = a.lastModified();
+                long bModified = b.lastModified();
+                return aModified < bModified ? -1 : aModified == bModified ? 0
+                        : 1;
+            }
+        });
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            if (size <= maxSize && now - file.lastModified() <= maxAge) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private String getKey(String name, Visibility visibility,
+            Set<String> fileNames, Set<String> packageNames)
+            throws IOException {
+        MessageDigest digest = createDigest();
+        update(digest, Version.VERSION);
+        update(digest, Integer.toString(BinaryApiFormat.VERSION));
+        update(digest, loader.getClass().getName());
+        update(digest, getLoaderDigest());
+        update(digest, String.valueOf(name));
+        update(digest, String.valueOf(visibility));
+        if (packageNames != null) {
+            for (String packageName : new TreeSet<String>(packageNames)) {
+                update(digest, packageName);
+            }
+        }
+        for (String fileName : new TreeSet<String>(fileNames)) {
+            update(digest, fileName);
+            updateFile(digest, new File(fileName));
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns a digest of the jar or class directory the loader was loaded
+     * from, computed once per {@code CachingApiLoader}.
+     */
+    private synchronized String getLoaderDigest() throws IOException {
+        if (loaderDigest == null) {
+            MessageDigest digest = createDigest();
+            CodeSource source = loader.getClass().getProtectionDomain()
+                    .getCodeSource();
+            URL location = source == null ? null : source.getLocation();
+            if (location != null && "file".equals(location.getProtocol())) {
+                try {
+                    updateFile(digest, new File(location.toURI()));
+                } catch (URISyntaxException e) {
+                    update(digest, location.toString());
+                }
+            } else {
+                update(digest, String.valueOf(location));
+            }
+            loaderDigest = toHex(digest.digest());
+        }
+        return loaderDigest;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static void updateFile(MessageDigest digest, File file)
+            throws IOException {
+        if (file.isDirectory()) {
+            String[] children = file.list();
+            Arrays.sort(children);
+            update(digest, "dir " + children.length);
+            for (String child : children) {
+                update(digest, child);
+                updateFile(digest, new File(file, child));
+            }
+        } else if (file.isFile()) {
+            update(digest, "file " + file.length());
+            InputStream in = new BufferedInputStream(new FileInputStream(
+                    file));
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        } else {
+            update(digest, "missing");
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
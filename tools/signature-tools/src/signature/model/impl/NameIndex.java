@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.model.impl;
+
+import signature.model.IAnnotation;
+import signature.model.IClassDefinition;
+import signature.model.IField;
+import signature.model.IPackage;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of the elements of a collection by name, built when first asked for.
+ * It is rebuilt when asked for another collection or after the collection
+ * changed its size, e.g. after the converters removed an element.
+ * <p>
+ * A change in place which keeps the size is not seen by the index. The model
+ * elements drop their index in the setters, so such a collection has to be
+ * set again. Lookups, including misses, thus cost a single hash lookup.
+ * Indices may be used by several threads.
+ * 
+ * @param <T>
+ *            the type of the elements
+ */
+abstract class NameIndex<T> {
+
+    private static final class Snapshot<T> {
+        final Collection<? extends T> elements;
+        final int size;
+        final Map<String, T> byName;
+
+        Snapshot(Collection<? extends T> elements, Map<String, T> byName) {
+            this.elements = elements;
+            this.size = elements.size();
+            this.byName = byName;
+        }
+    }
+
+    private volatile Snapshot<T> snapshot;
+
+    /**
+     * Returns the name the given element is indexed by.
+     */
+    abstract String getName(T element);
+
+    /**
+     * Returns the first element of the given collection with the given name,
+     * or null if there is none.
+     * 
+     * @param elements
+     *            the elements to search, may be uninitialized
+     * @param name
+     *            the name of the element
+     * @return the element or null
+     */
+    T get(Collection<? extends T> elements, String name) {
+        if (!Uninitialized.isInitialized(elements)) {
+            return scan(elements, name);
+        }
+        Snapshot<T> current = snapshot;
+        if (current == null || current.elements != elements
+                || current.size != elements.size()) {
+            current = rebuild(elements);
+        }
+        return current.byName.get(name);
+    }
+
+    private Snapshot<T> rebuild(Collection<? extends T> elements) {
+        Map<String, T> byName = new HashMap<String, T>();
+        for (T element : elements) {
+            String elementName = getName(element);
+            if (!byName.containsKey(elementName)) {
+                byName.put(elementName, element);
+            }
+        }
+        Snapshot<T> current = new Snapshot<T>(elements, byName);
+        snapshot = current;
+        return current;
+    }
+
+    private T scan(Collection<? extends T> elements, String name) {
+        for (T element : elements) {
+            if (name.equals(getName(element))) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /** Index of packages by name, e.g. "java.lang". */
+    static final class Packages extends NameIndex<IPackage> {
+        @Override
+        String getName(IPackage aPackage) {
+            return aPackage.getName();
+        }
+    }
+
+    /** Index of classes by name, e.g. "Map.Entry". */
+    static final class Classes extends NameIndex<IClassDefinition> {
+        @Override
+        String getName(IClassDefinition clazz) {
+            return clazz.getName();
+        }
+    }
+
+    /** Index of fields, annotation fields or enum constants by name. */
+    static final class Fields<T extends IField> extends NameIndex<T> {
+        @Override
+        String getName(T field) {
+            return field.getName();
+        }
+    }
+
+    /** Index of annotations by the qualified name of their type. */
+    static final class Annotations extends NameIndex<IAnnotation> {
+        @Override
+        String getName(IAnnotation annotation) {
+            return annotation.getType().getClassDefinition()
+                    .getQualifiedName();
+        }
+    }
+}
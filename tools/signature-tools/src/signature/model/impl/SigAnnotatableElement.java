@@ -23,10 +23,14 @@ import java.util.Set;
 import signature.model.IAnnotatableElement;
 import signature.model.IAnnotation;
 
-@SuppressWarnings("serial")
 public abstract class SigAnnotatableElement implements IAnnotatableElement,
         Serializable {
+
+    /** unchanged by the transient index, which is not serialized */
+    private static final long serialVersionUID = -1341399074387277026L;
+
     private Set<IAnnotation> annotations;
+    private transient volatile NameIndex<IAnnotation> annotationIndex;
 
     public SigAnnotatableElement() {
         annotations = Collections.emptySet();
@@ -38,6 +42,24 @@ public abstract class SigAnnotatableElement implements IAnnotatableElement,
 
     public void setAnnotations(Set<IAnnotation> annotations) {
         this.annotations = annotations;
+        annotationIndex = null;
+    }
+
+    /**
+     * Returns the annotation of the given type, looked up by an index.
+     * 
+     * @param qualifiedTypeName
+     *            the qualified name of the annotation type, e.g.
+     *            "java.lang.Deprecated"
+     * @return the annotation or null
+     */
+    public IAnnotation getAnnotation(String qualifiedTypeName) {
+        NameIndex<IAnnotation> index = annotationIndex;
+        if (index == null) {
+            index = new NameIndex.Annotations();
+            annotationIndex = index;
+        }
+        return index.get(getAnnotations(), qualifiedTypeName);
     }
 
     @Override
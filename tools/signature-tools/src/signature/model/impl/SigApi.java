@@ -23,10 +23,13 @@ import signature.converter.Visibility;
 import signature.model.IApi;
 import signature.model.IPackage;
 
-@SuppressWarnings("serial")
 public class SigApi implements IApi, Serializable {
 
+    /** as computed before the package index, so old specs still load */
+    private static final long serialVersionUID = -3303424011061466983L;
+
     private Set<IPackage> packages = Uninitialized.unset();
+    private transient volatile NameIndex<IPackage> packageIndex;
     private String description;
     private Visibility visibility;
 
@@ -49,6 +52,23 @@ public class SigApi implements IApi, Serializable {
 
     public void setPackages(Set<IPackage> packages) {
         this.packages = packages;
+        packageIndex = null;
+    }
+
+    /**
+     * Returns the package with the given name, looked up by an index.
+     * 
+     * @param packageName
+     *            the name of the package, e.g. "java.lang"
+     * @return the package or null
+     */
+    public IPackage getPackage(String packageName) {
+        NameIndex<IPackage> index = packageIndex;
+        if (index == null) {
+            index = new NameIndex.Packages();
+            packageIndex = index;
+        }
+        return index.get(getPackages(), packageName);
     }
 
     public Visibility getVisibility() {
@@ -48,6 +48,7 @@ public class SigArrayType implements IArrayType, Serializable {
     }
 
     public static boolean equals(IArrayType thiz, Object that) {
+        if (thiz == that) return true;
         if (!(that instanceof IArrayType)) {
             return false;
         }
@@ -33,10 +33,12 @@ import signature.model.Kind;
 import signature.model.Modifier;
 import signature.model.util.ModelUtil;
 
-@SuppressWarnings("serial")
 public class SigClassDefinition extends SigAnnotatableElement implements
         IClassDefinition, Serializable {
 
+    /** the id of classes serialized in spec files before member lookups */
+    private static final long serialVersionUID = 4919413598852350232L;
+
     private String name;
     private Kind kind = Kind.UNINITIALIZED;
     private ITypeReference superClass = Uninitialized.unset();
@@ -52,10 +54,13 @@ public class SigClassDefinition extends SigAnnotatableElement implements
     private List<ITypeVariableDefinition> typeParameters = Uninitialized
             .unset();
     private String packageName;
+    private transient volatile NameIndex<IField> fieldIndex;
+    private transient volatile NameIndex<IAnnotationField> annotationFieldIndex;
+    private transient volatile NameIndex<IEnumConstant> enumConstantIndex;
 
     public SigClassDefinition(String packageName, String name) {
-        this.packageName = packageName;
-        this.name = name;
+        this.packageName = Names.intern(packageName);
+        this.name = Names.intern(name);
     }
 
     public Kind getKind() {
@@ -144,6 +149,7 @@ public class SigClassDefinition extends SigAnnotatableElement implements
 
     public void setAnnotationFields(Set<IAnnotationField> annotationFields) {
         this.annotationFields = annotationFields;
+        annotationFieldIndex = null;
     }
 
     public Set<IField> getFields() {
@@ -152,6 +158,7 @@ public class SigClassDefinition extends SigAnnotatableElement implements
 
     public void setFields(Set<IField> fields) {
         this.fields = fields;
+        fieldIndex = null;
     }
 
     public Set<IEnumConstant> getEnumConstants() {
@@ -160,6 +167,56 @@ public class SigClassDefinition extends SigAnnotatableElement implements
 
     public void setEnumConstants(Set<IEnumConstant> enumConstants) {
         this.enumConstants = enumConstants;
+        enumConstantIndex = null;
+    }
+
+    /**
+     * Returns the field with the given name, looked up by an index.
+     * 
+     * @param fieldName
+     *            the name of the field
+     * @return the field or null
+     */
+    public IField getField(String fieldName) {
+        NameIndex<IField> index = fieldIndex;
+        if (index == null) {
+            index = new NameIndex.Fields<IField>();
+            fieldIndex = index;
+        }
+        return index.get(getFields(), fieldName);
+    }
+
+    /**
+     * Returns the annotation field with the given name, looked up by an
+     * index.
+     * 
+     * @param fieldName
+     *            the name of the annotation field
+     * @return the annotation field or null
+     */
+    public IAnnotationField getAnnotationField(String fieldName) {
+        NameIndex<IAnnotationField> index = annotationFieldIndex;
+        if (index == null) {
+            index = new NameIndex.Fields<IAnnotationField>();
+            annotationFieldIndex = index;
+        }
+        return index.get(getAnnotationFields(), fieldName);
+    }
+
+    /**
+     * Returns the enum constant with the given name, looked up by an index.
+     * 
+     * @param constantName
+     *            the name of the enum constant
+     * @return the enum constant or null
+     */
+    public IEnumConstant getEnumConstant(String constantName) {
+        NameIndex<IEnumConstant> index = enumConstantIndex;
+        if (index == null) {
+            index = new NameIndex.Fields<IEnumConstant>();
+            enumConstantIndex = index;
+        }
+        return index.get(getEnumConstants(), constantName);
     }
 
     public List<ITypeVariableDefinition> getTypeParameters() {
@@ -40,6 +40,7 @@ public class SigClassReference implements IClassReference, Serializable {
     }
 
     public static boolean equals(IClassReference thiz, Object that) {
+        if (thiz == that) return true;
         if (that instanceof IClassReference) {
             return thiz.getClassDefinition().equals(
                     ((IClassReference) that).getClassDefinition());
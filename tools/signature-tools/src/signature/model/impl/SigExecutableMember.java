@@ -40,7 +40,7 @@ public abstract class SigExecutableMember extends SigAnnotatableElement
     private IClassDefinition declaringClass = Uninitialized.unset();
 
     public SigExecutableMember(String name) {
-        this.name = name;
+        this.name = Names.intern(name);
     }
 
     public String getName() {
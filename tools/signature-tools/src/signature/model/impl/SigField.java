@@ -33,7 +33,7 @@ public class SigField extends SigAnnotatableElement implements IField,
     private Set<Modifier> modifiers = Uninitialized.unset();
 
     public SigField(String name) {
-        this.name = name;
+        this.name = Names.intern(name);
         modifiers = Collections.emptySet();
     }
 
@@ -24,15 +24,18 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
-@SuppressWarnings("serial")
 public class SigPackage extends SigAnnotatableElement implements IPackage,
         Serializable {
 
+    /** the computed id of the form serialized in spec files */
+    private static final long serialVersionUID = -419903359008579069L;
+
     private String name;
     private Set<IClassDefinition> classes = Uninitialized.unset();
+    private transient volatile NameIndex<IClassDefinition> classIndex;
 
     public SigPackage(String name) {
-        this.name = name;
+        this.name = Names.intern(name);
     }
 
     public String getName() {
@@ -47,8 +50,25 @@ public class SigPackage extends SigAnnotatableElement implements IPackage,
         return classes;
     }
 
+    /**
+     * Returns the class with the given name, looked up by an index.
+     * 
+     * @param className
+     *            the name of the class, e.g. "Map.Entry"
+     * @return the class or null
+     */
+    public IClassDefinition getClassDefinition(String className) {
+        NameIndex<IClassDefinition> index = classIndex;
+        if (index == null) {
+            index = new NameIndex.Classes();
+            classIndex = index;
+        }
+        return index.get(getClasses(), className);
+    }
+
     public void setClasses(Set<IClassDefinition> classes) {
         this.classes = classes;
+        classIndex = null;
     }
 
     @Override
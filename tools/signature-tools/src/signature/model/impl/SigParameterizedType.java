@@ -76,6 +76,7 @@ public class SigParameterizedType implements IParameterizedType, Serializable {
     }
 
     public static boolean equals(IParameterizedType thiz, Object that) {
+        if (thiz == that) return true;
         if (!(that instanceof IParameterizedType)) {
             return false;
         }
@@ -34,7 +34,7 @@ public class SigTypeVariableDefinition implements ITypeVariableDefinition,
 
     public SigTypeVariableDefinition(String name,
             IGenericDeclaration genericDeclaration) {
-        this.name = name;
+        this.name = Names.intern(name);
         this.genericDeclaration = genericDeclaration;
     }
 
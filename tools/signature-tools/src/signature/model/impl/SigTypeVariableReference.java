@@ -37,6 +37,7 @@ public class SigTypeVariableReference implements ITypeVariableReference,
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) return true;
         if (getClass() == obj.getClass()) {
             return getTypeVariableDefinition().equals(
                     ((ITypeVariableReference) obj).getTypeVariableDefinition());
@@ -19,6 +19,7 @@ package signature.model.util;
 import signature.model.IClassReference;
 import signature.model.IGenericDeclaration;
 import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
 import signature.model.ITypeVariableReference;
 import signature.model.impl.SigArrayType;
 import signature.model.impl.SigClassDefinition;
@@ -83,6 +84,17 @@ public interface ITypeFactory {
     public ITypeVariableReference getTypeVariableReference(String name,
             IGenericDeclaration genericDeclaration);
 
+    /**
+     * Returns the existing reference to the type variable or creates a new
+     * one.
+     * 
+     * @param definition
+     *            the type variable
+     * @return the reference to the type variable
+     */
+    public ITypeVariableReference getTypeVariableReference(
+            ITypeVariableDefinition definition);
+
     /**
      * Returns the existing wildcard type or creates a new one. Wildcard types
      * are equal if they have the same lower bound and have the same upper
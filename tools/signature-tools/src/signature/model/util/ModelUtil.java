@@ -22,12 +22,21 @@ import signature.model.IAnnotationElement;
 import signature.model.IAnnotationField;
 import signature.model.IApi;
 import signature.model.IClassDefinition;
+import signature.model.IEnumConstant;
 import signature.model.IField;
 import signature.model.IPackage;
 import signature.model.ITypeReference;
+import signature.model.impl.SigAnnotatableElement;
+import signature.model.impl.SigApi;
+import signature.model.impl.SigClassDefinition;
+import signature.model.impl.SigPackage;
 
 import java.util.Collection;
 
+/**
+ * Lookups and helpers for the signature model. Lookups in the elements of
+ * {@code signature.model.impl} use their name indices, others scan.
+ */
 public class ModelUtil {
     private ModelUtil() {
     }
@@ -42,6 +51,10 @@ public class ModelUtil {
      */
     public static IClassDefinition getClass(IPackage aPackage,
             String qualifiedClassName) {
+        if (aPackage instanceof SigPackage) {
+            return ((SigPackage) aPackage)
+                    .getClassDefinition(qualifiedClassName);
+        }
         for (IClassDefinition clazz : aPackage.getClasses()) {
             if (qualifiedClassName.equals(clazz.getName())) {
                 return clazz;
@@ -52,6 +65,10 @@ public class ModelUtil {
 
     public static IAnnotation getAnnotation(IAnnotatableElement element,
             String qualifiedTypeName) {
+        if (element instanceof SigAnnotatableElement) {
+            return ((SigAnnotatableElement) element)
+                    .getAnnotation(qualifiedTypeName);
+        }
         for (IAnnotation annotation : element.getAnnotations()) {
             if (qualifiedTypeName.equals(annotation.getType()
                     .getClassDefinition().getQualifiedName())) {
@@ -72,6 +89,9 @@ public class ModelUtil {
     }
 
     public static IField getField(IClassDefinition clazz, String fieldName) {
+        if (clazz instanceof SigClassDefinition) {
+            return ((SigClassDefinition) clazz).getField(fieldName);
+        }
         for (IField field : clazz.getFields()) {
             if (fieldName.equals(field.getName())) {
                 return field;
@@ -82,6 +102,10 @@ public class ModelUtil {
 
     public static IAnnotationField getAnnotationField(
             IClassDefinition annotation, String fieldName) {
+        if (annotation instanceof SigClassDefinition) {
+            return ((SigClassDefinition) annotation)
+                    .getAnnotationField(fieldName);
+        }
         for (IAnnotationField field : annotation.getAnnotationFields()) {
             if (fieldName.equals(field.getName())) {
                 return field;
@@ -90,6 +114,20 @@ public class ModelUtil {
         return null;
     }
 
+    public static IEnumConstant getEnumConstant(IClassDefinition enumClass,
+            String constantName) {
+        if (enumClass instanceof SigClassDefinition) {
+            return ((SigClassDefinition) enumClass)
+                    .getEnumConstant(constantName);
+        }
+        for (IEnumConstant enumConstant : enumClass.getEnumConstants()) {
+            if (constantName.equals(enumConstant.getName())) {
+                return enumConstant;
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns the IPackage for the given className.<br>
      * Format: a.b
@@ -101,6 +139,9 @@ public class ModelUtil {
      * @return the IClass instance or null;
      */
     public static IPackage getPackage(IApi api, String packageName) {
+        if (api instanceof SigApi) {
+            return ((SigApi) api).getPackage(packageName);
+        }
         for (IPackage aPackage : api.getPackages()) {
             if (packageName.equals(aPackage.getName())) {
                 return aPackage;
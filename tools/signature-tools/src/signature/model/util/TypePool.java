@@ -20,6 +20,7 @@ import static signature.model.impl.Uninitialized.isInitialized;
 import signature.model.IClassReference;
 import signature.model.IGenericDeclaration;
 import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
 import signature.model.ITypeVariableReference;
 import signature.model.impl.SigArrayType;
 import signature.model.impl.SigClassDefinition;
@@ -30,91 +31,166 @@ import signature.model.impl.SigTypeVariableReference;
 import signature.model.impl.SigWildcardType;
 
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Pool and factory for all {@link ITypeReference} instances.<br>
- * Note: This class is not thread save
+ * The pools may be used by several threads. Classes are pooled by package and
+ * then by name. All other pools are keyed by the identity of their parts, as
+ * generic declarations of the same name are still different declarations.
+ * Lookups of pooled types do not allocate keys.
+ * <p>
+ * Class references, array types, parameterized types, wildcard types and type
+ * variable references are canonical: the pool returns the same instance for
+ * the same parts. Parts are compared by identity, so a type built of parts
+ * which were not taken from this pool is canonical only for those parts.
  */
 public class TypePool implements ITypeFactory {
 
+    /** Pool for all SigClass objects and their references, by package name */
+    private final ConcurrentMap<String, PackagePool> classPool;
     /**
-     * Pool for all SigClass objects. Key format: "java.lang.Object", "a.b.C$D
+     * Pool for all SigTypeVariable objects, by declaration identity, as
+     * generic declarations of the same name are still different declarations.
+     * Guarded by itself, because the JDK has no concurrent identity map.
      */
-    private Map<String, SigClassDefinition> classPool;
-    /** Pool for all SigTypeVariable objects */
-    private Map<TypeVariableKey, SigTypeVariableDefinition> typeVariablePool;
+    private final Map<IGenericDeclaration, Map<String,
+            SigTypeVariableDefinition>> typeVariablePool;
+
+    private final Map<ITypeReference, SigArrayType> arrayTypes;
+    private final TypeTrie<SigParameterizedType> parameterizedTypes;
+    private final TypeTrie<SigWildcardType> wildcardTypes;
+    private final Map<ITypeVariableDefinition, SigTypeVariableReference>
+            typeVariableReferences;
+
+    /**
+     * The references to the classes of a package by name, e.g. "Object" or
+     * "C$D". The classes share the package name of the pool.
+     */
+    private static class PackagePool {
+        final String packageName;
+        final ConcurrentMap<String, SigClassReference> classes =
+                new ConcurrentHashMap<String, SigClassReference>();
+
+        PackagePool(String packageName) {
+            this.packageName = packageName;
+        }
+    }
+
+    /**
+     * A type pooled by a sequence of parts: each node holds the type of the
+     * parts on its path. Parts are compared by identity and may be null.
+     * Tries are guarded by their root.
+     */
+    private static final class TypeTrie<T> {
+        private static final Object NULL_PART = new Object();
+
+        private Map<Object, TypeTrie<T>> children;
+        T type;
+
+        TypeTrie<T> getChild(Object part) {
+            if (part == null) {
+                part = NULL_PART;
+            }
+            if (children == null) {
+                children = new IdentityHashMap<Object, TypeTrie<T>>(2);
+            }
+            TypeTrie<T> child = children.get(part);
+            if (child == null) {
+                child = new TypeTrie<T>();
+                children.put(part, child);
+            }
+            return child;
+        }
+
+        TypeTrie<T> getChild(Object first, Object second,
+                List<ITypeReference> rest) {
+            TypeTrie<T> node = getChild(first).getChild(second);
+            for (int i = 0; i < rest.size(); i++) {
+                node = node.getChild(rest.get(i));
+            }
+            return node;
+        }
+    }
 
     public TypePool() {
-        classPool = new HashMap<String, SigClassDefinition>();
-        typeVariablePool =
-                new HashMap<TypeVariableKey, SigTypeVariableDefinition>();
+        classPool = new ConcurrentHashMap<String, PackagePool>();
+        typeVariablePool = new IdentityHashMap<IGenericDeclaration,
+                Map<String, SigTypeVariableDefinition>>();
+        arrayTypes = new IdentityHashMap<ITypeReference, SigArrayType>();
+        parameterizedTypes = new TypeTrie<SigParameterizedType>();
+        wildcardTypes = new TypeTrie<SigWildcardType>();
+        typeVariableReferences = new IdentityHashMap<ITypeVariableDefinition,
+                SigTypeVariableReference>();
     }
 
     public SigClassDefinition getClass(String packageName, String className) {
-        String key = packageName + "<>" + className;
-        SigClassDefinition clazz = classPool.get(key);
-        if (clazz == null) {
-            clazz = new SigClassDefinition(packageName, className);
-            classPool.put(key, clazz);
-        }
-        return clazz;
+        return (SigClassDefinition) getClassReference(packageName, className)
+                .getClassDefinition();
     }
 
-    public IClassReference getClassReference(String packageName,
+    public SigClassReference getClassReference(String packageName,
             String className) {
-        return new SigClassReference(getClass(packageName, className));
+        PackagePool packagePool = classPool.get(packageName);
+        if (packagePool == null) {
+            packagePool = new PackagePool(packageName);
+            PackagePool pooled = classPool.putIfAbsent(packageName,
+                    packagePool);
+            if (pooled != null) {
+                packagePool = pooled;
+            }
+        }
+        SigClassReference reference = packagePool.classes.get(className);
+        if (reference == null) {
+            reference = new SigClassReference(new SigClassDefinition(
+                    packagePool.packageName, className));
+            SigClassReference pooled = packagePool.classes.putIfAbsent(
+                    className, reference);
+            if (pooled != null) {
+                reference = pooled;
+            }
+        }
+        return reference;
     }
 
     public SigArrayType getArrayType(ITypeReference componentType) {
         assert componentType != null;
-        return new SigArrayType(componentType);
+        synchronized (arrayTypes) {
+            SigArrayType arrayType = arrayTypes.get(componentType);
+            if (arrayType == null) {
+                arrayType = new SigArrayType(componentType);
+                arrayTypes.put(componentType, arrayType);
+            }
+            return arrayType;
+        }
     }
 
     public SigParameterizedType getParameterizedType(ITypeReference ownerType,
             IClassReference rawType, List<ITypeReference> typeArguments) {
         assert rawType != null;
         assert typeArguments != null;
-        return new SigParameterizedType(ownerType, rawType, typeArguments);
-    }
-
-    private static class TypeVariableKey {
-        private String name;
-        private IGenericDeclaration genericDeclaration;
-
-        public TypeVariableKey(String name,
-                IGenericDeclaration genericDeclaration) {
-            this.genericDeclaration = genericDeclaration;
-            this.name = name;
-        }
-
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + genericDeclaration.hashCode();
-            result = prime * result + name.hashCode();
-            return result;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            TypeVariableKey other = (TypeVariableKey) obj;
-            if (genericDeclaration != other.genericDeclaration) {
-                return false;
-            }
-            if (!name.equals(other.name)) {
-                return false;
+        synchronized (parameterizedTypes) {
+            TypeTrie<SigParameterizedType> node = parameterizedTypes
+                    .getChild(ownerType, rawType, typeArguments);
+            if (node.type == null) {
+                node.type = new SigParameterizedType(ownerType, rawType,
+                        typeArguments);
             }
-            return true;
+            return node.type;
         }
     }
 
     public boolean containsTypeVariableDefinition(String name,
             IGenericDeclaration genericDeclaration) {
-        TypeVariableKey key = new TypeVariableKey(name, genericDeclaration);
-        return typeVariablePool.get(key) != null;
+        synchronized (typeVariablePool) {
+            Map<String, SigTypeVariableDefinition> variables =
+                    typeVariablePool.get(genericDeclaration);
+            return variables != null && variables.containsKey(name);
+        }
     }
 
     public SigTypeVariableDefinition getTypeVariable(String name,
@@ -122,34 +198,62 @@ public class TypePool implements ITypeFactory {
         assert name != null;
         assert genericDeclaration != null;
 
-        TypeVariableKey key = new TypeVariableKey(name, genericDeclaration);
-        SigTypeVariableDefinition sigTypeVariable = typeVariablePool.get(key);
-        if (sigTypeVariable == null) {
-            sigTypeVariable = new SigTypeVariableDefinition(name,
-                    genericDeclaration);
-            typeVariablePool.put(key, sigTypeVariable);
+        synchronized (typeVariablePool) {
+            Map<String, SigTypeVariableDefinition> variables =
+                    typeVariablePool.get(genericDeclaration);
+            if (variables == null) {
+                variables = new HashMap<String, SigTypeVariableDefinition>(4);
+                typeVariablePool.put(genericDeclaration, variables);
+            }
+            SigTypeVariableDefinition sigTypeVariable = variables.get(name);
+            if (sigTypeVariable == null) {
+                sigTypeVariable = new SigTypeVariableDefinition(name,
+                        genericDeclaration);
+                variables.put(name, sigTypeVariable);
+            }
+            return sigTypeVariable;
         }
-        return sigTypeVariable;
     }
 
     public ITypeVariableReference getTypeVariableReference(String name,
             IGenericDeclaration genericDeclaration) {
-        return new SigTypeVariableReference(getTypeVariable(name,
+        return getTypeVariableReference(getTypeVariable(name,
                 genericDeclaration));
     }
 
+    public SigTypeVariableReference getTypeVariableReference(
+            ITypeVariableDefinition definition) {
+        assert definition != null;
+        synchronized (typeVariableReferences) {
+            SigTypeVariableReference reference = typeVariableReferences
+                    .get(definition);
+            if (reference == null) {
+                reference = new SigTypeVariableReference(definition);
+                typeVariableReferences.put(definition, reference);
+            }
+            return reference;
+        }
+    }
+
     public SigWildcardType getWildcardType(ITypeReference lowerBound,
             List<ITypeReference> upperBounds) {
         assert upperBounds != null;
-
-        SigWildcardType sigWildcardType = new SigWildcardType(lowerBound,
-                upperBounds);
-        return sigWildcardType;
+        synchronized (wildcardTypes) {
+            TypeTrie<SigWildcardType> node = wildcardTypes.getChild(
+                    lowerBound, null, upperBounds);
+            if (node.type == null) {
+                node.type = new SigWildcardType(lowerBound, upperBounds);
+            }
+            return node.type;
+        }
     }
 
     public void replaceAllUninitialiezWithNull() {
-        for (SigClassDefinition clazz : classPool.values()) {
-            replaceUninitializedWithNull(clazz);
+        for (PackagePool packagePool : classPool.values()) {
+            for (SigClassReference reference : packagePool.classes.values()) {
+                replaceUninitializedWithNull((SigClassDefinition) reference
+                        .getClassDefinition());
+            }
         }
     }
 
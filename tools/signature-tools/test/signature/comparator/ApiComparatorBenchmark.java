@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.comparator;
+
+import signature.compare.ApiComparator;
+import signature.compare.model.IApiDelta;
+import signature.io.impl.BinaryApi;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.Modifier;
+import signature.model.impl.SigClassDefinition;
+import signature.model.impl.SigPackage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measures the time {@link ApiComparator} takes to compare two full APIs.
+ * <p>
+ * Usage: ApiComparatorBenchmark [from.sig [to.sig [iterations]]]
+ * <p>
+ * The first API defaults to spec/android.spec. Without a second API, or if it
+ * is given as "-", the first one is loaded again and changed: some classes are removed, some lose a
+ * method and some have their final modifier toggled. An API compared with an
+ * unchanged copy of itself would leave out the work of building the deltas.
+ */
+public class ApiComparatorBenchmark {
+
+    private static final String DEFAULT_SPEC = "spec/android.spec";
+    private static final String MUTATED_COPY = "-";
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int REMOVED_CLASS_INTERVAL = 50;
+    private static final int REMOVED_METHOD_INTERVAL = 7;
+    private static final int CHANGED_MODIFIER_INTERVAL = 11;
+
+    public static void main(String[] args) throws IOException {
+        String fromFile = args.length > 0 ? args[0] : DEFAULT_SPEC;
+        String toFile = args.length > 1 ? args[1] : MUTATED_COPY;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        IApi from = load(fromFile, "from");
+        IApi to;
+        if (!MUTATED_COPY.equals(toFile)) {
+            to = load(toFile, "to");
+        } else {
+            to = load(fromFile, "to");
+            mutate(to);
+        }
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            new ApiComparator().compare(from, to);
+        }
+
+        long[] times = new long[iterations];
+        IApiDelta delta = null;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            delta = new ApiComparator().compare(from, to);
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+
+        System.out.println("packages: " + from.getPackages().size() + " -> "
+                + to.getPackages().size());
+        System.out.println("changed packages: "
+                + (delta == null ? 0 : delta.getPackageDeltas().size()));
+        System.out.println("min: " + times[0] / 1000000 + " ms, median: "
+                + times[iterations / 2] / 1000000 + " ms, max: "
+                + times[iterations - 1] / 1000000 + " ms");
+    }
+
+    /**
+     * Changes the classes of the given API at fixed intervals, visiting them
+     * in the order of their qualified names.
+     */
+    private static void mutate(IApi api) {
+        List<IPackage> packages = new ArrayList<IPackage>(api.getPackages());
+        Collections.sort(packages, new Comparator<IPackage>() {
+            public int compare(IPackage a, IPackage b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        int index = 0;
+        for (IPackage aPackage : packages) {
+            List<IClassDefinition> classes = new ArrayList<IClassDefinition>(
+                    aPackage.getClasses());
+            Collections.sort(classes, new Comparator<IClassDefinition>() {
+                public int compare(IClassDefinition a, IClassDefinition b) {
+                    return a.getQualifiedName().compareTo(
+                            b.getQualifiedName());
+                }
+            });
+            Set<IClassDefinition> kept = new HashSet<IClassDefinition>();
+            for (IClassDefinition clazz : classes) {
+                index++;
+                if (index % REMOVED_CLASS_INTERVAL == 0) {
+                    continue;
+                }
+                kept.add(clazz);
+                SigClassDefinition sigClass = (SigClassDefinition) clazz;
+                if (index % REMOVED_METHOD_INTERVAL == 0
+                        && !clazz.getMethods().isEmpty()) {
+                    List<IMethod> methods = new ArrayList<IMethod>(clazz
+                            .getMethods());
+                    Collections.sort(methods, new Comparator<IMethod>() {
+                        public int compare(IMethod a, IMethod b) {
+                            return a.toString().compareTo(b.toString());
+                        }
+                    });
+                    methods.remove(0);
+                    sigClass.setMethods(new HashSet<IMethod>(methods));
+                }
+                if (index % CHANGED_MODIFIER_INTERVAL == 0) {
+                    Set<Modifier> modifiers = new HashSet<Modifier>(clazz
+                            .getModifiers());
+                    if (!modifiers.remove(Modifier.FINAL)) {
+                        modifiers.add(Modifier.FINAL);
+                    }
+                    sigClass.setModifiers(modifiers);
+                }
+            }
+            ((SigPackage) aPackage).setClasses(kept);
+        }
+    }
+
+    private static IApi load(String fileName, String name) throws IOException {
+        return new BinaryApi().loadApi(name, null, Collections
+                .singleton(fileName), null);
+    }
+}
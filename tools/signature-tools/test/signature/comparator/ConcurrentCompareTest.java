@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.comparator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import signature.compare.ApiComparator;
+import signature.compare.model.IApiDelta;
+import signature.io.impl.BinaryApi;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IPackage;
+import signature.model.Modifier;
+import signature.model.impl.SigClassDefinition;
+import signature.model.impl.SigPackage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that comparing the classes of two apis concurrently gives the same
+ * delta, in the same order, as comparing them serially.
+ */
+public class ConcurrentCompareTest {
+
+    private static final String SPEC = "spec/android.spec";
+    private static final int THREAD_COUNT = 4;
+
+    private IApi from;
+    private IApi to;
+
+    @Before
+    public void loadApis() throws IOException {
+        from = load("from");
+        to = load("to");
+        int index = 0;
+        for (IPackage aPackage : to.getPackages()) {
+            Set<IClassDefinition> kept = new HashSet<IClassDefinition>();
+            for (IClassDefinition clazz : aPackage.getClasses()) {
+                index++;
+                if (index % 50 == 0) {
+                    continue;
+                }
+                kept.add(clazz);
+                if (index % 11 == 0) {
+                    Set<Modifier> modifiers = new HashSet<Modifier>(clazz
+                            .getModifiers());
+                    if (!modifiers.remove(Modifier.FINAL)) {
+                        modifiers.add(Modifier.FINAL);
+                    }
+                    ((SigClassDefinition) clazz).setModifiers(modifiers);
+                }
+            }
+            ((SigPackage) aPackage).setClasses(kept);
+        }
+    }
+
+    @Test
+    public void concurrentDeltaEqualsSerialDelta() {
+        IApiDelta serial = new ApiComparator(1).compare(from, to);
+        assertNotNull(serial);
+        IApiDelta concurrent = new ApiComparator(THREAD_COUNT).compare(from,
+                to);
+        // the string of a delta lists its nested deltas in iteration order
+        assertEquals(serial.toString(), concurrent.toString());
+    }
+
+    @Test
+    public void overlappingComparisons() throws Exception {
+        String serial = new ApiComparator(1).compare(from, to).toString();
+        final ApiComparator comparator = new ApiComparator(THREAD_COUNT);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<IApiDelta>> deltas = new ArrayList<Future<IApiDelta>>();
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                deltas.add(executor.submit(new Callable<IApiDelta>() {
+                    public IApiDelta call() {
+                        return comparator.compare(from, to);
+                    }
+                }));
+            }
+            for (Future<IApiDelta> delta : deltas) {
+                assertEquals(serial, delta.get().toString());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static IApi load(String name) throws IOException {
+        return new BinaryApi().loadApi(name, null, Collections
+                .singleton(SPEC), null);
+    }
+}
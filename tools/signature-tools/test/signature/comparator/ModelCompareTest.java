@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.comparator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import signature.compare.ApiComparator;
+import signature.compare.model.DeltaType;
+import signature.compare.model.IApiDelta;
+import signature.compare.model.IClassDefinitionDelta;
+import signature.compare.model.IConstructorDelta;
+import signature.compare.model.IMethodDelta;
+import signature.compare.model.ITypeReferenceDelta;
+import signature.compare.model.ITypeVariableDefinitionDelta;
+import signature.converter.Visibility;
+import signature.model.IAnnotation;
+import signature.model.IAnnotationField;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IClassReference;
+import signature.model.IConstructor;
+import signature.model.IEnumConstant;
+import signature.model.IField;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.IParameterizedType;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.Kind;
+import signature.model.Modifier;
+import signature.model.impl.SigApi;
+import signature.model.impl.SigClassDefinition;
+import signature.model.impl.SigClassReference;
+import signature.model.impl.SigConstructor;
+import signature.model.impl.SigExecutableMember;
+import signature.model.impl.SigMethod;
+import signature.model.impl.SigPackage;
+import signature.model.impl.SigParameter;
+import signature.model.impl.SigParameterizedType;
+import signature.model.impl.SigPrimitiveType;
+import signature.model.impl.SigTypeVariableDefinition;
+import signature.model.impl.SigTypeVariableReference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares models built directly, without converting sources, to reach the
+ * cases the sources of the other comparator tests do not.
+ */
+public class ModelCompareTest {
+
+    /** the classes of the api being built, by qualified name */
+    private final Map<String, SigClassDefinition> classes =
+            new HashMap<String, SigClassDefinition>();
+
+    /**
+     * Compares classes with more constructors and upper bounds than are
+     * matched pairwise, so they are matched by their keys. The constructors
+     * are overloaded, so several share a key, as do parameterized types and
+     * class references of the same class.
+     */
+    @Test
+    public void compareLargeSetsWithSharedKeys() {
+        assertNull(new ApiComparator().compare(createOverloadsApi(false),
+                createOverloadsApi(false)));
+
+        IApiDelta delta = new ApiComparator().compare(
+                createOverloadsApi(false), createOverloadsApi(true));
+        IClassDefinitionDelta classDelta = getSingleClassDelta(delta);
+
+        // A(List<String>) is found among the constructors with one parameter
+        Set<IConstructorDelta> constructorDeltas = classDelta
+                .getConstructorDeltas();
+        assertEquals(1, constructorDeltas.size());
+        IConstructorDelta constructorDelta = constructorDeltas.iterator()
+                .next();
+        assertEquals(DeltaType.CHANGED, constructorDelta.getType());
+        assertTrue(getParameterType(constructorDelta.getFrom())
+                instanceof IParameterizedType);
+        assertTrue(getParameterType(constructorDelta.getTo())
+                instanceof IClassReference);
+
+        // Comparable<T> and Comparable share a key but are not equal
+        Set<IMethodDelta> methodDeltas = classDelta.getMethodDeltas();
+        assertEquals(1, methodDeltas.size());
+        IMethodDelta methodDelta = methodDeltas.iterator().next();
+        assertEquals("bounded", methodDelta.getFrom().getName());
+        ITypeVariableDefinitionDelta typeVariableDelta = methodDelta
+                .getTypeVariableDeltas().iterator().next();
+        Set<ITypeReferenceDelta<?>> boundDeltas = typeVariableDelta
+                .getUpperBoundsDelta().getRemainingUpperBoundDeltas();
+        assertEquals(2, boundDeltas.size());
+        for (ITypeReferenceDelta<?> boundDelta : boundDeltas) {
+            if (boundDelta.getType() == DeltaType.REMOVED) {
+                assertTrue(boundDelta.getFrom() instanceof IParameterizedType);
+            } else {
+                assertEquals(DeltaType.ADDED, boundDelta.getType());
+                assertTrue(boundDelta.getTo() instanceof IClassReference);
+            }
+        }
+    }
+
+    /**
+     * Compares a class which stops overriding methods overridden again at
+     * each level above it, so the methods it inherits must be those of the
+     * nearest superclass. The second method is found among the inherited
+     * methods kept from looking up the first one, which has the same key.
+     */
+    @Test
+    public void compareNearestOverride() {
+        IApiDelta delta = new ApiComparator().compare(
+                createOverridesApi(true), createOverridesApi(false));
+        IClassDefinitionDelta classDelta = getSingleClassDelta(delta);
+        assertEquals("D", classDelta.getFrom().getName());
+
+        Set<IMethodDelta> methodDeltas = classDelta.getMethodDeltas();
+        assertEquals(2, methodDeltas.size());
+        for (IMethodDelta methodDelta : methodDeltas) {
+            assertEquals(DeltaType.CHANGED, methodDelta.getType());
+            assertEquals("C", methodDelta.getTo().getDeclaringClass()
+                    .getName());
+            assertEquals(1, methodDelta.getModifierDeltas().size());
+            assertEquals(Modifier.SYNCHRONIZED, methodDelta
+                    .getModifierDeltas().iterator().next().getTo());
+        }
+    }
+
+    /**
+     * Creates an api with a hierarchy a.A, a.B, a.C, a.D, where the methods
+     * m(String) and m(Object) of A are overridden by B, and by C as
+     * synchronized methods. If overriding, D overrides them once more.
+     */
+    private IApi createOverridesApi(boolean overriding) {
+        classes.clear();
+        SigClassDefinition a = getClassDefinition("a.A");
+        SigClassDefinition b = getClassDefinition("a.B");
+        SigClassDefinition c = getClassDefinition("a.C");
+        SigClassDefinition d = getClassDefinition("a.D");
+        b.setSuperClass(getType("a.A"));
+        c.setSuperClass(getType("a.B"));
+        d.setSuperClass(getType("a.C"));
+        List<SigClassDefinition> overridingClasses =
+                new ArrayList<SigClassDefinition>();
+        overridingClasses.add(a);
+        overridingClasses.add(b);
+        overridingClasses.add(c);
+        if (overriding) {
+            overridingClasses.add(d);
+        }
+        for (SigClassDefinition clazz : overridingClasses) {
+            Set<IMethod> methods = new HashSet<IMethod>();
+            methods.add(createMethod(clazz, "m", getType("java.lang.String")));
+            methods.add(createMethod(clazz, "m", getType("java.lang.Object")));
+            if (clazz == c) {
+                for (IMethod method : methods) {
+                    Set<Modifier> modifiers = new HashSet<Modifier>();
+                    modifiers.add(Modifier.PUBLIC);
+                    modifiers.add(Modifier.SYNCHRONIZED);
+                    ((SigMethod) method).setModifiers(modifiers);
+                }
+            }
+            clazz.setMethods(methods);
+        }
+        return createApi(a, b, c, d);
+    }
+
+    /**
+     * Creates an api with a class a.A declaring overloaded constructors and
+     * methods, and a method with many upper bounds on its type parameter. If
+     * changed, a parameterized type among them is replaced by its raw type.
+     */
+    private IApi createOverloadsApi(boolean changed) {
+        classes.clear();
+        SigClassDefinition a = getClassDefinition("a.A");
+        ITypeReference list = getType("java.util.List");
+        ITypeReference listOfString = getType("java.util.List",
+                getType("java.lang.String"));
+
+        Set<IConstructor> constructors = new HashSet<IConstructor>();
+        constructors.add(createConstructor(a));
+        constructors.add(createConstructor(a, getType("java.lang.String")));
+        constructors.add(createConstructor(a, getType("java.lang.Object")));
+        constructors.add(createConstructor(a, SigPrimitiveType.INT_TYPE));
+        constructors.add(createConstructor(a, changed ? list : listOfString));
+        constructors.add(createConstructor(a, getType("java.util.Set",
+                getType("java.lang.String"))));
+        constructors.add(createConstructor(a, SigPrimitiveType.INT_TYPE,
+                SigPrimitiveType.INT_TYPE));
+        a.setConstructors(constructors);
+
+        Set<IMethod> methods = new HashSet<IMethod>();
+        methods.add(createMethod(a, "m", getType("java.lang.String")));
+        methods.add(createMethod(a, "m", getType("java.lang.Object")));
+        methods.add(createMethod(a, "m", SigPrimitiveType.INT_TYPE));
+        methods.add(createMethod(a, "m", listOfString));
+        methods.add(createMethod(a, "m", list, SigPrimitiveType.INT_TYPE));
+
+        SigMethod bounded = createMethod(a, "bounded");
+        SigTypeVariableDefinition t = new SigTypeVariableDefinition("T",
+                bounded);
+        List<ITypeReference> bounds = new ArrayList<ITypeReference>();
+        bounds.add(getType("java.lang.Object"));
+        bounds.add(getType("java.lang.Runnable"));
+        bounds.add(getType("java.lang.Cloneable"));
+        bounds.add(getType("java.io.Serializable"));
+        bounds.add(getType("java.lang.Iterable", getType("java.lang.String")));
+        bounds.add(changed ? getType("java.lang.Comparable") : getType(
+                "java.lang.Comparable", new SigTypeVariableReference(t)));
+        t.setUpperBounds(bounds);
+        bounded.setTypeParameters(Collections
+                .<ITypeVariableDefinition> singletonList(t));
+        methods.add(bounded);
+        a.setMethods(methods);
+
+        return createApi(a);
+    }
+
+    private static ITypeReference getParameterType(IConstructor constructor) {
+        assertEquals(1, constructor.getParameters().size());
+        return constructor.getParameters().get(0).getType();
+    }
+
+    private static IClassDefinitionDelta getSingleClassDelta(IApiDelta delta) {
+        assertNotNull(delta);
+        assertEquals(1, delta.getPackageDeltas().size());
+        Set<IClassDefinitionDelta> classDeltas = delta.getPackageDeltas()
+                .iterator().next().getClassDeltas();
+        assertEquals(1, classDeltas.size());
+        return classDeltas.iterator().next();
+    }
+
+    /**
+     * Returns the class of the given name, creating it as an empty public
+     * class if needed.
+     */
+    private SigClassDefinition getClassDefinition(String qualifiedName) {
+        SigClassDefinition clazz = classes.get(qualifiedName);
+        if (clazz == null) {
+            int dot = qualifiedName.lastIndexOf('.');
+            clazz = new SigClassDefinition(qualifiedName.substring(0, dot),
+                    qualifiedName.substring(dot + 1));
+            clazz.setKind(Kind.CLASS);
+            clazz.setModifiers(Collections.singleton(Modifier.PUBLIC));
+            clazz.setAnnotations(Collections.<IAnnotation> emptySet());
+            clazz.setSuperClass(null);
+            clazz.setInterfaces(Collections.<ITypeReference> emptySet());
+            clazz.setTypeParameters(Collections
+                    .<ITypeVariableDefinition> emptyList());
+            clazz.setDeclaringClass(null);
+            clazz.setInnerClasses(Collections.<IClassDefinition> emptySet());
+            clazz.setConstructors(Collections.<IConstructor> emptySet());
+            clazz.setMethods(Collections.<IMethod> emptySet());
+            clazz.setFields(Collections.<IField> emptySet());
+            clazz.setEnumConstants(Collections.<IEnumConstant> emptySet());
+            clazz.setAnnotationFields(Collections
+                    .<IAnnotationField> emptySet());
+            classes.put(qualifiedName, clazz);
+        }
+        return clazz;
+    }
+
+    private ITypeReference getType(String qualifiedName,
+            ITypeReference... typeArguments) {
+        SigClassReference type = new SigClassReference(
+                getClassDefinition(qualifiedName));
+        if (typeArguments.length == 0) {
+            return type;
+        }
+        return new SigParameterizedType(null, type, Arrays
+                .asList(typeArguments));
+    }
+
+    private static SigConstructor createConstructor(IClassDefinition clazz,
+            ITypeReference... parameterTypes) {
+        return initialize(new SigConstructor(clazz.getName()), clazz,
+                parameterTypes);
+    }
+
+    private static SigMethod createMethod(IClassDefinition clazz, String name,
+            ITypeReference... parameterTypes) {
+        SigMethod method = initialize(new SigMethod(name), clazz,
+                parameterTypes);
+        method.setReturnType(SigPrimitiveType.VOID_TYPE);
+        return method;
+    }
+
+    private static <T extends SigExecutableMember> T initialize(T member,
+            IClassDefinition clazz, ITypeReference... parameterTypes) {
+        List<IParameter> parameters = new ArrayList<IParameter>();
+        for (ITypeReference type : parameterTypes) {
+            SigParameter parameter = new SigParameter(type);
+            parameter.setAnnotations(Collections.<IAnnotation> emptySet());
+            parameters.add(parameter);
+        }
+        member.setParameters(parameters);
+        member.setDeclaringClass(clazz);
+        member.setModifiers(Collections.singleton(Modifier.PUBLIC));
+        member.setAnnotations(Collections.<IAnnotation> emptySet());
+        member.setExceptions(Collections.<ITypeReference> emptySet());
+        member.setTypeParameters(Collections
+                .<ITypeVariableDefinition> emptyList());
+        return member;
+    }
+
+    /**
+     * Creates an api of the packages of the given classes.
+     */
+    private static SigApi createApi(IClassDefinition... apiClasses) {
+        Map<String, Set<IClassDefinition>> packageClasses =
+                new HashMap<String, Set<IClassDefinition>>();
+        for (IClassDefinition clazz : apiClasses) {
+            Set<IClassDefinition> classes = packageClasses.get(clazz
+                    .getPackageName());
+            if (classes == null) {
+                classes = new HashSet<IClassDefinition>();
+                packageClasses.put(clazz.getPackageName(), classes);
+            }
+            classes.add(clazz);
+        }
+        Set<IPackage> packages = new HashSet<IPackage>();
+        for (String packageName : packageClasses.keySet()) {
+            SigPackage aPackage = new SigPackage(packageName);
+            aPackage.setClasses(packageClasses.get(packageName));
+            aPackage.setAnnotations(Collections.<IAnnotation> emptySet());
+            packages.add(aPackage);
+        }
+        SigApi api = new SigApi("api", Visibility.PUBLIC);
+        api.setPackages(packages);
+        return api;
+    }
+}
@@ -30,6 +30,8 @@ import org.junit.Test;
 import signature.converter.dex.DexToSigConverter;
 import signature.converter.dex.DexUtil;
 import signature.converter.dex.GenericSignatureParser;
+import signature.model.IClassReference;
+import signature.model.IParameterizedType;
 import signature.model.impl.SigClassDefinition;
 import signature.model.util.TypePool;
 
@@ -66,4 +68,43 @@ public class GenericSignatureParserTest extends DexTestsCommon{
 //        IType type = parser.formalTypeParameters.get(0).getUpperBounds().get(0);
         
     }
+
+    @Test
+    public void parseMemberClassName() {
+        IClassReference type = (IClassReference) parser
+                .parseNonGenericType("Ljava/util/Map$Entry;");
+        assertEquals("java.util", type.getClassDefinition().getPackageName());
+        assertEquals("Map.Entry", type.getClassDefinition().getName());
+
+        type = (IClassReference) parser.parseNonGenericType("LA;");
+        assertEquals("", type.getClassDefinition().getPackageName());
+        assertEquals("A", type.getClassDefinition().getName());
+    }
+
+    @Test
+    public void parseCachedSignatures() {
+        TypePool pool = new TypePool();
+        SignatureCache cache = new SignatureCache(2);
+        String signature = "Ljava/util/List<Ljava/lang/String;>;";
+        SigClassDefinition a = pool.getClass("a", "A");
+        SigClassDefinition b = pool.getClass("a", "B");
+
+        GenericSignatureParser first = new GenericSignatureParser(pool,
+                converter, cache);
+        first.parseForField(a, signature);
+        GenericSignatureParser second = new GenericSignatureParser(pool,
+                converter, cache);
+        second.parseForField(b, signature);
+        assertSame(first.fieldType, second.fieldType);
+
+        IParameterizedType type = (IParameterizedType) first.fieldType;
+        assertEquals("List", type.getRawType().getClassDefinition()
+                .getName());
+        assertSame(pool.getClassReference("java.lang", "String"), type
+                .getTypeArguments().get(0));
+
+        assertSame(pool.getClassReference("java.lang", "String"),
+                new GenericSignatureParser(pool, converter, cache)
+                        .parseNonGenericType("Ljava/lang/String;"));
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.converter.dex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import dex.reader.util.JavaSource;
+import dex.reader.util.JavaSourceToDexUtil;
+import dex.structure.DexFile;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import signature.compare.ApiComparator;
+import signature.converter.Visibility;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IMethod;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.util.ModelUtil;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that converting the packages of a dex file concurrently gives the
+ * same model as converting them serially.
+ */
+public class ParallelConversionTest {
+
+    private static final int THREAD_COUNT = 4;
+
+    private DexFile dexFile;
+
+    @Before
+    public void compileSources() throws IOException {
+        Set<JavaSource> sources = new HashSet<JavaSource>();
+        // type variables named T are declared by classes, inner classes,
+        // constructors and methods, each with other bounds
+        sources.add(new JavaSource("a.A",
+                "package a; " +
+                "public class A<T extends Number> {" +
+                "  public A(T t){}" +
+                "  public <T extends CharSequence> T m(T t){ return t; }" +
+                "  public <T extends Comparable<T>> void n(java.util.List<? super T> l){}" +
+                "  public class Inner<T extends Runnable> {" +
+                "    public T get(){ return null; }" +
+                "  }" +
+                "}"));
+        sources.add(new JavaSource("a.A2",
+                "package a; " +
+                "public class A2<T extends java.io.Serializable> extends A<Integer> {" +
+                "  public A2(){ super(0); }" +
+                "  public <T extends Number> T m(T t){ return t; }" +
+                "}"));
+        sources.add(new JavaSource("b.B",
+                "package b; " +
+                "public class B<T, S extends T> {" +
+                "  public T[] t;" +
+                "  public a.A<? extends Integer> a;" +
+                "  public <T extends S> void m(T t, S s){}" +
+                "}"));
+        sources.add(new JavaSource("b.c.C",
+                "package b.c; " +
+                "public interface C<T extends b.B<?, ?>> {" +
+                "  <T extends a.A<?>> T m(java.util.Map<T, ? super T> m);" +
+                "}"));
+        for (int i = 0; i < 8; i++) {
+            String packageName = "p" + i;
+            sources.add(new JavaSource(packageName + ".G",
+                    "package " + packageName + "; " +
+                    "public class G<T extends a.A<Long>> implements b.c.C<b.B<T, T>> {" +
+                    "  public <T extends a.A<?>> T m(java.util.Map<T, ? super T> m){ return null; }" +
+                    "  public <T> T[] array(T... t){ return t; }" +
+                    "}"));
+        }
+        dexFile = new JavaSourceToDexUtil().getAllFrom(sources);
+    }
+
+    @Test
+    public void parallelModelEqualsSerialModel() {
+        IApi serial = convert(1);
+        IApi parallel = convert(THREAD_COUNT);
+        assertNull(new ApiComparator().compare(serial, parallel));
+        assertNull(new ApiComparator().compare(parallel, serial));
+    }
+
+    @Test
+    public void sameNamedTypeVariablesKeepTheirBounds() {
+        IApi api = convert(THREAD_COUNT);
+        IClassDefinition a = ModelUtil.getClass(
+                ModelUtil.getPackage(api, "a"), "A");
+        assertEquals("Number", getBoundName(
+                a.getTypeParameters().get(0)));
+        for (IMethod method : a.getMethods()) {
+            if (method.getName().equals("m")) {
+                assertEquals("CharSequence", getBoundName(
+                        method.getTypeParameters().get(0)));
+            }
+        }
+        IClassDefinition a2 = ModelUtil.getClass(
+                ModelUtil.getPackage(api, "a"), "A2");
+        assertEquals("Serializable", getBoundName(
+                a2.getTypeParameters().get(0)));
+        for (IMethod method : a2.getMethods()) {
+            if (method.getName().equals("m")) {
+                assertEquals("Number", getBoundName(
+                        method.getTypeParameters().get(0)));
+            }
+        }
+    }
+
+    private IApi convert(int threadCount) {
+        return new DexToSigConverter(threadCount).convertApi("Dex Tests",
+                Collections.singleton(dexFile), Visibility.PRIVATE);
+    }
+
+    private static String getBoundName(ITypeVariableDefinition variable) {
+        ITypeReference bound = variable.getUpperBounds().get(0);
+        String name = bound.toString();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io;
+
+import dex.structure.DexFile;
+import signature.converter.Visibility;
+import signature.converter.dex.DexToSigConverter;
+import signature.converter.dex.DexUtil;
+import signature.io.impl.BinaryApi;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IConstructor;
+import signature.model.IExecutableMember;
+import signature.model.IField;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.ITypeReference;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Measures the heap retained by fully loaded APIs.
+ * <p>
+ * Usage: ApiFootprintBenchmark [(api.spec | classes.dex) [copies]]
+ * <p>
+ * A spec, spec/android.spec by default, is stored in the binary format and
+ * loaded the given number of times. A dex file is converted the given number
+ * of times by the dex converter, which creates the types through its type
+ * pool. All classes are read and kept reachable while the heap is measured.
+ * The number of type references found in the first copy is reported next to
+ * the number of distinct instances.
+ */
+public class ApiFootprintBenchmark {
+
+    private static final String DEFAULT_SPEC = "spec/android.spec";
+
+    public static void main(String[] args) throws IOException {
+        String specFile = args.length > 0 ? args[0] : DEFAULT_SPEC;
+        int copies = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        if (specFile.endsWith(".dex")) {
+            Set<DexFile> dexFiles = DexUtil.getDexFiles(Collections
+                    .singleton(specFile));
+            List<IApi> apis = new ArrayList<IApi>();
+            long before = usedMemory();
+            long start = System.nanoTime();
+            for (int i = 0; i < copies; i++) {
+                apis.add(new DexToSigConverter(1).convertApi("dex", dexFiles,
+                        Visibility.PRIVATE));
+            }
+            report(apis, System.nanoTime() - start, usedMemory() - before);
+            return;
+        }
+
+        File directory = File.createTempFile("ApiFootprintBenchmark", "");
+        directory.delete();
+        directory.mkdirs();
+        try {
+            BinaryApi binaryApi = new BinaryApi();
+            binaryApi.externalizeApi(directory.getPath(), binaryApi.loadApi(
+                    "framework", null, Collections.singleton(specFile), null));
+            String fileName = new File(directory, "framework.sig").getPath();
+
+            List<IApi> apis = new ArrayList<IApi>();
+            long before = usedMemory();
+            long start = System.nanoTime();
+            for (int i = 0; i < copies; i++) {
+                IApi api = binaryApi.loadApi(null, null, Collections
+                        .singleton(fileName), null);
+                for (IPackage aPackage : api.getPackages()) {
+                    for (IClassDefinition clazz : aPackage.getClasses()) {
+                        clazz.getKind();
+                    }
+                }
+                apis.add(api);
+            }
+            report(apis, System.nanoTime() - start, usedMemory() - before);
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private static void report(List<IApi> apis, long time, long used) {
+        Map<ITypeReference, ITypeReference> distinct =
+                new IdentityHashMap<ITypeReference, ITypeReference>();
+        int references = countTypeReferences(apis.get(0), distinct);
+
+        System.out.println("copies: " + apis.size() + ", load: " + time
+                / 1000000 + " ms");
+        System.out.println("heap: " + used / 1024 + " KB, per copy: "
+                + used / 1024 / apis.size() + " KB");
+        System.out.println("type references: " + references
+                + ", distinct: " + distinct.size());
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int countTypeReferences(IApi api,
+            Map<ITypeReference, ITypeReference> distinct) {
+        int count = 0;
+        for (IPackage aPackage : api.getPackages()) {
+            for (IClassDefinition clazz : aPackage.getClasses()) {
+                count += count(clazz.getSuperClass(), distinct);
+                count += count(clazz.getInterfaces(), distinct);
+                for (IField field : clazz.getFields()) {
+                    count += count(field.getType(), distinct);
+                }
+                for (IMethod method : clazz.getMethods()) {
+                    count += count(method.getReturnType(), distinct);
+                    count += countExecutable(method, distinct);
+                }
+                for (IConstructor constructor : clazz.getConstructors()) {
+                    count += countExecutable(constructor, distinct);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int countExecutable(IExecutableMember member,
+            Map<ITypeReference, ITypeReference> distinct) {
+        int count = count(member.getExceptions(), distinct);
+        for (IParameter parameter : member.getParameters()) {
+            count += count(parameter.getType(), distinct);
+        }
+        return count;
+    }
+
+    private static int count(Collection<ITypeReference> types,
+            Map<ITypeReference, ITypeReference> distinct) {
+        int count = 0;
+        for (ITypeReference type : types) {
+            count += count(type, distinct);
+        }
+        return count;
+    }
+
+    private static int count(ITypeReference type,
+            Map<ITypeReference, ITypeReference> distinct) {
+        if (type == null) {
+            return 0;
+        }
+        distinct.put(type, type);
+        return 1;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import signature.compare.ApiComparator;
+import signature.io.impl.BinaryApi;
+import signature.model.IApi;
+import signature.model.IPackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class BinaryApiTest {
+
+    private static final String SPEC = "spec/android.spec";
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("BinaryApiTest", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private IApi load(String fileName, Set<String> packageNames)
+            throws IOException {
+        return new BinaryApi().loadApi(null, null, Collections
+                .singleton(fileName), packageNames);
+    }
+
+    private String store(IApi api) throws IOException {
+        new BinaryApi().externalizeApi(directory.getPath(), api);
+        return new File(directory, api.getName().replaceAll(" ", "_")
+                + ".sig").getPath();
+    }
+
+    @Test
+    public void storeAndLoad() throws IOException {
+        IApi stored = load(SPEC, null);
+        IApi loaded = load(store(stored), null);
+
+        assertEquals(stored.getName(), loaded.getName());
+        assertEquals(stored.getVisibility(), loaded.getVisibility());
+        assertEquals(stored.getPackages().size(), loaded.getPackages()
+                .size());
+        assertNull(new ApiComparator().compare(load(SPEC, null), loaded));
+        assertNull(new ApiComparator().compare(loaded, load(SPEC, null)));
+    }
+
+    @Test
+    public void storeAndLoadAgain() throws IOException {
+        IApi loaded = load(store(load(SPEC, null)), null);
+        IApi reloaded = load(store(loaded), null);
+        assertNull(new ApiComparator().compare(loaded, reloaded));
+    }
+
+    @Test
+    public void loadPackages() throws IOException {
+        String fileName = store(load(SPEC, null));
+        Set<String> packageNames = new HashSet<String>();
+        packageNames.add("java.lang");
+        packageNames.add("java.util");
+
+        IApi loaded = load(fileName, packageNames);
+        Set<String> loadedNames = new HashSet<String>();
+        for (IPackage aPackage : loaded.getPackages()) {
+            loadedNames.add(aPackage.getName());
+        }
+        assertEquals(packageNames, loadedNames);
+        assertNull(new ApiComparator().compare(load(SPEC, packageNames),
+                loaded));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import signature.compare.ApiComparator;
+import signature.converter.Visibility;
+import signature.io.impl.BinaryApi;
+import signature.io.impl.CachingApiLoader;
+import signature.model.IApi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Set;
+
+public class CachingApiLoaderTest {
+
+    private static final String SPEC = "spec/android.spec";
+
+    private File directory;
+    private File input;
+
+    /** Loads apis from the serialized spec and counts the loads. */
+    private static class CountingLoader implements IApiLoader {
+        int loads = 0;
+
+        public IApi loadApi(String name, Visibility visibility,
+                Set<String> fileNames, Set<String> packageNames)
+                throws IOException {
+            loads++;
+            return new BinaryApi().loadApi(name, visibility, fileNames,
+                    packageNames);
+        }
+    }
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("CachingApiLoaderTest", "");
+        directory.delete();
+        directory.mkdirs();
+        input = new File(directory, "input.spec");
+        copy(new File(SPEC), input, 0);
+    }
+
+    @After
+    public void deleteDirectory() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        if (file.isDirectory()) {
+            for (File child : file.listFiles()) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void copy(File from, File to, int padding)
+            throws IOException {
+        InputStream in = new FileInputStream(from);
+        OutputStream out = new FileOutputStream(to);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.write(new byte[padding]);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private IApi load(IApiLoader loader, Set<String> packageNames)
+            throws IOException {
+        return loader.loadApi("api", Visibility.PROTECTED, Collections
+                .singleton(input.getPath()), packageNames);
+    }
+
+    @Test
+    public void loadsFromCache() throws IOException {
+        CountingLoader counting = new CountingLoader();
+        String cache = new File(directory, "cache").getPath();
+
+        IApi converted = load(new CachingApiLoader(counting, cache), null);
+        IApi cached = load(new CachingApiLoader(counting, cache), null);
+
+        assertEquals(1, counting.loads);
+        assertEquals(converted.getName(), cached.getName());
+        assertNull(new ApiComparator().compare(converted, cached));
+    }
+
+    @Test
+    public void convertsChangedInput() throws IOException {
+        CountingLoader counting = new CountingLoader();
+        IApiLoader loader = new CachingApiLoader(counting, new File(
+                directory, "cache").getPath());
+
+        load(loader, null);
+        load(loader, Collections.singleton("java.lang"));
+        assertEquals(2, counting.loads);
+
+        // trailing bytes are ignored by the serialized spec loader
+        copy(new File(SPEC), input, 1);
+        load(loader, null);
+        assertEquals(3, counting.loads);
+        load(loader, null);
+        assertEquals(3, counting.loads);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        File cache = new File(directory, "cache");
+        CountingLoader counting = new CountingLoader();
+        load(new CachingApiLoader(counting, cache.getPath()), null);
+        File[] files = cache.listFiles();
+        assertEquals(1, files.length);
+        File first = files[0];
+        first.setLastModified(first.lastModified() - 60 * 1000);
+
+        // room for one and a half cached apis
+        IApiLoader loader = new CachingApiLoader(counting, cache.getPath(),
+                first.length() * 3 / 2, Long.MAX_VALUE);
+        loader.loadApi("api", Visibility.PUBLIC, Collections.singleton(input
+                .getPath()), null);
+        assertEquals(2, counting.loads);
+        assertFalse(first.exists());
+        assertEquals(1, cache.listFiles().length);
+        load(loader, null);
+        assertEquals(3, counting.loads);
+    }
+
+    @Test
+    public void evictsExpired() throws IOException {
+        File cache = new File(directory, "cache");
+        CountingLoader counting = new CountingLoader();
+        IApiLoader loader = new CachingApiLoader(counting, cache.getPath(),
+                Long.MAX_VALUE, 60 * 1000);
+        load(loader, null);
+        File first = cache.listFiles()[0];
+        first.setLastModified(first.lastModified() - 2 * 60 * 1000);
+
+        load(loader, Collections.singleton("java.lang"));
+        assertFalse(first.exists());
+        assertTrue(cache.listFiles().length == 1);
+        load(loader, null);
+        assertEquals(3, counting.loads);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.model;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import signature.converter.Visibility;
+import signature.model.impl.SigApi;
+import signature.model.impl.SigClassDefinition;
+import signature.model.impl.SigField;
+import signature.model.impl.SigPackage;
+import signature.model.util.ModelUtil;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public class ModelUtilTest {
+
+    @Test
+    public void getPackageAfterSetPackages() {
+        SigApi api = new SigApi("api", Visibility.PUBLIC);
+        SigPackage a = new SigPackage("a");
+        api.setPackages(Collections.<IPackage> singleton(a));
+        assertSame(a, ModelUtil.getPackage(api, "a"));
+        assertNull(ModelUtil.getPackage(api, "b"));
+
+        SigPackage b = new SigPackage("b");
+        api.setPackages(Collections.<IPackage> singleton(b));
+        assertNull(ModelUtil.getPackage(api, "a"));
+        assertSame(b, ModelUtil.getPackage(api, "b"));
+    }
+
+    @Test
+    public void getClassAfterMutation() {
+        SigPackage aPackage = new SigPackage("a");
+        SigClassDefinition a = new SigClassDefinition("a", "A");
+        SigClassDefinition b = new SigClassDefinition("a", "B");
+        Set<IClassDefinition> classes = new HashSet<IClassDefinition>();
+        classes.add(a);
+        aPackage.setClasses(classes);
+        assertSame(a, ModelUtil.getClass(aPackage, "A"));
+        assertNull(ModelUtil.getClass(aPackage, "B"));
+
+        classes.add(b);
+        assertSame(b, ModelUtil.getClass(aPackage, "B"));
+        classes.remove(a);
+        assertNull(ModelUtil.getClass(aPackage, "A"));
+    }
+
+    @Test
+    public void getClassAfterReplacement() {
+        SigPackage aPackage = new SigPackage("a");
+        SigClassDefinition a = new SigClassDefinition("a", "A");
+        SigClassDefinition b = new SigClassDefinition("a", "B");
+        SigClassDefinition c = new SigClassDefinition("a", "C");
+        Set<IClassDefinition> classes = new HashSet<IClassDefinition>();
+        classes.add(a);
+        classes.add(c);
+        aPackage.setClasses(classes);
+        assertSame(a, ModelUtil.getClass(aPackage, "A"));
+
+        // same size, set again
+        classes.remove(a);
+        classes.add(b);
+        aPackage.setClasses(classes);
+        assertSame(b, ModelUtil.getClass(aPackage, "B"));
+        assertNull(ModelUtil.getClass(aPackage, "A"));
+
+        // removed through getClasses()
+        aPackage.getClasses().remove(b);
+        assertNull(ModelUtil.getClass(aPackage, "B"));
+        assertSame(c, ModelUtil.getClass(aPackage, "C"));
+    }
+
+    @Test
+    public void getFieldReturnsFirst() {
+        SigClassDefinition clazz = new SigClassDefinition("a", "A");
+        SigField first = new SigField("f");
+        SigField second = new SigField("f");
+        Set<IField> fields = new LinkedHashSet<IField>();
+        fields.add(first);
+        fields.add(second);
+        clazz.setFields(fields);
+        assertSame(first, ModelUtil.getField(clazz, "f"));
+        assertNull(ModelUtil.getField(clazz, "g"));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.device;
+
+import com.android.ddmlib.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Keeps the device info collected from devices across invocations, so it only needs to be
+ * collected again when a device gets a new build.
+ * <p/>
+ * The info is kept per device serial as well as per build fingerprint, since part of it, like
+ * the device id and phone number, is specific to the device.
+ */
+public class DeviceInfoCache {
+
+    private static final String LOG_TAG = "DeviceInfoCache";
+
+    /** key under which the fingerprint the info was collected on is saved */
+    private static final String FINGERPRINT_KEY = "cts.cache.fingerprint";
+
+    private final File mCacheDir;
+
+    /**
+     * Creates a {@link DeviceInfoCache}.
+     *
+     * @param cacheDir the directory to keep the device info in
+     */
+    public DeviceInfoCache(File cacheDir) {
+        mCacheDir = cacheDir;
+    }
+
+    /**
+     * Gets the device info collected from a device on the given build.
+     *
+     * @param serial the serial of the device
+     * @param fingerprint the build fingerprint of the device
+     * @return the device info metrics, or <code>null</code> if none were collected on that build
+     */
+    public Map<String, String> get(String serial, String fingerprint) {
+        if (fingerprint == null) {
+            return null;
+        }
+        File cacheFile = getCacheFile(serial);
+        if (!cacheFile.exists()) {
+            return null;
+        }
+        Properties info = new Properties();
+        try {
+            InputStream stream = new BufferedInputStream(new FileInputStream(cacheFile));
+            try {
+                info.load(stream);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to read cached device info %s",
+                    cacheFile.getAbsolutePath()));
+            return null;
+        }
+        if (!fingerprint.equals(info.remove(FINGERPRINT_KEY))) {
+            // the device got a new build since
+            return null;
+        }
+        Map<String, String> metrics = new HashMap<String, String>(info.size());
+        for (String key : info.stringPropertyNames()) {
+            metrics.put(key, info.getProperty(key));
+        }
+        return metrics;
+    }
+
+    /**
+     * Saves the device info collected from a device, replacing the info of its previous build.
+     *
+     * @param serial the serial of the device
+     * @param fingerprint the build fingerprint of the device
+     * @param metrics the device info metrics
+     */
+    public void put(String serial, String fingerprint, Map<String, String> metrics) {
+        if (fingerprint == null) {
+            return;
+        }
+        Properties info = new Properties();
+        info.putAll(metrics);
+        info.setProperty(FINGERPRINT_KEY, fingerprint);
+        File cacheFile = getCacheFile(serial);
+        mCacheDir.mkdirs();
+        try {
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(cacheFile));
+            try {
+                info.store(stream, "CTS device info");
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to cache device info in %s",
+                    cacheFile.getAbsolutePath()));
+        }
+    }
+
+    private File getCacheFile(String serial) {
+        // serials of emulators and network devices contain characters file names can't
+        return new File(mCacheDir, String.format("%s.properties",
+                serial.replaceAll("[^A-Za-z0-9._-]", "_")));
+    }
+}
@@ -18,11 +18,15 @@ package com.android.cts.tradefed.device;
 import com.android.ddmlib.Log;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.result.CollectingTestListener;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.testtype.InstrumentationTest;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Collects info from device under test.
@@ -46,6 +50,8 @@ public class DeviceInfoCollector {
     public static final String FEATURES = "features";
     public static final String PROCESSES = "processes";
 
+    private static final String BUILD_FINGERPRINT_PROPERTY = "ro.build.fingerprint";
+
     /**
      * Installs and runs the device info collector instrumentation, and forwards results
      * to the <var>listeners</var>
@@ -71,4 +77,76 @@ public class DeviceInfoCollector {
         instrTest.setRunnerName(INSTRUMENTATION_NAME);
         instrTest.run(listeners);
     }
+
+    /**
+     * Installs and runs the device info collector instrumentation, and returns its results
+     * rather than forwarding them.
+     *
+     * @param device
+     * @param testApkDir
+     * @return the device info metrics, or <code>null</code> if the instrumentation did not
+     *         report any
+     * @throws DeviceNotAvailableException
+     */
+    public static Map<String, String> collectDeviceInfo(ITestDevice device, File testApkDir)
+            throws DeviceNotAvailableException {
+        MetricsListener metricsListener = new MetricsListener();
+        List<ITestInvocationListener> listeners = new ArrayList<ITestInvocationListener>(1);
+        listeners.add(metricsListener);
+        collectDeviceInfo(device, testApkDir, listeners);
+        return metricsListener.mMetrics;
+    }
+
+    /**
+     * Forwards device info metrics to the <var>listeners</var> the same way the device info
+     * collector instrumentation reports them, e.g. when the metrics were collected earlier.
+     *
+     * @param metrics the device info metrics
+     * @param collectionTime the time in ms it took to install and run the device info collector,
+     *            or 0 if the metrics were not collected in this run
+     * @param listeners
+     */
+    public static void reportDeviceInfo(Map<String, String> metrics, long collectionTime,
+            List<ITestInvocationListener> listeners) {
+        for (ITestInvocationListener listener : listeners) {
+            listener.testRunStarted(APP_PACKAGE_NAME, 0);
+            listener.testRunEnded(collectionTime, metrics);
+        }
+    }
+
+    /**
+     * Gets the build fingerprint of the device.
+     *
+     * @param device
+     * @return the build fingerprint, or <code>null</code> if the device did not report one
+     * @throws DeviceNotAvailableException
+     */
+    public static String getBuildFingerprint(ITestDevice device)
+            throws DeviceNotAvailableException {
+        String fingerprint = device.executeShellCommand(
+                String.format("getprop %s", BUILD_FINGERPRINT_PROPERTY));
+        if (fingerprint == null || fingerprint.trim().length() == 0) {
+            return null;
+        }
+        return fingerprint.trim();
+    }
+
+    /**
+     * Keeps the metrics of the device info run, which are reported when the run ends.
+     * <p/>
+     * Only overrides the test run callbacks of {@link CollectingTestListener} it needs.
+     */
+    private static class MetricsListener extends CollectingTestListener {
+        Map<String, String> mMetrics = null;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            if (runMetrics != null && !runMetrics.isEmpty()) {
+                mMetrics = new HashMap<String, String>(runMetrics);
+            }
+        }
+    }
 }
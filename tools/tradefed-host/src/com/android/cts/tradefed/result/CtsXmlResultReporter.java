@@ -18,14 +18,13 @@ package com.android.cts.tradefed.result;
 
 import com.android.cts.tradefed.device.DeviceInfoCollector;
 import com.android.cts.tradefed.targetsetup.CtsBuildHelper;
+import com.android.cts.tradefed.testtype.PlanTest;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.config.Option;
 import com.android.tradefed.result.CollectingTestListener;
 import com.android.tradefed.result.LogDataType;
-import com.android.tradefed.result.TestResult;
-import com.android.tradefed.result.TestRunResult;
 import com.android.tradefed.result.TestResult.TestStatus;
 import com.android.tradefed.targetsetup.IBuildInfo;
 import com.android.tradefed.targetsetup.IFolderBuildInfo;
@@ -33,25 +32,65 @@ import com.android.tradefed.util.FileUtil;
 
 import org.kxml2.io.KXmlSerializer;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Writes results to an XML files in the CTS format.
  * <p/>
- * Collects all test info in memory, then dumps to file when invocation is complete.
+ * The results of each test run are written to an XML fragment in the report directory as soon
+ * as the run ends, so only the results of the run in progress and the summary totals are kept
+ * in memory. When the invocation is complete, the fragments are stitched together into the
+ * final result file.
+ * <p/>
+ * The results are not collected by the {@link CollectingTestListener} super class, so its
+ * accessors for the run results are not usable.
+ * <p/>
+ * When a plan is split into shards that run in separate invocations, the shards can share a
+ * results directory given by --shard-result-name. Each shard then leaves its fragments there,
+ * and the last shard to complete generates the result file for all of them. The shards agree on
+ * a run id, kept in the fragment directory, and only shards that completed with the current id
+ * count. A shard that already completed the current run and starts again begins a new run, like
+ * for the split of the plan, and drops the fragments left by the earlier one. A shard starting
+ * again without having completed, e.g. after its device went away, rejoins the current run.
+ * <p/>
+ * Besides the results, the start and end time of each test and run are recorded, along with the
+ * time it took to install the package of each run, as measured by {@link PlanTest} and reported
+ * in the {@link PlanTest#INSTALL_TIME_METRIC} run metric. They are written to a testTiming.csv
+ * file next to the result file, and the slowest packages and tests are summarized in the result
+ * file, to track how long the suite itself takes across builds.
  * <p/>
  * Outputs xml in format governed by the cts_result.xsd
  */
@@ -60,6 +99,26 @@ public class CtsXmlResultReporter extends CollectingTestListener {
     private static final String LOG_TAG = "CtsXmlResultReporter";
 
     private static final String TEST_RESULT_FILE_NAME = "testResult.xml";
+    private static final String TEST_RUN_FRAGMENT_DIR_NAME = "test_runs";
+    private static final String RUN_FRAGMENT_PREFIX = "run_";
+    private static final String DEVICE_INFO_FRAGMENT_PREFIX = "device_info_";
+    private static final String SHARD_SUMMARY_PREFIX = "shard_";
+    private static final String SHARD_SUMMARY_SUFFIX = ".properties";
+    private static final String MERGE_LOCK_FILE_NAME = "merge.lock";
+    private static final String RUN_FILE_NAME = "run.properties";
+    private static final String RUN_LOCK_FILE_NAME = "run.lock";
+    private static final String RUN_ID_KEY = "runid";
+    private static final String START_TIME_KEY = "starttime";
+    private static final String TIMING_FRAGMENT_PREFIX = "timing_";
+    private static final String TIMING_FILE_NAME = "testTiming.csv";
+    private static final String TIMING_HEADER =
+            "type,package,class,test,starttime,endtime,duration,installtime";
+    private static final String PACKAGE_TIMING = "package";
+    private static final String TEST_TIMING = "test";
+    private static final String DEVICE_INFO_TIMING = "deviceinfo";
+    /** the number of slowest packages and tests to summarize in the result file */
+    private static final int SLOWEST_COUNT = 10;
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
     private static final String CTS_RESULT_FILE_VERSION = "2.0";
     private static final String CTS_VERSION = "99";
 
@@ -76,14 +135,249 @@ public class CtsXmlResultReporter extends CollectingTestListener {
             "<cts root>/repository/results")
     protected File mReportDir = null;
 
+    @Option(name = PlanTest.SHARD_COUNT_OPTION, description =
+            "the number of shards the plan is split into")
+    private int mShardCount = 1;
+
+    @Option(name = PlanTest.SHARD_INDEX_OPTION, description =
+            "the shard of the plan run by this invocation")
+    private int mShardIndex = 0;
+
+    @Option(name = "shard-result-name", description = "name of the results directory shared " +
+            "by all shards of a plan run. If not specified, each shard is reported on its own")
+    private String mShardResultName = null;
+
+    /**
+     * Serializes the access of invocations in this process to the run file, which a
+     * {@link FileLock} does not do.
+     */
+    private static final Object sRunLock = new Object();
+
     protected IBuildInfo mBuildInfo;
 
+    /** the id of the run of the plan this shard is part of, or null if not sharded */
+    private String mRunId = null;
+
     private String mStartTime;
 
+    /** the number of test run fragments written */
+    private int mRunCount = 0;
+    /** the metrics of the device info run, or null if it has not run */
+    private Map<String, String> mDeviceInfoMetrics = null;
+
+    /** the name of the test run in progress, or null if no run is in progress */
+    private String mCurrentRunName = null;
+    /** the time the test run in progress started */
+    private long mCurrentRunStartTime = 0;
+    /** the results of the test run in progress, grouped by class name */
+    private Map<String, Map<String, TestRecord>> mCurrentRunResults =
+            new LinkedHashMap<String, Map<String, TestRecord>>();
+    private TestCounts mCurrentRunCounts = new TestCounts();
+    private TestCounts mTotalCounts = new TestCounts();
+
+    /**
+     * The result of a single test of the run in progress.
+     */
+    private static class TestRecord {
+        /** the status of the test, or null until the test has failed or ended */
+        TestStatus mStatus = null;
+        String mStackTrace = null;
+        /** the time the test started, or 0 if its start was not reported */
+        long mStartTime = 0;
+        /** the time the test ended, or 0 if it did not end */
+        long mEndTime = 0;
+    }
+
+    /**
+     * The timing of a test run or test, as recorded in the timing file.
+     */
+    private static class TimingRecord {
+        final String mType;
+        final String mPackageName;
+        final String mClassName;
+        final String mTestName;
+        final long mStartTime;
+        final long mEndTime;
+        final long mInstallTime;
+
+        TimingRecord(String type, String packageName, String className, String testName,
+                long startTime, long endTime, long installTime) {
+            mType = type;
+            mPackageName = packageName;
+            mClassName = className;
+            mTestName = testName;
+            mStartTime = startTime;
+            mEndTime = endTime;
+            mInstallTime = installTime;
+        }
+
+        long getDuration() {
+            return mEndTime - mStartTime;
+        }
+
+        /**
+         * Formats the record as a line of the timing file.
+         */
+        String format() {
+            return String.format("%s,%s,%s,%s,%d,%d,%d,%s", mType, mPackageName, mClassName,
+                    mTestName, mStartTime, mEndTime, getDuration(),
+                    mInstallTime < 0 ? "" : Long.toString(mInstallTime));
+        }
+
+        /**
+         * Parses a line of the timing file.
+         *
+         * @return the {@link TimingRecord} or <code>null</code> if the line is invalid
+         */
+        static TimingRecord parse(String line) {
+            String[] fields = line.split(",", -1);
+            if (fields.length != 8) {
+                return null;
+            }
+            try {
+                return new TimingRecord(fields[0], fields[1], fields[2], fields[3],
+                        Long.parseLong(fields[4]), Long.parseLong(fields[5]),
+                        fields[7].length() == 0 ? -1 : Long.parseLong(fields[7]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Orders {@link TimingRecord}s by duration.
+     */
+    private static class DurationComparator implements Comparator<TimingRecord> {
+        /**
+         * {@inheritDoc}
+         */
+        public int compare(TimingRecord record1, TimingRecord record2) {
+            long duration1 = record1.getDuration();
+            long duration2 = record2.getDuration();
+            return duration1 < duration2 ? -1 : (duration1 == duration2 ? 0 : 1);
+        }
+    }
+
+    /**
+     * The slowest packages and tests of the timing records it is given.
+     */
+    private static class TimingSummary {
+        private final PriorityQueue<TimingRecord> mSlowestPackages =
+                new PriorityQueue<TimingRecord>(SLOWEST_COUNT + 1, new DurationComparator());
+        private final PriorityQueue<TimingRecord> mSlowestTests =
+                new PriorityQueue<TimingRecord>(SLOWEST_COUNT + 1, new DurationComparator());
+        /** the time spent collecting device info, or -1 if unknown */
+        long mDeviceInfoTime = -1;
+
+        void add(TimingRecord record) {
+            if (PACKAGE_TIMING.equals(record.mType)) {
+                addSlowest(mSlowestPackages, record);
+            } else if (TEST_TIMING.equals(record.mType)) {
+                addSlowest(mSlowestTests, record);
+            } else if (DEVICE_INFO_TIMING.equals(record.mType) && mDeviceInfoTime < 0) {
+                mDeviceInfoTime = record.getDuration();
+            }
+        }
+
+        private static void addSlowest(PriorityQueue<TimingRecord> slowest,
+                TimingRecord record) {
+            slowest.add(record);
+            if (slowest.size() > SLOWEST_COUNT) {
+                // drop the fastest
+                slowest.poll();
+            }
+        }
+
+        List<TimingRecord> getSlowestPackages() {
+            return sortSlowestFirst(mSlowestPackages);
+        }
+
+        List<TimingRecord> getSlowestTests() {
+            return sortSlowestFirst(mSlowestTests);
+        }
+
+        private static List<TimingRecord> sortSlowestFirst(Collection<TimingRecord> records) {
+            List<TimingRecord> sorted = new ArrayList<TimingRecord>(records);
+            Collections.sort(sorted, Collections.reverseOrder(new DurationComparator()));
+            return sorted;
+        }
+    }
+
+    /**
+     * Counts of test results.
+     */
+    private static class TestCounts {
+        int mPassed = 0;
+        int mFailed = 0;
+        int mError = 0;
+        int mTotal = 0;
+
+        void add(TestStatus status) {
+            mTotal++;
+            if (status == TestStatus.PASSED) {
+                mPassed++;
+            } else if (status == TestStatus.FAILURE) {
+                mFailed++;
+            } else if (status == TestStatus.ERROR) {
+                mError++;
+            }
+        }
+
+        void add(TestCounts counts) {
+            mPassed += counts.mPassed;
+            mFailed += counts.mFailed;
+            mError += counts.mError;
+            mTotal += counts.mTotal;
+        }
+
+        void store(Properties properties) {
+            properties.setProperty("pass", Integer.toString(mPassed));
+            properties.setProperty("failed", Integer.toString(mFailed));
+            properties.setProperty("error", Integer.toString(mError));
+            properties.setProperty("total", Integer.toString(mTotal));
+        }
+
+        void load(Properties properties) {
+            mPassed = Integer.parseInt(properties.getProperty("pass", "0"));
+            mFailed = Integer.parseInt(properties.getProperty("failed", "0"));
+            mError = Integer.parseInt(properties.getProperty("error", "0"));
+            mTotal = Integer.parseInt(properties.getProperty("total", "0"));
+        }
+    }
+
+    /**
+     * Accepts the files of the fragment directory with the given prefix.
+     */
+    private static class PrefixFilter implements FilenameFilter {
+        private final String mPrefix;
+
+        PrefixFilter(String prefix) {
+            mPrefix = prefix;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean accept(File dir, String name) {
+            return name.startsWith(mPrefix);
+        }
+    }
+
     public void setReportDir(File reportDir) {
         mReportDir = reportDir;
     }
 
+    /**
+     * Set the shard of the plan this invocation reports.
+     * <p/>
+     * Exposed for unit testing
+     */
+    void setShard(int shardIndex, int shardCount, String shardResultName) {
+        mShardIndex = shardIndex;
+        mShardCount = shardCount;
+        mShardResultName = shardResultName;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -103,9 +397,14 @@ public class CtsXmlResultReporter extends CollectingTestListener {
                 throw new IllegalArgumentException("unrecognized cts structure", e);
             }
         }
-        // create a unique directory for saving results, using old cts host convention
-        // TODO: in future, consider using LogFileSaver to create build-specific directories
-        mReportDir = new File(mReportDir, getResultTimestamp());
+        if (isSharded()) {
+            mReportDir = new File(mReportDir, mShardResultName);
+            mRunId = joinShardRun();
+        } else {
+            // create a unique directory for saving results, using old cts host convention
+            // TODO: in future, consider using LogFileSaver to create build-specific directories
+            mReportDir = new File(mReportDir, getResultTimestamp());
+        }
         mReportDir.mkdirs();
         mStartTime = getTimestamp();
     }
@@ -118,26 +417,73 @@ public class CtsXmlResultReporter extends CollectingTestListener {
         // TODO: implement this
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunStarted(String name, int numTests) {
+        if (mCurrentRunName != null) {
+            // previous run never ended, most likely because the device went away
+            endTestRun(0, null);
+        }
+        mCurrentRunName = name;
+        mCurrentRunStartTime = System.currentTimeMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(TestIdentifier test) {
+        getTestRecord(test).mStartTime = System.currentTimeMillis();
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void testFailed(TestFailure status, TestIdentifier test, String trace) {
-        super.testFailed(status, test, trace);
+        TestRecord record = getTestRecord(test);
+        record.mStatus = status == TestFailure.ERROR ? TestStatus.ERROR : TestStatus.FAILURE;
+        record.mStackTrace = trace;
         Log.i(LOG_TAG, String.format("Test %s#%s: %s\n%s", test.getClassName(), test.getTestName(),
                 status.toString(), trace));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+        TestRecord record = getTestRecord(test);
+        if (record.mStatus == null) {
+            record.mStatus = TestStatus.PASSED;
+        }
+        record.mEndTime = System.currentTimeMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunFailed(String errorMessage) {
+        Log.w(LOG_TAG, String.format("Test run %s failed: %s", mCurrentRunName, errorMessage));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunStopped(long elapsedTime) {
+        endTestRun(elapsedTime, null);
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
-        super.testRunEnded(elapsedTime, runMetrics);
-        Log.i(LOG_TAG, String.format("Test run %s complete. Tests passed %d, failed %d, error %d",
-                getCurrentRunResults().getName(), getCurrentRunResults().getNumPassedTests(),
-                getCurrentRunResults().getNumFailedTests(),
-                getCurrentRunResults().getNumErrorTests()));
+        endTestRun(elapsedTime, runMetrics);
     }
 
     /**
@@ -146,11 +492,470 @@ public class CtsXmlResultReporter extends CollectingTestListener {
     @Override
     public void invocationEnded(long elapsedTime) {
         super.invocationEnded(elapsedTime);
+        if (mCurrentRunName != null) {
+            endTestRun(0, null);
+        }
+        if (isSharded() && !completeShard()) {
+            Log.logAndDisplay(LogLevel.INFO, LOG_TAG, String.format(
+                    "Results of shard %d saved in %s. The last shard to complete generates " +
+                    "the result file.", mShardIndex, mReportDir.getAbsolutePath()));
+            return;
+        }
         createXmlResult(mReportDir, mStartTime, elapsedTime);
         copyFormattingFiles(mReportDir);
         zipResults(mReportDir);
     }
 
+    /**
+     * @return true if this invocation reports one shard of a plan, in a directory shared with
+     *         the other shards
+     */
+    private boolean isSharded() {
+        return mShardCount > 1 && mShardResultName != null;
+    }
+
+    /**
+     * Joins the current run of the shards in the report directory, or begins a new run if there
+     * is none or this shard already completed it.
+     *
+     * @return the id of the run
+     */
+    private String joinShardRun() {
+        File fragmentDir = new File(mReportDir, TEST_RUN_FRAGMENT_DIR_NAME);
+        fragmentDir.mkdirs();
+        File runFile = new File(fragmentDir, RUN_FILE_NAME);
+        synchronized (sRunLock) {
+            FileLock lock = lockRun(fragmentDir);
+            try {
+                Properties run = new Properties();
+                try {
+                    if (runFile.exists()) {
+                        loadProperties(runFile, run);
+                    }
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, String.format("Failed to read %s", runFile));
+                }
+                String runId = run.getProperty(RUN_ID_KEY);
+                File summaryFile = getShardSummaryFile(fragmentDir, mShardIndex);
+                if (runId != null && !(summaryFile.exists()
+                        && runId.equals(getRunId(summaryFile)))) {
+                    return runId;
+                }
+                runId = UUID.randomUUID().toString();
+                // the fragments left are from an earlier run, which did not complete
+                File[] fragments = fragmentDir.listFiles();
+                if (fragments != null) {
+                    for (File fragment : fragments) {
+                        if (!fragment.getName().equals(RUN_LOCK_FILE_NAME)) {
+                            fragment.delete();
+                        }
+                    }
+                }
+                run.setProperty(RUN_ID_KEY, runId);
+                try {
+                    storeProperties(run, runFile);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, String.format("Failed to save %s", runFile));
+                }
+                return runId;
+            } finally {
+                unlockRun(lock);
+            }
+        }
+    }
+
+    /**
+     * Locks the run file against invocations in other processes.
+     *
+     * @return the {@link FileLock}, or null if the lock could not be taken
+     */
+    private static FileLock lockRun(File fragmentDir) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(new File(fragmentDir, RUN_LOCK_FILE_NAME), "rw");
+            return file.getChannel().lock();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to lock the run in %s", fragmentDir));
+        } catch (OverlappingFileLockException e) {
+            Log.w(LOG_TAG, String.format("The run in %s is already locked", fragmentDir));
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        return null;
+    }
+
+    private static void unlockRun(FileLock lock) {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.release();
+            lock.channel().close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static File getShardSummaryFile(File fragmentDir, int shardIndex) {
+        return new File(fragmentDir, String.format("%s%03d%s", SHARD_SUMMARY_PREFIX, shardIndex,
+                SHARD_SUMMARY_SUFFIX));
+    }
+
+    /**
+     * Gets the run id stored in a shard summary.
+     *
+     * @return the run id, or null if the summary can't be read
+     */
+    private static String getRunId(File summaryFile) {
+        Properties summary = new Properties();
+        try {
+            loadProperties(summaryFile, summary);
+        } catch (IOException e) {
+            return null;
+        }
+        return summary.getProperty(RUN_ID_KEY);
+    }
+
+    private static void loadProperties(File file, Properties properties) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        try {
+            properties.load(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static void storeProperties(Properties properties, File file) throws IOException {
+        OutputStream stream = new FileOutputStream(file);
+        try {
+            properties.store(stream, null);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Saves what the result file needs from this shard besides its test run fragments, then
+     * checks if all shards of the plan are complete.
+     *
+     * @return true if all shards are complete and this invocation is the one to generate the
+     *         result file
+     */
+    private boolean completeShard() {
+        File fragmentDir = new File(mReportDir, TEST_RUN_FRAGMENT_DIR_NAME);
+        fragmentDir.mkdirs();
+        try {
+            if (mDeviceInfoMetrics != null) {
+                writeDeviceInfoFragment(new File(fragmentDir, String.format("%s%03d.xml",
+                        DEVICE_INFO_FRAGMENT_PREFIX, mShardIndex)));
+            }
+            Properties summary = new Properties();
+            summary.setProperty(RUN_ID_KEY, mRunId);
+            summary.setProperty(START_TIME_KEY, mStartTime);
+            mTotalCounts.store(summary);
+            // write the summary under a temporary name, so other shards never see it partly
+            // written
+            File tmpFile = new File(fragmentDir, String.format("%03d.tmp", mShardIndex));
+            storeProperties(summary, tmpFile);
+            File summaryFile = getShardSummaryFile(fragmentDir, mShardIndex);
+            if (!tmpFile.renameTo(summaryFile)) {
+                throw new IOException(String.format("failed to rename %s", tmpFile));
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, String.format("Failed to save results of shard %d", mShardIndex));
+            Log.e(LOG_TAG, e);
+            return false;
+        }
+
+        // shards that completed an earlier run with the same name don't count
+        List<Properties> summaries = new ArrayList<Properties>();
+        try {
+            for (File summaryFile : listFragments(fragmentDir, SHARD_SUMMARY_PREFIX)) {
+                Properties summary = new Properties();
+                loadProperties(summaryFile, summary);
+                if (mRunId.equals(summary.getProperty(RUN_ID_KEY))) {
+                    summaries.add(summary);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read the results of the shards");
+            Log.e(LOG_TAG, e);
+            return false;
+        }
+        if (summaries.size() < mShardCount) {
+            return false;
+        }
+        try {
+            if (!new File(fragmentDir, MERGE_LOCK_FILE_NAME).createNewFile()) {
+                // another shard completed at the same time and generates the result file
+                return false;
+            }
+            TestCounts totals = new TestCounts();
+            String startTime = null;
+            for (Properties summary : summaries) {
+                TestCounts shardCounts = new TestCounts();
+                shardCounts.load(summary);
+                totals.add(shardCounts);
+                if (startTime == null) {
+                    // the first shard's start time stands for the whole plan run
+                    startTime = summary.getProperty(START_TIME_KEY);
+                }
+            }
+            mTotalCounts = totals;
+            if (startTime != null) {
+                mStartTime = startTime;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to merge the results of the shards");
+            Log.e(LOG_TAG, e);
+        } catch (NumberFormatException e) {
+            Log.e(LOG_TAG, "Failed to merge the results of the shards");
+            Log.e(LOG_TAG, e);
+        }
+        return false;
+    }
+
+    /**
+     * Lists the files of the fragment directory with the given prefix, in name order.
+     */
+    private static File[] listFragments(File fragmentDir, String prefix) {
+        File[] fragments = fragmentDir.listFiles(new PrefixFilter(prefix));
+        if (fragments == null) {
+            return new File[0];
+        }
+        Arrays.sort(fragments);
+        return fragments;
+    }
+
+    /**
+     * Writes the device info XML to a fragment file, for the shard generating the result file.
+     */
+    private void writeDeviceInfoFragment(File fragment) throws IOException {
+        OutputStream stream = new FileOutputStream(fragment);
+        try {
+            KXmlSerializer serializer = new KXmlSerializer();
+            serializer.setOutput(stream, "UTF-8");
+            serializer.setFeature(
+                    "http://xmlpull.org/v1/doc/features.html#indent-output", true);
+            serializeDeviceInfo(serializer);
+            serializer.flush();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Gets the result record for the given test of the run in progress, creating it if needed.
+     */
+    private TestRecord getTestRecord(TestIdentifier test) {
+        Map<String, TestRecord> classResults = mCurrentRunResults.get(test.getClassName());
+        if (classResults == null) {
+            classResults = new LinkedHashMap<String, TestRecord>();
+            mCurrentRunResults.put(test.getClassName(), classResults);
+        }
+        TestRecord record = classResults.get(test.getTestName());
+        if (record == null) {
+            record = new TestRecord();
+            classResults.put(test.getTestName(), record);
+        }
+        return record;
+    }
+
+    /**
+     * Completes the test run in progress: adds its results to the totals, writes its XML
+     * fragment and drops its results from memory.
+     *
+     * @param elapsedTime the run time of the test run in ms
+     * @param runMetrics the metrics reported for the run, or null if the run did not end
+     *            normally
+     */
+    private void endTestRun(long elapsedTime, Map<String, String> runMetrics) {
+        if (mCurrentRunName == null) {
+            return;
+        }
+        long endTime = System.currentTimeMillis();
+        long installTime = -1;
+        if (runMetrics != null && runMetrics.containsKey(PlanTest.INSTALL_TIME_METRIC)) {
+            // reported as an attribute of the run rather than as one of its metrics
+            runMetrics = new HashMap<String, String>(runMetrics);
+            installTime = parseInstallTime(runMetrics.remove(PlanTest.INSTALL_TIME_METRIC));
+        }
+        for (Map<String, TestRecord> classResults : mCurrentRunResults.values()) {
+            for (TestRecord record : classResults.values()) {
+                mCurrentRunCounts.add(record.mStatus);
+            }
+        }
+        Log.i(LOG_TAG, String.format("Test run %s complete. Tests passed %d, failed %d, error %d",
+                mCurrentRunName, mCurrentRunCounts.mPassed, mCurrentRunCounts.mFailed,
+                mCurrentRunCounts.mError));
+
+        if (mCurrentRunName.equals(DeviceInfoCollector.APP_PACKAGE_NAME)) {
+            // the info collecting package is reported as device info rather than as test results
+            if (runMetrics != null) {
+                mDeviceInfoMetrics = new HashMap<String, String>(runMetrics);
+            }
+            // the device info may have been collected in the background well before it was
+            // reported, so the run's elapsed time is the time the collection took
+            writeTimingFragment(DEVICE_INFO_TIMING, endTime - elapsedTime, endTime, -1);
+        } else {
+            mTotalCounts.add(mCurrentRunCounts);
+            writeRunFragment(elapsedTime, runMetrics, endTime, installTime);
+            writeTimingFragment(PACKAGE_TIMING, mCurrentRunStartTime, endTime, installTime);
+        }
+        mCurrentRunName = null;
+        mCurrentRunResults = new LinkedHashMap<String, Map<String, TestRecord>>();
+        mCurrentRunCounts = new TestCounts();
+    }
+
+    /**
+     * Parses the install time reported for a run.
+     *
+     * @return the install time in ms, or -1 if it is invalid
+     */
+    private long parseInstallTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, String.format("Invalid install time %s reported for test run %s",
+                    value, mCurrentRunName));
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the XML of the test run in progress to a fragment file in the report directory.
+     *
+     * @param elapsedTime the run time of the test run in ms
+     * @param runMetrics the metrics reported for the run, or null if none were
+     * @param endTime the time the run ended
+     * @param installTime the time it took to install the package of the run in ms, or -1 if
+     *            unknown
+     */
+    private void writeRunFragment(long elapsedTime, Map<String, String> runMetrics,
+            long endTime, long installTime) {
+        File fragmentDir = new File(mReportDir, TEST_RUN_FRAGMENT_DIR_NAME);
+        fragmentDir.mkdirs();
+        // the names sort in the order of the shards, then of the runs
+        File fragment = new File(fragmentDir, String.format("%s%03d_%05d.xml",
+                RUN_FRAGMENT_PREFIX, mShardIndex, mRunCount));
+        OutputStream stream = null;
+        try {
+            stream = new FileOutputStream(fragment);
+            KXmlSerializer serializer = new KXmlSerializer();
+            serializer.setOutput(stream, "UTF-8");
+            serializer.setFeature(
+                    "http://xmlpull.org/v1/doc/features.html#indent-output", true);
+            serializeTestRunResult(serializer, elapsedTime, runMetrics, endTime, installTime);
+            serializer.flush();
+            mRunCount++;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, String.format("Failed to write results of test run %s",
+                    mCurrentRunName));
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the timing of the test run in progress and of its tests to the timing fragment of
+     * this shard.
+     *
+     * @param type the type of timing record of the run
+     * @param startTime the time the run started
+     * @param endTime the time the run ended
+     * @param installTime the time it took to install the package of the run in ms, or -1 if
+     *            unknown
+     */
+    private void writeTimingFragment(String type, long startTime, long endTime,
+            long installTime) {
+        File fragmentDir = new File(mReportDir, TEST_RUN_FRAGMENT_DIR_NAME);
+        fragmentDir.mkdirs();
+        File fragment = new File(fragmentDir, String.format("%s%03d.csv", TIMING_FRAGMENT_PREFIX,
+                mShardIndex));
+        try {
+            Writer writer = new BufferedWriter(new FileWriter(fragment, true));
+            try {
+                writeTimingRecord(writer, new TimingRecord(type, mCurrentRunName, "", "",
+                        startTime, endTime, installTime));
+                if (type.equals(PACKAGE_TIMING)) {
+                    for (Map.Entry<String, Map<String, TestRecord>> classEntry :
+                            mCurrentRunResults.entrySet()) {
+                        for (Map.Entry<String, TestRecord> testEntry :
+                                classEntry.getValue().entrySet()) {
+                            TestRecord record = testEntry.getValue();
+                            if (record.mStartTime > 0 && record.mEndTime > 0) {
+                                writeTimingRecord(writer, new TimingRecord(TEST_TIMING,
+                                        mCurrentRunName, classEntry.getKey(), testEntry.getKey(),
+                                        record.mStartTime, record.mEndTime, -1));
+                            }
+                        }
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, String.format("Failed to write timing of test run %s",
+                    mCurrentRunName));
+        }
+    }
+
+    private static void writeTimingRecord(Writer writer, TimingRecord record)
+            throws IOException {
+        writer.write(record.format());
+        writer.write('\n');
+    }
+
+    /**
+     * Stitches the timing fragments of all shards into the timing file of the report directory.
+     *
+     * @return the {@link TimingSummary} of the timing records
+     */
+    private TimingSummary mergeTimingFragments(File reportDir) {
+        TimingSummary summary = new TimingSummary();
+        File timingFile = new File(reportDir, TIMING_FILE_NAME);
+        File fragmentDir = new File(reportDir, TEST_RUN_FRAGMENT_DIR_NAME);
+        try {
+            Writer writer = new BufferedWriter(new FileWriter(timingFile));
+            try {
+                writer.write(TIMING_HEADER);
+                writer.write('\n');
+                for (File fragment : listFragments(fragmentDir, TIMING_FRAGMENT_PREFIX)) {
+                    BufferedReader reader = new BufferedReader(new FileReader(fragment));
+                    try {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            TimingRecord record = TimingRecord.parse(line);
+                            if (record != null) {
+                                summary.add(record);
+                                writeTimingRecord(writer, record);
+                            }
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, String.format("Failed to write timing file %s",
+                    timingFile.getAbsolutePath()));
+        }
+        return summary;
+    }
+
     /**
      * Creates a report file and populates it with the report data from the completed tests.
      */
@@ -167,12 +972,20 @@ public class CtsXmlResultReporter extends CollectingTestListener {
                     "http://xmlpull.org/v1/doc/features.html#indent-output", true);
             serializer.processingInstruction("xml-stylesheet type=\"text/xsl\"  " +
                     "href=\"cts_result.xsl\"");
-            serializeResultsDoc(serializer, startTimestamp, endTime);
+            TimingSummary timing = mergeTimingFragments(reportDir);
+            serializeResultsDoc(serializer, stream, startTimestamp, endTime, timing);
+            // the test results are copied verbatim from the fragments of the test runs
+            serializer.flush();
+            File fragmentDir = new File(reportDir, TEST_RUN_FRAGMENT_DIR_NAME);
+            for (File fragment : listFragments(fragmentDir, RUN_FRAGMENT_PREFIX)) {
+                copyFragment(fragment, stream);
+            }
             serializer.endDocument();
+            deleteRunFragments(reportDir);
             // TODO: output not executed timeout omitted counts
             String msg = String.format("XML test result file generated at %s. Total tests %d, " +
-                    "Failed %d, Error %d", reportDir.getAbsolutePath(), getNumTotalTests(),
-                    getNumFailedTests(), getNumErrorTests());
+                    "Failed %d, Error %d", reportDir.getAbsolutePath(), mTotalCounts.mTotal,
+                    mTotalCounts.mFailed, mTotalCounts.mError);
             Log.logAndDisplay(LogLevel.INFO, LOG_TAG, msg);
             Log.logAndDisplay(LogLevel.INFO, LOG_TAG, String.format("Time: %s",
                     formatElapsedTime(elapsedTime)));
@@ -188,16 +1001,52 @@ public class CtsXmlResultReporter extends CollectingTestListener {
         }
     }
 
+    /**
+     * Copies an XML fragment to the given stream.
+     *
+     * @param fragment the fragment {@link File}
+     * @param stream the {@link OutputStream} of the result file
+     * @throws IOException
+     */
+    private void copyFragment(File fragment, OutputStream stream) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        InputStream input = new FileInputStream(fragment);
+        try {
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                stream.write(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Deletes the fragments once they made it into the result file.
+     */
+    private void deleteRunFragments(File reportDir) {
+        File fragmentDir = new File(reportDir, TEST_RUN_FRAGMENT_DIR_NAME);
+        File[] fragments = fragmentDir.listFiles();
+        if (fragments != null) {
+            for (File fragment : fragments) {
+                fragment.delete();
+            }
+        }
+        fragmentDir.delete();
+    }
+
     /**
      * Output the results XML.
      *
      * @param serializer the {@link KXmlSerializer} to use
+     * @param stream the {@link OutputStream} the serializer writes to
      * @param startTime the user-friendly starting time of the test invocation
      * @param endTime the user-friendly ending time of the test invocation
+     * @param timing the {@link TimingSummary} of the test runs
      * @throws IOException
      */
-    private void serializeResultsDoc(KXmlSerializer serializer, String startTime, String endTime)
-            throws IOException {
+    private void serializeResultsDoc(KXmlSerializer serializer, OutputStream stream,
+            String startTime, String endTime, TimingSummary timing) throws IOException {
         serializer.startTag(ns, "TestResult");
         // TODO: output test plan and profile values
         serializer.attribute(ns, "testPlan", "unknown");
@@ -206,10 +1055,19 @@ public class CtsXmlResultReporter extends CollectingTestListener {
         serializer.attribute(ns, "endtime", endTime);
         serializer.attribute(ns, "version", CTS_RESULT_FILE_VERSION);
 
-        serializeDeviceInfo(serializer);
+        File[] deviceInfoFragments = isSharded() ? listFragments(
+                new File(mReportDir, TEST_RUN_FRAGMENT_DIR_NAME), DEVICE_INFO_FRAGMENT_PREFIX)
+                : new File[0];
+        if (deviceInfoFragments.length > 0) {
+            // report the device of the first shard, whichever shard generates the result
+            serializer.flush();
+            copyFragment(deviceInfoFragments[0], stream);
+        } else {
+            serializeDeviceInfo(serializer);
+        }
         serializeHostInfo(serializer);
         serializeTestSummary(serializer);
-        serializeTestResults(serializer);
+        serializeTimingSummary(serializer, timing);
     }
 
     /**
@@ -220,15 +1078,13 @@ public class CtsXmlResultReporter extends CollectingTestListener {
     private void serializeDeviceInfo(KXmlSerializer serializer) throws IOException {
         serializer.startTag(ns, "DeviceInfo");
 
-        TestRunResult deviceInfoResult = findRunResult(DeviceInfoCollector.APP_PACKAGE_NAME);
-        if (deviceInfoResult == null) {
+        if (mDeviceInfoMetrics == null) {
             Log.w(LOG_TAG, String.format("Could not find device info run %s",
                     DeviceInfoCollector.APP_PACKAGE_NAME));
             return;
         }
         // Extract metrics that need extra handling, and then dump the remainder into BuildInfo
-        Map<String, String> metricsCopy = new HashMap<String, String>(
-                deviceInfoResult.getRunMetrics());
+        Map<String, String> metricsCopy = new HashMap<String, String>(mDeviceInfoMetrics);
         serializer.startTag(ns, "Screen");
         String screenWidth = metricsCopy.remove(DeviceInfoCollector.SCREEN_WIDTH);
         String screenHeight = metricsCopy.remove(DeviceInfoCollector.SCREEN_HEIGHT);
@@ -329,21 +1185,6 @@ public class CtsXmlResultReporter extends CollectingTestListener {
         serializer.endTag(ns, "ProcessInfo");
     }
 
-    /**
-     * Finds the {@link TestRunResult} with the given name.
-     *
-     * @param runName
-     * @return the {@link TestRunResult}
-     */
-    private TestRunResult findRunResult(String runName) {
-        for (TestRunResult runResult : getRunResults()) {
-            if (runResult.getName().equals(runName)) {
-                return runResult;
-            }
-        }
-        return null;
-    }
-
     /**
      * Output the host info XML.
      *
@@ -385,63 +1226,107 @@ public class CtsXmlResultReporter extends CollectingTestListener {
      */
     private void serializeTestSummary(KXmlSerializer serializer) throws IOException {
         serializer.startTag(ns, "Summary");
-        serializer.attribute(ns, "failed", Integer.toString(getNumErrorTests() +
-                getNumFailedTests()));
+        serializer.attribute(ns, "failed", Integer.toString(mTotalCounts.mError +
+                mTotalCounts.mFailed));
         // TODO: output notExecuted, timeout, and omitted count
         serializer.attribute(ns, "notExecuted", "0");
         serializer.attribute(ns, "timeout", "0");
         serializer.attribute(ns, "omitted", "0");
-        serializer.attribute(ns, "pass", Integer.toString(getNumPassedTests()));
-        serializer.attribute(ns, "total", Integer.toString(getNumTotalTests()));
+        serializer.attribute(ns, "pass", Integer.toString(mTotalCounts.mPassed));
+        serializer.attribute(ns, "total", Integer.toString(mTotalCounts.mTotal));
         serializer.endTag(ns, "Summary");
     }
 
     /**
-     * Output the detailed test results XML.
+     * Output the timing summary XML containing the slowest packages and tests.
+     *
+     * <pre>
+     *   <Timing deviceInfoTime="1200">
+     *     <SlowPackage name="android.foo" duration="60000" installTime="3000" />
+     *     ...
+     *     <SlowTest package="android.foo" class="android.foo.FooTest" name="testFoo"
+     *         duration="20000" />
+     *     ...
+     *   </Timing>
+     * </pre>
      *
      * @param serializer
+     * @param timing the {@link TimingSummary} of the test runs
      * @throws IOException
      */
-    private void serializeTestResults(KXmlSerializer serializer) throws IOException {
-        for (TestRunResult runResult : getRunResults()) {
-            serializeTestRunResult(serializer, runResult);
+    private void serializeTimingSummary(KXmlSerializer serializer, TimingSummary timing)
+            throws IOException {
+        serializer.startTag(ns, "Timing");
+        if (timing.mDeviceInfoTime >= 0) {
+            serializer.attribute(ns, "deviceInfoTime", Long.toString(timing.mDeviceInfoTime));
+        }
+        for (TimingRecord record : timing.getSlowestPackages()) {
+            serializer.startTag(ns, "SlowPackage");
+            serializer.attribute(ns, "name", record.mPackageName);
+            serializer.attribute(ns, "duration", Long.toString(record.getDuration()));
+            if (record.mInstallTime >= 0) {
+                serializer.attribute(ns, "installTime", Long.toString(record.mInstallTime));
+            }
+            serializer.endTag(ns, "SlowPackage");
         }
+        for (TimingRecord record : timing.getSlowestTests()) {
+            serializer.startTag(ns, "SlowTest");
+            serializer.attribute(ns, "package", record.mPackageName);
+            serializer.attribute(ns, "class", record.mClassName);
+            serializer.attribute(ns, "name", record.mTestName);
+            serializer.attribute(ns, "duration", Long.toString(record.getDuration()));
+            serializer.endTag(ns, "SlowTest");
+        }
+        serializer.endTag(ns, "Timing");
     }
 
     /**
-     * Output the XML for one test run aka test package.
+     * Output the XML for the test run in progress aka test package.
      *
      * @param serializer
-     * @param runResult the {@link TestRunResult}
+     * @param elapsedTime the run time of the test run in ms
+     * @param runMetrics the metrics reported for the run, or null if none were
+     * @param endTime the time the run ended
+     * @param installTime the time it took to install the package of the run in ms, or -1 if
+     *            unknown
      * @throws IOException
      */
-    private void serializeTestRunResult(KXmlSerializer serializer, TestRunResult runResult)
+    private void serializeTestRunResult(KXmlSerializer serializer, long elapsedTime,
+            Map<String, String> runMetrics, long endTime, long installTime)
             throws IOException {
-        if (runResult.getName().equals(DeviceInfoCollector.APP_PACKAGE_NAME)) {
-            // ignore run results for the info collecting packages
-            return;
-        }
         serializer.startTag(ns, "TestPackage");
-        serializer.attribute(ns, "name", runResult.getName());
-        serializer.attribute(ns, "runTime", formatElapsedTime(runResult.getElapsedTime()));
+        serializer.attribute(ns, "name", mCurrentRunName);
+        serializer.attribute(ns, "runTime", formatElapsedTime(elapsedTime));
         // TODO: generate digest
         serializer.attribute(ns, "digest", "");
-        serializer.attribute(ns, "failed", Integer.toString(runResult.getNumErrorTests() +
-                runResult.getNumFailedTests()));
+        serializer.attribute(ns, "failed", Integer.toString(mCurrentRunCounts.mError +
+                mCurrentRunCounts.mFailed));
         // TODO: output notExecuted, timeout, and omitted count
         serializer.attribute(ns, "notExecuted", "0");
         serializer.attribute(ns, "timeout", "0");
         serializer.attribute(ns, "omitted", "0");
-        serializer.attribute(ns, "pass", Integer.toString(runResult.getNumPassedTests()));
-        serializer.attribute(ns, "total", Integer.toString(runResult.getNumTests()));
+        serializer.attribute(ns, "pass", Integer.toString(mCurrentRunCounts.mPassed));
+        serializer.attribute(ns, "total", Integer.toString(mCurrentRunCounts.mTotal));
+        serializer.attribute(ns, "starttime", formatTime(mCurrentRunStartTime));
+        serializer.attribute(ns, "endtime", formatTime(endTime));
+        serializer.attribute(ns, "duration", Long.toString(endTime - mCurrentRunStartTime));
+        if (installTime >= 0) {
+            serializer.attribute(ns, "installTime", Long.toString(installTime));
+        }
 
-        // the results XML needs to organize test's by class. Build a nested data structure that
-        // group's the results by class name
-        Map<String, Map<TestIdentifier, TestResult>> classResultsMap = buildClassNameMap(
-                runResult.getTestResults());
+        if (runMetrics != null) {
+            for (Map.Entry<String, String> metricEntry :
+                    new TreeMap<String, String>(runMetrics).entrySet()) {
+                serializer.startTag(ns, "Metric");
+                serializer.attribute(ns, "name", metricEntry.getKey());
+                serializer.attribute(ns, "value", metricEntry.getValue());
+                serializer.endTag(ns, "Metric");
+            }
+        }
 
-        for (Map.Entry<String, Map<TestIdentifier, TestResult>> resultsEntry :
-                classResultsMap.entrySet()) {
+        // the results XML organizes tests by class name, which is how the run's results are kept
+        for (Map.Entry<String, Map<String, TestRecord>> resultsEntry :
+                mCurrentRunResults.entrySet()) {
             serializer.startTag(ns, "TestCase");
             serializer.attribute(ns, "name", resultsEntry.getKey());
             serializeTests(serializer, resultsEntry.getValue());
@@ -451,35 +1336,15 @@ public class CtsXmlResultReporter extends CollectingTestListener {
     }
 
     /**
-     * Organizes the test run results into a format organized by class name.
-     */
-    private Map<String, Map<TestIdentifier, TestResult>> buildClassNameMap(
-            Map<TestIdentifier, TestResult> results) {
-        // use a linked hashmap to have predictable iteration order
-        Map<String, Map<TestIdentifier, TestResult>> classResultMap =
-            new LinkedHashMap<String, Map<TestIdentifier, TestResult>>();
-        for (Map.Entry<TestIdentifier, TestResult> resultEntry : results.entrySet()) {
-            String className = resultEntry.getKey().getClassName();
-            Map<TestIdentifier, TestResult> resultsForClass = classResultMap.get(className);
-            if (resultsForClass == null) {
-                resultsForClass = new LinkedHashMap<TestIdentifier, TestResult>();
-                classResultMap.put(className, resultsForClass);
-            }
-            resultsForClass.put(resultEntry.getKey(), resultEntry.getValue());
-        }
-        return classResultMap;
-    }
-
-    /**
-     * Output XML for given map of tests their results
+     * Output XML for given map of test names and their results
      *
      * @param serializer
      * @param results
      * @throws IOException
      */
-    private void serializeTests(KXmlSerializer serializer, Map<TestIdentifier, TestResult> results)
+    private void serializeTests(KXmlSerializer serializer, Map<String, TestRecord> results)
             throws IOException {
-        for (Map.Entry<TestIdentifier, TestResult> resultEntry : results.entrySet()) {
+        for (Map.Entry<String, TestRecord> resultEntry : results.entrySet()) {
             serializeTest(serializer, resultEntry.getKey(), resultEntry.getValue());
         }
     }
@@ -488,18 +1353,26 @@ public class CtsXmlResultReporter extends CollectingTestListener {
      * Output the XML for given test and result.
      *
      * @param serializer
-     * @param testId
+     * @param testName
      * @param result
      * @throws IOException
      */
-    private void serializeTest(KXmlSerializer serializer, TestIdentifier testId, TestResult result)
+    private void serializeTest(KXmlSerializer serializer, String testName, TestRecord result)
             throws IOException {
         serializer.startTag(ns, "Test");
-        serializer.attribute(ns, "name", testId.getTestName());
-        serializer.attribute(ns, "result", convertStatus(result.getStatus()));
+        serializer.attribute(ns, "name", testName);
+        serializer.attribute(ns, "result", convertStatus(result.mStatus));
+        if (result.mStartTime > 0) {
+            serializer.attribute(ns, "starttime", formatTime(result.mStartTime));
+            if (result.mEndTime > 0) {
+                serializer.attribute(ns, "endtime", formatTime(result.mEndTime));
+                serializer.attribute(ns, "duration",
+                        Long.toString(result.mEndTime - result.mStartTime));
+            }
+        }
 
-        if (result.getStackTrace() != null) {
-            String sanitizedStack = sanitizeStackTrace(result.getStackTrace());
+        if (result.mStackTrace != null) {
+            String sanitizedStack = sanitizeStackTrace(result.mStackTrace);
             serializer.startTag(ns, "FailedScene");
             serializer.attribute(ns, "message", getFailureMessageFromStackTrace(sanitizedStack));
             serializer.text(sanitizedStack);
@@ -511,10 +1384,13 @@ public class CtsXmlResultReporter extends CollectingTestListener {
     /**
      * Convert a {@link TestStatus} to the result text to output in XML
      *
-     * @param status the {@link TestStatus}
+     * @param status the {@link TestStatus}, or null if the test never ended
      * @return
      */
     private String convertStatus(TestStatus status) {
+        if (status == null) {
+            return "omitted";
+        }
         switch (status) {
             case ERROR:
                 return "fail";
@@ -559,6 +1435,15 @@ public class CtsXmlResultReporter extends CollectingTestListener {
         return dateFormat.format(new Date());
     }
 
+    /**
+     * Return the given time in the format the old cts host used for the times of tests.
+     * <p/>
+     * Example: Fri Aug 20 15:13:03 PDT 2010
+     */
+    private static String formatTime(long time) {
+        return new Date(time).toString();
+    }
+
     /**
      * Return the current timestamp in a compressed format, used to uniquely identify results.
      * <p/>
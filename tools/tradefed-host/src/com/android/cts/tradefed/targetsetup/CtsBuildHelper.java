@@ -86,6 +86,14 @@ public class CtsBuildHelper {
         return new File(getRepositoryDir(), "results");
     }
 
+    /**
+     * @return a {@link File} representing the directory recording the pre-requisite apks
+     *         installed on each device
+     */
+    public File getInstalledPrereqsDir() {
+        return new File(getRepositoryDir(), "installed_prereqs");
+    }
+
     /**
      * @return a {@link File} representing the test cases directory
      * @throws FileNotFoundException if dir does not exist
@@ -16,6 +16,7 @@
 package com.android.cts.tradefed.targetsetup;
 
 import com.android.cts.tradefed.testtype.PlanTest;
+import com.android.ddmlib.Log;
 import com.android.tradefed.config.ConfigurationException;
 import com.android.tradefed.config.IConfiguration;
 import com.android.tradefed.config.IConfigurationReceiver;
@@ -27,19 +28,44 @@ import com.android.tradefed.targetsetup.IFolderBuildInfo;
 import com.android.tradefed.targetsetup.ITargetPreparer;
 import com.android.tradefed.targetsetup.TargetSetupError;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A {@link ITargetPreparer} that sets up a device for CTS testing.
  * <p/>
  * All the actions performed in this class must work on a production device.
+ * <p/>
+ * The pre-requisite apks are only installed if they changed since CTS last installed them on the
+ * device, or if the device no longer has the apk file CTS installed.
  */
 public class CtsSetup implements ITargetPreparer, IConfigurationReceiver {
 
+    private static final String LOG_TAG = "CtsSetup";
+
     private static final String RUNNER_APK_NAME = "android.core.tests.runner.apk";
+    private static final String RUNNER_PACKAGE_NAME = "android.core.tests.runner";
     // TODO: read this from configuration file rather than hardcoding
     private static final String TEST_STUBS_APK = "CtsTestStubs.apk";
+    private static final String TEST_STUBS_PACKAGE_NAME = "com.android.cts.stub";
+
+    /** The digests of local apk files, by path. */
+    private static final Map<String, FileDigest> sFileDigests = new HashMap<String, FileDigest>();
 
     private IConfiguration mConfiguration = null;
 
@@ -78,7 +104,8 @@ public class CtsSetup implements ITargetPreparer, IConfigurationReceiver {
                     buildHelper.getTestCasesDir().getAbsolutePath());
             mConfiguration.injectOptionValue(PlanTest.TEST_PLANS_DIR_OPTION,
                     buildHelper.getTestPlansDir().getAbsolutePath());
-            installCtsPrereqs(device, buildHelper);
+            installCtsPrereqs(device, buildHelper,
+                    new InstalledPrereqs(buildHelper.getInstalledPrereqsDir()));
         } catch (FileNotFoundException e) {
             throw new TargetSetupError("Invalid CTS installation", e);
         } catch (ConfigurationException e) {
@@ -107,14 +134,162 @@ public class CtsSetup implements ITargetPreparer, IConfigurationReceiver {
 
     /**
      * Install pre-requisite apks for running tests
+     * <p/>
+     * Apks still installed on the device as recorded by a previous install are skipped. The
+     * others are installed concurrently.
      *
      * @throws TargetSetupError if the pre-requisite apks fail to install
      * @throws DeviceNotAvailableException
      * @throws FileNotFoundException
      */
-    private void installCtsPrereqs(ITestDevice device, CtsBuildHelper ctsBuild)
+    private void installCtsPrereqs(ITestDevice device, CtsBuildHelper ctsBuild,
+            InstalledPrereqs installed)
             throws DeviceNotAvailableException, TargetSetupError, FileNotFoundException {
-        installApk(device, ctsBuild.getTestApp(TEST_STUBS_APK));
-        installApk(device, ctsBuild.getTestApp(RUNNER_APK_NAME));
+        List<PrereqApk> apks = new ArrayList<PrereqApk>(2);
+        apks.add(new PrereqApk(ctsBuild.getTestApp(TEST_STUBS_APK), TEST_STUBS_PACKAGE_NAME));
+        apks.add(new PrereqApk(ctsBuild.getTestApp(RUNNER_APK_NAME), RUNNER_PACKAGE_NAME));
+
+        List<PrereqApk> apksToInstall = new ArrayList<PrereqApk>(apks.size());
+        for (PrereqApk apk : apks) {
+            if (installed.isInstalled(device, apk.mPackageName, apk.mFile, apk.mDigest)) {
+                Log.i(LOG_TAG, String.format("Skipping install of unchanged %s on device %s",
+                        apk.mFile.getName(), device.getSerialNumber()));
+            } else {
+                apksToInstall.add(apk);
+            }
+        }
+        if (apksToInstall.size() == 1) {
+            installPrereq(device, apksToInstall.get(0), installed);
+        } else if (apksToInstall.size() > 1) {
+            installPrereqsConcurrently(device, apksToInstall, installed);
+        }
+    }
+
+    /**
+     * A pre-requisite apk, with the digest of its file.
+     */
+    private static class PrereqApk {
+        final File mFile;
+        final String mPackageName;
+        /** the digest of the apk file, or null if it could not be computed */
+        final String mDigest;
+
+        PrereqApk(File file, String packageName) {
+            mFile = file;
+            mPackageName = packageName;
+            mDigest = getDigest(file);
+        }
+    }
+
+    /**
+     * Installs the given apks concurrently.
+     *
+     * @throws TargetSetupError if any of the apks fail to install
+     * @throws DeviceNotAvailableException
+     */
+    private void installPrereqsConcurrently(final ITestDevice device, List<PrereqApk> apks,
+            final InstalledPrereqs installed) throws DeviceNotAvailableException,
+            TargetSetupError {
+        ExecutorService executor = Executors.newFixedThreadPool(apks.size());
+        try {
+            List<Future<Void>> installs = new ArrayList<Future<Void>>(apks.size());
+            for (final PrereqApk apk : apks) {
+                installs.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws DeviceNotAvailableException, TargetSetupError {
+                        installPrereq(device, apk, installed);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> install : installs) {
+                install.get();
+            }
+        } catch (InterruptedException e) {
+            throw new TargetSetupError("Interrupted while installing CTS pre-requisites", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DeviceNotAvailableException) {
+                throw (DeviceNotAvailableException)cause;
+            } else if (cause instanceof TargetSetupError) {
+                throw (TargetSetupError)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new TargetSetupError("Failed to install CTS pre-requisites", cause);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Installs a pre-requisite apk, and records it for the next setup of the device.
+     */
+    private void installPrereq(ITestDevice device, PrereqApk apk, InstalledPrereqs installed)
+            throws DeviceNotAvailableException, TargetSetupError {
+        // forget the previous install, in case this one fails half way
+        installed.setInstalled(device, apk.mPackageName, apk.mFile, null);
+        installApk(device, apk.mFile);
+        installed.setInstalled(device, apk.mPackageName, apk.mFile, apk.mDigest);
+    }
+
+    /**
+     * The digest of a file, and the size and modification time the file had when it was
+     * computed.
+     */
+    private static class FileDigest {
+        final long mLength;
+        final long mLastModified;
+        final String mDigest;
+
+        FileDigest(long length, long lastModified, String digest) {
+            mLength = length;
+            mLastModified = lastModified;
+            mDigest = digest;
+        }
+    }
+
+    /**
+     * Gets the MD5 digest of a file, which is only recomputed if the file changed since.
+     *
+     * @return the hex digest, or <code>null</code> if it could not be computed
+     */
+    static String getDigest(File file) {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String path = file.getAbsolutePath();
+        synchronized (sFileDigests) {
+            FileDigest cached = sFileDigests.get(path);
+            if (cached != null && cached.mLength == length &&
+                    cached.mLastModified == lastModified) {
+                return cached.mDigest;
+            }
+        }
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            InputStream stream = new BufferedInputStream(new FileInputStream(file));
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    md5.update(buffer, 0, read);
+                }
+            } finally {
+                stream.close();
+            }
+            StringBuilder digest = new StringBuilder();
+            for (byte b : md5.digest()) {
+                digest.append(String.format("%02x", b & 0xff));
+            }
+            synchronized (sFileDigests) {
+                sFileDigests.put(path, new FileDigest(length, lastModified, digest.toString()));
+            }
+            return digest.toString();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to compute digest of %s", path));
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(LOG_TAG, "MD5 digests are not supported");
+            return null;
+        }
     }
 }
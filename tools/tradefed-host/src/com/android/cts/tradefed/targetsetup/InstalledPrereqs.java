@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.targetsetup;
+
+import com.android.ddmlib.Log;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Records the pre-requisite apks installed on each device across invocations, so unchanged apks
+ * are not installed again.
+ * <p/>
+ * An install is recorded with the digest of the host apk, and the identity of the apk file the
+ * device installed it to: its path, size and modification time as listed by ls. An apk is
+ * still installed if the host apk has the same digest, and the device still has the same apk
+ * file, with the size of the host apk. Installing the package again, from CTS or anywhere else,
+ * replaces the apk file on the device and so changes its identity.
+ */
+class InstalledPrereqs {
+
+    private static final String LOG_TAG = "InstalledPrereqs";
+
+    private static final String DIGEST_SUFFIX = ".digest";
+    private static final String IDENTITY_SUFFIX = ".identity";
+    private static final String PACKAGE_PATH_PREFIX = "package:";
+
+    /** Serializes the updates of concurrent installs to the record of a device. */
+    private static final Object sLock = new Object();
+
+    private final File mDir;
+
+    /**
+     * Creates a {@link InstalledPrereqs}.
+     *
+     * @param dir the directory to keep the records in
+     */
+    InstalledPrereqs(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * Checks if the apk of a package is still installed on the device as recorded.
+     *
+     * @param device the {@link ITestDevice}
+     * @param packageName the package name of the apk
+     * @param apkFile the host apk {@link File}
+     * @param digest the digest of the host apk, or null if it is unknown
+     * @return <code>true</code> if the apk is installed and unchanged
+     * @throws DeviceNotAvailableException
+     */
+    boolean isInstalled(ITestDevice device, String packageName, File apkFile, String digest)
+            throws DeviceNotAvailableException {
+        if (digest == null) {
+            return false;
+        }
+        Properties record;
+        synchronized (sLock) {
+            record = load(device.getSerialNumber());
+        }
+        if (!digest.equals(record.getProperty(packageName + DIGEST_SUFFIX))) {
+            return false;
+        }
+        String identity = getInstalledIdentity(device, packageName, apkFile);
+        return identity != null && identity.equals(record.getProperty(
+                packageName + IDENTITY_SUFFIX));
+    }
+
+    /**
+     * Records that the apk of a package was installed on the device, or that it no longer is.
+     *
+     * @param device the {@link ITestDevice}
+     * @param packageName the package name of the apk
+     * @param apkFile the host apk {@link File}
+     * @param digest the digest of the installed apk, or null to remove the record
+     * @throws DeviceNotAvailableException
+     */
+    void setInstalled(ITestDevice device, String packageName, File apkFile, String digest)
+            throws DeviceNotAvailableException {
+        String identity = digest == null ? null : getInstalledIdentity(device, packageName,
+                apkFile);
+        String serial = device.getSerialNumber();
+        synchronized (sLock) {
+            Properties record = load(serial);
+            if (identity != null) {
+                record.setProperty(packageName + DIGEST_SUFFIX, digest);
+                record.setProperty(packageName + IDENTITY_SUFFIX, identity);
+            } else {
+                record.remove(packageName + DIGEST_SUFFIX);
+                record.remove(packageName + IDENTITY_SUFFIX);
+            }
+            save(serial, record);
+        }
+    }
+
+    /**
+     * Gets the identity of the apk file installed on the device for a package, if it has the
+     * size of the host apk.
+     *
+     * @return the ls listing of the installed apk file, or null if the package is not installed
+     *         or its apk differs in size
+     * @throws DeviceNotAvailableException
+     */
+    private static String getInstalledIdentity(ITestDevice device, String packageName,
+            File apkFile) throws DeviceNotAvailableException {
+        String output = device.executeShellCommand(String.format("pm path %s", packageName));
+        if (output == null || !output.trim().startsWith(PACKAGE_PATH_PREFIX)) {
+            return null;
+        }
+        String path = output.trim().split("\\s+")[0].substring(PACKAGE_PATH_PREFIX.length());
+        String listing = device.executeShellCommand(String.format("ls -l %s", path));
+        if (listing == null || !listing.trim().startsWith("-")) {
+            return null;
+        }
+        listing = listing.trim();
+        // ls lists the size as a field of its own, wherever its output puts it
+        if (!Arrays.asList(listing.split("\\s+")).contains(Long.toString(apkFile.length()))) {
+            Log.i(LOG_TAG, String.format("Installed apk of %s differs in size from %s",
+                    packageName, apkFile.getName()));
+            return null;
+        }
+        return listing;
+    }
+
+    private Properties load(String serial) {
+        Properties record = new Properties();
+        File recordFile = getRecordFile(serial);
+        if (recordFile.exists()) {
+            try {
+                InputStream stream = new BufferedInputStream(new FileInputStream(recordFile));
+                try {
+                    record.load(stream);
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, String.format("Failed to read installed apks from %s",
+                        recordFile.getAbsolutePath()));
+                return new Properties();
+            }
+        }
+        return record;
+    }
+
+    private void save(String serial, Properties record) {
+        File recordFile = getRecordFile(serial);
+        mDir.mkdirs();
+        try {
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(recordFile));
+            try {
+                record.store(stream, "CTS pre-requisite apks installed on the device");
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to save installed apks to %s",
+                    recordFile.getAbsolutePath()));
+        }
+    }
+
+    private File getRecordFile(String serial) {
+        // serials of emulators and network devices contain characters file names can't
+        return new File(mDir, String.format("%s.properties",
+                serial.replaceAll("[^A-Za-z0-9._-]", "_")));
+    }
+}
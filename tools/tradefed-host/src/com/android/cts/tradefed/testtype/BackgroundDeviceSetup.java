@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.device.DeviceInfoCollector;
+import com.android.ddmlib.Log;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Does the device setup steps of a plan in the background, while the packages of the plan run
+ * on the device: collecting device info, and installing the apk of the next package.
+ * <p/>
+ * The steps run one after another on a single thread, so at most one of them overlaps with the
+ * running package. Results and {@link DeviceNotAvailableException}s of the steps are handed to
+ * the thread running the plan when it asks for them.
+ */
+class BackgroundDeviceSetup {
+
+    private static final String LOG_TAG = "BackgroundDeviceSetup";
+
+    private final ITestDevice mDevice;
+    private final ExecutorService mExecutor;
+
+    /** the device info collection, or null if it was not started */
+    private Future<Map<String, String>> mDeviceInfo = null;
+    /** the time in ms the device info collection took, or -1 until it completes */
+    private volatile long mDeviceInfoTime = -1;
+    /** the apk installs, by package uri, which result in the install time or -1 if they failed */
+    private final Map<String, Future<Long>> mInstalls = new HashMap<String, Future<Long>>();
+
+    /**
+     * Creates a {@link BackgroundDeviceSetup}.
+     *
+     * @param device the {@link ITestDevice} to set up
+     */
+    BackgroundDeviceSetup(ITestDevice device) {
+        mDevice = device;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "BackgroundDeviceSetup");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts collecting the device info.
+     *
+     * @param testApkDir the directory holding the device info collector apk
+     */
+    void startDeviceInfoCollection(final File testApkDir) {
+        mDeviceInfo = mExecutor.submit(new Callable<Map<String, String>>() {
+            public Map<String, String> call() throws DeviceNotAvailableException {
+                long startTime = System.currentTimeMillis();
+                Map<String, String> deviceInfo = DeviceInfoCollector.collectDeviceInfo(mDevice,
+                        testApkDir);
+                mDeviceInfoTime = System.currentTimeMillis() - startTime;
+                return deviceInfo;
+            }
+        });
+    }
+
+    /**
+     * @return true if the device info collection was started and has not been taken yet
+     */
+    boolean isCollectingDeviceInfo() {
+        return mDeviceInfo != null;
+    }
+
+    /**
+     * Takes the collected device info.
+     *
+     * @param wait whether to wait for the collection to complete
+     * @return the device info metrics, or <code>null</code> if the collection is not complete
+     *         or did not report any
+     * @throws DeviceNotAvailableException if the device went away during the collection
+     */
+    Map<String, String> takeDeviceInfo(boolean wait) throws DeviceNotAvailableException {
+        if (mDeviceInfo == null || (!wait && !mDeviceInfo.isDone())) {
+            return null;
+        }
+        Future<Map<String, String>> deviceInfo = mDeviceInfo;
+        mDeviceInfo = null;
+        return getResult(deviceInfo, null);
+    }
+
+    /**
+     * @return the time in ms the device info collection took, once its device info was taken
+     */
+    long getDeviceInfoTime() {
+        return mDeviceInfoTime;
+    }
+
+    /**
+     * Starts installing the apk of a package.
+     *
+     * @param uri the uri of the package
+     * @param apkFile the apk {@link File} to install
+     */
+    void startInstall(String uri, final File apkFile) {
+        mInstalls.put(uri, mExecutor.submit(new Callable<Long>() {
+            public Long call() throws DeviceNotAvailableException {
+                long startTime = System.currentTimeMillis();
+                String errorCode = mDevice.installPackage(apkFile, true);
+                if (errorCode != null) {
+                    Log.w(LOG_TAG, String.format("Failed to install %s ahead of its run: %s",
+                            apkFile.getName(), errorCode));
+                    return -1L;
+                }
+                return System.currentTimeMillis() - startTime;
+            }
+        }));
+    }
+
+    /**
+     * Waits for the apk of a package to be installed.
+     *
+     * @param uri the uri of the package
+     * @return the time in ms it took to install the apk, or -1 if its install was not started
+     *         or failed
+     * @throws DeviceNotAvailableException if the device went away during the install
+     */
+    long waitForInstall(String uri) throws DeviceNotAvailableException {
+        Future<Long> install = mInstalls.remove(uri);
+        if (install == null) {
+            return -1;
+        }
+        return getResult(install, -1L);
+    }
+
+    /**
+     * Stops the setup, abandoning the steps that did not start yet.
+     */
+    void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    private <T> T getResult(Future<T> future, T failedResult) throws DeviceNotAvailableException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failedResult;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DeviceNotAvailableException) {
+                throw (DeviceNotAvailableException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            Log.e(LOG_TAG, cause);
+            return failedResult;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.testtype.PlanCheckpoint.PackageResults;
+import com.android.cts.tradefed.testtype.PlanCheckpoint.TestRecord;
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.result.CollectingTestListener;
+import com.android.tradefed.result.ITestInvocationListener;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the completed tests of a package in a {@link PlanCheckpoint}, and forwards the test
+ * results to the invocation's listeners.
+ * <p/>
+ * When the package is resumed, the results recorded by the previous run are reported as part
+ * of the test run of the remaining tests, so the package shows up as one run in the results.
+ * <p/>
+ * If the apk of the package was installed before its test ran, the time the install took is
+ * added to the run metrics as {@link PlanTest#INSTALL_TIME_METRIC}.
+ * <p/>
+ * Only overrides the test run callbacks of {@link CollectingTestListener}; the invocation
+ * callbacks are not forwarded, since the listeners get them from the invocation itself.
+ */
+class CheckpointListener extends CollectingTestListener {
+
+    private final String mUri;
+    private final PlanCheckpoint mCheckpoint;
+    /** the results of the previous run of the package, or null if not resumed */
+    private final PackageResults mPreviousResults;
+    private final List<ITestInvocationListener> mListeners;
+
+    private boolean mRunStarted = false;
+    /** the time in ms it took to install the package's apk, or -1 if unknown */
+    private long mInstallTime = -1;
+    private TestFailure mFailure = null;
+    private String mStackTrace = null;
+
+    /**
+     * Creates a {@link CheckpointListener}.
+     *
+     * @param uri the uri of the package being run
+     * @param checkpoint the {@link PlanCheckpoint} to record the completed tests in
+     * @param previousResults the results of the previous run of the package, or
+     *            <code>null</code> if it is not resumed
+     * @param listeners the listeners to forward the results to
+     */
+    CheckpointListener(String uri, PlanCheckpoint checkpoint, PackageResults previousResults,
+            List<ITestInvocationListener> listeners) {
+        mUri = uri;
+        mCheckpoint = checkpoint;
+        mPreviousResults = previousResults;
+        mListeners = listeners;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunStarted(String runName, int testCount) {
+        mCheckpoint.runStarted(mUri, runName);
+        if (mRunStarted || mPreviousResults == null) {
+            mRunStarted = true;
+            for (ITestInvocationListener listener : mListeners) {
+                listener.testRunStarted(runName, testCount);
+            }
+            return;
+        }
+        mRunStarted = true;
+        int previousCount = mPreviousResults.getTests().size();
+        for (ITestInvocationListener listener : mListeners) {
+            listener.testRunStarted(runName, testCount + previousCount);
+        }
+        reportTests(mPreviousResults, mListeners);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(TestIdentifier test) {
+        mFailure = null;
+        mStackTrace = null;
+        for (ITestInvocationListener listener : mListeners) {
+            listener.testStarted(test);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testFailed(TestFailure status, TestIdentifier test, String trace) {
+        mFailure = status;
+        mStackTrace = trace;
+        for (ITestInvocationListener listener : mListeners) {
+            listener.testFailed(status, test, trace);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+        mCheckpoint.testEnded(mUri, test, mFailure, mStackTrace);
+        for (ITestInvocationListener listener : mListeners) {
+            listener.testEnded(test, testMetrics);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunFailed(String errorMessage) {
+        for (ITestInvocationListener listener : mListeners) {
+            listener.testRunFailed(errorMessage);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunStopped(long elapsedTime) {
+        for (ITestInvocationListener listener : mListeners) {
+            listener.testRunStopped(elapsedTime);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+        if (mInstallTime >= 0) {
+            runMetrics = new HashMap<String, String>(runMetrics);
+            runMetrics.put(PlanTest.INSTALL_TIME_METRIC, Long.toString(mInstallTime));
+        }
+        for (ITestInvocationListener listener : mListeners) {
+            listener.testRunEnded(elapsedTime, runMetrics);
+        }
+    }
+
+    /**
+     * Sets the time it took to install the package's apk, to report with the run metrics.
+     *
+     * @param installTime the install time in ms, or -1 if the apk was not installed
+     */
+    void setInstallTime(long installTime) {
+        mInstallTime = installTime;
+    }
+
+    /**
+     * Reports the previous results of the package if the test of the remaining tests did not
+     * start a run to report them in, e.g. because no tests remained.
+     *
+     * @param elapsedTime the elapsed time to report for the run
+     */
+    void finish(long elapsedTime) {
+        if (!mRunStarted && mPreviousResults != null) {
+            reportRun(mPreviousResults, elapsedTime, mListeners);
+        }
+    }
+
+    /**
+     * Reports the recorded results of a package as a test run.
+     *
+     * @param results the {@link PackageResults} to report
+     * @param elapsedTime the elapsed time to report for the run
+     * @param listeners the listeners to report to
+     */
+    static void reportRun(PackageResults results, long elapsedTime,
+            List<ITestInvocationListener> listeners) {
+        if (results.mRunName == null) {
+            return;
+        }
+        Map<String, String> emptyMap = Collections.emptyMap();
+        for (ITestInvocationListener listener : listeners) {
+            listener.testRunStarted(results.mRunName, results.getTests().size());
+        }
+        reportTests(results, listeners);
+        for (ITestInvocationListener listener : listeners) {
+            listener.testRunEnded(elapsedTime, emptyMap);
+        }
+    }
+
+    private static void reportTests(PackageResults results,
+            List<ITestInvocationListener> listeners) {
+        Map<String, String> emptyMap = Collections.emptyMap();
+        for (TestRecord record : results.getTests()) {
+            for (ITestInvocationListener listener : listeners) {
+                listener.testStarted(record.mTest);
+                if (record.mFailure != null) {
+                    listener.testFailed(record.mFailure, record.mTest, record.mStackTrace);
+                }
+                listener.testEnded(record.mTest, emptyMap);
+            }
+        }
+    }
+}
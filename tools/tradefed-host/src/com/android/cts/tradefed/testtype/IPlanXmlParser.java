@@ -39,4 +39,15 @@ interface IPlanXmlParser {
      * Must be called after {@link IPlanXmlParser#parse(InputStream)}.
      */
     public Collection<String> getTestUris();
+
+    /**
+     * Gets the names of the java packages, classes and tests excluded from a test uri of the
+     * plan, as listed in the exclude attribute of its entry.
+     * <p/>
+     * Must be called after {@link IPlanXmlParser#parse(InputStream)}.
+     *
+     * @param uri the test uri
+     * @return the excluded names, empty if none are
+     */
+    public Collection<String> getExcludedTests(String uri);
 }
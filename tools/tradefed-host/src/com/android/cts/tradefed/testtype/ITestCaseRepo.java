@@ -19,6 +19,7 @@ package com.android.cts.tradefed.testtype;
 import com.android.tradefed.testtype.IRemoteTest;
 
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Interface for accessing tests from the CTS repository.
@@ -33,4 +34,22 @@ interface ITestCaseRepo {
      */
     public Collection<IRemoteTest> getTests(Collection<String> testUris);
 
+    /**
+     * Gets the test package definition with the given uri.
+     *
+     * @param testUri the string uri
+     * @return the {@link ITestPackageDef} or <code>null</code> if there is no package with
+     *         given uri
+     */
+    public ITestPackageDef getTestPackage(String testUri);
+
+    /**
+     * Gets the test package definitions with the given uris.
+     *
+     * @param testUris the string uris
+     * @return a {@link List} of the {@link ITestPackageDef}s that could be found, in the order
+     *         of the uris
+     */
+    public List<ITestPackageDef> getTestPackages(Collection<String> testUris);
+
 }
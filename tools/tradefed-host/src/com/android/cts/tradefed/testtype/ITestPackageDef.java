@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.testtype.IRemoteTest;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * Container for CTS test info.
+ * <p/>
+ * Knows how to translate this info into a runnable {@link IRemoteTest}.
+ */
+interface ITestPackageDef {
+
+    /**
+     * Get the unique URI of the test package.
+     *
+     * @return the {@link String} uri
+     */
+    public String getUri();
+
+    /**
+     * Get the name of the test package, which is also the name of its test run.
+     *
+     * @return the {@link String} name
+     */
+    public String getName();
+
+    /**
+     * Get the name of the application package the test apk installs.
+     *
+     * @return the {@link String} package name
+     */
+    public String getAppNameSpace();
+
+    /**
+     * Get the apk the test of this package installs before running.
+     *
+     * @param testCaseDir {@link File} representing directory of test case data
+     * @return the apk {@link File}, or <code>null</code> if the test does not install an apk
+     */
+    public File getInstallFile(File testCaseDir);
+
+    /**
+     * Get the collection of tests in this test package.
+     *
+     * @return a {@link Collection} of {@link TestIdentifier}
+     */
+    public Collection<TestIdentifier> getTests();
+
+    /**
+     * Creates a runnable {@link IRemoteTest} from info stored in this definition.
+     *
+     * @param testCaseDir {@link File} representing directory of test case data
+     * @return a {@link IRemoteTest} with all necessary data populated to run the test or
+     *         <code>null</code> if test could not be created
+     */
+    public IRemoteTest createTest(File testCaseDir);
+
+    /**
+     * Creates a runnable {@link IRemoteTest} that only runs the given tests of this package.
+     *
+     * @param testCaseDir {@link File} representing directory of test case data
+     * @param tests the {@link TestIdentifier}s of the tests to run
+     * @return a {@link IRemoteTest} with all necessary data populated to run the tests or
+     *         <code>null</code> if test could not be created
+     */
+    public IRemoteTest createTest(File testCaseDir, Collection<TestIdentifier> tests);
+}
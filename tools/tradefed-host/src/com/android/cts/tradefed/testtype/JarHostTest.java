@@ -30,29 +30,89 @@ import com.android.tradefed.util.IRunUtil.IRunnableResult;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import junit.framework.AssertionFailedError;
 import junit.framework.Test;
 import junit.framework.TestCase;
+import junit.framework.TestListener;
 import junit.framework.TestResult;
 
 /**
  * A {@link IRemoteTest} that can run a set of JUnit tests from a jar.
+ * <p/>
+ * The classes of the jar are loaded by a single class loader per run, and the test classes and
+ * their constructors are only resolved once per run, no matter how many of their test methods
+ * are run.
+ * <p/>
+ * By default the tests are run one after another. Concurrent execution can be enabled per test
+ * class or per test with {@link #setConcurrency(Concurrency, int)}; the tests of classes
+ * annotated with {@link SerialHostTest} still run on their own. The results of concurrently run
+ * tests are reported to the listeners one test at a time, in the order of the tests of the run.
  */
 public class JarHostTest extends AbstractRemoteTest implements IDeviceTest {
 
     private static final String LOG_TAG = "JarHostTest";
 
+    /**
+     * The units in which tests may run concurrently.
+     */
+    enum Concurrency {
+        /** run all tests one after another */
+        NONE,
+        /** run the test classes concurrently, each class' tests one after another */
+        CLASS,
+        /** run all tests concurrently */
+        TEST
+    }
+
     private ITestDevice mDevice;
     private File mJarFile;
     private Collection<TestIdentifier> mTests;
     private long mTimeoutMs = 10 * 60 * 1000;
     private String mRunName;
     private String mTestAppPath;
+    private Concurrency mConcurrency = Concurrency.NONE;
+    private int mThreadCount = 1;
+
+    /** the class loader for the jar during a run, or null if no run is in progress */
+    private ClassLoader mClassLoader = null;
+    /**
+     * the resolved test classes of the current run, by class name. Classes that could not be
+     * loaded are mapped to null so they are only reported once.
+     */
+    private final Map<String, TestClassInfo> mTestClasses = new HashMap<String, TestClassInfo>();
+
+    /**
+     * A loaded test class and the constructor to create its tests with.
+     */
+    private static class TestClassInfo {
+        final Class<?> mClass;
+        final Constructor<?> mConstructor;
+        /** true if the constructor takes the test name, false if it takes no arguments */
+        final boolean mTakesName;
+
+        TestClassInfo(Class<?> testClass, Constructor<?> constructor, boolean takesName) {
+            mClass = testClass;
+            mConstructor = constructor;
+            mTakesName = takesName;
+        }
+    }
 
     /**
      * Set the jar file to load tests from.
@@ -82,6 +142,17 @@ public class JarHostTest extends AbstractRemoteTest implements IDeviceTest {
         mTimeoutMs = testTimeoutMs;
     }
 
+    /**
+     * Set if and how many tests may run concurrently.
+     *
+     * @param concurrency the {@link Concurrency} unit
+     * @param threadCount the max number of tests to run at a time
+     */
+    void setConcurrency(Concurrency concurrency, int threadCount) {
+        mConcurrency = concurrency;
+        mThreadCount = threadCount;
+    }
+
     /**
      * Set the run name to report to {@link ITestInvocationListener#testRunStarted(String, int)}
      *
@@ -145,13 +216,246 @@ public class JarHostTest extends AbstractRemoteTest implements IDeviceTest {
         junitResult.addListener(resultForwarder);
         long startTime = System.currentTimeMillis();
         reportRunStarted(listeners);
+        try {
+            if (mConcurrency == Concurrency.NONE || mThreadCount <= 1) {
+                for (TestIdentifier testId : mTests) {
+                    Test junitTest = loadTest(testId.getClassName(), testId.getTestName());
+                    if (junitTest != null) {
+                        runTest(testId, junitTest, junitResult);
+                    }
+                }
+            } else {
+                runConcurrently(resultForwarder);
+            }
+        } finally {
+            releaseClassLoader();
+        }
+        reportRunEnded(System.currentTimeMillis() - startTime, listeners);
+    }
+
+    /**
+     * Run the tests on a pool of {@link #mThreadCount} threads.
+     * <p/>
+     * All tests are loaded up front, since the class loading state is not thread safe. The
+     * tests are then split into units according to {@link #mConcurrency}, which run
+     * concurrently except for units of {@link SerialHostTest} classes, which wait for all
+     * preceding units to complete and run on their own.
+     *
+     * @param resultForwarder the {@link TestListener} forwarding to the invocation listeners
+     */
+    private void runConcurrently(TestListener resultForwarder) {
+        List<TestUnit> units = buildTestUnits();
+        ResultDispatcher dispatcher = new ResultDispatcher(resultForwarder);
+        ExecutorService executor = Executors.newFixedThreadPool(mThreadCount,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, String.format("%s-%s", LOG_TAG, mRunName));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        try {
+            List<Future<?>> pending = new ArrayList<Future<?>>();
+            for (TestUnit unit : units) {
+                unit.mDispatcher = dispatcher;
+                if (unit.mSerial) {
+                    waitForUnits(pending);
+                    unit.run();
+                } else {
+                    pending.add(executor.submit(unit));
+                }
+            }
+            waitForUnits(pending);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Load the tests of the run and group them into units to run concurrently.
+     * <p/>
+     * Each loaded test is numbered by its position among the loaded tests, which is the order its
+     * results are reported in.
+     *
+     * @return the {@link TestUnit}s, in the order of their first test
+     */
+    private List<TestUnit> buildTestUnits() {
+        // use a linked hashmap to keep the classes in the order of their first test
+        Map<String, TestUnit> classUnits = new LinkedHashMap<String, TestUnit>();
+        List<TestUnit> units = new ArrayList<TestUnit>();
+        int testIndex = 0;
         for (TestIdentifier testId : mTests) {
             Test junitTest = loadTest(testId.getClassName(), testId.getTestName());
-            if (junitTest != null) {
-                runTest(testId, junitTest, junitResult);
+            if (junitTest == null) {
+                continue;
+            }
+            boolean serial = junitTest.getClass().isAnnotationPresent(SerialHostTest.class);
+            TestUnit unit;
+            if (mConcurrency == Concurrency.CLASS) {
+                unit = classUnits.get(testId.getClassName());
+                if (unit == null) {
+                    unit = new TestUnit(serial);
+                    classUnits.put(testId.getClassName(), unit);
+                }
+            } else {
+                unit = new TestUnit(serial);
+                units.add(unit);
+            }
+            unit.mTestIndexes.add(testIndex++);
+            unit.mTestIds.add(testId);
+            unit.mTests.add(junitTest);
+        }
+        if (mConcurrency == Concurrency.CLASS) {
+            units.addAll(classUnits.values());
+        }
+        return units;
+    }
+
+    /**
+     * Wait until the given units have completed.
+     */
+    private void waitForUnits(List<Future<?>> pending) {
+        for (Future<?> future : pending) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, String.format("Failed to run tests of %s", mRunName));
+                Log.e(LOG_TAG, e);
+            } catch (InterruptedException e) {
+                Log.w(LOG_TAG, String.format("Interrupted while running tests of %s", mRunName));
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * A group of tests which run one after another on the same thread.
+     */
+    private class TestUnit implements Runnable {
+        final boolean mSerial;
+        /** the positions of the tests in the run */
+        final List<Integer> mTestIndexes = new ArrayList<Integer>();
+        final List<TestIdentifier> mTestIds = new ArrayList<TestIdentifier>();
+        final List<Test> mTests = new ArrayList<Test>();
+        ResultDispatcher mDispatcher;
+
+        TestUnit(boolean serial) {
+            mSerial = serial;
+        }
+
+        public void run() {
+            int i = 0;
+            try {
+                for (; i < mTests.size(); i++) {
+                    RecordingListener recorder = new RecordingListener();
+                    TestResult junitResult = new TestResult();
+                    junitResult.addListener(recorder);
+                    runTest(mTestIds.get(i), mTests.get(i), junitResult);
+                    // a test that timed out may still be running, drop whatever it reports later
+                    recorder.close();
+                    mDispatcher.testCompleted(mTestIndexes.get(i), recorder);
+                }
+            } finally {
+                // let the results of the following tests of other units through
+                for (; i < mTests.size(); i++) {
+                    mDispatcher.testCompleted(mTestIndexes.get(i), new RecordingListener());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports the results of the tests to the listeners in the order of the tests of the run, so
+     * the listeners see one test at a time no matter how the tests were grouped and run. The
+     * results of a test are held back until all tests before it have completed.
+     */
+    private static class ResultDispatcher {
+        private final TestListener mListener;
+        private final Map<Integer, RecordingListener> mCompleted =
+                new HashMap<Integer, RecordingListener>();
+        private int mNextIndex = 0;
+
+        ResultDispatcher(TestListener listener) {
+            mListener = listener;
+        }
+
+        synchronized void testCompleted(int index, RecordingListener result) {
+            mCompleted.put(index, result);
+            RecordingListener next;
+            while ((next = mCompleted.remove(mNextIndex)) != null) {
+                next.replay(mListener);
+                mNextIndex++;
+            }
+        }
+    }
+
+    /**
+     * A {@link TestListener} which keeps the results of a single test to replay them later.
+     */
+    private static class RecordingListener implements TestListener {
+        private enum EventType { START, ERROR, FAILURE, END }
+
+        private static class Event {
+            final EventType mType;
+            final Test mTest;
+            final Throwable mThrowable;
+
+            Event(EventType type, Test test, Throwable t) {
+                mType = type;
+                mTest = test;
+                mThrowable = t;
+            }
+        }
+
+        private final List<Event> mEvents = new ArrayList<Event>();
+        private boolean mClosed = false;
+
+        public void startTest(Test test) {
+            record(new Event(EventType.START, test, null));
+        }
+
+        public void addError(Test test, Throwable t) {
+            record(new Event(EventType.ERROR, test, t));
+        }
+
+        public void addFailure(Test test, AssertionFailedError t) {
+            record(new Event(EventType.FAILURE, test, t));
+        }
+
+        public void endTest(Test test) {
+            record(new Event(EventType.END, test, null));
+        }
+
+        private synchronized void record(Event event) {
+            if (!mClosed) {
+                mEvents.add(event);
+            }
+        }
+
+        synchronized void close() {
+            mClosed = true;
+        }
+
+        synchronized void replay(TestListener listener) {
+            for (Event event : mEvents) {
+                switch (event.mType) {
+                    case START:
+                        listener.startTest(event.mTest);
+                        break;
+                    case ERROR:
+                        listener.addError(event.mTest, event.mThrowable);
+                        break;
+                    case FAILURE:
+                        listener.addFailure(event.mTest, (AssertionFailedError)event.mThrowable);
+                        break;
+                    case END:
+                        listener.endTest(event.mTest);
+                        break;
+                }
             }
         }
-        reportRunEnded(System.currentTimeMillis() - startTime, listeners);
     }
 
     /**
@@ -218,47 +522,116 @@ public class JarHostTest extends AbstractRemoteTest implements IDeviceTest {
      * @return the loaded {@link Test} or <code>null</code> if test could not be loaded.
      */
     private Test loadTest(String className, String testName) {
+        TestClassInfo classInfo = getTestClass(className);
+        if (classInfo == null) {
+            return null;
+        }
         try {
-            URL urls[] = {mJarFile.getCanonicalFile().toURI().toURL()};
-            Class<?> testClass = loadClass(className, urls);
-
-            if (TestCase.class.isAssignableFrom(testClass)) {
-                TestCase testCase = (TestCase)testClass.newInstance();
-                testCase.setName(testName);
-                return testCase;
-            } else if (Test.class.isAssignableFrom(testClass)) {
-                Test test = (Test)testClass.newInstance();
-                return test;
+            if (classInfo.mTakesName) {
+                return (Test)classInfo.mConstructor.newInstance(testName);
+            }
+            Test test = (Test)classInfo.mConstructor.newInstance();
+            if (test instanceof TestCase) {
+                ((TestCase)test).setName(testName);
+            }
+            return test;
+        } catch (IllegalAccessException e) {
+            reportLoadError(mJarFile, className, e);
+        } catch (InstantiationException e) {
+            reportLoadError(mJarFile, className, e);
+        } catch (InvocationTargetException e) {
+            reportLoadError(mJarFile, className, e);
+        }
+        return null;
+    }
+
+    /**
+     * Get the test class with the given name, loading it from the jar on first use in the run.
+     *
+     * @param className
+     * @return the {@link TestClassInfo} or <code>null</code> if class could not be loaded.
+     */
+    private TestClassInfo getTestClass(String className) {
+        if (mTestClasses.containsKey(className)) {
+            return mTestClasses.get(className);
+        }
+        TestClassInfo classInfo = null;
+        try {
+            if (mClassLoader == null) {
+                URL urls[] = {mJarFile.getCanonicalFile().toURI().toURL()};
+                mClassLoader = createClassLoader(urls);
+            }
+            Class<?> testClass = loadClass(className, mClassLoader);
+            if (Test.class.isAssignableFrom(testClass)) {
+                classInfo = resolveConstructor(testClass);
             } else {
                 Log.e(LOG_TAG, String.format("Class '%s' from jar '%s' is not a Test",
                         className, mJarFile.getAbsolutePath()));
             }
         } catch (ClassNotFoundException e) {
             reportLoadError(mJarFile, className, e);
-        } catch (IllegalAccessException e) {
-            reportLoadError(mJarFile, className, e);
         } catch (IOException e) {
             reportLoadError(mJarFile, className, e);
-        } catch (InstantiationException e) {
+        } catch (NoSuchMethodException e) {
             reportLoadError(mJarFile, className, e);
         }
-        return null;
+        mTestClasses.put(className, classInfo);
+        return classInfo;
     }
 
     /**
-     * Loads a class from given URLs.
+     * Find the constructor to create tests of the given class with, following the JUnit
+     * convention of preferring a constructor that takes the test name for {@link TestCase}s.
+     *
+     * @param testClass
+     * @return the {@link TestClassInfo}
+     * @throws NoSuchMethodException if the class has no suitable public constructor
+     */
+    private TestClassInfo resolveConstructor(Class<?> testClass) throws NoSuchMethodException {
+        if (TestCase.class.isAssignableFrom(testClass)) {
+            try {
+                return new TestClassInfo(testClass, testClass.getConstructor(String.class),
+                        true);
+            } catch (NoSuchMethodException e) {
+                // fall back to the no argument constructor and setName
+            }
+        }
+        return new TestClassInfo(testClass, testClass.getConstructor(), false);
+    }
+
+    /**
+     * Drop the class loader and the classes loaded for the run, so they can be garbage
+     * collected along with their static state.
+     */
+    private void releaseClassLoader() {
+        mTestClasses.clear();
+        mClassLoader = null;
+    }
+
+    /**
+     * Creates the class loader for the jar.
      * <p/>
      * Exposed so unit tests can mock
      *
-     * @param className
      * @param urls
+     * @return the {@link ClassLoader}
+     */
+    ClassLoader createClassLoader(URL[] urls) {
+        return new URLClassLoader(urls);
+    }
+
+    /**
+     * Loads a class with the given class loader.
+     * <p/>
+     * Exposed so unit tests can mock
+     *
+     * @param className
+     * @param classLoader
      * @return
      * @throws ClassNotFoundException
      */
-    Class<?> loadClass(String className, URL[] urls) throws ClassNotFoundException {
-        URLClassLoader cl = new URLClassLoader(urls);
-        Class<?> testClass = cl.loadClass(className);
-        return testClass;
+    Class<?> loadClass(String className, ClassLoader classLoader) throws ClassNotFoundException {
+        return classLoader.loadClass(className);
     }
 
     private void reportLoadError(File jarFile, String className, Exception e) {
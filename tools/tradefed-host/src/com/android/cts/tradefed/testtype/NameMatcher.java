@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Matches the names of packages, classes and tests against a set of patterns.
+ * <p/>
+ * A pattern without wildcards matches the named item and everything in it, i.e. names that
+ * continue it with a '.' or '#', so "android.app" matches "android.app.cts.FooTest#testBar".
+ * A '*' in a pattern matches any characters.
+ * <p/>
+ * Names without wildcards are kept in a hash set and looked up for each '.' or '#' separated
+ * prefix of a name, and patterns that only end in '*' are kept in a prefix trie walked once per
+ * name, so matching does not depend on the number of patterns. Other wildcard patterns are
+ * matched one by one.
+ */
+class NameMatcher {
+
+    private static final char WILDCARD = '*';
+
+    private final Set<String> mNames = new HashSet<String>();
+    private final TrieNode mPrefixes = new TrieNode();
+    private final List<Pattern> mPatterns = new ArrayList<Pattern>();
+    private boolean mEmpty = true;
+
+    /**
+     * A node of the prefix trie.
+     */
+    private static class TrieNode {
+        /** whether a prefix ends at this node */
+        boolean mIsPrefix = false;
+        Map<Character, TrieNode> mChildren = null;
+
+        TrieNode getChild(char c) {
+            return mChildren == null ? null : mChildren.get(c);
+        }
+
+        TrieNode addChild(char c) {
+            if (mChildren == null) {
+                mChildren = new HashMap<Character, TrieNode>();
+            }
+            TrieNode child = mChildren.get(c);
+            if (child == null) {
+                child = new TrieNode();
+                mChildren.put(c, child);
+            }
+            return child;
+        }
+    }
+
+    /**
+     * Adds a pattern.
+     *
+     * @param pattern the name of a package, class or test, optionally with '*' wildcards
+     */
+    void add(String pattern) {
+        mEmpty = false;
+        int wildcard = pattern.indexOf(WILDCARD);
+        if (wildcard < 0) {
+            mNames.add(pattern);
+        } else if (wildcard == pattern.length() - 1) {
+            TrieNode node = mPrefixes;
+            for (int i = 0; i < wildcard; i++) {
+                node = node.addChild(pattern.charAt(i));
+            }
+            node.mIsPrefix = true;
+        } else {
+            StringBuilder regex = new StringBuilder();
+            String[] parts = pattern.split("\\*", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    regex.append(".*");
+                }
+                if (parts[i].length() > 0) {
+                    regex.append(Pattern.quote(parts[i]));
+                }
+            }
+            mPatterns.add(Pattern.compile(regex.toString()));
+        }
+    }
+
+    /**
+     * @return true if no patterns were added
+     */
+    boolean isEmpty() {
+        return mEmpty;
+    }
+
+    /**
+     * Checks whether a name, or an item it is in, matches any of the patterns.
+     *
+     * @param name the name of a package, class or test as &lt;class&gt;#&lt;method&gt;
+     * @return true if the name matches
+     */
+    boolean matches(String name) {
+        if (mEmpty) {
+            return false;
+        }
+        TrieNode node = mPrefixes;
+        for (int i = 0; node != null; i++) {
+            if (node.mIsPrefix) {
+                return true;
+            }
+            if (i == name.length()) {
+                break;
+            }
+            node = node.getChild(name.charAt(i));
+        }
+        if (mNames.isEmpty() && mPatterns.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c == '.' || c == '#') && matchesExactly(name.substring(0, i))) {
+                return true;
+            }
+        }
+        return matchesExactly(name);
+    }
+
+    private boolean matchesExactly(String name) {
+        if (mNames.contains(name)) {
+            return true;
+        }
+        for (Pattern pattern : mPatterns) {
+            if (pattern.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
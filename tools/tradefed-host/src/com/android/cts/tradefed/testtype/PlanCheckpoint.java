@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.testrunner.ITestRunListener.TestFailure;
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The completion state of a run of a CTS plan, which lets an interrupted run be resumed.
+ * <p/>
+ * The state is kept in a file as one line per completed test or package, which is appended to
+ * and flushed as the run goes, so it survives the host or the invocation dying at any point.
+ */
+class PlanCheckpoint {
+
+    private static final String LOG_TAG = "PlanCheckpoint";
+
+    private static final String RUN_RECORD = "run";
+    private static final String TEST_RECORD = "test";
+    private static final String PACKAGE_RECORD = "package";
+    private static final String PASSED = "PASSED";
+
+    private final File mFile;
+    private Writer mWriter = null;
+
+    /** the results of the packages, by uri */
+    private final Map<String, PackageResults> mPackages = new HashMap<String, PackageResults>();
+
+    /**
+     * The recorded results of a test package.
+     */
+    static class PackageResults {
+        /** the name of the test run of the package, or null if it never started */
+        String mRunName = null;
+        /** the elapsed time of the completed package in ms, or -1 if not completed */
+        long mElapsedTime = -1;
+        final Map<TestIdentifier, TestRecord> mTests =
+                new LinkedHashMap<TestIdentifier, TestRecord>();
+
+        boolean isComplete() {
+            return mElapsedTime >= 0;
+        }
+
+        Collection<TestRecord> getTests() {
+            return mTests.values();
+        }
+    }
+
+    /**
+     * The recorded result of a completed test.
+     */
+    static class TestRecord {
+        final TestIdentifier mTest;
+        /** the failure status of the test, or null if it passed */
+        final TestFailure mFailure;
+        final String mStackTrace;
+
+        TestRecord(TestIdentifier test, TestFailure failure, String stackTrace) {
+            mTest = test;
+            mFailure = failure;
+            mStackTrace = stackTrace;
+        }
+    }
+
+    /**
+     * Creates a {@link PlanCheckpoint}.
+     *
+     * @param file the file to keep the state in
+     */
+    PlanCheckpoint(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Loads the state recorded by a previous run.
+     * <p/>
+     * A truncated last line, as left by a run that died while writing it, is ignored.
+     */
+    synchronized void load() throws IOException {
+        if (!mFile.exists()) {
+            Log.i(LOG_TAG, String.format("No checkpoint to resume from at %s",
+                    mFile.getAbsolutePath()));
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(mFile));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                parseRecord(line);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void parseRecord(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length == 3 && RUN_RECORD.equals(fields[0])) {
+            getResults(fields[1]).mRunName = unescape(fields[2]);
+        } else if (fields.length == 5 && TEST_RECORD.equals(fields[0])) {
+            int separator = fields[2].lastIndexOf('#');
+            if (separator < 0) {
+                return;
+            }
+            TestIdentifier test = new TestIdentifier(fields[2].substring(0, separator),
+                    fields[2].substring(separator + 1));
+            TestFailure failure = null;
+            if (!PASSED.equals(fields[3])) {
+                try {
+                    failure = TestFailure.valueOf(fields[3]);
+                } catch (IllegalArgumentException e) {
+                    return;
+                }
+            }
+            getResults(fields[1]).mTests.put(test, new TestRecord(test, failure,
+                    unescape(fields[4])));
+        } else if (fields.length == 3 && PACKAGE_RECORD.equals(fields[0])) {
+            try {
+                getResults(fields[1]).mElapsedTime = Long.parseLong(fields[2]);
+            } catch (NumberFormatException e) {
+                // truncated record
+            }
+        }
+    }
+
+    private PackageResults getResults(String uri) {
+        PackageResults results = mPackages.get(uri);
+        if (results == null) {
+            results = new PackageResults();
+            mPackages.put(uri, results);
+        }
+        return results;
+    }
+
+    /**
+     * Opens the checkpoint file for recording, keeping the loaded state.
+     * <p/>
+     * If the file can't be written, the run goes on without recording its state.
+     */
+    synchronized void open() {
+        try {
+            // start over unless resuming, in which case the loaded records are kept
+            boolean append = !mPackages.isEmpty();
+            mWriter = new BufferedWriter(new FileWriter(mFile, append));
+            if (append) {
+                // terminate a truncated last record
+                mWriter.write('\n');
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to open checkpoint %s, run can't be resumed",
+                    mFile.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * Gets the recorded results of a package.
+     *
+     * @return the {@link PackageResults} or <code>null</code> if none of it was recorded
+     */
+    synchronized PackageResults getPackageResults(String uri) {
+        return mPackages.get(uri);
+    }
+
+    /**
+     * Records the name of the test run of a package.
+     */
+    synchronized void runStarted(String uri, String runName) {
+        PackageResults results = getResults(uri);
+        if (results.mRunName == null) {
+            results.mRunName = runName;
+            write(RUN_RECORD, uri, escape(runName));
+        }
+    }
+
+    /**
+     * Records a completed test of a package.
+     *
+     * @param failure the failure status of the test, or null if it passed
+     */
+    synchronized void testEnded(String uri, TestIdentifier test, TestFailure failure,
+            String stackTrace) {
+        getResults(uri).mTests.put(test, new TestRecord(test, failure, stackTrace));
+        write(TEST_RECORD, uri, String.format("%s#%s", test.getClassName(), test.getTestName()),
+                failure == null ? PASSED : failure.name(), escape(stackTrace));
+    }
+
+    /**
+     * Records that all tests of a package completed.
+     */
+    synchronized void packageEnded(String uri, long elapsedTime) {
+        getResults(uri).mElapsedTime = elapsedTime;
+        write(PACKAGE_RECORD, uri, Long.toString(elapsedTime));
+    }
+
+    private void write(String... fields) {
+        if (mWriter == null) {
+            return;
+        }
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    mWriter.write('\t');
+                }
+                mWriter.write(fields[i]);
+            }
+            mWriter.write('\n');
+            mWriter.flush();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to write checkpoint %s, run can't be resumed",
+                    mFile.getAbsolutePath()));
+            close();
+        }
+    }
+
+    /**
+     * Closes the checkpoint file, keeping it for resuming the run.
+     */
+    synchronized void close() {
+        if (mWriter != null) {
+            try {
+                mWriter.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mWriter = null;
+        }
+    }
+
+    /**
+     * Closes and deletes the checkpoint file, once the run completed.
+     */
+    synchronized void delete() {
+        close();
+        if (mFile.exists() && !mFile.delete()) {
+            Log.w(LOG_TAG, String.format("Failed to delete checkpoint %s",
+                    mFile.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * Escapes the characters which separate fields and records.
+     */
+    static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': builder.append("\\\\"); break;
+                case '\t': builder.append("\\t"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                default: builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reverts {@link #escape(String)}.
+     */
+    static String unescape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 't': builder.append('\t'); break;
+                    case 'n': builder.append('\n'); break;
+                    case 'r': builder.append('\r'); break;
+                    default: builder.append(next);
+                }
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the test packages of a plan into shards of about the same run time.
+ * <p/>
+ * The run time of a package is estimated from its duration in previous runs, or for packages
+ * that have not run before, from its number of tests and the average time per test of the
+ * packages that have. Packages are then assigned longest first to the shard with the least
+ * estimated run time so far.
+ * <p/>
+ * The split only depends on the packages and durations given. As the shards of a run save new
+ * durations when they finish, the invocations running the shards of a plan share the split
+ * through a {@link ShardAssignment} rather than each splitting the plan on its own.
+ */
+class PlanSharder {
+
+    private final int mShardCount;
+    private final List<PackageInfo> mPackages = new ArrayList<PackageInfo>();
+
+    private static class PackageInfo {
+        final String mUri;
+        final int mNumTests;
+        /** the duration of the previous run in ms, or -1 if unknown */
+        final long mDuration;
+        long mCost;
+        int mShard;
+
+        PackageInfo(String uri, int numTests, long duration) {
+            mUri = uri;
+            mNumTests = numTests;
+            mDuration = duration;
+        }
+    }
+
+    /**
+     * Creates a {@link PlanSharder}.
+     *
+     * @param shardCount the number of shards to split the plan into
+     */
+    PlanSharder(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shard count must be at least 1");
+        }
+        mShardCount = shardCount;
+    }
+
+    /**
+     * Adds the next package of the plan.
+     *
+     * @param uri the package uri
+     * @param numTests the number of tests in the package
+     * @param duration the duration in ms of the previous run of the package, or -1 if unknown
+     */
+    void addPackage(String uri, int numTests, long duration) {
+        mPackages.add(new PackageInfo(uri, numTests, duration));
+    }
+
+    /**
+     * Gets the number of shards.
+     */
+    int getShardCount() {
+        return mShardCount;
+    }
+
+    /**
+     * Gets the shard of each package.
+     *
+     * @return the shard index by package uri, in the order the packages were added
+     */
+    Map<String, Integer> getShards() {
+        assignShards();
+        Map<String, Integer> shards = new LinkedHashMap<String, Integer>();
+        for (PackageInfo pkg : mPackages) {
+            shards.put(pkg.mUri, pkg.mShard);
+        }
+        return shards;
+    }
+
+    /**
+     * Gets the packages of a shard.
+     *
+     * @param shardIndex the index of the shard, from 0 to shard count - 1
+     * @return the uris of the packages in the shard, in the order they were added
+     */
+    List<String> getShard(int shardIndex) {
+        if (shardIndex < 0 || shardIndex >= mShardCount) {
+            throw new IllegalArgumentException(String.format(
+                    "shard index %d is not in range 0 to %d", shardIndex, mShardCount - 1));
+        }
+        assignShards();
+        List<String> uris = new ArrayList<String>();
+        for (PackageInfo pkg : mPackages) {
+            if (pkg.mShard == shardIndex) {
+                uris.add(pkg.mUri);
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * Assigns each package to a shard.
+     */
+    private void assignShards() {
+        estimateCosts();
+        List<PackageInfo> byCost = new ArrayList<PackageInfo>(mPackages);
+        Collections.sort(byCost, new Comparator<PackageInfo>() {
+            public int compare(PackageInfo pkg1, PackageInfo pkg2) {
+                if (pkg1.mCost != pkg2.mCost) {
+                    return pkg1.mCost > pkg2.mCost ? -1 : 1;
+                }
+                return pkg1.mUri.compareTo(pkg2.mUri);
+            }
+        });
+        long[] shardCosts = new long[mShardCount];
+        for (PackageInfo pkg : byCost) {
+            int shard = 0;
+            for (int i = 1; i < mShardCount; i++) {
+                if (shardCosts[i] < shardCosts[shard]) {
+                    shard = i;
+                }
+            }
+            pkg.mShard = shard;
+            shardCosts[shard] += pkg.mCost;
+        }
+    }
+
+    /**
+     * Estimates the run time of each package.
+     */
+    private void estimateCosts() {
+        long knownDuration = 0;
+        long knownTests = 0;
+        for (PackageInfo pkg : mPackages) {
+            if (pkg.mDuration >= 0) {
+                knownDuration += pkg.mDuration;
+                knownTests += pkg.mNumTests;
+            }
+        }
+        // without any history, all tests count the same
+        long timePerTest = (knownTests > 0) ? Math.max(1, knownDuration / knownTests) : 1;
+        for (PackageInfo pkg : mPackages) {
+            pkg.mCost = (pkg.mDuration >= 0) ? pkg.mDuration : pkg.mNumTests * timePerTest;
+        }
+    }
+}
@@ -16,8 +16,10 @@
 
 package com.android.cts.tradefed.testtype;
 
+import com.android.cts.tradefed.device.DeviceInfoCache;
 import com.android.cts.tradefed.device.DeviceInfoCollector;
 import com.android.ddmlib.Log;
+import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.config.Option;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
@@ -25,20 +27,52 @@ import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.testtype.AbstractRemoteTest;
 import com.android.tradefed.testtype.IDeviceTest;
 import com.android.tradefed.testtype.IRemoteTest;
+import com.android.tradefed.testtype.InstrumentationTest;
 import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 
 import junit.framework.Test;
 
 /**
  * A {@link Test} that runs all the tests in the CTS test plan with given name
+ * <p/>
+ * A plan can be split into shards that run on several devices at the same time, by running one
+ * invocation per device with the same --shard-count and a different --shard-index. The shards
+ * are balanced by the durations of the packages in previous runs, which are kept in the test
+ * case directory. The first shard to start stores the split in the test case directory, and the
+ * other shards of the run use the same split, whatever durations were saved in the meantime.
+ * <p/>
+ * The completed tests and packages of a run are recorded in a checkpoint file in the test case
+ * directory as the run goes. If the run is interrupted, running the plan again with --resume
+ * skips the completed packages, only runs the remaining tests of the package that was
+ * interrupted, and reports the results recorded by the interrupted run along with the new ones.
+ * <p/>
+ * The tests of the plan can be narrowed down with --include and --exclude patterns, on top of
+ * the exclude list of each plan entry. Instrumentation packages only run their selected tests,
+ * so a few classes or methods can be rerun without running their whole package.
+ * <p/>
+ * The device info is kept in the test case directory, and only collected again once the device
+ * gets a new build. With --overlap-device-setup, device info is collected while the first
+ * package runs, and the apk of each instrumentation package is installed while the package
+ * before it runs. The time the device info collection took is reported as the elapsed time of
+ * the device info run, and the time each apk took to install is reported as the
+ * {@link #INSTALL_TIME_METRIC} run metric of its package.
  */
 public class PlanTest extends AbstractRemoteTest implements IDeviceTest, IRemoteTest {
 
@@ -46,6 +80,21 @@ public class PlanTest extends AbstractRemoteTest implements IDeviceTest, IRemote
 
     public static final String TEST_CASES_DIR_OPTION = "test-cases-path";
     public static final String TEST_PLANS_DIR_OPTION = "test-plans-path";
+    public static final String HOST_TEST_CONCURRENCY_OPTION = "host-test-concurrency";
+    public static final String SHARD_COUNT_OPTION = "shard-count";
+    public static final String SHARD_INDEX_OPTION = "shard-index";
+    public static final String RESUME_OPTION = "resume";
+
+    /**
+     * run metric holding the time in ms it took to install the apk of a package before its test
+     * ran
+     */
+    public static final String INSTALL_TIME_METRIC = "cts_install_time";
+
+    /** file in the test case directory holding the durations of previous package runs */
+    static final String PACKAGE_DURATIONS_FILE_NAME = "package_durations.properties";
+    /** directory in the test case directory holding the device info of previous runs */
+    static final String DEVICE_INFO_CACHE_DIR_NAME = "device_info_cache";
 
     private ITestDevice mDevice;
 
@@ -60,6 +109,41 @@ public class PlanTest extends AbstractRemoteTest implements IDeviceTest, IRemote
         "file path to directory containing CTS test plans")
     private File mTestPlanDir = null;
 
+    @Option(name = HOST_TEST_CONCURRENCY_OPTION, description =
+        "run host-side tests concurrently per 'class' or per 'test', or 'none' to run them " +
+        "one after another")
+    private String mHostTestConcurrency = "none";
+
+    @Option(name = "host-test-threads", description =
+        "the max number of host-side tests to run at a time when running them concurrently")
+    private int mHostTestThreads = 4;
+
+    @Option(name = SHARD_COUNT_OPTION, description =
+        "the number of shards to split the plan into, each run by its own invocation")
+    private int mShardCount = 1;
+
+    @Option(name = SHARD_INDEX_OPTION, description =
+        "the shard of the plan to run, from 0 to shard-count - 1")
+    private int mShardIndex = 0;
+
+    @Option(name = RESUME_OPTION, description =
+        "resume the plan from where a previous, interrupted run of it stopped")
+    private boolean mResume = false;
+
+    @Option(name = "overlap-device-setup", description =
+        "collect device info and install the apk of the next package while a package runs. " +
+        "Only enable for devices that can install apks while running tests")
+    private boolean mOverlapDeviceSetup = false;
+
+    @Option(name = "include", description =
+        "run only the packages, classes and tests matching this pattern. A pattern is a " +
+        "package uri, java package, class or <class>#<method>, where '*' matches any characters")
+    private Collection<String> mIncludes = new ArrayList<String>();
+
+    @Option(name = "exclude", description =
+        "don't run the packages, classes and tests matching this pattern, as for --include")
+    private Collection<String> mExcludes = new ArrayList<String>();
+
     /**
      * {@inheritDoc}
      */
@@ -101,6 +185,43 @@ public class PlanTest extends AbstractRemoteTest implements IDeviceTest, IRemote
         mPlanName = planName;
     }
 
+    /**
+     * Set whether to resume the plan from the checkpoint of a previous run.
+     * <p/>
+     * Exposed for unit testing
+     */
+    void setResume(boolean resume) {
+        mResume = resume;
+    }
+
+    /**
+     * Add a pattern of the tests to run.
+     * <p/>
+     * Exposed for unit testing
+     */
+    void addInclude(String pattern) {
+        mIncludes.add(pattern);
+    }
+
+    /**
+     * Add a pattern of the tests not to run.
+     * <p/>
+     * Exposed for unit testing
+     */
+    void addExclude(String pattern) {
+        mExcludes.add(pattern);
+    }
+
+    /**
+     * Set the shard of the plan to run.
+     * <p/>
+     * Exposed for unit testing
+     */
+    void setShard(int shardIndex, int shardCount) {
+        mShardIndex = shardIndex;
+        mShardCount = shardCount;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -118,6 +239,7 @@ public class PlanTest extends AbstractRemoteTest implements IDeviceTest, IRemote
         if (mTestPlanDir == null) {
             throw new IllegalArgumentException(String.format("missing %s", TEST_PLANS_DIR_OPTION));
         }
+        JarHostTest.Concurrency hostTestConcurrency = getHostTestConcurrency();
 
         Log.i(LOG_TAG, String.format("Executing CTS test plan %s", mPlanName));
 
@@ -126,15 +248,49 @@ public class PlanTest extends AbstractRemoteTest implements IDeviceTest, IRemote
             File ctsPlanFile = new File(mTestPlanDir, ctsPlanRelativePath);
             IPlanXmlParser parser = createXmlParser();
             parser.parse(createXmlStream(ctsPlanFile));
-            Collection<String> testUris = parser.getTestUris();
             ITestCaseRepo testRepo = createTestCaseRepo();
-            Collection<IRemoteTest> tests = testRepo.getTests(testUris);
-            collectDeviceInfo(getDevice(), mTestCaseDir, listeners);
-            for (IRemoteTest test : tests) {
-                if (test instanceof IDeviceTest) {
-                    ((IDeviceTest)test).setDevice(getDevice());
+            ShardAssignment shardAssignment = mShardCount > 1 ? createShardAssignment() : null;
+            List<ITestPackageDef> packages = getTestPackages(testRepo, parser,
+                    loadPackageDurations(), shardAssignment);
+            PlanCheckpoint checkpoint = createCheckpoint();
+            BackgroundDeviceSetup setup = mOverlapDeviceSetup ?
+                    new BackgroundDeviceSetup(getDevice()) : null;
+            Properties durations = new Properties();
+            boolean completed = false;
+            try {
+                DeviceInfoCache deviceInfoCache = new DeviceInfoCache(new File(mTestCaseDir,
+                        DEVICE_INFO_CACHE_DIR_NAME));
+                String fingerprint = DeviceInfoCollector.getBuildFingerprint(getDevice());
+                collectDeviceInfo(deviceInfoCache, fingerprint, setup, listeners);
+                for (int i = 0; i < packages.size(); i++) {
+                    if (setup != null && i + 1 < packages.size()) {
+                        installAhead(packages.get(i + 1), checkpoint, setup);
+                    }
+                    runPackage(packages.get(i), checkpoint, setup, hostTestConcurrency,
+                            durations, listeners);
+                    if (setup != null) {
+                        reportDeviceInfo(setup.takeDeviceInfo(false), setup.getDeviceInfoTime(),
+                                deviceInfoCache, fingerprint, listeners);
+                    }
+                }
+                if (setup != null && setup.isCollectingDeviceInfo()) {
+                    reportDeviceInfo(setup.takeDeviceInfo(true), setup.getDeviceInfoTime(),
+                            deviceInfoCache, fingerprint, listeners);
+                }
+                completed = true;
+            } finally {
+                if (setup != null) {
+                    setup.shutdown();
+                }
+                savePackageDurations(durations);
+                if (completed) {
+                    if (shardAssignment != null) {
+                        shardAssignment.shardCompleted(mShardIndex);
+                    }
+                    checkpoint.delete();
+                } else {
+                    checkpoint.close();
                 }
-                test.run(listeners);
             }
         } catch (FileNotFoundException e) {
             throw new IllegalArgumentException("failed to find CTS plan file", e);
@@ -144,15 +300,375 @@ public class PlanTest extends AbstractRemoteTest implements IDeviceTest, IRemote
     }
 
     /**
-     * Runs the device info collector instrumentation on device, and forwards it to test listeners
-     * as run metrics.
+     * Runs the tests of a package, or the tests that did not complete in the previous run when
+     * resuming.
+     *
+     * @param testPackage the {@link ITestPackageDef} to run
+     * @param checkpoint the {@link PlanCheckpoint} to record the completed tests in
+     * @param setup the {@link BackgroundDeviceSetup} that may have installed the package's apk,
+     *            or null if device setup is not done in the background. Otherwise the apk is
+     *            installed right before the test runs
+     * @param hostTestConcurrency the concurrency of host-side tests
+     * @param durations the durations of the packages run, to add the package to
+     * @param listeners the {@link ITestInvocationListener}s to report results to
+     */
+    private void runPackage(ITestPackageDef testPackage, PlanCheckpoint checkpoint,
+            BackgroundDeviceSetup setup, JarHostTest.Concurrency hostTestConcurrency,
+            Properties durations, List<ITestInvocationListener> listeners)
+            throws DeviceNotAvailableException {
+        String uri = testPackage.getUri();
+        PlanCheckpoint.PackageResults previousResults = checkpoint.getPackageResults(uri);
+        if (previousResults != null && previousResults.isComplete()) {
+            Log.i(LOG_TAG, String.format("Skipping completed package %s", uri));
+            CheckpointListener.reportRun(previousResults, previousResults.mElapsedTime,
+                    listeners);
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        CheckpointListener checkpointListener = new CheckpointListener(uri, checkpoint,
+                previousResults, listeners);
+        IRemoteTest test = null;
+        if (previousResults == null) {
+            test = testPackage.createTest(mTestCaseDir);
+        } else {
+            Collection<TestIdentifier> remainingTests = new ArrayList<TestIdentifier>();
+            for (TestIdentifier testId : testPackage.getTests()) {
+                if (!previousResults.mTests.containsKey(testId)) {
+                    remainingTests.add(testId);
+                }
+            }
+            Log.i(LOG_TAG, String.format("Resuming package %s: %d of %d tests remaining", uri,
+                    remainingTests.size(), testPackage.getTests().size()));
+            if (!remainingTests.isEmpty()) {
+                test = testPackage.createTest(mTestCaseDir, remainingTests);
+            }
+        }
+        long installTime = setup != null ? setup.waitForInstall(uri) : -1;
+        if (installTime < 0 && test instanceof InstrumentationTest) {
+            installTime = installPackage(testPackage);
+        }
+        boolean installed = installTime >= 0;
+        checkpointListener.setInstallTime(installTime);
+        if (test != null) {
+            if (test instanceof IDeviceTest) {
+                ((IDeviceTest)test).setDevice(getDevice());
+            }
+            if (installed && test instanceof InstrumentationTest) {
+                ((InstrumentationTest)test).setInstallFile(null);
+            }
+            if (test instanceof JarHostTest) {
+                ((JarHostTest)test).setConcurrency(hostTestConcurrency, mHostTestThreads);
+            }
+            List<ITestInvocationListener> testListeners = new ArrayList<ITestInvocationListener>(1);
+            testListeners.add(checkpointListener);
+            try {
+                test.run(testListeners);
+            } finally {
+                if (installed) {
+                    uninstallPackage(testPackage);
+                }
+            }
+        } else if (previousResults == null) {
+            Log.w(LOG_TAG, String.format("Failed to create test from package uri %s", uri));
+            if (installed) {
+                uninstallPackage(testPackage);
+            }
+            return;
+        }
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        checkpointListener.finish(elapsedTime);
+        checkpoint.packageEnded(uri, elapsedTime);
+        durations.setProperty(uri, Long.toString(elapsedTime));
+    }
+
+    /**
+     * Starts installing the apk of a package in the background, unless it has none or was
+     * completed by the run being resumed.
+     */
+    private void installAhead(ITestPackageDef testPackage, PlanCheckpoint checkpoint,
+            BackgroundDeviceSetup setup) {
+        PlanCheckpoint.PackageResults previousResults = checkpoint.getPackageResults(
+                testPackage.getUri());
+        if (previousResults != null && previousResults.isComplete()) {
+            return;
+        }
+        File apkFile = testPackage.getInstallFile(mTestCaseDir);
+        if (apkFile != null && apkFile.exists()) {
+            setup.startInstall(testPackage.getUri(), apkFile);
+        }
+    }
+
+    /**
+     * Installs the apk of a package, timing the install.
+     *
+     * @return the time in ms it took to install the apk, or -1 if it has none or its install
+     *         failed, in which case the test installs it and reports the failure itself
+     * @throws DeviceNotAvailableException
+     */
+    private long installPackage(ITestPackageDef testPackage) throws DeviceNotAvailableException {
+        File apkFile = testPackage.getInstallFile(mTestCaseDir);
+        if (apkFile == null || !apkFile.exists()) {
+            return -1;
+        }
+        long startTime = System.currentTimeMillis();
+        String errorCode = getDevice().installPackage(apkFile, true);
+        if (errorCode != null) {
+            Log.w(LOG_TAG, String.format("Failed to install %s: %s", apkFile.getName(),
+                    errorCode));
+            return -1;
+        }
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Uninstalls the apk of a package that was installed before its test ran, as its test would
+     * have if it installed the apk itself.
+     */
+    private void uninstallPackage(ITestPackageDef testPackage)
+            throws DeviceNotAvailableException {
+        String errorCode = getDevice().uninstallPackage(testPackage.getAppNameSpace());
+        if (errorCode != null) {
+            Log.w(LOG_TAG, String.format("Failed to uninstall %s: %s",
+                    testPackage.getAppNameSpace(), errorCode));
+        }
+    }
+
+    /**
+     * Creates the {@link PlanCheckpoint} of this run, loading the state of the previous run
+     * when resuming.
+     */
+    private PlanCheckpoint createCheckpoint() {
+        String fileName = mShardCount > 1 ?
+                String.format("%s_shard_%03d.checkpoint", mPlanName, mShardIndex) :
+                String.format("%s.checkpoint", mPlanName);
+        PlanCheckpoint checkpoint = new PlanCheckpoint(new File(mTestCaseDir, fileName));
+        if (mResume) {
+            try {
+                checkpoint.load();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, String.format("Failed to read checkpoint %s, running whole plan",
+                        fileName));
+            }
+        }
+        checkpoint.open();
+        return checkpoint;
+    }
+
+    /**
+     * Creates the {@link ShardAssignment} shared by the shards of a run of the plan.
+     */
+    private ShardAssignment createShardAssignment() {
+        return new ShardAssignment(new File(mTestCaseDir, String.format("%s.shards",
+                mPlanName)));
+    }
+
+    /**
+     * Gets the test packages to run, which are the packages of the given shard if the plan is
+     * sharded. Only the selected tests of the packages are run, and packages without any are
+     * left out before sharding.
      *
+     * @param testRepo the {@link ITestCaseRepo} to look up packages in
+     * @param parser the {@link IPlanXmlParser} of the plan
+     * @param durations the durations of previous package runs
+     * @param shardAssignment the {@link ShardAssignment} of the run, or null if the plan is not
+     *            sharded
+     * @return the {@link ITestPackageDef}s to run, in plan order
+     */
+    private List<ITestPackageDef> getTestPackages(ITestCaseRepo testRepo, IPlanXmlParser parser,
+            Properties durations, ShardAssignment shardAssignment) {
+        List<ITestPackageDef> packages = filterTestPackages(
+                testRepo.getTestPackages(parser.getTestUris()), parser);
+        if (shardAssignment == null) {
+            return packages;
+        }
+
+        PlanSharder sharder = new PlanSharder(mShardCount);
+        for (ITestPackageDef testPackage : packages) {
+            sharder.addPackage(testPackage.getUri(), testPackage.getTests().size(),
+                    getDuration(durations, testPackage.getUri()));
+        }
+        Set<String> shardUris = new HashSet<String>(shardAssignment.getShard(sharder,
+                mShardIndex));
+        List<ITestPackageDef> shardPackages = new ArrayList<ITestPackageDef>(shardUris.size());
+        for (ITestPackageDef testPackage : packages) {
+            if (shardUris.contains(testPackage.getUri())) {
+                shardPackages.add(testPackage);
+            }
+        }
+        Log.i(LOG_TAG, String.format("Running shard %d of %d: %d of %d packages",
+                mShardIndex, mShardCount, shardPackages.size(), packages.size()));
+        return shardPackages;
+    }
+
+    /**
+     * Selects the tests to run of each package by the include and exclude patterns, and the
+     * exclude list of its plan entry.
+     *
+     * @return the packages with selected tests, only running those tests
+     */
+    private List<ITestPackageDef> filterTestPackages(List<ITestPackageDef> packages,
+            IPlanXmlParser parser) {
+        TestFilter filter = new TestFilter();
+        for (String include : mIncludes) {
+            filter.addInclude(include);
+        }
+        for (String exclude : mExcludes) {
+            filter.addExclude(exclude);
+        }
+        List<ITestPackageDef> filteredPackages = new ArrayList<ITestPackageDef>(packages.size());
+        for (ITestPackageDef testPackage : packages) {
+            Collection<String> excludedTests = parser.getExcludedTests(testPackage.getUri());
+            ITestPackageDef filteredPackage = filter.withExcludes(excludedTests).filter(
+                    testPackage);
+            if (filteredPackage == null) {
+                Log.i(LOG_TAG, String.format("Skipping package %s, none of its tests selected",
+                        testPackage.getUri()));
+            } else {
+                if (filteredPackage != testPackage) {
+                    Log.i(LOG_TAG, String.format("Running %d of %d tests of package %s",
+                            filteredPackage.getTests().size(), testPackage.getTests().size(),
+                            testPackage.getUri()));
+                }
+                filteredPackages.add(filteredPackage);
+            }
+        }
+        return filteredPackages;
+    }
+
+    /**
+     * Gets the duration of the previous run of a package.
+     *
+     * @return the duration in ms, or -1 if unknown
+     */
+    private static long getDuration(Properties durations, String uri) {
+        String duration = durations.getProperty(uri);
+        if (duration != null) {
+            try {
+                return Long.parseLong(duration);
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, String.format("Ignoring invalid duration %s of package %s",
+                        duration, uri));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Loads the durations of previous package runs.
+     *
+     * @return the durations by package uri, which are empty if none were recorded
+     */
+    private Properties loadPackageDurations() {
+        Properties durations = new Properties();
+        File durationsFile = new File(mTestCaseDir, PACKAGE_DURATIONS_FILE_NAME);
+        if (durationsFile.exists()) {
+            try {
+                InputStream stream = new BufferedInputStream(new FileInputStream(durationsFile));
+                try {
+                    durations.load(stream);
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, String.format("Failed to read package durations from %s",
+                        durationsFile.getAbsolutePath()));
+            }
+        }
+        return durations;
+    }
+
+    /**
+     * Saves the durations of the package runs, for balancing the shards of later runs.
+     * <p/>
+     * Shards of a plan that run at the same time each add the durations of their packages to
+     * the saved ones. Shards starting later in the same run keep the split stored by the
+     * {@link ShardAssignment}, so the new durations only balance the next runs. Saves that race
+     * may lose some durations, which only affects how well the next runs are balanced.
+     *
+     * @param durations the durations of the packages run by this invocation
+     */
+    private void savePackageDurations(Properties durations) {
+        if (durations.isEmpty()) {
+            return;
+        }
+        File durationsFile = new File(mTestCaseDir, PACKAGE_DURATIONS_FILE_NAME);
+        // pick up the durations saved by other shards since this run started
+        Properties merged = loadPackageDurations();
+        merged.putAll(durations);
+        try {
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(durationsFile));
+            try {
+                merged.store(stream, "durations of CTS test package runs in ms");
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to save package durations to %s",
+                    durationsFile.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * Parses the {@link #HOST_TEST_CONCURRENCY_OPTION} option.
+     *
+     * @return the {@link JarHostTest.Concurrency}
+     */
+    private JarHostTest.Concurrency getHostTestConcurrency() {
+        try {
+            return JarHostTest.Concurrency.valueOf(mHostTestConcurrency.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("invalid %s option %s",
+                    HOST_TEST_CONCURRENCY_OPTION, mHostTestConcurrency));
+        }
+    }
+
+    /**
+     * Forwards the device info to test listeners as run metrics. Reports the cached device info
+     * if it was collected on the device's current build, otherwise runs the device info
+     * collector instrumentation on device, in the background if a setup is given.
+     *
+     * @param cache the {@link DeviceInfoCache}
+     * @param fingerprint the build fingerprint of the device
+     * @param setup the {@link BackgroundDeviceSetup} to collect the device info in, or null to
+     *            collect it right away
      * @param listeners
      * @throws DeviceNotAvailableException
      */
-    private void collectDeviceInfo(ITestDevice device, File testApkDir,
-            List<ITestInvocationListener> listeners) throws DeviceNotAvailableException {
-        DeviceInfoCollector.collectDeviceInfo(device, testApkDir, listeners);
+    private void collectDeviceInfo(DeviceInfoCache cache, String fingerprint,
+            BackgroundDeviceSetup setup, List<ITestInvocationListener> listeners)
+            throws DeviceNotAvailableException {
+        Map<String, String> cachedInfo = cache.get(getDevice().getSerialNumber(), fingerprint);
+        if (cachedInfo != null) {
+            Log.i(LOG_TAG, String.format("Using device info collected earlier on build %s",
+                    fingerprint));
+            DeviceInfoCollector.reportDeviceInfo(cachedInfo, 0, listeners);
+        } else if (setup != null) {
+            setup.startDeviceInfoCollection(mTestCaseDir);
+        } else {
+            long startTime = System.currentTimeMillis();
+            Map<String, String> deviceInfo = DeviceInfoCollector.collectDeviceInfo(getDevice(),
+                    mTestCaseDir);
+            reportDeviceInfo(deviceInfo, System.currentTimeMillis() - startTime, cache,
+                    fingerprint, listeners);
+        }
+    }
+
+    /**
+     * Forwards collected device info to test listeners as run metrics, with the time the
+     * collection took as the elapsed time of the run, and caches it for the next runs on the
+     * same build.
+     *
+     * @param deviceInfo the collected device info metrics, or null if none were collected
+     * @param collectionTime the time in ms the collection took
+     */
+    private void reportDeviceInfo(Map<String, String> deviceInfo, long collectionTime,
+            DeviceInfoCache cache, String fingerprint, List<ITestInvocationListener> listeners) {
+        if (deviceInfo == null) {
+            return;
+        }
+        cache.put(getDevice().getSerialNumber(), fingerprint, deviceInfo);
+        DeviceInfoCollector.reportDeviceInfo(deviceInfo, collectionTime, listeners);
     }
 
     /**
@@ -22,8 +22,12 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -31,7 +35,12 @@ import java.util.Set;
  */
 class PlanXmlParser extends AbstractXmlParser implements IPlanXmlParser {
 
+    /** separates the names in the exclude attribute of an entry */
+    private static final String EXCLUDE_SEPARATOR = ";";
+
     private Set<String> mUris;
+    /** the excluded test names of the entries that have any, by uri */
+    private Map<String, Collection<String>> mExcludedTests;
 
     /**
      * SAX callback object. Handles parsing data from the xml tags.
@@ -46,6 +55,11 @@ class PlanXmlParser extends AbstractXmlParser implements IPlanXmlParser {
             if (ENTRY_TAG.equals(localName)) {
                 final String entryUriValue = attributes.getValue("uri");
                 mUris.add(entryUriValue);
+                final String excludeValue = attributes.getValue("exclude");
+                if (excludeValue != null && excludeValue.length() > 0) {
+                    mExcludedTests.put(entryUriValue,
+                            Arrays.asList(excludeValue.split(EXCLUDE_SEPARATOR)));
+                }
             }
         }
     }
@@ -53,6 +67,7 @@ class PlanXmlParser extends AbstractXmlParser implements IPlanXmlParser {
     PlanXmlParser() {
         // Uses a LinkedHashSet to have predictable iteration order
         mUris = new LinkedHashSet<String>();
+        mExcludedTests = new HashMap<String, Collection<String>>();
     }
 
     /**
@@ -62,6 +77,17 @@ class PlanXmlParser extends AbstractXmlParser implements IPlanXmlParser {
         return mUris;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<String> getExcludedTests(String uri) {
+        Collection<String> excludedTests = mExcludedTests.get(uri);
+        if (excludedTests == null) {
+            return Collections.emptyList();
+        }
+        return excludedTests;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * The split of a sharded run of a CTS plan, shared by the invocations running its shards.
+ * <p/>
+ * The first shard to start splits the plan with the package durations known at that time, and
+ * stores the split in a file. The other shards of the run reuse the stored split, even if shards
+ * that finished earlier have saved new package durations since, so every package runs in
+ * exactly one shard. A shard records in the file when it completes; once it starts again, a new
+ * run begins and the plan is split anew. The plan is also split anew when its packages or the
+ * number of shards changed.
+ */
+class ShardAssignment {
+
+    private static final String LOG_TAG = "ShardAssignment";
+
+    private static final String SHARD_COUNT_KEY = "shard-count";
+    private static final String COMPLETED_KEY = "completed-shards";
+    private static final String PACKAGE_KEY_PREFIX = "package.";
+
+    /**
+     * Serializes the access of invocations in this process, which a {@link FileLock} does not
+     * do.
+     */
+    private static final Object sLock = new Object();
+
+    private final File mFile;
+
+    /**
+     * Creates a {@link ShardAssignment}.
+     *
+     * @param file the file to keep the split in
+     */
+    ShardAssignment(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Gets the packages of a shard, from the stored split of the current run, or from the
+     * given {@link PlanSharder} if a new run starts.
+     *
+     * @param sharder the {@link PlanSharder} holding the packages of the plan
+     * @param shardIndex the index of the shard
+     * @return the uris of the packages in the shard, in plan order
+     */
+    List<String> getShard(PlanSharder sharder, int shardIndex) {
+        Map<String, Integer> shards;
+        synchronized (sLock) {
+            FileLock lock = lock();
+            try {
+                Properties stored = load();
+                shards = getStoredShards(stored, sharder, shardIndex);
+                if (shards == null) {
+                    shards = sharder.getShards();
+                    save(createSplit(shards, sharder.getShardCount()));
+                }
+            } finally {
+                unlock(lock);
+            }
+        }
+        List<String> uris = new ArrayList<String>();
+        for (Map.Entry<String, Integer> entry : shards.entrySet()) {
+            if (entry.getValue() == shardIndex) {
+                uris.add(entry.getKey());
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * Records that a shard completed the current run.
+     *
+     * @param shardIndex the index of the shard
+     */
+    void shardCompleted(int shardIndex) {
+        synchronized (sLock) {
+            FileLock lock = lock();
+            try {
+                Properties stored = load();
+                if (stored.getProperty(SHARD_COUNT_KEY) == null) {
+                    return;
+                }
+                TreeSet<Integer> completed = getCompletedShards(stored);
+                completed.add(shardIndex);
+                StringBuilder value = new StringBuilder();
+                for (Integer index : completed) {
+                    if (value.length() > 0) {
+                        value.append(',');
+                    }
+                    value.append(index);
+                }
+                stored.setProperty(COMPLETED_KEY, value.toString());
+                save(stored);
+            } finally {
+                unlock(lock);
+            }
+        }
+    }
+
+    /**
+     * Gets the stored split if it belongs to a run that the shard is part of.
+     *
+     * @return the shard index by package uri in plan order, or null if a new run starts
+     */
+    private Map<String, Integer> getStoredShards(Properties stored, PlanSharder sharder,
+            int shardIndex) {
+        String shardCount = stored.getProperty(SHARD_COUNT_KEY);
+        if (shardCount == null
+                || !shardCount.equals(Integer.toString(sharder.getShardCount()))
+                || getCompletedShards(stored).contains(shardIndex)) {
+            return null;
+        }
+        Map<String, Integer> shards = new LinkedHashMap<String, Integer>();
+        for (String uri : sharder.getShards().keySet()) {
+            String index = stored.getProperty(PACKAGE_KEY_PREFIX + uri);
+            if (index == null) {
+                return null;
+            }
+            try {
+                shards.put(uri, Integer.parseInt(index));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        int packageCount = 0;
+        for (String key : stored.stringPropertyNames()) {
+            if (key.startsWith(PACKAGE_KEY_PREFIX)) {
+                packageCount++;
+            }
+        }
+        return packageCount == shards.size() ? shards : null;
+    }
+
+    private static Properties createSplit(Map<String, Integer> shards, int shardCount) {
+        Properties split = new Properties();
+        split.setProperty(SHARD_COUNT_KEY, Integer.toString(shardCount));
+        for (Map.Entry<String, Integer> entry : shards.entrySet()) {
+            split.setProperty(PACKAGE_KEY_PREFIX + entry.getKey(), entry.getValue().toString());
+        }
+        return split;
+    }
+
+    private static TreeSet<Integer> getCompletedShards(Properties stored) {
+        TreeSet<Integer> completed = new TreeSet<Integer>();
+        String value = stored.getProperty(COMPLETED_KEY);
+        if (value != null) {
+            for (String index : value.split(",")) {
+                try {
+                    completed.add(Integer.parseInt(index.trim()));
+                } catch (NumberFormatException e) {
+                    // ignore
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Loads the stored split.
+     *
+     * @return the stored split, which is empty if there is none or it can't be read
+     */
+    private Properties load() {
+        Properties stored = new Properties();
+        if (mFile.exists()) {
+            try {
+                InputStream stream = new BufferedInputStream(new FileInputStream(mFile));
+                try {
+                    stored.load(stream);
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, String.format("Failed to read shards from %s",
+                        mFile.getAbsolutePath()));
+                return new Properties();
+            }
+        }
+        return stored;
+    }
+
+    private void save(Properties split) {
+        try {
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(mFile));
+            try {
+                split.store(stream, "packages of each shard of a CTS plan run");
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to save shards to %s",
+                    mFile.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * Locks the split against invocations in other processes.
+     *
+     * @return the {@link FileLock}, or null if the lock could not be taken
+     */
+    private FileLock lock() {
+        File lockFile = new File(mFile.getPath() + ".lock");
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(lockFile, "rw");
+            return file.getChannel().lock();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to lock %s", mFile.getAbsolutePath()));
+        } catch (OverlappingFileLockException e) {
+            Log.w(LOG_TAG, String.format("%s is already locked", mFile.getAbsolutePath()));
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        return null;
+    }
+
+    private static void unlock(FileLock lock) {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.release();
+            lock.channel().close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -19,65 +19,265 @@ import com.android.ddmlib.Log;
 import com.android.tradefed.testtype.IRemoteTest;
 import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
 
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
 /**
  * Retrieves CTS test case definitions from the repository.
+ * <p/>
+ * Test case definitions are only parsed when they are needed. To find the xml file of a uri,
+ * the repository keeps an index of the uri of each xml file, which is saved in the test case
+ * directory and only updated for the files that changed since. Parsed definitions are reparsed
+ * when their file changes.
  */
 class TestCaseRepo implements ITestCaseRepo {
 
     private static final String LOG_TAG = "TestCaseRepo";
 
+    /** file in the test case directory holding the index of uris to xml files */
+    static final String INDEX_FILE_NAME = "test_case_index.properties";
+
+    /** the number of definitions to parse at which parsing is done in parallel */
+    private static final int PARALLEL_PARSE_THRESHOLD = 4;
+
     private File mTestCaseDir;
 
-    /** mapping of uri to test definition */
-    private Map<String, TestPackageDef> mTestMap;
+    /** mapping of uri to xml file, or null until the repository is first used */
+    private Map<String, IndexEntry> mIndex = null;
+
+    /** mapping of uri to parsed test definition */
+    private final Map<String, ParsedDef> mTestMap = new HashMap<String, ParsedDef>();
+
+    /**
+     * The xml file holding the test definition of a uri.
+     */
+    private static class IndexEntry {
+        final String mUri;
+        final File mFile;
+        /** the modification time of the file when it was indexed */
+        final long mLastModified;
+
+        IndexEntry(String uri, File file, long lastModified) {
+            mUri = uri;
+            mFile = file;
+            mLastModified = lastModified;
+        }
+    }
+
+    /**
+     * A parsed test definition.
+     */
+    private static class ParsedDef {
+        final TestPackageDef mDef;
+        /** the modification time of the file when it was parsed */
+        final long mLastModified;
+
+        ParsedDef(TestPackageDef def, long lastModified) {
+            mDef = def;
+            mLastModified = lastModified;
+        }
+    }
 
     /**
-     * Creates a {@link TestCaseRepo}, initialized from provided repo files
+     * Creates a {@link TestCaseRepo}, for the provided repo files
      *
      * @param testCaseDir directory containing all test case definition xml and build files
      */
     public TestCaseRepo(File testCaseDir) {
         mTestCaseDir = testCaseDir;
-        mTestMap = new Hashtable<String, TestPackageDef>();
-        parse(mTestCaseDir);
     }
 
     /**
-     * Builds mTestMap based on directory contents
+     * Gets the index of uris to xml files, building it on first use.
+     * <p/>
+     * Files whose modification time matches the saved index are not read. Other files are
+     * only read up to the uri of their test package.
      */
-    private void parse(File dir) {
-        File[] xmlFiles = dir.listFiles(new XmlFilter());
+    private synchronized Map<String, IndexEntry> getIndex() {
+        if (mIndex != null) {
+            return mIndex;
+        }
+        File indexFile = new File(mTestCaseDir, INDEX_FILE_NAME);
+        Properties savedIndex = loadIndex(indexFile);
+        Properties newIndex = new Properties();
+        mIndex = new HashMap<String, IndexEntry>();
+        File[] xmlFiles = mTestCaseDir.listFiles(new XmlFilter());
+        if (xmlFiles == null) {
+            Log.e(LOG_TAG, String.format("Could not read test case directory %s",
+                    mTestCaseDir.getAbsolutePath()));
+            return mIndex;
+        }
         for (File xmlFile : xmlFiles) {
-            parseTestFromXml(xmlFile);
+            long lastModified = xmlFile.lastModified();
+            String uri = null;
+            String savedEntry = savedIndex.getProperty(xmlFile.getName());
+            if (savedEntry != null) {
+                // entries are saved as "<last modified> <uri>"
+                int separator = savedEntry.indexOf(' ');
+                if (separator > 0 && savedEntry.substring(0, separator).equals(
+                        Long.toString(lastModified))) {
+                    uri = savedEntry.substring(separator + 1);
+                }
+            }
+            if (uri == null) {
+                uri = readUri(xmlFile);
+            }
+            if (uri != null) {
+                mIndex.put(uri, new IndexEntry(uri, xmlFile, lastModified));
+                newIndex.setProperty(xmlFile.getName(), String.format("%d %s", lastModified,
+                        uri));
+            }
+        }
+        if (!newIndex.equals(savedIndex)) {
+            saveIndex(indexFile, newIndex);
+        }
+        return mIndex;
+    }
+
+    /**
+     * Loads the saved index.
+     *
+     * @return the index entries by file name, which are empty if there is no saved index
+     */
+    private Properties loadIndex(File indexFile) {
+        Properties index = new Properties();
+        if (indexFile.exists()) {
+            try {
+                InputStream stream = new BufferedInputStream(new FileInputStream(indexFile));
+                try {
+                    index.load(stream);
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, String.format("Failed to read test case index %s",
+                        indexFile.getAbsolutePath()));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Saves the index, so later runs only need to read the files that changed.
+     */
+    private void saveIndex(File indexFile, Properties index) {
+        try {
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(indexFile));
+            try {
+                index.store(stream, "uris of the CTS test case xml files");
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to save test case index %s",
+                    indexFile.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * Reads the uri of the test package defined in the given xml file, without parsing the
+     * rest of the file.
+     *
+     * @return the uri or <code>null</code> if the file does not define a test package
+     */
+    private String readUri(File xmlFile) {
+        UriHandler handler = new UriHandler();
+        try {
+            InputStream stream = new BufferedInputStream(new FileInputStream(xmlFile));
+            try {
+                SAXParserFactory factory = SAXParserFactory.newInstance();
+                factory.setNamespaceAware(true);
+                factory.newSAXParser().parse(stream, handler);
+            } finally {
+                stream.close();
+            }
+        } catch (UriFoundException e) {
+            return handler.mUri;
+        } catch (SAXException e) {
+            Log.e(LOG_TAG, String.format("Failed to parse test case xml file %s",
+                    xmlFile.getAbsolutePath()));
+            Log.e(LOG_TAG, e);
+            return null;
+        } catch (ParserConfigurationException e) {
+            Log.e(LOG_TAG, e);
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, String.format("Could not read test case xml file %s",
+                    xmlFile.getAbsolutePath()));
+            Log.e(LOG_TAG, e);
+            return null;
+        }
+        Log.w(LOG_TAG, String.format("Could not find test package info in xml file %s",
+                xmlFile.getAbsolutePath()));
+        return null;
+    }
+
+    /**
+     * Thrown to stop parsing once the uri has been read.
+     */
+    @SuppressWarnings("serial")
+    private static class UriFoundException extends SAXException {
+        UriFoundException() {
+            super("uri found");
+        }
+    }
+
+    /**
+     * SAX callback object which reads the uri of the test package, i.e. its appPackageName.
+     */
+    private static class UriHandler extends DefaultHandler {
+        String mUri = null;
+
+        @Override
+        public void startElement(String uri, String localName, String name, Attributes attributes)
+                throws SAXException {
+            if ("TestPackage".equals(localName)) {
+                mUri = attributes.getValue("appPackageName");
+                throw new UriFoundException();
+            }
         }
     }
 
     /**
      * @param xmlFile
-     * @throws ParseException
+     * @return the {@link TestPackageDef} or <code>null</code> if the file could not be parsed
      */
-    private void parseTestFromXml(File xmlFile)  {
+    private TestPackageDef parseTestFromXml(File xmlFile)  {
         TestPackageXmlParser parser = new TestPackageXmlParser();
         try {
             parser.parse(createStreamFromFile(xmlFile));
             TestPackageDef def = parser.getTestPackageDef();
-            if (def != null) {
-                mTestMap.put(def.getUri(), def);
-            } else {
+            if (def == null) {
                 Log.w(LOG_TAG, String.format("Could not find test package info in xml file %s",
                         xmlFile.getAbsolutePath()));
             }
+            return def;
         } catch (FileNotFoundException e) {
             Log.e(LOG_TAG, String.format("Could not find test case xml file %s",
                     xmlFile.getAbsolutePath()));
@@ -87,6 +287,7 @@ class TestCaseRepo implements ITestCaseRepo {
                     xmlFile.getAbsolutePath()));
             Log.e(LOG_TAG, e);
         }
+        return null;
     }
 
     /**
@@ -112,24 +313,129 @@ class TestCaseRepo implements ITestCaseRepo {
         }
     }
 
+    /**
+     * Gets the parsed test definitions with the given uris, parsing the ones that have not
+     * been parsed yet or whose file changed since.
+     *
+     * @param testUris the uris
+     * @return the {@link TestPackageDef}s of the uris that could be found, in the order of
+     *         the uris
+     */
+    private List<TestPackageDef> getDefs(Collection<String> testUris) {
+        Map<String, IndexEntry> index = getIndex();
+        List<IndexEntry> toParse = new ArrayList<IndexEntry>();
+        synchronized (mTestMap) {
+            for (String uri : testUris) {
+                IndexEntry entry = index.get(uri);
+                if (entry == null) {
+                    Log.w(LOG_TAG, String.format("Could not find test with uri %s", uri));
+                    continue;
+                }
+                ParsedDef parsed = mTestMap.get(uri);
+                if (parsed == null || parsed.mLastModified != entry.mFile.lastModified()) {
+                    toParse.add(entry);
+                }
+            }
+        }
+        if (toParse.size() >= PARALLEL_PARSE_THRESHOLD) {
+            parseInParallel(toParse);
+        } else {
+            for (IndexEntry entry : toParse) {
+                parse(entry);
+            }
+        }
+
+        List<TestPackageDef> defs = new ArrayList<TestPackageDef>(testUris.size());
+        synchronized (mTestMap) {
+            for (String uri : testUris) {
+                ParsedDef parsed = mTestMap.get(uri);
+                if (parsed != null) {
+                    defs.add(parsed.mDef);
+                }
+            }
+        }
+        return defs;
+    }
+
+    /**
+     * Parses the test definition of an index entry.
+     */
+    private void parse(IndexEntry entry) {
+        long lastModified = entry.mFile.lastModified();
+        TestPackageDef def = parseTestFromXml(entry.mFile);
+        synchronized (mTestMap) {
+            if (def != null && entry.mUri.equals(def.getUri())) {
+                mTestMap.put(entry.mUri, new ParsedDef(def, lastModified));
+            } else {
+                if (def != null) {
+                    // the file changed since it was indexed; the next repo to be created
+                    // indexes it again
+                    Log.w(LOG_TAG, String.format("Test case xml file %s no longer defines %s",
+                            entry.mFile.getAbsolutePath(), entry.mUri));
+                }
+                mTestMap.remove(entry.mUri);
+            }
+        }
+    }
+
+    /**
+     * Parses the test definitions of the given index entries on a thread pool.
+     */
+    private void parseInParallel(List<IndexEntry> entries) {
+        int threads = Math.min(entries.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> pending = new ArrayList<Future<?>>(entries.size());
+            for (final IndexEntry entry : entries) {
+                pending.add(executor.submit(new Runnable() {
+                    public void run() {
+                        parse(entry);
+                    }
+                }));
+            }
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Interrupted while parsing test case xml files");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Failed to parse test case xml files");
+            Log.e(LOG_TAG, e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     public Collection<IRemoteTest> getTests(Collection<String> testUris) {
         Collection<IRemoteTest> tests = new ArrayList<IRemoteTest>(testUris.size());
-        for (String uri : testUris) {
-            TestPackageDef def = mTestMap.get(uri);
-            if (def != null) {
-                IRemoteTest test = def.createTest(mTestCaseDir);
-                if (test != null) {
-                    tests.add(test);
-                } else {
-                    Log.w(LOG_TAG, String.format("Failed to create test from package uri %s", uri));
-                }
+        for (TestPackageDef def : getDefs(testUris)) {
+            IRemoteTest test = def.createTest(mTestCaseDir);
+            if (test != null) {
+                tests.add(test);
             } else {
-                Log.w(LOG_TAG, String.format("Could not find test with uri %s", uri));
+                Log.w(LOG_TAG, String.format("Failed to create test from package uri %s",
+                        def.getUri()));
             }
         }
         return tests;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ITestPackageDef getTestPackage(String testUri) {
+        List<TestPackageDef> defs = getDefs(Collections.singletonList(testUri));
+        return defs.isEmpty() ? null : defs.get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<ITestPackageDef> getTestPackages(Collection<String> testUris) {
+        return new ArrayList<ITestPackageDef>(getDefs(testUris));
+    }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.testtype.IRemoteTest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Selects the tests of a plan to run by include and exclude patterns, as matched by
+ * {@link NameMatcher} against package uris and test names.
+ * <p/>
+ * A test is run if it or its package matches an include pattern, or there are none, and
+ * neither it nor its package matches an exclude pattern.
+ */
+class TestFilter {
+
+    private final NameMatcher mIncludes;
+    private final List<NameMatcher> mExcludes;
+
+    /**
+     * Creates a {@link TestFilter} which selects all tests.
+     */
+    TestFilter() {
+        mIncludes = new NameMatcher();
+        mExcludes = new ArrayList<NameMatcher>(1);
+        mExcludes.add(new NameMatcher());
+    }
+
+    private TestFilter(NameMatcher includes, List<NameMatcher> excludes) {
+        mIncludes = includes;
+        mExcludes = excludes;
+    }
+
+    /**
+     * Adds a pattern of the tests to run.
+     */
+    void addInclude(String pattern) {
+        mIncludes.add(pattern);
+    }
+
+    /**
+     * Adds a pattern of the tests not to run.
+     */
+    void addExclude(String pattern) {
+        mExcludes.get(0).add(pattern);
+    }
+
+    /**
+     * Creates a filter which also excludes the given patterns, e.g. those of a plan entry.
+     *
+     * @param patterns the patterns of the tests not to run
+     * @return the {@link TestFilter}
+     */
+    TestFilter withExcludes(Collection<String> patterns) {
+        if (patterns.isEmpty()) {
+            return this;
+        }
+        NameMatcher entryExcludes = new NameMatcher();
+        for (String pattern : patterns) {
+            entryExcludes.add(pattern);
+        }
+        List<NameMatcher> excludes = new ArrayList<NameMatcher>(mExcludes.size() + 1);
+        excludes.addAll(mExcludes);
+        excludes.add(entryExcludes);
+        return new TestFilter(mIncludes, excludes);
+    }
+
+    /**
+     * Selects the tests of a package to run.
+     *
+     * @param testPackage the {@link ITestPackageDef} to filter
+     * @return the package itself if all its tests are selected, a {@link ITestPackageDef} of
+     *         the selected tests, or <code>null</code> if none are
+     */
+    ITestPackageDef filter(ITestPackageDef testPackage) {
+        String uri = testPackage.getUri();
+        if (isExcluded(uri)) {
+            return null;
+        }
+        boolean packageIncluded = mIncludes.isEmpty() || mIncludes.matches(uri);
+        if (packageIncluded && !hasExcludes()) {
+            return testPackage;
+        }
+        Collection<TestIdentifier> tests = testPackage.getTests();
+        List<TestIdentifier> selectedTests = new ArrayList<TestIdentifier>(tests.size());
+        for (TestIdentifier test : tests) {
+            String name = test.getClassName() + "#" + test.getTestName();
+            if ((packageIncluded || mIncludes.matches(name)) && !isExcluded(name)) {
+                selectedTests.add(test);
+            }
+        }
+        if (selectedTests.isEmpty()) {
+            return null;
+        } else if (selectedTests.size() == tests.size()) {
+            return testPackage;
+        }
+        return new FilteredTestPackageDef(testPackage, selectedTests);
+    }
+
+    private boolean hasExcludes() {
+        for (NameMatcher excludes : mExcludes) {
+            if (!excludes.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isExcluded(String name) {
+        for (NameMatcher excludes : mExcludes) {
+            if (excludes.matches(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A {@link ITestPackageDef} of the selected tests of a package, whose tests only run those
+     * tests.
+     */
+    private static class FilteredTestPackageDef implements ITestPackageDef {
+
+        private final ITestPackageDef mPackage;
+        private final Collection<TestIdentifier> mTests;
+
+        FilteredTestPackageDef(ITestPackageDef testPackage, Collection<TestIdentifier> tests) {
+            mPackage = testPackage;
+            mTests = tests;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getUri() {
+            return mPackage.getUri();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getName() {
+            return mPackage.getName();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getAppNameSpace() {
+            return mPackage.getAppNameSpace();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public File getInstallFile(File testCaseDir) {
+            return mPackage.getInstallFile(testCaseDir);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Collection<TestIdentifier> getTests() {
+            return mTests;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public IRemoteTest createTest(File testCaseDir) {
+            return mPackage.createTest(testCaseDir, mTests);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public IRemoteTest createTest(File testCaseDir, Collection<TestIdentifier> tests) {
+            return mPackage.createTest(testCaseDir, tests);
+        }
+    }
+}
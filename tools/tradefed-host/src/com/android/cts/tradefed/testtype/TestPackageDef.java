@@ -23,13 +23,17 @@ import com.android.tradefed.testtype.InstrumentationTest;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Container for CTS test info.
  * <p/>
  * Knows how to translate this info into a runnable {@link IRemoteTest}.
  */
-public class TestPackageDef {
+public class TestPackageDef implements ITestPackageDef {
 
     private static final String LOG_TAG = "TestPackageDef";
 
@@ -49,8 +53,7 @@ public class TestPackageDef {
     }
 
     /**
-     * Get the unique URI of the test package.
-     * @return the {@link String} uri
+     * {@inheritDoc}
      */
     public String getUri() {
         return mUri;
@@ -60,7 +63,10 @@ public class TestPackageDef {
         mAppNameSpace = appNameSpace;
     }
 
-    String getAppNameSpace() {
+    /**
+     * {@inheritDoc}
+     */
+    public String getAppNameSpace() {
         return mAppNameSpace;
     }
 
@@ -68,7 +74,10 @@ public class TestPackageDef {
         mName = name;
     }
 
-    String getName() {
+    /**
+     * {@inheritDoc}
+     */
+    public String getName() {
         return mName;
     }
 
@@ -114,20 +123,23 @@ public class TestPackageDef {
     }
 
     /**
-     * Creates a runnable {@link IRemoteTest} from info stored in this definition.
-     *
-     * @param testCaseDir {@link File} representing directory of test case data
-     * @return a {@link IRemoteTest} with all necessary data populated to run the test or
-     *         <code>null</code> if test could not be created
+     * {@inheritDoc}
      */
     public IRemoteTest createTest(File testCaseDir) {
+        return createTest(testCaseDir, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public IRemoteTest createTest(File testCaseDir, Collection<TestIdentifier> tests) {
         if (mIsHostSideTest) {
             Log.d(LOG_TAG, String.format("Creating host test for %s", mName));
             JarHostTest hostTest = new JarHostTest();
             hostTest.setRunName(mName);
             hostTest.setJarFile(new File(testCaseDir, mJarPath));
             hostTest.setTestAppPath(testCaseDir.getAbsolutePath());
-            hostTest.setTests(mTests);
+            hostTest.setTests(tests != null ? tests : mTests);
             return hostTest;
         } else if (mIsSignatureTest) {
             // TODO: implement this
@@ -144,18 +156,74 @@ public class TestPackageDef {
             InstrumentationTest instrTest = new InstrumentationTest();
             instrTest.setPackageName(mAppNameSpace);
             instrTest.setRunnerName(mRunner);
-            // mName means 'apk file name' for instrumentation tests
-            File apkFile = new File(testCaseDir, String.format("%s.apk", mName));
+            File apkFile = getInstallFile(testCaseDir);
             if (!apkFile.exists()) {
                 Log.w(LOG_TAG, String.format("Could not find apk file %s",
                         apkFile.getAbsolutePath()));
                 return null;
             }
             instrTest.setInstallFile(apkFile);
+            if (tests != null) {
+                instrTest.setClassName(getClassFilter(tests));
+            }
             return instrTest;
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public File getInstallFile(File testCaseDir) {
+        if (mIsHostSideTest || mIsSignatureTest || mIsReferenceAppTest) {
+            return null;
+        }
+        // mName means 'apk file name' for instrumentation tests
+        return new File(testCaseDir, String.format("%s.apk", mName));
+    }
+
+    /**
+     * Gets the instrumentation class argument that runs the given tests of this package.
+     * <p/>
+     * Classes whose tests are all included are listed by class name, the included tests of
+     * other classes by &lt;class&gt;#&lt;method&gt;, separated by commas.
+     */
+    private String getClassFilter(Collection<TestIdentifier> tests) {
+        Map<String, Integer> classTestCounts = new HashMap<String, Integer>();
+        for (TestIdentifier test : mTests) {
+            Integer count = classTestCounts.get(test.getClassName());
+            classTestCounts.put(test.getClassName(), count == null ? 1 : count + 1);
+        }
+        Map<String, List<String>> includedTests = new LinkedHashMap<String, List<String>>();
+        for (TestIdentifier test : tests) {
+            List<String> methods = includedTests.get(test.getClassName());
+            if (methods == null) {
+                methods = new ArrayList<String>();
+                includedTests.put(test.getClassName(), methods);
+            }
+            methods.add(test.getTestName());
+        }
+        StringBuilder filter = new StringBuilder();
+        for (Map.Entry<String, List<String>> entry : includedTests.entrySet()) {
+            String className = entry.getKey();
+            Integer count = classTestCounts.get(className);
+            if (count != null && count == entry.getValue().size()) {
+                appendFilter(filter, className);
+            } else {
+                for (String method : entry.getValue()) {
+                    appendFilter(filter, String.format("%s#%s", className, method));
+                }
+            }
+        }
+        return filter.toString();
+    }
+
+    private static void appendFilter(StringBuilder filter, String entry) {
+        if (filter.length() > 0) {
+            filter.append(',');
+        }
+        filter.append(entry);
+    }
+
     /**
      * Add a {@link TestDef} to the list of tests in this package.
      *
@@ -166,11 +234,9 @@ public class TestPackageDef {
     }
 
     /**
-     * Get the collection of tests in this test package.
-     * <p/>
-     * Exposed for unit testing.
+     * {@inheritDoc}
      */
-    Collection<TestIdentifier> getTests() {
+    public Collection<TestIdentifier> getTests() {
         return mTests;
     }
 }
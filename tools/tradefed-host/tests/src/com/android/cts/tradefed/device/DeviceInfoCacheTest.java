@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.device;
+
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link DeviceInfoCache}.
+ */
+public class DeviceInfoCacheTest extends TestCase {
+
+    private static final String SERIAL = "emulator-5554";
+    private static final String FINGERPRINT = "generic/sdk/generic:2.3/GRH55/79397:eng/test-keys";
+
+    private File mCacheDir;
+    private DeviceInfoCache mCache;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCacheDir = FileUtil.createTempDir("device_info_cache");
+        mCache = new DeviceInfoCache(mCacheDir);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mCacheDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test that device info is found for the device and build it was collected on, and only
+     * for those.
+     */
+    public void testGet() throws IOException {
+        Map<String, String> metrics = new HashMap<String, String>();
+        metrics.put("deviceId", "123456");
+        metrics.put("screen_size", "normal");
+        mCache.put(SERIAL, FINGERPRINT, metrics);
+
+        assertEquals(metrics, new DeviceInfoCache(mCacheDir).get(SERIAL, FINGERPRINT));
+        assertNull(mCache.get(SERIAL, FINGERPRINT + "1"));
+        assertNull(mCache.get("emulator-5556", FINGERPRINT));
+        assertNull(mCache.get(SERIAL, null));
+    }
+}
@@ -15,17 +15,22 @@
  */
 package com.android.cts.tradefed.result;
 
+import com.android.cts.tradefed.device.DeviceInfoCollector;
+import com.android.cts.tradefed.testtype.PlanTest;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.ddmlib.testrunner.ITestRunListener.TestFailure;
 import com.android.tradefed.result.XmlResultReporter;
 import com.android.tradefed.targetsetup.BuildInfo;
 import com.android.tradefed.util.FileUtil;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import junit.framework.TestCase;
@@ -102,11 +107,14 @@ public class CtsXmlResultReporterTest extends TestCase {
         assertTrue(output.contains(
                 "<Summary failed=\"0\" notExecuted=\"0\" timeout=\"0\" omitted=\"0\" pass=\"1\" total=\"1\" />"));
         assertTrue(output.contains("<TestPackage name=\"run\" runTime=\"3s\" digest=\"\" " +
-                "failed=\"0\" notExecuted=\"0\" timeout=\"0\" omitted=\"0\" pass=\"1\" total=\"1\">"));
+                "failed=\"0\" notExecuted=\"0\" timeout=\"0\" omitted=\"0\" pass=\"1\" total=\"1\" " +
+                "starttime=\""));
         assertTrue(output.contains(String.format("<TestCase name=\"%s\">", testId.getClassName())));
+        // the run did not report an install time
+        assertFalse(output.contains("installTime"));
 
         final String testCaseTag = String.format(
-                "<Test name=\"%s\" result=\"pass\" />", testId.getTestName());
+                "<Test name=\"%s\" result=\"pass\" starttime=\"", testId.getTestName());
         assertTrue(output.contains(testCaseTag));
     }
 
@@ -134,6 +142,198 @@ public class CtsXmlResultReporterTest extends TestCase {
         assertTrue(output.contains(failureTag));
     }
 
+    /**
+     * Test that the results of a test run are written to disk when the run ends, and that the
+     * intermediate files are removed once the result file is generated.
+     */
+    public void testRunWrittenAtRunEnd() {
+        Map<String, String> emptyMap = Collections.emptyMap();
+        final TestIdentifier testId = new TestIdentifier("com.foo.FooTest", "testFoo");
+        mResultReporter.invocationStarted(new BuildInfo());
+        mResultReporter.testRunStarted("run", 1);
+        mResultReporter.testStarted(testId);
+        mResultReporter.testEnded(testId, emptyMap);
+        mResultReporter.testRunEnded(3000, emptyMap);
+        File[] resultDirs = mReportDir.listFiles();
+        assertEquals(1, resultDirs.length);
+        File fragmentDir = new File(resultDirs[0], "test_runs");
+        assertTrue(new File(fragmentDir, "run_000_00000.xml").exists());
+
+        mResultReporter.invocationEnded(1);
+        assertFalse(fragmentDir.exists());
+        assertTrue(getOutput().contains("<TestPackage name=\"run\""));
+    }
+
+    /**
+     * Test that the timing of the tests and runs is reported in the result and the timing file,
+     * along with the install time reported by the run.
+     */
+    public void testTiming() throws IOException {
+        Map<String, String> emptyMap = Collections.emptyMap();
+        Map<String, String> runMetrics = new HashMap<String, String>();
+        runMetrics.put("foo", "bar");
+        runMetrics.put(PlanTest.INSTALL_TIME_METRIC, "250");
+        final TestIdentifier fastTest = new TestIdentifier("com.foo.FooTest", "testFast");
+        final TestIdentifier slowTest = new TestIdentifier("com.foo.FooTest", "testSlow");
+        mResultReporter.invocationStarted(new BuildInfo());
+        mResultReporter.testRunStarted("run", 2);
+        mResultReporter.testStarted(fastTest);
+        mResultReporter.testEnded(fastTest, emptyMap);
+        mResultReporter.testStarted(slowTest);
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            // only makes the test less slow
+        }
+        mResultReporter.testEnded(slowTest, emptyMap);
+        mResultReporter.testRunEnded(3000, runMetrics);
+        File resultDir = mReportDir.listFiles()[0];
+        mResultReporter.invocationEnded(1);
+
+        String output = getOutput();
+        assertTrue(output.contains("<Metric name=\"foo\" value=\"bar\" />"));
+        assertFalse(output.contains(PlanTest.INSTALL_TIME_METRIC));
+        assertTrue(output.contains("installTime=\"250\""));
+        assertTrue(output.contains("<SlowPackage name=\"run\""));
+        // the slowest test comes first
+        assertTrue(output.indexOf("<SlowTest package=\"run\" class=\"com.foo.FooTest\" " +
+                "name=\"testSlow\"") < output.indexOf("<SlowTest package=\"run\" " +
+                "class=\"com.foo.FooTest\" name=\"testFast\""));
+
+        BufferedReader reader = new BufferedReader(new FileReader(new File(resultDir,
+                "testTiming.csv")));
+        try {
+            assertEquals("type,package,class,test,starttime,endtime,duration,installtime",
+                    reader.readLine());
+            String packageLine = reader.readLine();
+            assertTrue(packageLine.startsWith("package,run,,,"));
+            assertTrue(packageLine.endsWith(",250"));
+            assertTrue(reader.readLine().startsWith("test,run,com.foo.FooTest,testFast,"));
+            String[] slowFields = reader.readLine().split(",");
+            assertEquals("testSlow", slowFields[3]);
+            assertTrue(Long.parseLong(slowFields[6]) >= 20);
+            assertNull(reader.readLine());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Test that the device info collection time is the elapsed time reported for the device
+     * info run, even if the run was reported long after it was collected.
+     */
+    public void testDeviceInfoTime() {
+        Map<String, String> deviceInfo = new HashMap<String, String>();
+        deviceInfo.put(DeviceInfoCollector.SCREEN_WIDTH, "480");
+        deviceInfo.put(DeviceInfoCollector.SCREEN_HEIGHT, "800");
+        deviceInfo.put(DeviceInfoCollector.PHONE_NUMBER, "5555");
+        mResultReporter.invocationStarted(new BuildInfo());
+        mResultReporter.testRunStarted(DeviceInfoCollector.APP_PACKAGE_NAME, 0);
+        mResultReporter.testRunEnded(1500, deviceInfo);
+        mResultReporter.invocationEnded(1);
+
+        assertTrue(getOutput().contains("<Timing deviceInfoTime=\"1500\""));
+    }
+
+    /**
+     * Test that the shards of a plan run are merged into one result by the last shard to
+     * complete.
+     */
+    public void testShardedRun() {
+        Map<String, String> emptyMap = Collections.emptyMap();
+        CtsXmlResultReporter otherShard = new CtsXmlResultReporter() {
+            @Override
+            OutputStream createOutputResultStream(File reportDir) throws IOException {
+                fail("first shard to complete should not generate the result");
+                return null;
+            }
+        };
+        otherShard.setReportDir(mReportDir);
+        otherShard.setShard(1, 2, "shards");
+        mResultReporter.setShard(0, 2, "shards");
+
+        final TestIdentifier fooTest = new TestIdentifier("com.foo.FooTest", "testFoo");
+        final TestIdentifier barTest = new TestIdentifier("com.bar.BarTest", "testBar");
+        mResultReporter.invocationStarted(new BuildInfo());
+        otherShard.invocationStarted(new BuildInfo());
+        mResultReporter.testRunStarted("foo", 1);
+        mResultReporter.testStarted(fooTest);
+        mResultReporter.testEnded(fooTest, emptyMap);
+        mResultReporter.testRunEnded(3000, emptyMap);
+        otherShard.testRunStarted("bar", 1);
+        otherShard.testStarted(barTest);
+        otherShard.testFailed(TestFailure.FAILURE, barTest, "trace");
+        otherShard.testEnded(barTest, emptyMap);
+        otherShard.testRunEnded(3000, emptyMap);
+        otherShard.invocationEnded(1);
+        assertEquals(0, mOutputStream.size());
+
+        mResultReporter.invocationEnded(1);
+        String output = getOutput();
+        assertTrue(output.contains(
+                "<Summary failed=\"1\" notExecuted=\"0\" timeout=\"0\" omitted=\"0\" pass=\"1\" total=\"2\" />"));
+        assertTrue(output.indexOf("<TestPackage name=\"foo\"") <
+                output.indexOf("<TestPackage name=\"bar\""));
+        assertFalse(new File(new File(mReportDir, "shards"), "test_runs").exists());
+    }
+
+    /**
+     * Test that the summary of a shard left by an earlier run, which did not complete, does not
+     * count for the next run.
+     */
+    public void testShardedRun_staleShard() {
+        Map<String, String> emptyMap = Collections.emptyMap();
+        final TestIdentifier fooTest = new TestIdentifier("com.foo.FooTest", "testFoo");
+        final TestIdentifier barTest = new TestIdentifier("com.bar.BarTest", "testBar");
+        // shard 0 completes the first run, shard 1 never does
+        CtsXmlResultReporter earlierShard = createNonMergingShard(0);
+        earlierShard.invocationStarted(new BuildInfo());
+        earlierShard.testRunStarted("foo", 1);
+        earlierShard.testStarted(fooTest);
+        earlierShard.testFailed(TestFailure.FAILURE, fooTest, "trace");
+        earlierShard.testEnded(fooTest, emptyMap);
+        earlierShard.testRunEnded(3000, emptyMap);
+        earlierShard.invocationEnded(1);
+
+        // shard 0 starts again, so a new run begins
+        CtsXmlResultReporter otherShard = createNonMergingShard(1);
+        mResultReporter.setShard(0, 2, "shards");
+        mResultReporter.invocationStarted(new BuildInfo());
+        otherShard.invocationStarted(new BuildInfo());
+        otherShard.testRunStarted("bar", 1);
+        otherShard.testStarted(barTest);
+        otherShard.testEnded(barTest, emptyMap);
+        otherShard.testRunEnded(3000, emptyMap);
+        otherShard.invocationEnded(1);
+        assertEquals(0, mOutputStream.size());
+
+        mResultReporter.testRunStarted("foo", 1);
+        mResultReporter.testStarted(fooTest);
+        mResultReporter.testEnded(fooTest, emptyMap);
+        mResultReporter.testRunEnded(3000, emptyMap);
+        mResultReporter.invocationEnded(1);
+        String output = getOutput();
+        assertTrue(output.contains(
+                "<Summary failed=\"0\" notExecuted=\"0\" timeout=\"0\" omitted=\"0\" pass=\"2\" total=\"2\" />"));
+        assertEquals(1, output.split("<TestPackage name=\"foo\"", -1).length - 1);
+    }
+
+    /**
+     * Creates the reporter of a shard which must not generate the result file.
+     */
+    private CtsXmlResultReporter createNonMergingShard(int shardIndex) {
+        CtsXmlResultReporter shard = new CtsXmlResultReporter() {
+            @Override
+            OutputStream createOutputResultStream(File reportDir) throws IOException {
+                fail("shard should not generate the result");
+                return null;
+            }
+        };
+        shard.setReportDir(mReportDir);
+        shard.setShard(shardIndex, 2, "shards");
+        return shard;
+    }
+
     /**
      * Gets the output produced, stripping it of extraneous whitespace characters.
      */
@@ -16,16 +16,19 @@
 package com.android.cts.tradefed.targetsetup;
 
 import com.android.ddmlib.Log;
+import com.android.tradefed.config.IConfiguration;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.targetsetup.BuildError;
 import com.android.tradefed.targetsetup.IBuildInfo;
 import com.android.tradefed.targetsetup.IFolderBuildInfo;
 import com.android.tradefed.targetsetup.TargetSetupError;
+import com.android.tradefed.util.FileUtil;
 
 import org.easymock.EasyMock;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 
 import junit.framework.TestCase;
@@ -36,6 +39,12 @@ import junit.framework.TestCase;
 public class CtsSetupTest extends TestCase {
 
     private static final String LOG_TAG = "CtsSetupTest";
+    private static final String STUB_PACKAGE = "com.android.cts.stub";
+    private static final String RUNNER_PACKAGE = "android.core.tests.runner";
+    private static final String LISTING_SIZE_3 =
+            "-rw-r--r-- system   system          3 2010-09-01 12:00 foo.apk";
+    private static final String LISTING_SIZE_3_REPLACED =
+            "-rw-r--r-- system   system          3 2010-09-02 08:30 foo.apk";
 
     private CtsSetup mSetup;
     private ITestDevice mMockDevice;
@@ -83,6 +92,7 @@ public class CtsSetupTest extends TestCase {
         EasyMock.expect(ctsBuild.getRootDir()).andReturn(
                 new File("tmp")).anyTimes();
         EasyMock.expect(ctsBuild.getBuildId()).andStubReturn(0);
+        EasyMock.expect(mMockDevice.getSerialNumber()).andStubReturn("serial");
         EasyMock.expect(
                 mMockDevice.installPackage((File)EasyMock.anyObject(), EasyMock.anyBoolean()))
                 .andReturn(null)
@@ -90,4 +100,110 @@ public class CtsSetupTest extends TestCase {
         EasyMock.replay(ctsBuild, mMockDevice);
         mSetup.setUp(mMockDevice, ctsBuild);
     }
+
+    /**
+     * Test that {@link CtsSetup#setUp(ITestDevice, IBuildInfo)} does not install unchanged
+     * pre-requisite apks again.
+     */
+    public void testSetUp_skipUnchanged() throws Exception {
+        File apkFile = createApkFile();
+        StubCtsBuildHelper helper = createSetup(apkFile);
+        try {
+            IFolderBuildInfo ctsBuild = EasyMock.createMock(IFolderBuildInfo.class);
+            EasyMock.expect(ctsBuild.getRootDir()).andStubReturn(new File("tmp"));
+            EasyMock.expect(mMockDevice.getSerialNumber()).andStubReturn("unchanged-serial");
+            // first setup installs both apks, the second one only checks they are installed
+            EasyMock.expect(mMockDevice.installPackage(apkFile, true)).andReturn(null).times(2);
+            expectInstalledApk(STUB_PACKAGE, LISTING_SIZE_3);
+            expectInstalledApk(RUNNER_PACKAGE, LISTING_SIZE_3);
+            EasyMock.replay(ctsBuild, mMockDevice);
+            mSetup.setUp(mMockDevice, ctsBuild);
+            mSetup.setUp(mMockDevice, ctsBuild);
+            EasyMock.verify(mMockDevice);
+        } finally {
+            apkFile.delete();
+            FileUtil.recursiveDelete(helper.getRootDir());
+        }
+    }
+
+    /**
+     * Test that {@link CtsSetup#setUp(ITestDevice, IBuildInfo)} installs a pre-requisite apk
+     * again once the device has another apk installed for its package.
+     */
+    public void testSetUp_reinstallReplaced() throws Exception {
+        File apkFile = createApkFile();
+        StubCtsBuildHelper helper = createSetup(apkFile);
+        try {
+            IFolderBuildInfo ctsBuild = EasyMock.createMock(IFolderBuildInfo.class);
+            EasyMock.expect(ctsBuild.getRootDir()).andStubReturn(new File("tmp"));
+            EasyMock.expect(mMockDevice.getSerialNumber()).andStubReturn("replaced-serial");
+            // the second setup only installs the apk replaced on the device in between
+            EasyMock.expect(mMockDevice.installPackage(apkFile, true)).andReturn(null).times(3);
+            EasyMock.expect(mMockDevice.executeShellCommand(getPathCommand(STUB_PACKAGE)))
+                    .andStubReturn(getPathOutput(STUB_PACKAGE));
+            EasyMock.expect(mMockDevice.executeShellCommand(getListCommand(STUB_PACKAGE)))
+                    .andReturn(LISTING_SIZE_3).andReturn(LISTING_SIZE_3_REPLACED).times(2);
+            expectInstalledApk(RUNNER_PACKAGE, LISTING_SIZE_3);
+            EasyMock.replay(ctsBuild, mMockDevice);
+            mSetup.setUp(mMockDevice, ctsBuild);
+            mSetup.setUp(mMockDevice, ctsBuild);
+            EasyMock.verify(mMockDevice);
+        } finally {
+            apkFile.delete();
+            FileUtil.recursiveDelete(helper.getRootDir());
+        }
+    }
+
+    /**
+     * Creates a 3 byte pre-requisite apk file.
+     */
+    private static File createApkFile() throws IOException {
+        File apkFile = File.createTempFile("prereq", ".apk");
+        FileWriter writer = new FileWriter(apkFile);
+        writer.write("apk");
+        writer.close();
+        return apkFile;
+    }
+
+    /**
+     * Sets up {@link #mSetup} with a build helper, shared by all its setups, that returns the
+     * given file for all apks.
+     */
+    private StubCtsBuildHelper createSetup(File apkFile) throws IOException {
+        final StubCtsBuildHelper helper = StubCtsBuildHelper.createStubHelper();
+        helper.setTestApp(apkFile);
+        mSetup = new CtsSetup() {
+            @Override
+            CtsBuildHelper createBuildHelper(File rootDir) {
+                return helper;
+            }
+        };
+        IConfiguration mockConfig = EasyMock.createNiceMock(IConfiguration.class);
+        EasyMock.replay(mockConfig);
+        mSetup.setConfiguration(mockConfig);
+        return helper;
+    }
+
+    /**
+     * Expects the device to list the given apk file as installed for a package.
+     */
+    private void expectInstalledApk(String packageName, String listing)
+            throws DeviceNotAvailableException {
+        EasyMock.expect(mMockDevice.executeShellCommand(getPathCommand(packageName)))
+                .andStubReturn(getPathOutput(packageName));
+        EasyMock.expect(mMockDevice.executeShellCommand(getListCommand(packageName)))
+                .andStubReturn(listing);
+    }
+
+    private static String getPathCommand(String packageName) {
+        return String.format("pm path %s", packageName);
+    }
+
+    private static String getPathOutput(String packageName) {
+        return String.format("package:/data/app/%s.apk\n", packageName);
+    }
+
+    private static String getListCommand(String packageName) {
+        return String.format("ls -l /data/app/%s.apk", packageName);
+    }
 }
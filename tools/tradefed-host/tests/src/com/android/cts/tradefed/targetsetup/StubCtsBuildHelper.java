@@ -33,13 +33,22 @@ public class StubCtsBuildHelper extends CtsBuildHelper {
         return new StubCtsBuildHelper(tmpFolder);
     }
 
+    private File mTestApp = new File("tmp");
+
     private StubCtsBuildHelper(File rootDir) throws FileNotFoundException {
         super(rootDir);
     }
 
+    /**
+     * Set the file to return for all test apps.
+     */
+    public void setTestApp(File testApp) {
+        mTestApp = testApp;
+    }
+
     @Override
     public File getTestApp(String appFileName) throws FileNotFoundException {
-        return new File("tmp");
+        return mTestApp;
     }
 
     @Override
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.result.ITestInvocationListener;
+
+import org.easymock.EasyMock;
+
+import java.io.File;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Measures the per test overhead and the class metadata footprint of running the tests of a jar
+ * with {@link JarHostTest}, compared to loading the test class with a new class loader for
+ * every test, as {@link JarHostTest} used to do. The latter is emulated by running each test in
+ * a run of its own.
+ * <p/>
+ * Usage: JarHostTestBenchmark jar class... [-iterations n]
+ * <p/>
+ * All public no-argument test methods of the given {@link TestCase} classes are run. Tests
+ * should be fast, so that their own run time does not hide the overhead.
+ * <p/>
+ * No CTS host-side test jar ships with this tree, so the benchmark has only been run on a
+ * generated jar of empty tests. Those numbers are synthetic: they show the class loading cost
+ * alone, not its share of a real host-side run, where tests talk to a device and load far
+ * more classes.
+ */
+public class JarHostTestBenchmark {
+
+    private static final String RUN_NAME = "benchmark";
+    private static final int WARMUP_ITERATIONS = 2;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: JarHostTestBenchmark jar class... [-iterations n]");
+            System.exit(1);
+        }
+        File jarFile = new File(args[0]);
+        List<String> classNames = new ArrayList<String>();
+        int iterations = 10;
+        for (int i = 1; i < args.length; i++) {
+            if ("-iterations".equals(args[i])) {
+                iterations = Integer.parseInt(args[++i]);
+            } else {
+                classNames.add(args[i]);
+            }
+        }
+        URL[] urls = {jarFile.getCanonicalFile().toURI().toURL()};
+        List<TestIdentifier> tests = findTests(urls, classNames);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runTests(jarFile, tests);
+            runEachTest(jarFile, tests);
+        }
+
+        Footprint shared = new Footprint();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            runTests(jarFile, tests);
+            shared.sample();
+        }
+        report("one class loader per run", System.nanoTime() - start, iterations, tests.size(),
+                shared);
+
+        Footprint perTest = new Footprint();
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            runEachTest(jarFile, tests);
+            perTest.sample();
+        }
+        report("one class loader per test", System.nanoTime() - start, iterations, tests.size(),
+                perTest);
+    }
+
+    /**
+     * Find the tests of the given classes, loading them with a class loader of their own.
+     */
+    private static List<TestIdentifier> findTests(URL[] urls, List<String> classNames)
+            throws ClassNotFoundException {
+        ClassLoader classLoader = new URLClassLoader(urls);
+        List<TestIdentifier> tests = new ArrayList<TestIdentifier>();
+        for (String className : classNames) {
+            for (Method method : classLoader.loadClass(className).getMethods()) {
+                if (method.getName().startsWith("test")
+                        && method.getParameterTypes().length == 0
+                        && !Modifier.isStatic(method.getModifiers())) {
+                    tests.add(new TestIdentifier(className, method.getName()));
+                }
+            }
+        }
+        return tests;
+    }
+
+    /**
+     * Run the tests as one {@link JarHostTest} run.
+     */
+    private static void runTests(File jarFile, List<TestIdentifier> tests) throws Exception {
+        JarHostTest jarTest = new JarHostTest();
+        jarTest.setDevice(EasyMock.createNiceMock(ITestDevice.class));
+        jarTest.setJarFile(jarFile);
+        jarTest.setRunName(RUN_NAME);
+        jarTest.setTests(tests);
+        ITestInvocationListener listener = EasyMock.createNiceMock(
+                ITestInvocationListener.class);
+        EasyMock.replay(listener);
+        jarTest.run(listener);
+    }
+
+    /**
+     * Run each test in a {@link JarHostTest} run of its own, which loads the test's class with a
+     * new class loader.
+     */
+    private static void runEachTest(File jarFile, List<TestIdentifier> tests) throws Exception {
+        for (TestIdentifier testId : tests) {
+            runTests(jarFile, Collections.singletonList(testId));
+        }
+    }
+
+    private static void report(String mode, long elapsedNs, int iterations, int testCount,
+            Footprint footprint) {
+        System.out.println(mode + ":");
+        System.out.println(String.format("  %.3f ms per test",
+                elapsedNs / 1e6 / iterations / testCount));
+        System.out.println(String.format("  %.1f classes loaded per test",
+                (double)footprint.getLoadedClasses() / iterations / testCount));
+        System.out.println(String.format("  class metadata: +%d KB at peak, +%d KB after gc",
+                footprint.getPeakMetadata() / 1024, footprint.getRetainedMetadata() / 1024));
+    }
+
+    /**
+     * Tracks the number of loaded classes and the memory used for class metadata, i.e. the
+     * permanent generation or the metaspace, depending on the VM.
+     */
+    private static class Footprint {
+        private final ClassLoadingMXBean mClassLoading = ManagementFactory.getClassLoadingMXBean();
+        private final long mStartClasses;
+        private final long mStartMetadata;
+        private long mPeakMetadata;
+
+        Footprint() {
+            System.gc();
+            mStartClasses = mClassLoading.getTotalLoadedClassCount();
+            mStartMetadata = getMetadataUsage();
+            mPeakMetadata = mStartMetadata;
+        }
+
+        void sample() {
+            mPeakMetadata = Math.max(mPeakMetadata, getMetadataUsage());
+        }
+
+        long getLoadedClasses() {
+            return mClassLoading.getTotalLoadedClassCount() - mStartClasses;
+        }
+
+        long getPeakMetadata() {
+            return mPeakMetadata - mStartMetadata;
+        }
+
+        long getRetainedMetadata() {
+            System.gc();
+            return getMetadataUsage() - mStartMetadata;
+        }
+
+        private static long getMetadataUsage() {
+            long used = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                String name = pool.getName();
+                if (name.contains("Perm Gen") || name.equals("Metaspace")) {
+                    used += pool.getUsage().getUsed();
+                }
+            }
+            return used;
+        }
+    }
+}
@@ -17,12 +17,15 @@ package com.android.cts.tradefed.testtype;
 
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.result.ITestInvocationListener;
 
 import org.easymock.EasyMock;
 
-import java.net.URL;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -33,17 +36,23 @@ public class JarHostTestTest extends TestCase {
 
     private static final String RUN_NAME = "run";
     private JarHostTest mJarTest;
+    private int mLoadCount;
 
     @Override
     protected void setUp() throws Exception {
         super.setUp();
+        mLoadCount = 0;
         mJarTest = new JarHostTest() {
             // mock out the loading from jar
             @Override
-            Class<?> loadClass(String className, URL[] urls) throws ClassNotFoundException {
-                return MockTest.class;
+            Class<?> loadClass(String className, ClassLoader classLoader)
+                    throws ClassNotFoundException {
+                mLoadCount++;
+                return Class.forName(className);
             }
         };
+        mJarTest.setDevice(EasyMock.createNiceMock(ITestDevice.class));
+        mJarTest.setJarFile(new File("foo.jar"));
     }
 
     public static class MockTest extends TestCase {
@@ -53,6 +62,24 @@ public class JarHostTestTest extends TestCase {
 
         public void testFoo() {
         }
+
+        public void testBar() {
+        }
+
+        public void testSlow() throws InterruptedException {
+            Thread.sleep(100);
+        }
+    }
+
+    public static class OtherMockTest extends TestCase {
+        public void testOther() {
+        }
+    }
+
+    @SerialHostTest
+    public static class SerialMockTest extends TestCase {
+        public void testSerial() {
+        }
     }
 
     /**
@@ -72,7 +99,88 @@ public class JarHostTestTest extends TestCase {
         EasyMock.replay(listener);
 
         mJarTest.setRunName(RUN_NAME);
+        mJarTest.setTests(Collections.singletonList(expectedTest));
+        mJarTest.run(listener);
+        EasyMock.verify(listener);
+    }
+
+    /**
+     * Test that a test class is only loaded once for all its tests in a run, and loaded again
+     * in the next run.
+     */
+    public void testRun_loadClassOnce() throws DeviceNotAvailableException {
+        ITestInvocationListener listener = EasyMock.createNiceMock(ITestInvocationListener.class);
+        EasyMock.replay(listener);
+        List<TestIdentifier> tests = new ArrayList<TestIdentifier>();
+        tests.add(new TestIdentifier(MockTest.class.getName(), "testFoo"));
+        tests.add(new TestIdentifier(MockTest.class.getName(), "testBar"));
+
+        mJarTest.setRunName(RUN_NAME);
+        mJarTest.setTests(tests);
+        mJarTest.run(listener);
+        assertEquals(1, mLoadCount);
+
+        mJarTest.run(listener);
+        assertEquals(2, mLoadCount);
+    }
+
+    /**
+     * Test that the results of concurrently run tests are reported one test at a time, in the
+     * order of the tests.
+     */
+    @SuppressWarnings("unchecked")
+    public void testRun_concurrent() throws DeviceNotAvailableException {
+        ITestInvocationListener listener = EasyMock.createStrictMock(
+                ITestInvocationListener.class);
+        List<TestIdentifier> tests = new ArrayList<TestIdentifier>();
+        tests.add(new TestIdentifier(MockTest.class.getName(), "testSlow"));
+        tests.add(new TestIdentifier(SerialMockTest.class.getName(), "testSerial"));
+        tests.add(new TestIdentifier(MockTest.class.getName(), "testFoo"));
+        tests.add(new TestIdentifier(MockTest.class.getName(), "testBar"));
+
+        listener.testRunStarted(RUN_NAME, tests.size());
+        for (TestIdentifier test : tests) {
+            listener.testStarted(test);
+            listener.testEnded(test, Collections.EMPTY_MAP);
+        }
+        listener.testRunEnded(EasyMock.anyLong(), EasyMock.eq(Collections.EMPTY_MAP));
+        EasyMock.replay(listener);
+
+        mJarTest.setRunName(RUN_NAME);
+        mJarTest.setTests(tests);
+        mJarTest.setConcurrency(JarHostTest.Concurrency.TEST, 4);
+        mJarTest.run(listener);
+        EasyMock.verify(listener);
+    }
+
+    /**
+     * Test that the results of concurrently run test classes are reported in the order of the
+     * tests, also if the tests of the classes are interleaved.
+     */
+    @SuppressWarnings("unchecked")
+    public void testRun_concurrentClasses() throws DeviceNotAvailableException {
+        ITestInvocationListener listener = EasyMock.createStrictMock(
+                ITestInvocationListener.class);
+        List<TestIdentifier> tests = new ArrayList<TestIdentifier>();
+        tests.add(new TestIdentifier(MockTest.class.getName(), "testSlow"));
+        tests.add(new TestIdentifier(OtherMockTest.class.getName(), "testOther"));
+        tests.add(new TestIdentifier(MockTest.class.getName(), "testFoo"));
+        tests.add(new TestIdentifier(SerialMockTest.class.getName(), "testSerial"));
+        tests.add(new TestIdentifier(MockTest.class.getName(), "testBar"));
+
+        listener.testRunStarted(RUN_NAME, tests.size());
+        for (TestIdentifier test : tests) {
+            listener.testStarted(test);
+            listener.testEnded(test, Collections.EMPTY_MAP);
+        }
+        listener.testRunEnded(EasyMock.anyLong(), EasyMock.eq(Collections.EMPTY_MAP));
+        EasyMock.replay(listener);
+
+        mJarTest.setRunName(RUN_NAME);
+        mJarTest.setTests(tests);
+        mJarTest.setConcurrency(JarHostTest.Concurrency.CLASS, 4);
         mJarTest.run(listener);
+        EasyMock.verify(listener);
     }
 
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link NameMatcher}.
+ */
+public class NameMatcherTest extends TestCase {
+
+    private static final String TEST_NAME = "android.app.cts.ActivityTest#testFinish";
+
+    /**
+     * Test that a name matches itself and everything in it.
+     */
+    public void testMatches_name() {
+        assertTrue(createMatcher("android.app").matches(TEST_NAME));
+        assertTrue(createMatcher("android.app.cts.ActivityTest").matches(TEST_NAME));
+        assertTrue(createMatcher(TEST_NAME).matches(TEST_NAME));
+        assertFalse(createMatcher("android.ap").matches(TEST_NAME));
+        assertFalse(createMatcher("android.app.cts.Activity").matches(TEST_NAME));
+        assertFalse(createMatcher(TEST_NAME + "2").matches(TEST_NAME));
+    }
+
+    /**
+     * Test matching of patterns with wildcards.
+     */
+    public void testMatches_wildcard() {
+        assertTrue(createMatcher("*").matches(TEST_NAME));
+        assertTrue(createMatcher("android.ap*").matches(TEST_NAME));
+        assertTrue(createMatcher("android.app.cts.ActivityTest#test*").matches(TEST_NAME));
+        assertTrue(createMatcher("*.ActivityTest").matches(TEST_NAME));
+        assertTrue(createMatcher("android.*Test#testF*h").matches(TEST_NAME));
+        assertFalse(createMatcher("android.view*").matches(TEST_NAME));
+        assertFalse(createMatcher("*.ViewTest").matches(TEST_NAME));
+    }
+
+    /**
+     * Test that nothing matches an empty matcher.
+     */
+    public void testMatches_empty() {
+        NameMatcher matcher = new NameMatcher();
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches(TEST_NAME));
+    }
+
+    private NameMatcher createMatcher(String pattern) {
+        NameMatcher matcher = new NameMatcher();
+        matcher.add("com.foo.Unrelated");
+        matcher.add(pattern);
+        return matcher;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.testtype.PlanCheckpoint.PackageResults;
+import com.android.cts.tradefed.testtype.PlanCheckpoint.TestRecord;
+import com.android.ddmlib.testrunner.ITestRunListener.TestFailure;
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link PlanCheckpoint}.
+ */
+public class PlanCheckpointTest extends TestCase {
+
+    private static final TestIdentifier TEST_A = new TestIdentifier("com.foo.FooTest", "testA");
+    private static final TestIdentifier TEST_B = new TestIdentifier("com.foo.FooTest", "testB");
+    private static final String TRACE = "junit.framework.AssertionFailedError\n\tat Foo\\Bar";
+
+    private File mFile;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("plan", ".checkpoint");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Test that the recorded state of an interrupted run is loaded by the next run.
+     */
+    public void testLoad() throws IOException {
+        PlanCheckpoint checkpoint = new PlanCheckpoint(mFile);
+        checkpoint.open();
+        checkpoint.runStarted("android.foo", "CtsFooTestCases");
+        checkpoint.testEnded("android.foo", TEST_A, null, null);
+        checkpoint.testEnded("android.foo", TEST_B, TestFailure.FAILURE, TRACE);
+        checkpoint.packageEnded("android.foo", 1000);
+        checkpoint.runStarted("android.bar", "CtsBarTestCases");
+        checkpoint.testEnded("android.bar", TEST_A, null, null);
+        checkpoint.close();
+
+        PlanCheckpoint resumed = new PlanCheckpoint(mFile);
+        resumed.load();
+        PackageResults fooResults = resumed.getPackageResults("android.foo");
+        assertTrue(fooResults.isComplete());
+        assertEquals(1000, fooResults.mElapsedTime);
+        assertEquals("CtsFooTestCases", fooResults.mRunName);
+        Iterator<TestRecord> records = fooResults.getTests().iterator();
+        TestRecord record = records.next();
+        assertEquals(TEST_A, record.mTest);
+        assertNull(record.mFailure);
+        record = records.next();
+        assertEquals(TEST_B, record.mTest);
+        assertEquals(TestFailure.FAILURE, record.mFailure);
+        assertEquals(TRACE, record.mStackTrace);
+
+        PackageResults barResults = resumed.getPackageResults("android.bar");
+        assertFalse(barResults.isComplete());
+        assertEquals(1, barResults.getTests().size());
+        assertNull(resumed.getPackageResults("android.baz"));
+    }
+
+    /**
+     * Test that a record truncated by the run dying is ignored, and that the resumed run
+     * appends to the loaded state.
+     */
+    public void testLoad_truncated() throws IOException {
+        FileWriter writer = new FileWriter(mFile);
+        writer.write("run\tandroid.foo\tCtsFooTestCases\n");
+        writer.write("test\tandroid.foo\tcom.foo.FooTest#testA\tPASSED\t\n");
+        writer.write("test\tandroid.foo\tcom.foo.FooTest#te");
+        writer.close();
+
+        PlanCheckpoint resumed = new PlanCheckpoint(mFile);
+        resumed.load();
+        assertEquals(1, resumed.getPackageResults("android.foo").getTests().size());
+        resumed.open();
+        resumed.testEnded("android.foo", TEST_B, TestFailure.ERROR, TRACE);
+        resumed.close();
+
+        PlanCheckpoint next = new PlanCheckpoint(mFile);
+        next.load();
+        assertEquals(2, next.getPackageResults("android.foo").getTests().size());
+    }
+
+    /**
+     * Test that a run that is not resumed starts over.
+     */
+    public void testOpen_notResumed() throws IOException {
+        PlanCheckpoint checkpoint = new PlanCheckpoint(mFile);
+        checkpoint.open();
+        checkpoint.testEnded("android.foo", TEST_A, null, null);
+        checkpoint.close();
+
+        checkpoint = new PlanCheckpoint(mFile);
+        checkpoint.open();
+        checkpoint.close();
+        checkpoint.load();
+        assertNull(checkpoint.getPackageResults("android.foo"));
+
+        checkpoint.delete();
+        assertFalse(mFile.exists());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link PlanSharder}.
+ */
+public class PlanSharderTest extends TestCase {
+
+    /**
+     * Test that packages without history are balanced by their number of tests.
+     */
+    public void testGetShard_testCounts() {
+        PlanSharder sharder = new PlanSharder(2);
+        sharder.addPackage("a", 10, -1);
+        sharder.addPackage("b", 6, -1);
+        sharder.addPackage("c", 5, -1);
+        sharder.addPackage("d", 1, -1);
+
+        assertEquals(list("a", "d"), sharder.getShard(0));
+        assertEquals(list("b", "c"), sharder.getShard(1));
+    }
+
+    /**
+     * Test that the durations of previous runs take precedence over the number of tests, and
+     * that packages without history are estimated from the time per test of the others.
+     */
+    public void testGetShard_durations() {
+        PlanSharder sharder = new PlanSharder(2);
+        sharder.addPackage("a", 10, 1000);
+        sharder.addPackage("b", 1, 5000);
+        sharder.addPackage("c", 20, -1);
+
+        // c is estimated at 20 * 6000 / 11 ms, which outweighs a and b together
+        assertEquals(list("c"), sharder.getShard(0));
+        assertEquals(list("a", "b"), sharder.getShard(1));
+    }
+
+    /**
+     * Test that every package ends up in exactly one shard.
+     */
+    public void testGetShard_complete() {
+        PlanSharder sharder = new PlanSharder(3);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            sharder.addPackage("p" + i, i, -1);
+            expected.add("p" + i);
+        }
+        List<String> all = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            all.addAll(sharder.getShard(i));
+        }
+        assertEquals(expected.size(), all.size());
+        assertTrue(all.containsAll(expected));
+    }
+
+    /**
+     * Test that an out of range shard index is rejected.
+     */
+    public void testGetShard_invalidIndex() {
+        PlanSharder sharder = new PlanSharder(2);
+        try {
+            sharder.getShard(2);
+            fail("IllegalArgumentException not thrown");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static List<String> list(String... uris) {
+        List<String> list = new ArrayList<String>();
+        for (String uri : uris) {
+            list.add(uri);
+        }
+        return list;
+    }
+}
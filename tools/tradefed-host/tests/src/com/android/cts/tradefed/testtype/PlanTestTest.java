@@ -15,21 +15,28 @@
  */
 package com.android.cts.tradefed.testtype;
 
+import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.testtype.IRemoteTest;
+import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
 
 import org.easymock.EasyMock;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
 
 import junit.framework.TestCase;
 
@@ -80,6 +87,19 @@ public class PlanTestTest extends TestCase {
         mPlanTest.setTestCaseDir(new File("tmp"));
         mPlanTest.setTestPlanDir(new File("tmp"));
         mPlanTest.setPlanName(PLAN_NAME);
+        expectStubs();
+    }
+
+    /**
+     * Sets the stub behavior of the device and plan parser mocks.
+     */
+    private void expectStubs() {
+        EasyMock.expect(mMockDevice.getSerialNumber()).andStubReturn("serial");
+        EasyMock.expect(mMockDevice.executeShellCommand(
+                (String)EasyMock.anyObject())).andStubReturn("");
+        Collection<String> noExcludes = Collections.emptyList();
+        EasyMock.expect(mMockPlanParser.getExcludedTests((String)EasyMock.anyObject()))
+                .andStubReturn(noExcludes);
     }
 
     /**
@@ -97,17 +117,219 @@ public class PlanTestTest extends TestCase {
         EasyMock.expect(mMockPlanParser.getTestUris()).andReturn(uris);
 
         IRemoteTest mockTest = EasyMock.createMock(IRemoteTest.class);
-        Collection<IRemoteTest> tests = new ArrayList<IRemoteTest>(1);
-        tests.add(mockTest);
-        EasyMock.expect(mMockRepo.getTests(uris)).andReturn(tests);
+        ITestPackageDef mockPackage = EasyMock.createMock(ITestPackageDef.class);
+        List<ITestPackageDef> packages = new ArrayList<ITestPackageDef>(1);
+        packages.add(mockPackage);
+        EasyMock.expect(mMockRepo.getTestPackages(uris)).andReturn(packages);
+        EasyMock.expect(mockPackage.getUri()).andStubReturn("test-uri");
+        EasyMock.expect(mockPackage.createTest((File)EasyMock.anyObject())).andReturn(mockTest);
 
         // expect
         mockTest.run((List<ITestInvocationListener>)EasyMock.anyObject());
 
         replayMocks();
-        EasyMock.replay(mockTest);
+        EasyMock.replay(mockTest, mockPackage);
+        mPlanTest.run(mMockListener);
+        verifyMocks();
+        EasyMock.verify(mockTest, mockPackage);
+    }
+
+    /**
+     * Test that a sharded {@link PlanTest#run(java.util.List)} only runs the packages of its
+     * shard.
+     */
+    @SuppressWarnings("unchecked")
+    public void testRun_shard() throws DeviceNotAvailableException, ParseException {
+        mMockPlanParser.parse((InputStream)EasyMock.anyObject());
+        Collection<String> uris = new ArrayList<String>(2);
+        uris.add("big-uri");
+        uris.add("small-uri");
+        EasyMock.expect(mMockPlanParser.getTestUris()).andReturn(uris);
+
+        ITestPackageDef bigPackage = createMockPackage("big-uri", 10);
+        ITestPackageDef smallPackage = createMockPackage("small-uri", 1);
+        List<ITestPackageDef> packages = new ArrayList<ITestPackageDef>(2);
+        packages.add(bigPackage);
+        packages.add(smallPackage);
+        EasyMock.expect(mMockRepo.getTestPackages(uris)).andReturn(packages);
+        IRemoteTest mockTest = EasyMock.createMock(IRemoteTest.class);
+        EasyMock.expect(smallPackage.createTest((File)EasyMock.anyObject())).andReturn(mockTest);
+        mockTest.run((List<ITestInvocationListener>)EasyMock.anyObject());
+
+        replayMocks();
+        EasyMock.replay(mockTest, bigPackage, smallPackage);
+        mPlanTest.setShard(1, 2);
         mPlanTest.run(mMockListener);
         verifyMocks();
+        EasyMock.verify(mockTest, bigPackage, smallPackage);
+    }
+
+    /**
+     * Test that the shards of a sharded run keep the split of the first shard, when that shard
+     * saved its package durations before the next shard started.
+     */
+    public void testRun_shardAfterDurationsSaved() throws Exception {
+        File testCaseDir = FileUtil.createTempDir("testcases");
+        try {
+            mPlanTest.setTestCaseDir(testCaseDir);
+            // without history, the package with more tests makes up shard 0
+            runShard(0, "big-uri");
+            File durationsFile = new File(testCaseDir, PlanTest.PACKAGE_DURATIONS_FILE_NAME);
+            Properties durations = new Properties();
+            InputStream input = new FileInputStream(durationsFile);
+            try {
+                durations.load(input);
+            } finally {
+                input.close();
+            }
+            assertNotNull(durations.getProperty("big-uri"));
+            // make sure the saved durations would put the big package into shard 1 if the
+            // plan was split again
+            durations.setProperty("big-uri", "0");
+            OutputStream output = new FileOutputStream(durationsFile);
+            try {
+                durations.store(output, null);
+            } finally {
+                output.close();
+            }
+
+            runShard(1, "small-uri");
+        } finally {
+            FileUtil.recursiveDelete(testCaseDir);
+        }
+    }
+
+    /**
+     * Runs a shard of a plan of two packages, and verifies that it runs the expected package.
+     */
+    @SuppressWarnings("unchecked")
+    private void runShard(int shardIndex, String expectedUri) throws Exception {
+        EasyMock.reset(mMockRepo, mMockPlanParser, mMockDevice, mMockListener);
+        expectStubs();
+        mMockPlanParser.parse((InputStream)EasyMock.anyObject());
+        Collection<String> uris = new ArrayList<String>(2);
+        uris.add("big-uri");
+        uris.add("small-uri");
+        EasyMock.expect(mMockPlanParser.getTestUris()).andReturn(uris);
+
+        ITestPackageDef bigPackage = createMockPackage("big-uri", 10);
+        ITestPackageDef smallPackage = createMockPackage("small-uri", 1);
+        List<ITestPackageDef> packages = new ArrayList<ITestPackageDef>(2);
+        packages.add(bigPackage);
+        packages.add(smallPackage);
+        EasyMock.expect(mMockRepo.getTestPackages(uris)).andReturn(packages);
+        IRemoteTest mockTest = EasyMock.createMock(IRemoteTest.class);
+        ITestPackageDef expectedPackage = "big-uri".equals(expectedUri) ? bigPackage
+                : smallPackage;
+        EasyMock.expect(expectedPackage.createTest((File)EasyMock.anyObject())).andReturn(
+                mockTest);
+        mockTest.run((List<ITestInvocationListener>)EasyMock.anyObject());
+
+        replayMocks();
+        EasyMock.replay(mockTest, bigPackage, smallPackage);
+        mPlanTest.setShard(shardIndex, 2);
+        mPlanTest.run(mMockListener);
+        verifyMocks();
+        EasyMock.verify(mockTest, bigPackage, smallPackage);
+    }
+
+    /**
+     * Test that a resumed {@link PlanTest#run(java.util.List)} skips completed packages, and
+     * only runs the remaining tests of a partly completed package.
+     */
+    @SuppressWarnings("unchecked")
+    public void testRun_resume() throws Exception {
+        File testCaseDir = FileUtil.createTempDir("testcases");
+        try {
+            PlanCheckpoint checkpoint = new PlanCheckpoint(new File(testCaseDir,
+                    PLAN_NAME + ".checkpoint"));
+            checkpoint.open();
+            checkpoint.runStarted("done-uri", "done");
+            checkpoint.testEnded("done-uri", new TestIdentifier("com.foo.FooTest", "test0"),
+                    null, null);
+            checkpoint.packageEnded("done-uri", 10);
+            checkpoint.runStarted("partial-uri", "partial");
+            checkpoint.testEnded("partial-uri", new TestIdentifier("com.foo.FooTest", "test0"),
+                    null, null);
+            checkpoint.close();
+
+            mMockPlanParser.parse((InputStream)EasyMock.anyObject());
+            Collection<String> uris = new ArrayList<String>(2);
+            uris.add("done-uri");
+            uris.add("partial-uri");
+            EasyMock.expect(mMockPlanParser.getTestUris()).andReturn(uris);
+            ITestPackageDef donePackage = createMockPackage("done-uri", 1);
+            ITestPackageDef partialPackage = createMockPackage("partial-uri", 2);
+            List<ITestPackageDef> packages = new ArrayList<ITestPackageDef>(2);
+            packages.add(donePackage);
+            packages.add(partialPackage);
+            EasyMock.expect(mMockRepo.getTestPackages(uris)).andReturn(packages);
+
+            IRemoteTest mockTest = EasyMock.createMock(IRemoteTest.class);
+            List<TestIdentifier> remainingTests = new ArrayList<TestIdentifier>(1);
+            remainingTests.add(new TestIdentifier("com.foo.FooTest", "test1"));
+            EasyMock.expect(partialPackage.createTest((File)EasyMock.anyObject(),
+                    EasyMock.eq(remainingTests))).andReturn(mockTest);
+            mockTest.run((List<ITestInvocationListener>)EasyMock.anyObject());
+
+            replayMocks();
+            EasyMock.replay(mockTest, donePackage, partialPackage);
+            mPlanTest.setTestCaseDir(testCaseDir);
+            mPlanTest.setResume(true);
+            mPlanTest.run(mMockListener);
+            verifyMocks();
+            EasyMock.verify(mockTest, donePackage, partialPackage);
+            // the checkpoint of a completed run is removed
+            assertFalse(new File(testCaseDir, PLAN_NAME + ".checkpoint").exists());
+        } finally {
+            FileUtil.recursiveDelete(testCaseDir);
+        }
+    }
+
+    /**
+     * Test that a {@link PlanTest#run(java.util.List)} with include and exclude patterns only
+     * runs the selected tests, and skips packages without any.
+     */
+    @SuppressWarnings("unchecked")
+    public void testRun_filter() throws DeviceNotAvailableException, ParseException {
+        mMockPlanParser.parse((InputStream)EasyMock.anyObject());
+        Collection<String> uris = new ArrayList<String>(2);
+        uris.add("foo-uri");
+        uris.add("bar-uri");
+        EasyMock.expect(mMockPlanParser.getTestUris()).andReturn(uris);
+        ITestPackageDef fooPackage = createMockPackage("foo-uri", 3);
+        ITestPackageDef barPackage = createMockPackage("bar-uri", 1);
+        List<ITestPackageDef> packages = new ArrayList<ITestPackageDef>(2);
+        packages.add(fooPackage);
+        packages.add(barPackage);
+        EasyMock.expect(mMockRepo.getTestPackages(uris)).andReturn(packages);
+
+        IRemoteTest mockTest = EasyMock.createMock(IRemoteTest.class);
+        List<TestIdentifier> selectedTests = new ArrayList<TestIdentifier>(1);
+        selectedTests.add(new TestIdentifier("com.foo.FooTest", "test1"));
+        EasyMock.expect(fooPackage.createTest((File)EasyMock.anyObject(),
+                EasyMock.eq(selectedTests))).andReturn(mockTest);
+        mockTest.run((List<ITestInvocationListener>)EasyMock.anyObject());
+
+        replayMocks();
+        EasyMock.replay(mockTest, fooPackage, barPackage);
+        mPlanTest.addInclude("foo-uri");
+        mPlanTest.addExclude("com.foo.FooTest#test0");
+        mPlanTest.addExclude("com.foo.FooTest#test2*");
+        mPlanTest.run(mMockListener);
+        verifyMocks();
+        EasyMock.verify(mockTest, fooPackage, barPackage);
+    }
+
+    private ITestPackageDef createMockPackage(String uri, int numTests) {
+        ITestPackageDef mockPackage = EasyMock.createMock(ITestPackageDef.class);
+        EasyMock.expect(mockPackage.getUri()).andStubReturn(uri);
+        Collection<TestIdentifier> tests = new ArrayList<TestIdentifier>(numTests);
+        for (int i = 0; i < numTests; i++) {
+            tests.add(new TestIdentifier("com.foo.FooTest", "test" + i));
+        }
+        EasyMock.expect(mockPackage.getTests()).andStubReturn(tests);
+        return mockPackage;
     }
 
     private void replayMocks() {
@@ -51,6 +51,23 @@ public class PlanXmlParserTest extends TestCase {
         assertEquals(TEST_URI2, iter.next());
     }
 
+    /**
+     * Test parsing the exclude list of a plan entry
+     */
+    public void testParse_exclude() throws ParseException  {
+        PlanXmlParser parser = new PlanXmlParser();
+        parser.parse(getStringAsStream("<TestPlan version=\"1.0\">" +
+                String.format("<Entry uri=\"%s\" exclude=\"%s\" />", TEST_URI1,
+                        "android.foo.FooTest;android.foo.BarTest#testBar") +
+                String.format("<Entry uri=\"%s\" />", TEST_URI2) +
+                "</TestPlan>"));
+        Iterator<String> iter = parser.getExcludedTests(TEST_URI1).iterator();
+        assertEquals("android.foo.FooTest", iter.next());
+        assertEquals("android.foo.BarTest#testBar", iter.next());
+        assertFalse(iter.hasNext());
+        assertTrue(parser.getExcludedTests(TEST_URI2).isEmpty());
+    }
+
     private InputStream getStringAsStream(String input) {
         return new ByteArrayInputStream(input.getBytes());
     }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ShardAssignment}.
+ */
+public class ShardAssignmentTest extends TestCase {
+
+    private File mFile;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("plan", ".shards");
+        mFile.delete();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        new File(mFile.getPath() + ".lock").delete();
+        super.tearDown();
+    }
+
+    /**
+     * Test that the shards of a run keep the split of the first shard, even if the durations
+     * changed in the meantime.
+     */
+    public void testGetShard_sameRun() throws IOException {
+        assertEquals(list("a"), new ShardAssignment(mFile).getShard(
+                createSharder(2, -1, -1), 0));
+        // the durations saved by shard 0 would now put b into shard 0
+        assertEquals(list("b"), new ShardAssignment(mFile).getShard(
+                createSharder(2, 0, -1), 1));
+    }
+
+    /**
+     * Test that a shard starting again after it completed splits the plan anew, and that the
+     * other shards then use the new split.
+     */
+    public void testGetShard_nextRun() throws IOException {
+        ShardAssignment assignment = new ShardAssignment(mFile);
+        assertEquals(list("a"), assignment.getShard(createSharder(2, -1, -1), 0));
+        assertEquals(list("b"), assignment.getShard(createSharder(2, -1, -1), 1));
+        assignment.shardCompleted(0);
+        assignment.shardCompleted(1);
+
+        assertEquals(list("a"), assignment.getShard(createSharder(2, 0, 1000), 1));
+        assertEquals(list("b"), assignment.getShard(createSharder(2, 1000, 0), 0));
+    }
+
+    /**
+     * Test that the split is still used if its lock file is already locked by this process.
+     */
+    public void testGetShard_locked() throws IOException {
+        RandomAccessFile lockFile = new RandomAccessFile(mFile.getPath() + ".lock", "rw");
+        try {
+            FileLock lock = lockFile.getChannel().lock();
+            assertEquals(list("a"), new ShardAssignment(mFile).getShard(
+                    createSharder(2, -1, -1), 0));
+            assertEquals(list("b"), new ShardAssignment(mFile).getShard(
+                    createSharder(2, 0, -1), 1));
+            lock.release();
+        } finally {
+            lockFile.close();
+        }
+    }
+
+    /**
+     * Test that the plan is split anew when its packages or the number of shards changed.
+     */
+    public void testGetShard_changedPlan() throws IOException {
+        ShardAssignment assignment = new ShardAssignment(mFile);
+        assertEquals(list("a"), assignment.getShard(createSharder(2, -1, -1), 0));
+
+        PlanSharder sharder = new PlanSharder(2);
+        sharder.addPackage("a", 10, 1000);
+        sharder.addPackage("b", 1, 100);
+        sharder.addPackage("c", 1, 2000);
+        assertEquals(list("a", "b"), assignment.getShard(sharder, 1));
+
+        assertEquals(list("a", "b"), assignment.getShard(createSharder(1, 0, 0), 0));
+    }
+
+    /**
+     * Creates a {@link PlanSharder} for packages a, with 10 tests, and b, with 1 test.
+     */
+    private static PlanSharder createSharder(int shardCount, long durationA, long durationB) {
+        PlanSharder sharder = new PlanSharder(shardCount);
+        sharder.addPackage("a", 10, durationA);
+        sharder.addPackage("b", 1, durationB);
+        return sharder;
+    }
+
+    private static List<String> list(String... uris) {
+        List<String> list = new ArrayList<String>();
+        for (String uri : uris) {
+            list.add(uri);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link TestCaseRepo}.
+ */
+public class TestCaseRepoTest extends TestCase {
+
+    private static final String TEST_DATA_FORMAT =
+        "<TestPackage appNameSpace=\"com.example\" appPackageName=\"%s\" " +
+        "name=\"CtsExampleTestCases\" runner=\"android.test.InstrumentationTestRunner\" />";
+
+    private File mTestCaseDir;
+    /** the files the repo under test parsed */
+    private List<String> mParsedFiles;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTestCaseDir = FileUtil.createTempDir("testcases");
+        mParsedFiles = new ArrayList<String>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTestCaseDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test that only the definitions that are asked for are parsed in full.
+     */
+    public void testGetTestPackage_lazy() throws IOException {
+        writeTestCase("Foo.xml", "android.foo");
+        writeTestCase("Bar.xml", "android.bar");
+
+        TestCaseRepo repo = createRepo();
+        ITestPackageDef def = repo.getTestPackage("android.foo");
+        assertEquals("android.foo", def.getUri());
+        assertNull(repo.getTestPackage("android.missing"));
+        // reading the uris of the index does not go through the full parser
+        assertEquals(1, mParsedFiles.size());
+        assertTrue(mParsedFiles.get(0).endsWith("Foo.xml"));
+
+        // the parsed definition is reused
+        assertSame(def, repo.getTestPackage("android.foo"));
+        assertEquals(1, mParsedFiles.size());
+    }
+
+    /**
+     * Test that definitions are returned in the order of the uris, also when parsed in
+     * parallel.
+     */
+    public void testGetTestPackages() throws IOException {
+        Collection<String> uris = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            writeTestCase(String.format("Test%d.xml", i), "android.test" + i);
+            uris.add("android.test" + (9 - i));
+        }
+        uris.add("android.missing");
+
+        List<ITestPackageDef> defs = createRepo().getTestPackages(uris);
+        assertEquals(10, defs.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("android.test" + (9 - i), defs.get(i).getUri());
+        }
+    }
+
+    /**
+     * Test that the index is saved, and that entries of changed files are updated.
+     */
+    public void testIndex_invalidate() throws IOException {
+        File fooFile = writeTestCase("Foo.xml", "android.foo");
+        writeTestCase("Bar.xml", "android.bar");
+        assertNotNull(createRepo().getTestPackage("android.foo"));
+        assertTrue(new File(mTestCaseDir, TestCaseRepo.INDEX_FILE_NAME).exists());
+
+        // a changed file is indexed again by the next repo
+        writeTestCase("Foo.xml", "android.foo2");
+        fooFile.setLastModified(fooFile.lastModified() - 10000);
+        TestCaseRepo repo = createRepo();
+        assertNull(repo.getTestPackage("android.foo"));
+        assertEquals("android.foo2", repo.getTestPackage("android.foo2").getUri());
+        assertEquals("android.bar", repo.getTestPackage("android.bar").getUri());
+    }
+
+    private TestCaseRepo createRepo() {
+        return new TestCaseRepo(mTestCaseDir) {
+            @Override
+            InputStream createStreamFromFile(File xmlFile) throws FileNotFoundException {
+                synchronized (mParsedFiles) {
+                    mParsedFiles.add(xmlFile.getName());
+                }
+                return super.createStreamFromFile(xmlFile);
+            }
+        };
+    }
+
+    private File writeTestCase(String fileName, String uri) throws IOException {
+        File file = new File(mTestCaseDir, fileName);
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(String.format(TEST_DATA_FORMAT, uri));
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}